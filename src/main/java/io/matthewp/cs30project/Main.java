@@ -1,14 +1,21 @@
 package io.matthewp.cs30project;
 
+import io.matthewp.cs30project.math.ExpressionCache;
 import io.matthewp.cs30project.providers.ConsoleProvider;
 import io.matthewp.cs30project.providers.InputProvider;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Main
  *
  * Handles the starting and initialization of project components.
  */
 public final class Main {
+    // CACHE_PROPERTY names the system property with the file the expression cache is kept in between restarts.
+    private static final String CACHE_PROPERTY = "cs30project.cache";
 
     /**
      * void main(final String[])
@@ -19,6 +26,12 @@ public final class Main {
      */
     //@SneakyThrows(IOException.class)
     public static void main(final String[] args) {
+        // Start with the cache of the last run, if there is one.
+        final String cache = System.getProperty(CACHE_PROPERTY);
+        if(cache != null) {
+            Main.persistCache(Paths.get(cache));
+        }
+
         final InputProvider provider = new ConsoleProvider();
         //final InputProvider provider = new RedisProvider(new RedisCredentials("sea1.stacktrace.fun", 6379, ""));
         provider.start();
@@ -33,4 +46,28 @@ public final class Main {
 
         System.exit(0);
     }
+
+    /**
+     * void persistCache(Path)
+     *
+     * Loads the shared expression cache from a file and saves it back when the application stops, including when
+     * it is stopped by a signal. A file that can't be used only costs a cold start.
+     *
+     * @param file Cache file
+     */
+    private static void persistCache(final Path file) {
+        try {
+            System.out.println("Loaded " + ExpressionCache.SHARED.load(file) + " cached expressions from " + file + ".");
+        } catch(final IOException ex) {
+            System.out.println("Failed to load the expression cache: " + ex.getMessage());
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                ExpressionCache.SHARED.save(file);
+            } catch(final IOException ex) {
+                System.out.println("Failed to save the expression cache: " + ex.getMessage());
+            }
+        }, "ExpressionCache-save"));
+    }
 }
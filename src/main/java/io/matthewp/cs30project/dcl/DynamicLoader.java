@@ -1,5 +1,7 @@
 package io.matthewp.cs30project.dcl;
 
+import io.matthewp.cs30project.math.NumberScanner;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
@@ -27,6 +29,7 @@ public final class DynamicLoader {
     @Getter private final File file;
     @Getter private DynamicSection root;
     @Getter private Map<String, DynamicSection> sections;
+    @Getter(AccessLevel.PRIVATE) private final NumberScanner scanner;
 
     /**
      * DynamicLoader(File)
@@ -40,6 +43,7 @@ public final class DynamicLoader {
         this.file = file;
         this.root = new DynamicSection("");
         this.sections = new LinkedHashMap<>();
+        this.scanner = new NumberScanner();
 
         // currentSection stores the section we are currently adding values to.
         DynamicSection currentSection = this.root;
@@ -263,12 +267,13 @@ public final class DynamicLoader {
             return new DynamicValue(Boolean.valueOf(input), DynamicValue.ValueType.BOOLEAN, lineNumber);
         }
 
-        if(DynamicUtils.isInteger(input)) {
-            return new DynamicValue(Integer.valueOf(input), DynamicValue.ValueType.INTEGER, lineNumber);
-        }
+        // Scan the input once, the scanner knows both its type and its value.
+        if(this.getScanner().parse(input)) {
+            if(this.getScanner().isInt()) {
+                return new DynamicValue(this.getScanner().toInt(), DynamicValue.ValueType.INTEGER, lineNumber);
+            }
 
-        if(DynamicUtils.isDouble(input)) {
-            return new DynamicValue(Double.valueOf(input), DynamicValue.ValueType.DOUBLE, lineNumber);
+            return new DynamicValue(this.getScanner().toDouble(), DynamicValue.ValueType.DOUBLE, lineNumber);
         }
 
         return new DynamicValue(input, DynamicValue.ValueType.STRING, lineNumber);
@@ -1,5 +1,6 @@
 package io.matthewp.cs30project.dcl;
 
+import io.matthewp.cs30project.math.NumberScanner;
 import lombok.NonNull;
 
 import java.io.File;
@@ -41,12 +42,8 @@ class DynamicUtils {
      * @return True if input is an integer, otherwise false.
      */
     public static boolean isInteger(@NonNull final String input) {
-        try {
-            Integer.parseInt(input);
-            return true;
-        } catch(NumberFormatException ignored) { }
-
-        return false;
+        final NumberScanner scanner = new NumberScanner();
+        return scanner.parse(input) && scanner.isInt();
     }
 
     /**
@@ -58,12 +55,7 @@ class DynamicUtils {
      * @return True if input is an double, otherwise false.
      */
     public static boolean isDouble(@NonNull final String input) {
-        try {
-            Double.parseDouble(input);
-            return true;
-        } catch(NumberFormatException ignored) { }
-
-        return false;
+        return new NumberScanner().parse(input);
     }
 
     /**
@@ -0,0 +1,50 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+
+/**
+ * Aggregate
+ *
+ * Range aggregates, Ex: "sum(i, 1, 100, i^2)" adds up "i^2" for every integer i from 1 to 100.
+ *
+ * Aggregates aren't functions, the first argument names an index that only exists inside the last argument,
+ * so they are parsed by the {@link Parser} itself and their names can't be registered as functions.
+ */
+enum Aggregate {
+    SUM("sum"),
+    PROD("prod"),
+    MIN("min"),
+    MAX("max");
+
+    // VALUES caches values() so looking a name up doesn't copy the array.
+    private static final Aggregate[] VALUES = Aggregate.values();
+
+    @Getter private final String name;
+
+    /**
+     * Aggregate(String)
+     *
+     * @param name Aggregate name used in expressions
+     */
+    Aggregate(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Aggregate lookup(CharSequence, int, int)
+     *
+     * @param input Characters that contain the name
+     * @param start Position of the first character of the name
+     * @param end Position after the last character of the name
+     * @return Aggregate with that name, or null if there is none
+     */
+    static Aggregate lookup(final CharSequence input, final int start, final int end) {
+        for(final Aggregate aggregate : VALUES) {
+            if(Lexer.matches(input, start, end, aggregate.getName())) {
+                return aggregate;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,411 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * AggregateNode
+ *
+ * Expression tree node for a range aggregate, Ex: "sum(i, 1, 10000000, i^2)". The body is evaluated once for every
+ * integer index from the first bound to the last bound (inclusive) and the results are combined.
+ *
+ * The range is split in half until every part has at most {@link #LEAF} indexes, ranges of at least {@link #PARALLEL}
+ * indexes evaluate their parts in parallel on the fork-join pool. The split only depends on the range, so the
+ * parts are always combined in the same order and the result never depends on the number of cores.
+ *
+ * Sums are added up exactly and rounded once at the end, products are rounded after every multiplication like
+ * every other operation.
+ */
+final class AggregateNode extends Node {
+    // LEAF is the most indexes a single task evaluates in a loop.
+    static final long LEAF = 1024;
+    // PARALLEL is the smallest range whose parts are evaluated in parallel.
+    static final long PARALLEL = 8 * LEAF;
+
+    @Getter private final Aggregate aggregate;
+    @Getter private final String index;
+    @Getter private final int slot;
+    @Getter private final Node from;
+    @Getter private final Node to;
+    @Getter private final Node body;
+    @Getter private final boolean deep;
+    @Getter private final int position;
+
+    /**
+     * AggregateNode(Aggregate, String, int, Node, Node, Node, boolean, int)
+     *
+     * Creates a new {@link AggregateNode} object.
+     *
+     * @param aggregate Aggregate
+     * @param index Name of the index
+     * @param slot Variable slot of the index, after every declared variable
+     * @param from First index
+     * @param to Last index
+     * @param body Expression evaluated for every index
+     * @param deep True if the body is too deep to evaluate recursively
+     * @param position Position of the aggregate name in the input
+     */
+    AggregateNode(@NonNull final Aggregate aggregate, @NonNull final String index, final int slot, @NonNull final Node from,
+                  @NonNull final Node to, @NonNull final Node body, final boolean deep, final int position) {
+        super(Precision.DECIMAL, Double.POSITIVE_INFINITY);
+
+        this.aggregate = aggregate;
+        this.index = index;
+        this.slot = slot;
+        this.from = from;
+        this.to = to;
+        this.body = body;
+        this.deep = deep;
+        this.position = position;
+    }
+
+    /**
+     * AggregateNode with(Node, Node, Node)
+     *
+     * @param from First index
+     * @param to Last index
+     * @param body Expression evaluated for every index
+     * @return Copy of this aggregate with different children
+     */
+    AggregateNode with(@NonNull final Node from, @NonNull final Node to, @NonNull final Node body) {
+        return new AggregateNode(this.getAggregate(), this.getIndex(), this.getSlot(), from, to, body, this.isDeep(), this.getPosition());
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Aggregate result
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        return this.apply(this.getFrom().evaluate(scope), this.getTo().evaluate(scope), scope, null, null);
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal, BigDecimal, Scope, Meter, Profiler)
+     *
+     * Evaluates the aggregate over bounds that have already been evaluated.
+     *
+     * @param from First index
+     * @param to Last index
+     * @param scope Evaluation scope
+     * @param meter Meter of a budgeted evaluation, every task meters the body with a fork of it, or null
+     * @param profiler Profiler every evaluation of the body reports to, or null
+     * @return Aggregate result
+     */
+    BigDecimal apply(final BigDecimal from, final BigDecimal to, final Scope scope, final Meter meter, final Profiler profiler) {
+        final long first = this.bound(from);
+        final long last = this.bound(to);
+
+        // An empty range has no smallest or largest value.
+        if(last < first) {
+            switch(this.getAggregate()) {
+                case SUM:
+                    return BigDecimal.ZERO;
+                case PROD:
+                    return BigDecimal.ONE;
+                default:
+                    throw new ArithmeticException("Empty range in \"" + this.getAggregate().getName() + "\" at position " + this.getPosition() + ".");
+            }
+        }
+
+        final RangeTask task = this.run(new RangeTask(this, scope, first, last, meter, profiler));
+
+        // Sums are exact until the very end.
+        if(this.getAggregate() == Aggregate.SUM && scope.getContext() != null) {
+            return task.getValue().round(scope.getContext());
+        }
+
+        return task.getValue();
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Aggregate result
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return this.applyDouble(this.getFrom().evaluateDouble(scope), this.getTo().evaluateDouble(scope), scope);
+    }
+
+    /**
+     * double applyDouble(double, double, Scope)
+     *
+     * Evaluates the aggregate on doubles over bounds that have already been evaluated.
+     *
+     * @param from First index
+     * @param to Last index
+     * @param scope Approximate evaluation scope
+     * @return Aggregate result, NaN if a bound isn't an integer or the range of a minimum or maximum is empty
+     */
+    double applyDouble(final double from, final double to, final Scope scope) {
+        // Approximate evaluations never throw, bounds that aren't integers have no result.
+        if(from != Math.rint(from) || to != Math.rint(to) || Math.abs(from) >= Long.MAX_VALUE || Math.abs(to) >= Long.MAX_VALUE) {
+            return Double.NaN;
+        }
+
+        final long first = (long) from;
+        final long last = (long) to;
+
+        if(last < first) {
+            return this.getAggregate() == Aggregate.SUM ? 0 : this.getAggregate() == Aggregate.PROD ? 1 : Double.NaN;
+        }
+
+        return this.run(new RangeTask(this, scope, first, last, null, null)).getDoubleValue();
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * Every row has its own range, so rows are evaluated one at a time.
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        final double[] from = scope.acquire();
+        final double[] to = scope.acquire();
+        final double[][] columns = new double[scope.getVariables()][];
+
+        this.getFrom().evaluateColumn(scope, from);
+        this.getTo().evaluateColumn(scope, to);
+
+        // Copy the block of every variable column so a row can be bound to a scope.
+        for(int slot = 0; slot < columns.length; slot++) {
+            columns[slot] = scope.acquire();
+            scope.column(slot, columns[slot]);
+        }
+
+        final double[] row = new double[columns.length];
+        final Scope rowScope = new Scope(row, scope.getShared());
+        for(int i = 0; i < scope.getLength(); i++) {
+            for(int slot = 0; slot < columns.length; slot++) {
+                row[slot] = columns[slot][i];
+            }
+
+            target[i] = this.applyDouble(from[i], to[i], rowScope);
+        }
+
+        for(int slot = 0; slot < columns.length + 2; slot++) {
+            scope.release();
+        }
+    }
+
+    /**
+     * long bound(BigDecimal)
+     *
+     * @param value Evaluated bound
+     * @return Bound as a long
+     * @throws ArithmeticException if the bound isn't an integer that fits in a long
+     */
+    private long bound(final BigDecimal value) {
+        try {
+            return value.longValueExact();
+        } catch(final ArithmeticException ex) {
+            throw new ArithmeticException("Bounds of \"" + this.getAggregate().getName() + "\" at position " + this.getPosition() + " must be integers.");
+        }
+    }
+
+    /**
+     * RangeTask run(RangeTask)
+     *
+     * @param task Task covering the whole range
+     * @return The task, after it has been computed
+     */
+    private RangeTask run(final RangeTask task) {
+        try {
+            // Small ranges and tasks that are already on the pool don't need to be submitted.
+            if(task.getCount() < PARALLEL || ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                ForkJoinPool.commonPool().invoke(task);
+            }
+        } catch(final RuntimeException ex) {
+            throw Node.original(ex);
+        }
+
+        return task;
+    }
+
+    /**
+     * BigDecimal combine(BigDecimal, BigDecimal, Scope)
+     *
+     * @param left Result of the lower indexes, or null if there are none
+     * @param right Result of the higher indexes
+     * @param scope Evaluation scope
+     * @return Combined result
+     */
+    private BigDecimal combine(final BigDecimal left, final BigDecimal right, final Scope scope) {
+        if(left == null) {
+            return right;
+        }
+
+        switch(this.getAggregate()) {
+            case SUM:
+                return left.add(right);
+            case PROD:
+                return scope.getContext() == null ? left.multiply(right) : left.multiply(right, scope.getContext());
+            case MIN:
+                // Ties keep the first value, so its scale doesn't depend on the split.
+                return right.compareTo(left) < 0 ? right : left;
+            case MAX:
+                return right.compareTo(left) > 0 ? right : left;
+            default:
+                throw new IllegalStateException("Unknown aggregate " + this.getAggregate() + ".");
+        }
+    }
+
+    /**
+     * double combine(double, double)
+     *
+     * @param left Result of the lower indexes
+     * @param right Result of the higher indexes
+     * @return Combined result
+     */
+    private double combine(final double left, final double right) {
+        switch(this.getAggregate()) {
+            case SUM:
+                return left + right;
+            case PROD:
+                return left * right;
+            case MIN:
+                return Math.min(left, right);
+            case MAX:
+                return Math.max(left, right);
+            default:
+                throw new IllegalStateException("Unknown aggregate " + this.getAggregate() + ".");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getAggregate().getName() + "(" + this.getIndex() + ", " + this.getFrom() + ", " + this.getTo() + ", " + this.getBody() + ")";
+    }
+
+    /**
+     * RangeTask
+     *
+     * Evaluates the body for a range of indexes, splitting the range in half until it is at most {@link #LEAF} long.
+     */
+    private static final class RangeTask extends RecursiveAction {
+        // serialVersionUID is required of every ForkJoinTask, a range is never serialized.
+        private static final long serialVersionUID = 1L;
+
+        @Getter(AccessLevel.PRIVATE) private final AggregateNode node;
+        @Getter(AccessLevel.PRIVATE) private final Scope scope;
+        @Getter(AccessLevel.PRIVATE) private final long first;
+        @Getter(AccessLevel.PRIVATE) private final long last;
+        @Getter(AccessLevel.PRIVATE) private final Meter meter;
+        @Getter(AccessLevel.PRIVATE) private final Profiler profiler;
+        @Getter(AccessLevel.PRIVATE) private BigDecimal value;
+        @Getter(AccessLevel.PRIVATE) private double doubleValue;
+
+        /**
+         * RangeTask(AggregateNode, Scope, long, long, Meter, Profiler)
+         *
+         * @param node Aggregate being evaluated
+         * @param scope Scope the aggregate is evaluated in, never modified
+         * @param first First index of this task
+         * @param last Last index of this task
+         * @param meter Meter of a budgeted evaluation, or null
+         * @param profiler Profiler of a profiled evaluation, or null
+         */
+        private RangeTask(final AggregateNode node, final Scope scope, final long first, final long last, final Meter meter, final Profiler profiler) {
+            this.node = node;
+            this.scope = scope;
+            this.first = first;
+            this.last = last;
+            this.meter = meter;
+            this.profiler = profiler;
+        }
+
+        /**
+         * long getCount()
+         *
+         * @return Number of indexes in the range, saturated at Long.MAX_VALUE
+         */
+        private long getCount() {
+            final long count = this.getLast() - this.getFirst() + 1;
+            return count > 0 ? count : Long.MAX_VALUE;
+        }
+
+        @Override
+        protected void compute() {
+            final AggregateNode node = this.getNode();
+
+            // Check if the range is small enough to evaluate in a loop.
+            if(this.getCount() <= LEAF) {
+                this.loop();
+                return;
+            }
+
+            // Split on a multiple of LEAF so every part but the last one is full.
+            final long middle = this.getFirst() + ((this.getCount() / LEAF + 1) / 2) * LEAF;
+            final RangeTask left = new RangeTask(node, this.getScope(), this.getFirst(), middle - 1, this.getMeter(), this.getProfiler());
+            final RangeTask right = new RangeTask(node, this.getScope(), middle, this.getLast(), this.getMeter(), this.getProfiler());
+
+            if(this.getCount() >= PARALLEL) {
+                RecursiveAction.invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+
+            if(this.getScope().isApproximate()) {
+                this.doubleValue = node.combine(left.getDoubleValue(), right.getDoubleValue());
+            } else {
+                this.value = node.combine(left.getValue(), right.getValue(), this.getScope());
+            }
+        }
+
+        /**
+         * void loop()
+         *
+         * Evaluates the body for every index of the range, in order.
+         */
+        private void loop() {
+            final AggregateNode node = this.getNode();
+            final Scope scope = this.getScope().extend(node.getSlot());
+            final boolean approximate = scope.isApproximate();
+            final Meter meter = this.getMeter() == null ? null : this.getMeter().fork();
+            BigDecimal value = null;
+            double doubleValue = 0;
+
+            for(long index = this.getFirst(); index <= this.getLast(); index++) {
+                scope.bind(node.getSlot(), index);
+
+                if(approximate) {
+                    final double result = node.isDeep() ? StackEvaluator.evaluateDouble(node.getBody(), scope) : node.getBody().evaluateDouble(scope);
+                    doubleValue = index == this.getFirst() ? result : node.combine(doubleValue, result);
+                } else {
+                    // Metered and profiled bodies go through the stack evaluator so every node of the body is checked or timed.
+                    final boolean stack = node.isDeep() || meter != null || this.getProfiler() != null;
+                    value = node.combine(value, stack ? StackEvaluator.evaluate(node.getBody(), scope, meter, this.getProfiler()) : node.getBody().evaluate(scope), scope);
+                }
+
+                // Budgeted evaluations stop as soon as they run out of time, even if the body has nothing to meter.
+                if(meter != null) {
+                    meter.deadline();
+                }
+
+                // The last index may be Long.MAX_VALUE.
+                if(index == Long.MAX_VALUE) {
+                    break;
+                }
+            }
+
+            this.value = value;
+            this.doubleValue = doubleValue;
+        }
+    }
+}
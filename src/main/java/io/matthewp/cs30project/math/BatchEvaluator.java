@@ -0,0 +1,262 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BatchEvaluator
+ *
+ * Evaluates many inputs at once across a {@link ForkJoinPool}, results come back in the same order as the inputs
+ * and an input that fails is recorded in its {@link BatchResult} instead of stopping the batch.
+ *
+ * Work is split adaptively: the inputs are first cut into chunks of {@link #CHUNK} by count, then every chunk
+ * estimates the cost of its inputs and keeps splitting by cost. Chunks of small expressions run as a single task,
+ * while expensive inputs (large fib indexes, long and deeply nested expressions) end up in tasks of their own
+ * that other workers can steal.
+ */
+public final class BatchEvaluator {
+    // CHUNK is the number of inputs a task estimates costs for before it splits by cost.
+    private static final int CHUNK = 1024;
+    // LEAF_COST is the estimated cost a single task evaluates without splitting further, about a few hundred short inputs.
+    private static final long LEAF_COST = 8192;
+    // FIB_COST is the estimated cost of every fibonacci index, computing fib(n) takes time roughly proportional to n.
+    private static final long FIB_COST = 2;
+
+    /**
+     * BatchEvaluator()
+     *
+     * Utility class, should not be instantiated.
+     */
+    private BatchEvaluator() {
+    }
+
+    /**
+     * List evaluate(List)
+     *
+     * Evaluates every input on the common {@link ForkJoinPool}.
+     *
+     * @param inputs Expression inputs
+     * @return One result per input, in the same order
+     */
+    public static List<BatchResult> evaluate(@NonNull final List<String> inputs) {
+        return BatchEvaluator.evaluate(inputs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * List evaluate(Stream)
+     *
+     * Evaluates every input of an ordered stream on the common {@link ForkJoinPool}.
+     *
+     * @param inputs Expression inputs
+     * @return One result per input, in encounter order
+     */
+    public static List<BatchResult> evaluate(@NonNull final Stream<String> inputs) {
+        return BatchEvaluator.evaluate(inputs.collect(Collectors.toList()), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * List evaluate(List, ForkJoinPool)
+     *
+     * Evaluates every input on the specified pool.
+     *
+     * @param inputs Expression inputs
+     * @param pool Pool to run the batch on
+     * @return One result per input, in the same order
+     */
+    public static List<BatchResult> evaluate(@NonNull final List<String> inputs, @NonNull final ForkJoinPool pool) {
+        // Random access is needed to split the inputs, copy anything else.
+        final List<String> indexed = inputs instanceof RandomAccess ? inputs : new ArrayList<>(inputs);
+        final BatchResult[] results = new BatchResult[indexed.size()];
+
+        if(results.length > 0) {
+            pool.invoke(new ChunkTask(indexed, results, 0, results.length));
+        }
+
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * BatchResult evaluate(String)
+     *
+     * Evaluates a single input, capturing any error it throws.
+     *
+     * @param input Expression input
+     * @return Result of the input
+     */
+    static BatchResult evaluate(final String input) {
+        // A missing input is an error of that item, not of the batch.
+        if(input == null) {
+            return new BatchResult("null", null, new NullPointerException("Input is null."));
+        }
+
+        try {
+            return new BatchResult(input, new Expression(input).result(), null);
+        } catch(final RuntimeException ex) {
+            return new BatchResult(input, null, ex);
+        } catch(final StackOverflowError ex) {
+            // Don't let a single deeply nested input take the whole batch down.
+            return new BatchResult(input, null, new RuntimeException("Expression is nested too deeply.", ex));
+        }
+    }
+
+    /**
+     * long cost(String)
+     *
+     * Estimates how expensive an input is to evaluate without parsing it, every character costs 1 and every
+     * fib call with a literal index costs proportionally to the index.
+     *
+     * @param input Expression input
+     * @return Estimated cost
+     */
+    static long cost(final String input) {
+        if(input == null) {
+            return 1;
+        }
+
+        final int length = input.length();
+        long cost = length;
+
+        for(int i = input.indexOf("fib"); i >= 0; i = input.indexOf("fib", i + 3)) {
+            long index = 0;
+
+            // Read the literal index, skipping the bracket and spaces.
+            for(int j = i + 3; j < length && index < Integer.MAX_VALUE; j++) {
+                final char character = input.charAt(j);
+
+                if(Lexer.isDigit(character)) {
+                    index = index * 10 + (character - '0');
+                } else if(character != '(' && character != ' ') {
+                    break;
+                }
+            }
+
+            cost += Math.min(index, Integer.MAX_VALUE) * FIB_COST;
+        }
+
+        return cost;
+    }
+
+    /**
+     * ChunkTask
+     *
+     * Splits a range of inputs by count until it is at most {@link #CHUNK} long, then hands it to a {@link CostTask}.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        // serialVersionUID is required of every ForkJoinTask, tasks are never serialized.
+        private static final long serialVersionUID = 1L;
+
+        @Getter(AccessLevel.PRIVATE) private final List<String> inputs;
+        @Getter(AccessLevel.PRIVATE) private final BatchResult[] results;
+        @Getter(AccessLevel.PRIVATE) private final int start;
+        @Getter(AccessLevel.PRIVATE) private final int end;
+
+        /**
+         * ChunkTask(List, BatchResult[], int, int)
+         *
+         * @param inputs Every input of the batch
+         * @param results Every result of the batch
+         * @param start Index of the first input of this task
+         * @param end Index after the last input of this task
+         */
+        private ChunkTask(final List<String> inputs, final BatchResult[] results, final int start, final int end) {
+            this.inputs = inputs;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            // Check if the range is small enough to look at the inputs.
+            if(this.getEnd() - this.getStart() <= CHUNK) {
+                final long[] costs = new long[this.getEnd() - this.getStart() + 1];
+
+                // costs[i] is the total cost of every input before start + i.
+                for(int i = this.getStart(); i < this.getEnd(); i++) {
+                    costs[i - this.getStart() + 1] = costs[i - this.getStart()] + BatchEvaluator.cost(this.getInputs().get(i));
+                }
+
+                new CostTask(this.getInputs(), this.getResults(), costs, this.getStart(), this.getStart(), this.getEnd()).compute();
+                return;
+            }
+
+            final int middle = (this.getStart() + this.getEnd()) >>> 1;
+            RecursiveAction.invokeAll(
+                    new ChunkTask(this.getInputs(), this.getResults(), this.getStart(), middle),
+                    new ChunkTask(this.getInputs(), this.getResults(), middle, this.getEnd()));
+        }
+    }
+
+    /**
+     * CostTask
+     *
+     * Splits a range of inputs in half by estimated cost until it is cheap enough or a single input, then evaluates it.
+     */
+    private static final class CostTask extends RecursiveAction {
+        // serialVersionUID is required of every ForkJoinTask, tasks are never serialized.
+        private static final long serialVersionUID = 1L;
+
+        @Getter(AccessLevel.PRIVATE) private final List<String> inputs;
+        @Getter(AccessLevel.PRIVATE) private final BatchResult[] results;
+        @Getter(AccessLevel.PRIVATE) private final long[] costs;
+        @Getter(AccessLevel.PRIVATE) private final int offset;
+        @Getter(AccessLevel.PRIVATE) private final int start;
+        @Getter(AccessLevel.PRIVATE) private final int end;
+
+        /**
+         * CostTask(List, BatchResult[], long[], int, int, int)
+         *
+         * @param inputs Every input of the batch
+         * @param results Every result of the batch
+         * @param costs Running cost totals of the chunk this task belongs to
+         * @param offset Index of the first input of the chunk
+         * @param start Index of the first input of this task
+         * @param end Index after the last input of this task
+         */
+        private CostTask(final List<String> inputs, final BatchResult[] results, final long[] costs, final int offset, final int start, final int end) {
+            this.inputs = inputs;
+            this.results = results;
+            this.costs = costs;
+            this.offset = offset;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            final long[] costs = this.getCosts();
+            final int first = this.getStart() - this.getOffset();
+            final int last = this.getEnd() - this.getOffset();
+
+            // Evaluate the range if it's cheap enough or can't be split anymore.
+            if(last - first == 1 || costs[last] - costs[first] <= LEAF_COST) {
+                for(int i = this.getStart(); i < this.getEnd(); i++) {
+                    this.getResults()[i] = BatchEvaluator.evaluate(this.getInputs().get(i));
+                }
+
+                return;
+            }
+
+            // Find the split that halves the cost, keeping at least one input on each side.
+            final long half = (costs[first] + costs[last]) >>> 1;
+            int split = Arrays.binarySearch(costs, first + 1, last, half);
+            split = split >= 0 ? split : -split - 1;
+            split = Math.max(first + 1, Math.min(last - 1, split));
+
+            RecursiveAction.invokeAll(
+                    new CostTask(this.getInputs(), this.getResults(), costs, this.getOffset(), this.getStart(), this.getOffset() + split),
+                    new CostTask(this.getInputs(), this.getResults(), costs, this.getOffset(), this.getOffset() + split, this.getEnd()));
+        }
+    }
+}
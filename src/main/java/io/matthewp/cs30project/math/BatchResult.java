@@ -0,0 +1,60 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * BatchResult
+ *
+ * Outcome of a single input evaluated by the {@link BatchEvaluator}, either a value or the error the input caused.
+ */
+public final class BatchResult {
+    @Getter private final String input;
+    @Getter private final BigDecimal value;
+    @Getter private final RuntimeException error;
+
+    /**
+     * BatchResult(String, BigDecimal, RuntimeException)
+     *
+     * Creates a new {@link BatchResult} object, exactly one of value and error is set.
+     *
+     * @param input Expression input
+     * @param value Expression result, or null if the input failed
+     * @param error Error thrown by the input, or null if it succeeded
+     */
+    BatchResult(@NonNull final String input, final BigDecimal value, final RuntimeException error) {
+        this.input = input;
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * boolean isSuccess()
+     *
+     * @return True if the input produced a value, otherwise false.
+     */
+    public boolean isSuccess() {
+        return this.getError() == null;
+    }
+
+    /**
+     * BigDecimal get()
+     *
+     * @return Expression result
+     * @throws RuntimeException the error the input caused, if it failed
+     */
+    public BigDecimal get() {
+        if(this.getError() != null) {
+            throw this.getError();
+        }
+
+        return this.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return this.getInput() + " = " + (this.isSuccess() ? this.getValue().toString() : this.getError().getMessage());
+    }
+}
@@ -0,0 +1,445 @@
+package io.matthewp.cs30project.math;
+
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BigDecimalMath
+ *
+ * Native BigDecimal implementations of the functions {@link Expression} supports, used when an expression is
+ * compiled with a {@link MathContext}. Every function only computes as many digits as the context asks for
+ * (plus a few guard digits) and rounds its result to the context.
+ */
+final class BigDecimalMath {
+    // GUARD is the number of extra digits used internally so the rounded result is correct.
+    private static final int GUARD = 10;
+    // TWO and THREE are used by the Newton iterations.
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal THREE = BigDecimal.valueOf(3);
+    // HALF is used by round().
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    // PI stores the most precise value of pi computed so far.
+    private static final AtomicReference<BigDecimal> PI = new AtomicReference<>(BigDecimal.ZERO);
+
+    /**
+     * BigDecimalMath()
+     *
+     * Utility class, should not be instantiated.
+     */
+    private BigDecimalMath() {
+    }
+
+    /**
+     * BigDecimal function(String, BigDecimal, MathContext)
+     *
+     * Dispatches one of the built in functions.
+     *
+     * @param name Function name
+     * @param x Function argument
+     * @param context Precision of the result
+     * @return Function result
+     */
+    static BigDecimal function(@NonNull final String name, @NonNull final BigDecimal x, @NonNull final MathContext context) {
+        switch(name) {
+            case "round":
+                return x.add(HALF).setScale(0, RoundingMode.FLOOR);
+            case "ceil":
+                return x.setScale(0, RoundingMode.CEILING);
+            case "floor":
+                return x.setScale(0, RoundingMode.FLOOR);
+            case "sqrt":
+                return BigDecimalMath.sqrt(x, BigDecimalMath.limited(name, context));
+            case "cbrt":
+                return BigDecimalMath.cbrt(x, BigDecimalMath.limited(name, context));
+            case "sin":
+                return BigDecimalMath.sin(x, BigDecimalMath.limited(name, context));
+            case "cos":
+                return BigDecimalMath.cos(x, BigDecimalMath.limited(name, context));
+            case "tan":
+                return BigDecimalMath.tan(x, BigDecimalMath.limited(name, context));
+            default:
+                throw new RuntimeException("Invalid function \"" + name + "\".");
+        }
+    }
+
+    /**
+     * MathContext limited(String, MathContext)
+     *
+     * @param name Function name, used in the error message
+     * @param context Requested precision
+     * @return The context, if it has a limited precision
+     */
+    private static MathContext limited(final String name, final MathContext context) {
+        if(context.getPrecision() == 0) {
+            throw new ArithmeticException("Function \"" + name + "\" requires a limited precision.");
+        }
+
+        return context;
+    }
+
+    /**
+     * BigDecimal sqrt(BigDecimal, MathContext)
+     *
+     * Square root using Newton's method, doubling the working precision on every iteration.
+     *
+     * @param x Value
+     * @param context Precision of the result
+     * @return Square root of x
+     */
+    static BigDecimal sqrt(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        if(x.signum() < 0) {
+            throw new ArithmeticException("Square root of a negative number.");
+        }
+
+        if(x.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        final int target = context.getPrecision() + GUARD;
+
+        // Start from the double square root of x scaled into the double range.
+        final int exponent = Math.floorDiv(x.precision() - x.scale(), 2);
+        BigDecimal y = BigDecimal.valueOf(Math.sqrt(x.movePointLeft(exponent * 2).doubleValue())).movePointRight(exponent);
+
+        // y = (y + x / y) / 2
+        for(int precision = 16; ; precision = Math.min(precision * 2, target)) {
+            final MathContext working = new MathContext(precision, RoundingMode.HALF_EVEN);
+            y = y.add(x.divide(y, working), working).divide(TWO, working);
+
+            if(precision == target) {
+                break;
+            }
+        }
+
+        return y.round(context);
+    }
+
+    /**
+     * BigDecimal cbrt(BigDecimal, MathContext)
+     *
+     * Cube root using Newton's method, doubling the working precision on every iteration.
+     *
+     * @param x Value
+     * @param context Precision of the result
+     * @return Cube root of x
+     */
+    static BigDecimal cbrt(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        if(x.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        // cbrt(-x) is -cbrt(x).
+        if(x.signum() < 0) {
+            return BigDecimalMath.cbrt(x.negate(), context).negate();
+        }
+
+        final int target = context.getPrecision() + GUARD;
+
+        // Start from the double cube root of x scaled into the double range.
+        final int exponent = Math.floorDiv(x.precision() - x.scale(), 3);
+        BigDecimal y = BigDecimal.valueOf(Math.cbrt(x.movePointLeft(exponent * 3).doubleValue())).movePointRight(exponent);
+
+        // y = (2y + x / y^2) / 3
+        for(int precision = 16; ; precision = Math.min(precision * 2, target)) {
+            final MathContext working = new MathContext(precision, RoundingMode.HALF_EVEN);
+            y = y.multiply(TWO).add(x.divide(y.multiply(y, working), working), working).divide(THREE, working);
+
+            if(precision == target) {
+                break;
+            }
+        }
+
+        return y.round(context);
+    }
+
+    /**
+     * BigDecimal pow(BigDecimal, BigDecimal, MathContext)
+     *
+     * Raises x to the power of y, integer exponents use repeated squaring and fractional exponents use exp(y * ln(x)).
+     *
+     * @param x Base
+     * @param y Exponent
+     * @param context Precision of the result
+     * @return x^y
+     */
+    static BigDecimal pow(@NonNull final BigDecimal x, @NonNull final BigDecimal y, @NonNull final MathContext context) {
+        // Check if the exponent is an integer that BigDecimal.pow accepts.
+        if(y.signum() == 0 || y.stripTrailingZeros().scale() <= 0) {
+            if(y.abs().compareTo(BigDecimal.valueOf(999999999)) <= 0) {
+                return x.pow(y.intValueExact(), context);
+            }
+        }
+
+        final MathContext limited = BigDecimalMath.limited("^", context);
+
+        if(x.signum() < 0) {
+            throw new ArithmeticException("Fractional power of a negative number.");
+        }
+
+        if(x.signum() == 0) {
+            if(y.signum() < 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+
+            return BigDecimal.ZERO;
+        }
+
+        // Every digit in the integer part of y * ln(x) costs a digit of precision in the result.
+        final BigDecimal estimate = BigDecimal.valueOf(y.doubleValue() * Math.log(x.doubleValue()));
+        final int precision = limited.getPrecision() + GUARD + Math.max(0, estimate.precision() - estimate.scale());
+        final MathContext working = new MathContext(precision, RoundingMode.HALF_EVEN);
+
+        return BigDecimalMath.exp(y.multiply(BigDecimalMath.ln(x, working), working), working).round(limited);
+    }
+
+    /**
+     * BigDecimal exp(BigDecimal, MathContext)
+     *
+     * Exponential function using a Taylor series on x / 2^k, squared k times.
+     *
+     * @param x Exponent
+     * @param context Precision of the result
+     * @return e^x
+     */
+    static BigDecimal exp(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        if(x.signum() == 0) {
+            return BigDecimal.ONE;
+        }
+
+        // Halve x until it is below 1 so the series converges quickly.
+        final int halvings = Math.max(0, x.abs().toBigInteger().bitLength());
+        final MathContext working = new MathContext(context.getPrecision() + GUARD + halvings / 3, RoundingMode.HALF_EVEN);
+        final BigDecimal r = x.divide(TWO.pow(halvings), working);
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(working.getPrecision() + 1);
+
+        // 1 + r + r^2/2! + r^3/3! + ...
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        for(int i = 1; term.abs().compareTo(epsilon) > 0; i++) {
+            term = term.multiply(r, working).divide(BigDecimal.valueOf(i), working);
+            sum = sum.add(term, working);
+        }
+
+        for(int i = 0; i < halvings; i++) {
+            sum = sum.multiply(sum, working);
+        }
+
+        return sum.round(context);
+    }
+
+    /**
+     * BigDecimal ln(BigDecimal, MathContext)
+     *
+     * Natural logarithm using Halley's method on exp(y) - x, tripling the working precision on every iteration.
+     *
+     * @param x Value
+     * @param context Precision of the result
+     * @return ln(x)
+     */
+    static BigDecimal ln(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        if(x.signum() <= 0) {
+            throw new ArithmeticException("Logarithm of a non-positive number.");
+        }
+
+        // Start from the double logarithm of x, split into a mantissa and a power of ten so huge values work.
+        final int exponent = x.precision() - x.scale() - 1;
+        final double guess = Math.log(x.movePointLeft(exponent).doubleValue()) + exponent * Math.log(10);
+        BigDecimal y = BigDecimal.valueOf(guess);
+
+        // The integer part of ln(x) needs digits of its own.
+        final int target = context.getPrecision() + GUARD + Math.max(0, y.precision() - y.scale());
+
+        // y = y + 2 * (x - e^y) / (x + e^y)
+        for(int precision = 16; ; precision = Math.min(precision * 3, target)) {
+            final MathContext working = new MathContext(precision, RoundingMode.HALF_EVEN);
+            final BigDecimal e = BigDecimalMath.exp(y, working);
+            y = y.add(TWO.multiply(x.subtract(e, working)).divide(x.add(e, working), working), working);
+
+            if(precision == target) {
+                break;
+            }
+        }
+
+        return y.round(context);
+    }
+
+    /**
+     * BigDecimal sin(BigDecimal, MathContext)
+     *
+     * @param x Angle in radians
+     * @param context Precision of the result
+     * @return Sine of x
+     */
+    static BigDecimal sin(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        return BigDecimalMath.trig(x, context, false);
+    }
+
+    /**
+     * BigDecimal cos(BigDecimal, MathContext)
+     *
+     * @param x Angle in radians
+     * @param context Precision of the result
+     * @return Cosine of x
+     */
+    static BigDecimal cos(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        return BigDecimalMath.trig(x, context, true);
+    }
+
+    /**
+     * BigDecimal tan(BigDecimal, MathContext)
+     *
+     * @param x Angle in radians
+     * @param context Precision of the result
+     * @return Tangent of x
+     */
+    static BigDecimal tan(@NonNull final BigDecimal x, @NonNull final MathContext context) {
+        final MathContext working = new MathContext(context.getPrecision() + GUARD, RoundingMode.HALF_EVEN);
+        return BigDecimalMath.sin(x, working).divide(BigDecimalMath.cos(x, working), context);
+    }
+
+    /**
+     * BigDecimal trig(BigDecimal, MathContext, boolean)
+     *
+     * Reduces x to r in [-pi/4, pi/4] with x = r + n * pi/2, then uses the quadrant n mod 4 to pick
+     * +/- sin(r) or +/- cos(r) from their Taylor series.
+     *
+     * @param x Angle in radians
+     * @param context Precision of the result
+     * @param cosine True for cosine, false for sine
+     * @return Sine or cosine of x
+     */
+    private static BigDecimal trig(final BigDecimal x, final MathContext context, final boolean cosine) {
+        // Every digit in the integer part of x is lost when subtracting multiples of pi.
+        final int precision = context.getPrecision() + GUARD + Math.max(0, x.precision() - x.scale());
+        final MathContext working = new MathContext(precision, RoundingMode.HALF_EVEN);
+
+        final BigDecimal halfPi = BigDecimalMath.pi(working).divide(TWO, working);
+        final BigInteger n = x.divide(halfPi, working).setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+        final BigDecimal r = x.subtract(halfPi.multiply(new BigDecimal(n)), working);
+
+        // cos(x) = sin(x + pi/2), so cosine is one quadrant further along.
+        final int quadrant = n.add(cosine ? BigInteger.ONE : BigInteger.ZERO).mod(BigInteger.valueOf(4)).intValue();
+
+        final BigDecimal result;
+        switch(quadrant) {
+            case 0:
+                result = BigDecimalMath.series(r, working, true);
+                break;
+            case 1:
+                result = BigDecimalMath.series(r, working, false);
+                break;
+            case 2:
+                result = BigDecimalMath.series(r, working, true).negate();
+                break;
+            default:
+                result = BigDecimalMath.series(r, working, false).negate();
+                break;
+        }
+
+        return result.round(context);
+    }
+
+    /**
+     * BigDecimal series(BigDecimal, MathContext, boolean)
+     *
+     * Taylor series of sine or cosine, only accurate for small r.
+     *
+     * @param r Reduced angle
+     * @param context Working precision
+     * @param sine True for sine, false for cosine
+     * @return sin(r) or cos(r)
+     */
+    private static BigDecimal series(final BigDecimal r, final MathContext context, final boolean sine) {
+        final BigDecimal square = r.multiply(r, context).negate();
+        final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(context.getPrecision() + 1);
+
+        // sin(r) = r - r^3/3! + r^5/5! - ...
+        // cos(r) = 1 - r^2/2! + r^4/4! - ...
+        BigDecimal term = sine ? r : BigDecimal.ONE;
+        BigDecimal sum = term;
+        for(int i = sine ? 2 : 1; term.abs().compareTo(epsilon) > 0; i += 2) {
+            term = term.multiply(square, context).divide(BigDecimal.valueOf((long) i * (i + 1)), context);
+            sum = sum.add(term, context);
+        }
+
+        return sum;
+    }
+
+    /**
+     * BigDecimal pi(MathContext)
+     *
+     * Computes pi with the Chudnovsky series using binary splitting, the most precise value is kept so
+     * later requests for the same or a lower precision only have to round it.
+     *
+     * @param context Precision of the result
+     * @return Pi
+     */
+    static BigDecimal pi(@NonNull final MathContext context) {
+        final BigDecimal cached = PI.get();
+        if(cached.precision() >= context.getPrecision() + GUARD) {
+            return cached.round(context);
+        }
+
+        final MathContext working = new MathContext(context.getPrecision() + GUARD, RoundingMode.HALF_EVEN);
+
+        // Every term of the series adds a little over 14 digits.
+        final int terms = working.getPrecision() / 14 + 2;
+        final BigInteger[] split = BigDecimalMath.split(0, terms);
+
+        // pi = 426880 * sqrt(10005) * Q / T
+        final BigDecimal pi = BigDecimal.valueOf(426880)
+                .multiply(BigDecimalMath.sqrt(BigDecimal.valueOf(10005), working), working)
+                .multiply(new BigDecimal(split[1]), working)
+                .divide(new BigDecimal(split[2]), working);
+
+        // Keep whichever value is more precise if another thread computed pi at the same time.
+        PI.accumulateAndGet(pi, (current, computed) -> computed.precision() > current.precision() ? computed : current);
+
+        return pi.round(context);
+    }
+
+    /**
+     * BigInteger[] split(int, int)
+     *
+     * Binary splitting of the Chudnovsky series over the terms [a, b).
+     *
+     * @param a First term
+     * @param b Last term, exclusive
+     * @return {P(a, b), Q(a, b), T(a, b)}
+     */
+    private static BigInteger[] split(final int a, final int b) {
+        if(b - a == 1) {
+            final BigInteger k = BigInteger.valueOf(a);
+
+            // P(a) = (6a - 5)(2a - 1)(6a - 1) and Q(a) = a^3 * 640320^3 / 24, both are 1 for the first term.
+            final BigInteger p = a == 0 ? BigInteger.ONE : BigInteger.valueOf(6L * a - 5)
+                    .multiply(BigInteger.valueOf(2L * a - 1))
+                    .multiply(BigInteger.valueOf(6L * a - 1));
+            final BigInteger q = a == 0 ? BigInteger.ONE : k.pow(3).multiply(BigInteger.valueOf(10939058860032000L));
+
+            // T(a) = P(a) * (13591409 + 545140134a), negated for odd terms.
+            BigInteger t = p.multiply(BigInteger.valueOf(13591409).add(BigInteger.valueOf(545140134).multiply(k)));
+            if((a & 1) == 1) {
+                t = t.negate();
+            }
+
+            return new BigInteger[] { p, q, t };
+        }
+
+        final int middle = (a + b) >>> 1;
+        final BigInteger[] left = BigDecimalMath.split(a, middle);
+        final BigInteger[] right = BigDecimalMath.split(middle, b);
+
+        return new BigInteger[] {
+                left[0].multiply(right[0]),
+                left[1].multiply(right[1]),
+                left[2].multiply(right[1]).add(left[0].multiply(right[2]))
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * BinaryNode
+ *
+ * Expression tree node for an {@link Operator} applied to two operands.
+ */
+final class BinaryNode extends Node {
+    @Getter private final Operator operator;
+    @Getter private final Node left;
+    @Getter private final Node right;
+
+    /**
+     * BinaryNode(Operator, Node, Node)
+     *
+     * Creates a new {@link BinaryNode} object.
+     *
+     * @param operator Operator
+     * @param left Left operand
+     * @param right Right operand
+     */
+    BinaryNode(@NonNull final Operator operator, @NonNull final Node left, @NonNull final Node right) {
+        super(BinaryNode.precision(operator, left, right), operator.bound(left.getBound(), right.getBound()));
+
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Precision precision(Operator, Node, Node)
+     *
+     * Plans the precision of an operator from its operands.
+     *
+     * @param operator Operator
+     * @param left Left operand
+     * @param right Right operand
+     * @return Operator precision
+     */
+    private static Precision precision(final Operator operator, final Node left, final Node right) {
+        if(operator == Operator.POWER) {
+            // Only fractional exponents go through Math.pow, so only those results are doubles.
+            if(right instanceof ConstantNode && !Operator.isInteger(((ConstantNode) right).getValue())) {
+                return Precision.FAITHFUL;
+            }
+
+            // Integers raised to a known non-negative integer run on longs until they overflow.
+            if(right instanceof ConstantNode && right.getPrecision().isIntegral() && left.getPrecision().isIntegral()
+                    && ((ConstantNode) right).getValue().signum() >= 0) {
+                return Precision.INTEGER;
+            }
+
+            // Any other exponent has to be checked when it is known.
+            return Precision.DECIMAL;
+        }
+
+        // Everything else can only skip BigDecimal if both operands are integers.
+        if(!left.getPrecision().isIntegral() || !right.getPrecision().isIntegral()) {
+            return Precision.DECIMAL;
+        }
+
+        // Integer addition, subtraction and multiplication is exact as long as it can't leave the double range.
+        if(operator != Operator.DIVIDE && left.getPrecision() == Precision.EXACT && right.getPrecision() == Precision.EXACT
+                && operator.bound(left.getBound(), right.getBound()) < Precision.MAX_EXACT) {
+            return Precision.EXACT;
+        }
+
+        // Otherwise run on longs and promote if the result overflows or a division isn't exact.
+        return Precision.INTEGER;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Result of the operator
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        switch(this.getPrecision()) {
+            case EXACT:
+                if(scope.isIntegral()) {
+                    return this.evaluateExact(scope);
+                }
+                break;
+            case INTEGER:
+                if(scope.isIntegral()) {
+                    final BigDecimal result = this.evaluateInteger(scope);
+
+                    // Check if the long evaluator had to give up.
+                    if(result != null) {
+                        return result;
+                    }
+                }
+                break;
+            case FAITHFUL:
+                // Fractional exponents only run on doubles without a precision.
+                if(scope.getContext() == null) {
+                    return BigDecimal.valueOf(this.evaluateDouble(scope));
+                }
+                break;
+        }
+
+        return this.getOperator().apply(this.getLeft().evaluate(scope), this.getRight().evaluate(scope), scope.getContext());
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Result of the operator
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return Node.finite(scope, this.getOperator().applyDouble(this.getLeft().doubleValue(scope), this.getRight().doubleValue(scope)));
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        this.getLeft().evaluateColumn(scope, target);
+
+        // The right operand needs a column of its own.
+        final double[] right = scope.acquire();
+        this.getRight().evaluateColumn(scope, right);
+        this.getOperator().applyColumn(target, right, scope.getLength());
+        scope.release();
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Result of the operator
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        return this.getOperator().applyLong(this.getLeft().evaluateLong(scope), this.getRight().evaluateLong(scope));
+    }
+
+    @Override
+    public String toString() {
+        return "(" + this.getLeft() + " " + this.getOperator().getSymbol() + " " + this.getRight() + ")";
+    }
+}
@@ -0,0 +1,108 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Budget
+ *
+ * Limits how much work a single evaluation of a {@link CompiledExpression} is allowed to do.
+ *
+ * Expressions whose {@link Cost} already exceeds the budget are rejected before they are evaluated, everything
+ * else is metered while it runs: the number of operations, the number of digits of every intermediate result
+ * and the wall-clock deadline are checked between operations. An evaluation that runs out of budget stops with
+ * a {@link BudgetExceededException}. Limits are enforced cooperatively, a single operation that was predicted
+ * to fit (or a user defined function) is never interrupted.
+ */
+public final class Budget {
+    // UNLIMITED never stops an evaluation, only the ceiling of CostModel.MAX_EXACT_DIGITS on exact powers and
+    // fibonacci numbers still applies.
+    public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Long.MAX_VALUE, null);
+    // DEFAULT is the budget used for requests coming from an input provider.
+    public static final Budget DEFAULT = new Budget(50_000_000, 100_000, Duration.ofSeconds(5));
+
+    @Getter private final long maxOperations;
+    @Getter private final long maxDigits;
+    @Getter private final Duration timeout;
+
+    /**
+     * Budget(long, long, Duration)
+     *
+     * Creates a new {@link Budget} object.
+     *
+     * @param maxOperations Maximum number of nodes an evaluation may compute
+     * @param maxDigits Maximum number of digits of any intermediate or final result
+     * @param timeout Maximum wall-clock time of an evaluation, or null for no deadline
+     */
+    public Budget(final long maxOperations, final long maxDigits, final Duration timeout) {
+        // Make sure every limit allows at least something.
+        if(maxOperations < 1 || maxDigits < 1 || (timeout != null && (timeout.isNegative() || timeout.isZero()))) {
+            throw new IllegalArgumentException("Every budget limit must be positive.");
+        }
+
+        this.maxOperations = maxOperations;
+        this.maxDigits = maxDigits;
+        this.timeout = timeout;
+    }
+
+    /**
+     * void check(Cost)
+     *
+     * Rejects an expression before it is evaluated if its estimated cost is already over budget.
+     *
+     * @param cost Estimated cost of the expression
+     * @throws BudgetExceededException if the expression can't fit in the budget
+     */
+    void check(final Cost cost) {
+        if(cost.getOperations() > this.getMaxOperations()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.OPERATIONS,
+                    "Expression has " + cost.getOperations() + " operations, the limit is " + this.getMaxOperations() + ".");
+        }
+
+        if(cost.getDigits() > this.getMaxDigits()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS,
+                    "Expression would produce about " + cost.getDigits() + " digits, the limit is " + this.getMaxDigits() + ".");
+        }
+    }
+
+    /**
+     * Budget remaining(long)
+     *
+     * Works out what is left of the budget for an evaluation that was requested some time ago, the time spent
+     * waiting to be evaluated counts against the timeout.
+     *
+     * @param requested {@link System#nanoTime()} when the evaluation was requested
+     * @return Budget with the time that is left
+     * @throws BudgetExceededException if the timeout already passed
+     */
+    Budget remaining(final long requested) {
+        if(this.getTimeout() == null) {
+            return this;
+        }
+
+        final long left = this.getTimeout().toNanos() - (System.nanoTime() - requested);
+        if(left <= 0) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DEADLINE,
+                    "Evaluation waited longer than " + this.getTimeout().toMillis() + "ms.");
+        }
+
+        return new Budget(this.getMaxOperations(), this.getMaxDigits(), Duration.ofNanos(left));
+    }
+
+    /**
+     * Meter start()
+     *
+     * Starts metering a single evaluation, the deadline starts counting now.
+     *
+     * @return New meter
+     */
+    Meter start() {
+        return new Meter(this);
+    }
+
+    @Override
+    public String toString() {
+        return "Budget(operations=" + this.getMaxOperations() + ", digits=" + this.getMaxDigits() + ", timeout=" + this.getTimeout() + ")";
+    }
+}
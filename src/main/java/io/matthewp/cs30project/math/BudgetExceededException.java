@@ -0,0 +1,40 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * BudgetExceededException
+ *
+ * Thrown when an evaluation is rejected or stopped because it doesn't fit in its {@link Budget}.
+ */
+public final class BudgetExceededException extends RuntimeException {
+    // serialVersionUID is the version of the serialized form of the exception.
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final Limit limit;
+
+    /**
+     * BudgetExceededException(Limit, String)
+     *
+     * Creates a new {@link BudgetExceededException} object.
+     *
+     * @param limit Limit that was exceeded
+     * @param message Error message
+     */
+    BudgetExceededException(@NonNull final Limit limit, @NonNull final String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * Limit
+     *
+     * The part of a {@link Budget} that ran out.
+     */
+    public enum Limit {
+        OPERATIONS,
+        DIGITS,
+        DEADLINE
+    }
+}
@@ -0,0 +1,32 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+
+/**
+ * Builtin
+ *
+ * Functions that are built into the {@link Expression} parser, these have double, long and bytecode fast paths
+ * and are dispatched with a switch instead of a call through {@link MathFunction}.
+ */
+enum Builtin {
+    SQRT("sqrt"),
+    CBRT("cbrt"),
+    ROUND("round"),
+    CEIL("ceil"),
+    FLOOR("floor"),
+    SIN("sin"),
+    COS("cos"),
+    TAN("tan"),
+    FIB("fib");
+
+    @Getter private final String name;
+
+    /**
+     * Builtin(String)
+     *
+     * @param name Function name used in expressions
+     */
+    Builtin(final String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,600 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BytecodeCompiler
+ *
+ * Turns an expression tree into a generated JVM class whose evaluate method is straight-line calls
+ * to {@link BigDecimal} and {@link Math}, which gives the JIT something it can inline instead of a tree walk.
+ *
+ * Only nodes that can be reproduced exactly in bytecode are supported, {@link #compile(Node)} returns null
+ * for anything else so the caller can keep using the interpreter.
+ */
+final class BytecodeCompiler {
+    // PACKAGE is the internal name prefix used for every generated class.
+    private static final String PACKAGE = "io/matthewp/cs30project/math/generated/Evaluator";
+    // BIG_DECIMAL is the internal name of java.math.BigDecimal.
+    private static final String BIG_DECIMAL = "java/math/BigDecimal";
+    // MAX_CODE_LENGTH is the largest method body the JVM accepts.
+    private static final int MAX_CODE_LENGTH = 65535;
+    // GENERATED_EVALUATOR is the internal name of the interface every generated class implements.
+    private static final String GENERATED_EVALUATOR = "io/matthewp/cs30project/math/GeneratedEvaluator";
+
+    // COUNTER is used to give every generated class a unique name.
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    @Getter(AccessLevel.PRIVATE) private final List<BigDecimal> constants;
+    @Getter(AccessLevel.PRIVATE) private final ConstantPool pool;
+    @Getter(AccessLevel.PRIVATE) private final ByteArrayOutputStream code;
+    @Getter(AccessLevel.PRIVATE) private int stack;
+    @Getter(AccessLevel.PRIVATE) private int maxStack;
+
+    /**
+     * BytecodeCompiler()
+     *
+     * Creates a new {@link BytecodeCompiler} object.
+     */
+    private BytecodeCompiler() {
+        this.constants = new ArrayList<>();
+        this.pool = new ConstantPool();
+        this.code = new ByteArrayOutputStream();
+        this.stack = 0;
+        this.maxStack = 0;
+    }
+
+    /**
+     * Compiled compile(Node)
+     *
+     * Generates and loads a class for the specified tree.
+     *
+     * @param root Root of the expression tree
+     * @return Loaded evaluator and its constants, or null if the tree can't be compiled
+     */
+    static Compiled compile(@NonNull final Node root) {
+        final BytecodeCompiler compiler = new BytecodeCompiler();
+
+        // Emit the method body, bail out if we hit a node we don't support.
+        if(!compiler.emit(root)) {
+            return null;
+        }
+
+        // Check if the method body is too large for the JVM.
+        if(compiler.getCode().size() + 1 > MAX_CODE_LENGTH) {
+            return null;
+        }
+
+        final String name = PACKAGE + COUNTER.incrementAndGet();
+        final byte[] bytes = compiler.toClass(name);
+
+        try {
+            final Class<?> type = new Loader().define(name.replace('/', '.'), bytes);
+            final GeneratedEvaluator evaluator = (GeneratedEvaluator) type.getConstructor().newInstance();
+
+            return new Compiled(evaluator, compiler.getConstants().toArray(new BigDecimal[0]));
+        } catch(final ReflectiveOperationException | LinkageError ex) {
+            // The generated class was rejected, fall back to the interpreter.
+            return null;
+        }
+    }
+
+    /**
+     * boolean emit(Node)
+     *
+     * Emits the bytecode that leaves the node's value on top of the operand stack.
+     *
+     * @param node Node to emit
+     * @return True if the node was emitted, otherwise false.
+     */
+    private boolean emit(final Node node) {
+        if(node instanceof ConstantNode) {
+            // constants[index]
+            this.getConstants().add(((ConstantNode) node).getValue());
+            this.op(0x2b, 1);
+            this.pushInt(this.getConstants().size() - 1);
+            this.op(0x32, -1);
+            return true;
+        }
+
+        if(node instanceof VariableNode) {
+            // variables[slot]
+            this.op(0x2c, 1);
+            this.pushInt(((VariableNode) node).getSlot());
+            this.op(0x32, -1);
+            return true;
+        }
+
+        if(node instanceof NegateNode) {
+            if(!this.emit(((NegateNode) node).getOperand())) {
+                return false;
+            }
+
+            this.invoke(0xb6, BIG_DECIMAL, "negate", "()Ljava/math/BigDecimal;", 0);
+            return true;
+        }
+
+        if(node instanceof BinaryNode) {
+            return this.emitBinary((BinaryNode) node);
+        }
+
+        if(node instanceof SquareNode) {
+            // GeneratedEvaluator.pow(x, 2), so the square is checked against the digit ceiling like "x^2".
+            if(!this.emit(((SquareNode) node).getOperand())) {
+                return false;
+            }
+
+            this.pushInt(2);
+            this.invokeInterface(0xb8, GENERATED_EVALUATOR, "pow", "(Ljava/math/BigDecimal;I)Ljava/math/BigDecimal;", -1);
+            return true;
+        }
+
+        // Generated code is straight-line, a shared subexpression is simply emitted again.
+        if(node instanceof SharedNode) {
+            return this.emit(((SharedNode) node).getNode());
+        }
+
+        if(node instanceof FunctionNode) {
+            return this.emitFunction((FunctionNode) node);
+        }
+
+        return false;
+    }
+
+    /**
+     * boolean emitBinary(BinaryNode)
+     *
+     * @param node Node to emit
+     * @return True if the node was emitted, otherwise false.
+     */
+    private boolean emitBinary(final BinaryNode node) {
+        if(node.getOperator() == Operator.POWER) {
+            return this.emitPower(node);
+        }
+
+        if(!this.emit(node.getLeft()) || !this.emit(node.getRight())) {
+            return false;
+        }
+
+        final String method;
+        switch(node.getOperator()) {
+            case ADD:
+                method = "add";
+                break;
+            case SUBTRACT:
+                method = "subtract";
+                break;
+            case MULTIPLY:
+                method = "multiply";
+                break;
+            case DIVIDE:
+                method = "divide";
+                break;
+            default:
+                return false;
+        }
+
+        this.invoke(0xb6, BIG_DECIMAL, method, "(Ljava/math/BigDecimal;)Ljava/math/BigDecimal;", -1);
+        return true;
+    }
+
+    /**
+     * boolean emitPower(BinaryNode)
+     *
+     * Only exponents that are known when the tree is compiled can be emitted, other exponents stay in the
+     * interpreter which decides between an exact and a double power once it has the exponent.
+     *
+     * @param node Node to emit
+     * @return True if the node was emitted, otherwise false.
+     */
+    private boolean emitPower(final BinaryNode node) {
+        if(node.getPrecision() == Precision.FAITHFUL) {
+            // BigDecimal.valueOf(Math.pow(left.doubleValue(), right.doubleValue()))
+            if(!this.emitDouble(node.getLeft()) || !this.emitDouble(node.getRight())) {
+                return false;
+            }
+
+            this.invoke(0xb8, "java/lang/Math", "pow", "(DD)D", -2);
+            this.invoke(0xb8, BIG_DECIMAL, "valueOf", "(D)Ljava/math/BigDecimal;", -1);
+            return true;
+        }
+
+        if(!(node.getRight() instanceof ConstantNode)) {
+            return false;
+        }
+
+        // GeneratedEvaluator.pow(left, right), negative exponents may not have an exact result.
+        final BigDecimal exponent = ((ConstantNode) node.getRight()).getValue();
+        if(exponent.signum() < 0 || exponent.compareTo(BigDecimal.valueOf(Operator.MAX_EXPONENT)) > 0 || !this.emit(node.getLeft())) {
+            return false;
+        }
+
+        this.pushInt(exponent.intValue());
+        this.invokeInterface(0xb8, GENERATED_EVALUATOR, "pow", "(Ljava/math/BigDecimal;I)Ljava/math/BigDecimal;", -1);
+        return true;
+    }
+
+    /**
+     * boolean emitFunction(FunctionNode)
+     *
+     * @param node Node to emit
+     * @return True if the node was emitted, otherwise false.
+     */
+    private boolean emitFunction(final FunctionNode node) {
+        switch(node.getName()) {
+            case "sqrt":
+            case "cbrt":
+            case "ceil":
+            case "floor":
+            case "sin":
+            case "cos":
+            case "tan":
+                // BigDecimal.valueOf(Math.function(argument.doubleValue()))
+                if(!this.emitDouble(node.getArgument())) {
+                    return false;
+                }
+
+                this.invoke(0xb8, "java/lang/Math", node.getName(), "(D)D", 0);
+                this.invoke(0xb8, BIG_DECIMAL, "valueOf", "(D)Ljava/math/BigDecimal;", -1);
+                return true;
+            case "round":
+                // BigDecimal.valueOf(Math.round(argument.doubleValue()))
+                if(!this.emitDouble(node.getArgument())) {
+                    return false;
+                }
+
+                this.invoke(0xb8, "java/lang/Math", "round", "(D)J", 0);
+                this.invoke(0xb8, BIG_DECIMAL, "valueOf", "(J)Ljava/math/BigDecimal;", -1);
+                return true;
+            // Anything else (fib, user functions) stays in the interpreter.
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * boolean emitDouble(Node)
+     *
+     * Emits the node followed by a call to {@link BigDecimal#doubleValue()}.
+     *
+     * @param node Node to emit
+     * @return True if the node was emitted, otherwise false.
+     */
+    private boolean emitDouble(final Node node) {
+        if(!this.emit(node)) {
+            return false;
+        }
+
+        this.invoke(0xb6, BIG_DECIMAL, "doubleValue", "()D", 1);
+        return true;
+    }
+
+    /**
+     * void pushInt(int)
+     *
+     * Pushes an int constant using the shortest instruction available.
+     *
+     * @param value Value to push
+     */
+    private void pushInt(final int value) {
+        if(value <= 5) {
+            // iconst_<n>
+            this.op(0x03 + value, 1);
+        } else if(value <= Byte.MAX_VALUE) {
+            // bipush
+            this.op(0x10, 1);
+            this.getCode().write(value);
+        } else if(value <= Short.MAX_VALUE) {
+            // sipush
+            this.op(0x11, 1);
+            this.u2(value);
+        } else {
+            // ldc_w
+            this.op(0x13, 1);
+            this.u2(this.getPool().integer(value));
+        }
+    }
+
+    /**
+     * void invoke(int, String, String, String, int)
+     *
+     * Emits a method invocation.
+     *
+     * @param opcode invokevirtual or invokestatic
+     * @param owner Internal name of the class that owns the method
+     * @param name Method name
+     * @param descriptor Method descriptor
+     * @param delta Change in operand stack size, in slots
+     */
+    private void invoke(final int opcode, final String owner, final String name, final String descriptor, final int delta) {
+        this.op(opcode, delta);
+        this.u2(this.getPool().method(owner, name, descriptor));
+    }
+
+    /**
+     * void invokeInterface(int, String, String, String, int)
+     *
+     * Emits an invocation of a method declared by an interface.
+     *
+     * @param opcode invokestatic, the only one generated code uses on interfaces
+     * @param owner Internal name of the interface that owns the method
+     * @param name Method name
+     * @param descriptor Method descriptor
+     * @param delta Change in operand stack size, in slots
+     */
+    private void invokeInterface(final int opcode, final String owner, final String name, final String descriptor, final int delta) {
+        this.op(opcode, delta);
+        this.u2(this.getPool().interfaceMethod(owner, name, descriptor));
+    }
+
+    /**
+     * void op(int, int)
+     *
+     * Emits a single opcode and tracks the operand stack size.
+     *
+     * @param opcode Opcode
+     * @param delta Change in operand stack size, in slots
+     */
+    private void op(final int opcode, final int delta) {
+        this.getCode().write(opcode);
+        this.stack += delta;
+        this.maxStack = Math.max(this.getMaxStack(), this.getStack());
+    }
+
+    /**
+     * void u2(int)
+     *
+     * @param value Unsigned short to write to the method body
+     */
+    private void u2(final int value) {
+        this.getCode().write(value >>> 8);
+        this.getCode().write(value);
+    }
+
+    /**
+     * byte[] toClass(String)
+     *
+     * Writes the class file for the emitted method body.
+     *
+     * @param name Internal class name
+     * @return Class file bytes
+     */
+    private byte[] toClass(final String name) {
+        final ConstantPool pool = this.getPool();
+        final int thisClass = pool.type(name);
+        final int superClass = pool.type("java/lang/Object");
+        final int interfaceClass = pool.type(GENERATED_EVALUATOR);
+        final int superInit = pool.method("java/lang/Object", "<init>", "()V");
+        final int codeName = pool.utf8("Code");
+        final int initName = pool.utf8("<init>");
+        final int initDescriptor = pool.utf8("()V");
+        final int evaluateName = pool.utf8("evaluate");
+        final int evaluateDescriptor = pool.utf8("([Ljava/math/BigDecimal;[Ljava/math/BigDecimal;)Ljava/math/BigDecimal;");
+
+        // Finish the evaluate method with areturn.
+        this.getCode().write(0xb0);
+        final byte[] body = this.getCode().toByteArray();
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+
+            // Header, Java 8 class file version.
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+
+            pool.write(out);
+
+            // public final super class, extends Object, implements GeneratedEvaluator.
+            out.writeShort(0x0031);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+
+            // No fields.
+            out.writeShort(0);
+
+            // Two methods, the constructor and evaluate.
+            out.writeShort(2);
+
+            // public <init>() { super(); }
+            out.writeShort(0x0001);
+            out.writeShort(initName);
+            out.writeShort(initDescriptor);
+            BytecodeCompiler.writeCode(out, codeName, 1, 1, new byte[] {
+                    0x2a,
+                    (byte) 0xb7, (byte) (superInit >>> 8), (byte) superInit,
+                    (byte) 0xb1
+            });
+
+            // public BigDecimal evaluate(BigDecimal[], BigDecimal[])
+            out.writeShort(0x0001);
+            out.writeShort(evaluateName);
+            out.writeShort(evaluateDescriptor);
+            BytecodeCompiler.writeCode(out, codeName, this.getMaxStack(), 3, body);
+
+            // No class attributes.
+            out.writeShort(0);
+
+            return bytes.toByteArray();
+        } catch(final IOException ex) {
+            // ByteArrayOutputStream never throws.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * void writeCode(DataOutputStream, int, int, int, byte[])
+     *
+     * Writes a method's attribute table containing a single Code attribute.
+     */
+    private static void writeCode(final DataOutputStream out, final int codeName, final int maxStack, final int maxLocals, final byte[] code) throws IOException {
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        // No exception table and no nested attributes.
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /**
+     * Compiled
+     *
+     * A loaded {@link GeneratedEvaluator} together with the constants it reads.
+     */
+    static final class Compiled {
+        @Getter private final GeneratedEvaluator evaluator;
+        @Getter private final BigDecimal[] constants;
+
+        /**
+         * Compiled(GeneratedEvaluator, BigDecimal[])
+         *
+         * @param evaluator Generated evaluator
+         * @param constants Literal values used by the evaluator
+         */
+        private Compiled(final GeneratedEvaluator evaluator, final BigDecimal[] constants) {
+            this.evaluator = evaluator;
+            this.constants = constants;
+        }
+
+        /**
+         * BigDecimal evaluate(BigDecimal[])
+         *
+         * @param variables Variable values ordered by slot
+         * @return Expression result
+         */
+        BigDecimal evaluate(final BigDecimal[] variables) {
+            return this.getEvaluator().evaluate(this.getConstants(), variables);
+        }
+    }
+
+    /**
+     * Loader
+     *
+     * Private class loader so generated classes can be unloaded together with the expression that uses them.
+     */
+    private static final class Loader extends ClassLoader {
+
+        /**
+         * Loader()
+         *
+         * Creates a new {@link Loader} that delegates to the loader of the math package.
+         */
+        private Loader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        /**
+         * Class define(String, byte[])
+         *
+         * @param name Binary class name
+         * @param bytes Class file bytes
+         * @return Defined class
+         */
+        private Class<?> define(final String name, final byte[] bytes) {
+            return this.defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * ConstantPool
+     *
+     * Minimal class file constant pool that de-duplicates its entries.
+     */
+    private static final class ConstantPool {
+        @Getter(AccessLevel.PRIVATE) private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        @Getter(AccessLevel.PRIVATE) private final DataOutputStream out = new DataOutputStream(this.bytes);
+        @Getter(AccessLevel.PRIVATE) private final Map<String, Integer> entries = new HashMap<>();
+        @Getter(AccessLevel.PRIVATE) private int count = 1;
+
+        int utf8(final String value) {
+            return this.entry("U" + value, () -> {
+                this.getOut().writeByte(1);
+                this.getOut().writeUTF(value);
+            });
+        }
+
+        int integer(final int value) {
+            return this.entry("I" + value, () -> {
+                this.getOut().writeByte(3);
+                this.getOut().writeInt(value);
+            });
+        }
+
+        int type(final String name) {
+            final int nameIndex = this.utf8(name);
+            return this.entry("C" + name, () -> {
+                this.getOut().writeByte(7);
+                this.getOut().writeShort(nameIndex);
+            });
+        }
+
+        int method(final String owner, final String name, final String descriptor) {
+            return this.reference(10, owner, name, descriptor);
+        }
+
+        int interfaceMethod(final String owner, final String name, final String descriptor) {
+            return this.reference(11, owner, name, descriptor);
+        }
+
+        private int reference(final int tag, final String owner, final String name, final String descriptor) {
+            final int ownerIndex = this.type(owner);
+            final int nameIndex = this.utf8(name);
+            final int descriptorIndex = this.utf8(descriptor);
+            final int nameAndType = this.entry("N" + name + ":" + descriptor, () -> {
+                this.getOut().writeByte(12);
+                this.getOut().writeShort(nameIndex);
+                this.getOut().writeShort(descriptorIndex);
+            });
+
+            return this.entry("M" + tag + owner + "." + name + ":" + descriptor, () -> {
+                this.getOut().writeByte(tag);
+                this.getOut().writeShort(ownerIndex);
+                this.getOut().writeShort(nameAndType);
+            });
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeShort(this.getCount());
+            out.write(this.getBytes().toByteArray());
+        }
+
+        private int entry(final String key, final Writer writer) {
+            final Integer existing = this.getEntries().get(key);
+            if(existing != null) {
+                return existing;
+            }
+
+            try {
+                writer.write();
+            } catch(final IOException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            final int index = this.count++;
+            this.getEntries().put(key, index);
+            return index;
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
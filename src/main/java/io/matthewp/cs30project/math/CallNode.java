@@ -0,0 +1,156 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * CallNode
+ *
+ * Expression tree node for a call to a user defined function that takes an argument list,
+ * Ex: "hypot(3, 4)". Functions that take a single argument are called through a {@link FunctionNode}.
+ */
+final class CallNode extends Node {
+    @Getter private final FunctionHandle function;
+    @Getter private final Node[] arguments;
+    @Getter private final int position;
+
+    /**
+     * CallNode(FunctionHandle, Node[], int)
+     *
+     * Creates a new {@link CallNode} object.
+     *
+     * @param function Function handle
+     * @param arguments Function arguments, exactly as many as the function's arity
+     * @param position Position of the function name in the input
+     */
+    CallNode(@NonNull final FunctionHandle function, @NonNull final Node[] arguments, final int position) {
+        // User defined functions are always called with BigDecimal.
+        super(Precision.DECIMAL, Double.POSITIVE_INFINITY);
+
+        this.function = function;
+        this.arguments = arguments;
+        this.position = position;
+    }
+
+    /**
+     * String getName()
+     *
+     * @return Function name
+     */
+    String getName() {
+        return this.getFunction().getName();
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        final BigDecimal[] values = new BigDecimal[this.getArguments().length];
+
+        for(int i = 0; i < values.length; i++) {
+            values[i] = this.getArguments()[i].evaluate(scope);
+        }
+
+        return this.apply(values, scope);
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal[], Scope)
+     *
+     * Calls the function with arguments that have already been evaluated.
+     *
+     * @param values Function arguments
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    BigDecimal apply(final BigDecimal[] values, final Scope scope) {
+        return this.getFunction().apply(values, scope.getContext());
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        final double[] values = new double[this.getArguments().length];
+
+        for(int i = 0; i < values.length; i++) {
+            values[i] = this.getArguments()[i].evaluateDouble(scope);
+        }
+
+        return Node.finite(scope, this.applyDouble(values));
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        final double[][] columns = new double[this.getArguments().length][];
+
+        // Evaluate every argument into a temporary column.
+        for(int i = 0; i < columns.length; i++) {
+            columns[i] = scope.acquire();
+            this.getArguments()[i].evaluateColumn(scope, columns[i]);
+        }
+
+        final double[] values = new double[columns.length];
+        for(int row = 0; row < scope.getLength(); row++) {
+            for(int i = 0; i < columns.length; i++) {
+                values[i] = columns[i][row];
+            }
+
+            target[row] = this.applyDouble(values);
+        }
+
+        for(int i = 0; i < columns.length; i++) {
+            scope.release();
+        }
+    }
+
+    /**
+     * double applyDouble(double[])
+     *
+     * Calls the function with double arguments.
+     *
+     * @param values Function arguments
+     * @return Function result, NaN if any argument is NaN or infinite
+     */
+    double applyDouble(final double[] values) {
+        final BigDecimal[] arguments = new BigDecimal[values.length];
+
+        // User defined functions only work on BigDecimal, NaN and infinity can't be passed to them.
+        for(int i = 0; i < values.length; i++) {
+            if(Double.isNaN(values[i]) || Double.isInfinite(values[i])) {
+                return Double.NaN;
+            }
+
+            arguments[i] = BigDecimal.valueOf(values[i]);
+        }
+
+        return this.getFunction().apply(arguments, null).doubleValue();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(this.getName()).append('(');
+
+        for(int i = 0; i < this.getArguments().length; i++) {
+            builder.append(i > 0 ? ", " : "").append(this.getArguments()[i]);
+        }
+
+        return builder.append(')').toString();
+    }
+}
@@ -0,0 +1,161 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * ColumnScope
+ *
+ * Holds the state of a columnar evaluation of a {@link CompiledExpression}, the expression is evaluated
+ * {@link #BLOCK} rows at a time and every node fills a whole block of its results with a single loop.
+ *
+ * Blocks are small enough that the temporary columns of a tree stay in cache, and the same temporary columns are
+ * reused for every block, so evaluating any number of rows only allocates once.
+ */
+final class ColumnScope {
+    // BLOCK is the number of rows evaluated at a time.
+    static final int BLOCK = 1024;
+
+    @Getter(AccessLevel.PRIVATE) private final double[][] doubles;
+    @Getter(AccessLevel.PRIVATE) private final long[][] longs;
+    @Getter(AccessLevel.PRIVATE) private final double[][] sharedColumns;
+    @Getter(AccessLevel.PRIVATE) private final boolean[] sharedSet;
+    @Getter(AccessLevel.PRIVATE) private double[][] buffers;
+    @Getter(AccessLevel.PRIVATE) private int used;
+    @Getter(AccessLevel.PACKAGE) private int offset;
+    @Getter(AccessLevel.PACKAGE) private int length;
+
+    /**
+     * ColumnScope(double[][], long[][], int)
+     *
+     * Creates a new {@link ColumnScope}, exactly one of the column arrays is set.
+     *
+     * @param doubles Variable columns ordered by slot, or null
+     * @param longs Variable columns ordered by slot, or null
+     * @param shared Number of {@link SharedNode} slots used by the expression
+     */
+    ColumnScope(final double[][] doubles, final long[][] longs, final int shared) {
+        this.doubles = doubles;
+        this.longs = longs;
+        this.sharedColumns = new double[shared][];
+        this.sharedSet = new boolean[shared];
+        this.buffers = new double[4][];
+        this.used = 0;
+        this.offset = 0;
+        this.length = 0;
+    }
+
+    /**
+     * void block(int, int)
+     *
+     * Moves to the next block of rows.
+     *
+     * @param offset Index of the first row of the block in the variable columns
+     * @param length Number of rows in the block, at most {@link #BLOCK}
+     */
+    void block(final int offset, final int length) {
+        this.offset = offset;
+        this.length = length;
+
+        // Shared subexpressions have to be evaluated again for the new rows.
+        Arrays.fill(this.getSharedSet(), false);
+    }
+
+    /**
+     * void column(int, double[])
+     *
+     * Copies the current block of a variable column.
+     *
+     * @param slot Variable slot
+     * @param target Column to fill
+     */
+    void column(final int slot, final double[] target) {
+        if(this.getDoubles() != null) {
+            System.arraycopy(this.getDoubles()[slot], this.getOffset(), target, 0, this.getLength());
+            return;
+        }
+
+        // Every long below 2^53 converts exactly, larger ones round the same way (double) does everywhere else.
+        final long[] column = this.getLongs()[slot];
+        final int offset = this.getOffset();
+        final int length = this.getLength();
+        for(int i = 0; i < length; i++) {
+            target[i] = column[offset + i];
+        }
+    }
+
+    /**
+     * int getVariables()
+     *
+     * @return Number of variable columns
+     */
+    int getVariables() {
+        return this.getDoubles() != null ? this.getDoubles().length : this.getLongs().length;
+    }
+
+    /**
+     * int getShared()
+     *
+     * @return Number of {@link SharedNode} slots used by the expression
+     */
+    int getShared() {
+        return this.getSharedColumns().length;
+    }
+
+    /**
+     * double[] shared(int)
+     *
+     * @param index Shared slot
+     * @return Column of the shared slot, or null if it hasn't been evaluated for the current block
+     */
+    double[] shared(final int index) {
+        return this.getSharedSet()[index] ? this.getSharedColumns()[index] : null;
+    }
+
+    /**
+     * double[] share(int)
+     *
+     * Marks a shared slot as evaluated for the current block.
+     *
+     * @param index Shared slot
+     * @return Column the shared subexpression has to be written to
+     */
+    double[] share(final int index) {
+        if(this.getSharedColumns()[index] == null) {
+            this.getSharedColumns()[index] = new double[BLOCK];
+        }
+
+        this.getSharedSet()[index] = true;
+        return this.getSharedColumns()[index];
+    }
+
+    /**
+     * double[] acquire()
+     *
+     * Gets a temporary column, temporary columns are handed out like a stack and have to be released in reverse order.
+     *
+     * @return Temporary column
+     */
+    double[] acquire() {
+        if(this.getUsed() == this.getBuffers().length) {
+            this.buffers = Arrays.copyOf(this.getBuffers(), this.getUsed() * 2);
+        }
+
+        if(this.getBuffers()[this.getUsed()] == null) {
+            this.getBuffers()[this.getUsed()] = new double[BLOCK];
+        }
+
+        return this.getBuffers()[this.used++];
+    }
+
+    /**
+     * void release()
+     *
+     * Gives back the most recently acquired temporary column.
+     */
+    void release() {
+        this.used--;
+    }
+}
@@ -0,0 +1,603 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+
+/**
+ * CompiledExpression
+ *
+ * An {@link Expression} that has been parsed once into an immutable tree.
+ *
+ * The tree can be evaluated any number of times, from any number of threads, with different
+ * variable values and without parsing the input again.
+ *
+ * Evaluations start out in the tree interpreter, once an expression has been evaluated {@link #COMPILE_THRESHOLD}
+ * times it is handed to the {@link BytecodeCompiler} and later evaluations run the generated class instead.
+ * Expressions the compiler doesn't support simply stay in the interpreter.
+ *
+ * Every expression gets a {@link Cost} estimate when it is compiled, evaluations with a {@link Budget} are rejected
+ * up front if the estimate doesn't fit and are metered while they run. A {@link Profile} of a single evaluation shows
+ * where its time goes.
+ *
+ * Expressions compiled with {@link #DOUBLE_DOUBLE} run on pairs of doubles instead of BigDecimal, see
+ * {@link #evaluateDoubleDouble(double[], double...)}.
+ */
+public final class CompiledExpression {
+    // COMPILE_THRESHOLD is the number of evaluations before an expression is considered hot.
+    public static final int COMPILE_THRESHOLD = 1000;
+    // DOUBLE_DOUBLE is the precision of the double-double tier, expressions compiled with it evaluate arithmetic,
+    // powers and square roots on pairs of doubles and only fall back to BigDecimal for everything else.
+    public static final MathContext DOUBLE_DOUBLE = new MathContext(30, RoundingMode.HALF_EVEN);
+
+    @Getter private final String input;
+    @Getter private final Set<String> variables;
+    @Getter private final MathContext context;
+    @Getter(AccessLevel.PACKAGE) private final Node root;
+    @Getter(AccessLevel.PACKAGE) private final int shared;
+    @Getter private final boolean pure;
+    @Getter(AccessLevel.PACKAGE) private final boolean deep;
+    @Getter private final Cost cost;
+    @Getter(AccessLevel.PRIVATE) private final List<String> slots;
+    @Getter(AccessLevel.PRIVATE) private final AtomicInteger evaluations;
+    @Getter(AccessLevel.PRIVATE) private volatile BytecodeCompiler.Compiled generated;
+    @Getter(AccessLevel.PRIVATE) private volatile DoubleDoubleEvaluator extended;
+
+    /**
+     * CompiledExpression(String, List, MathContext, Node, int, boolean, boolean)
+     *
+     * Creates a new {@link CompiledExpression} object.
+     *
+     * @param input Normalized input
+     * @param variables Declared variable names, the index of a name is its slot
+     * @param context Precision of every operation, or null to compute functions on doubles and divide exactly
+     * @param root Root of the optimized expression tree
+     * @param shared Number of shared subexpression slots the tree uses
+     * @param pure True if the tree only calls pure functions, so the same variables always give the same result
+     * @param deep True if the tree is too deep to evaluate recursively
+     */
+    CompiledExpression(@NonNull final String input, @NonNull final List<String> variables, final MathContext context, @NonNull final Node root, final int shared, final boolean pure, final boolean deep) {
+        this.input = input;
+        this.variables = Collections.unmodifiableSet(new LinkedHashSet<>(variables));
+        this.context = context;
+        this.root = root;
+        this.shared = shared;
+        this.pure = pure;
+        this.deep = deep;
+        this.cost = CostModel.estimate(root, context);
+        this.slots = new ArrayList<>(variables);
+        this.evaluations = new AtomicInteger();
+        this.generated = null;
+        this.extended = context == DOUBLE_DOUBLE && !deep ? DoubleDoubleEvaluator.compile(root, shared) : null;
+    }
+
+    /**
+     * CompiledExpression compile(String, String...)
+     *
+     * Parses the input into a reusable {@link CompiledExpression}.
+     *
+     * Any lowercase name in the input that is listed in variables is treated as a variable instead of a function,
+     * variable names follow the same rules as function names and can not contain the letter 'x'.
+     *
+     * @param input Expression to compile
+     * @param variables Variable names used by the expression
+     * @return Compiled expression
+     */
+    public static CompiledExpression compile(@NonNull final String input, @NonNull final String... variables) {
+        return new Expression(input, new ArrayList<>(new LinkedHashSet<>(Arrays.asList(variables))), null).compile();
+    }
+
+    /**
+     * CompiledExpression compile(String, MathContext, String...)
+     *
+     * Parses the input into a reusable {@link CompiledExpression} that computes every operation and function
+     * natively in BigDecimal, rounded to the specified precision.
+     *
+     * @param input Expression to compile
+     * @param context Precision of the result
+     * @param variables Variable names used by the expression
+     * @return Compiled expression
+     */
+    public static CompiledExpression compile(@NonNull final String input, @NonNull final MathContext context, @NonNull final String... variables) {
+        return new Expression(input, new ArrayList<>(new LinkedHashSet<>(Arrays.asList(variables))), context).compile();
+    }
+
+    /**
+     * BigDecimal evaluate()
+     *
+     * Evaluates an expression that has no variables.
+     *
+     * @return Expression result
+     */
+    public BigDecimal evaluate() {
+        return this.evaluate(Collections.emptyMap());
+    }
+
+    /**
+     * BigDecimal evaluate(String, BigDecimal)
+     *
+     * Evaluates an expression that has a single variable.
+     *
+     * @param name Variable name
+     * @param value Variable value
+     * @return Expression result
+     */
+    public BigDecimal evaluate(@NonNull final String name, @NonNull final BigDecimal value) {
+        return this.evaluate(Collections.singletonMap(name, value));
+    }
+
+    /**
+     * BigDecimal evaluate(Map)
+     *
+     * Evaluates the expression using the specified variable values.
+     *
+     * @param variables Variable values
+     * @return Expression result
+     */
+    public BigDecimal evaluate(@NonNull final Map<String, BigDecimal> variables) {
+        return this.evaluate(this.bind(variables));
+    }
+
+    /**
+     * BigDecimal evaluate(BigDecimal[])
+     *
+     * Evaluates the expression using variable values that are already ordered by slot.
+     *
+     * @param values Variable values, in the order the variables were declared
+     * @return Expression result
+     */
+    BigDecimal evaluate(final BigDecimal[] values) {
+        final BigDecimal extended = this.evaluateExtended(values);
+
+        if(extended != null) {
+            return extended;
+        }
+
+        final BytecodeCompiler.Compiled generated = this.getGenerated();
+
+        // Check if the expression has already been compiled to bytecode.
+        if(generated != null) {
+            return generated.evaluate(values);
+        }
+
+        final Scope scope = new Scope(values, this.getContext(), this.getShared());
+
+        // Deep trees are walked with an explicit stack and never compiled, the compiler is recursive too.
+        if(this.isDeep()) {
+            return StackEvaluator.evaluate(this.getRoot(), scope);
+        }
+
+        // Compile the expression once it becomes hot, only the thread that crosses the threshold does the work.
+        // Generated code doesn't support a precision, those expressions stay in the interpreter.
+        if(this.getEvaluations().incrementAndGet() == COMPILE_THRESHOLD && this.getContext() == null) {
+            this.generated = BytecodeCompiler.compile(this.getRoot());
+        }
+
+        return this.getRoot().evaluate(scope);
+    }
+
+    /**
+     * BigDecimal evaluate(Budget)
+     *
+     * Evaluates an expression that has no variables within a budget.
+     *
+     * @param budget Limits of the evaluation
+     * @return Expression result
+     * @throws BudgetExceededException if the evaluation doesn't fit in the budget
+     */
+    public BigDecimal evaluate(@NonNull final Budget budget) {
+        return this.evaluate(Collections.emptyMap(), budget);
+    }
+
+    /**
+     * BigDecimal evaluate(Map, Budget)
+     *
+     * Evaluates the expression using the specified variable values within a budget, the expression is rejected
+     * before it runs if its {@link Cost} is over budget and stopped as soon as it runs out while evaluating.
+     *
+     * @param variables Variable values
+     * @param budget Limits of the evaluation
+     * @return Expression result
+     * @throws BudgetExceededException if the evaluation doesn't fit in the budget
+     */
+    public BigDecimal evaluate(@NonNull final Map<String, BigDecimal> variables, @NonNull final Budget budget) {
+        // An unlimited budget doesn't need to be metered.
+        if(budget == Budget.UNLIMITED) {
+            return this.evaluate(variables);
+        }
+
+        budget.check(this.getCost());
+
+        // A double-double program runs every node once on fixed size pairs, it can't run away.
+        final BigDecimal[] values = this.bind(variables);
+        final BigDecimal extended = this.evaluateExtended(values);
+
+        if(extended != null) {
+            return extended;
+        }
+
+        return StackEvaluator.evaluate(this.getRoot(), new Scope(values, this.getContext(), this.getShared()), budget.start(), null);
+    }
+
+    /**
+     * Profile profile()
+     *
+     * Evaluates an expression that has no variables and records where the time goes.
+     *
+     * @return Profile of the evaluation
+     */
+    public Profile profile() {
+        return this.profile(Collections.emptyMap(), Budget.UNLIMITED);
+    }
+
+    /**
+     * Profile profile(Map, Budget)
+     *
+     * Evaluates the expression node by node, recording how long every node takes, how often it runs and how large
+     * its results are. Profiling is much slower than a normal evaluation, an evaluation that fails (or runs out of
+     * budget) still returns a profile of everything that ran.
+     *
+     * The profiled tree is the one the parser produced, without the optimizer's folding and rewriting, so every
+     * node the user typed shows up in the profile.
+     *
+     * @param variables Variable values
+     * @param budget Limits of the evaluation
+     * @return Profile of the evaluation
+     */
+    public Profile profile(@NonNull final Map<String, BigDecimal> variables, @NonNull final Budget budget) {
+        // Deep trees are never optimized, everything else is parsed again.
+        if(!this.isDeep()) {
+            return new Expression(this.getInput(), this.getSlots(), this.getContext()).compile(false).profileTree(variables, budget);
+        }
+
+        return this.profileTree(variables, budget);
+    }
+
+    /**
+     * Profile profileTree(Map, Budget)
+     *
+     * @param variables Variable values
+     * @param budget Limits of the evaluation
+     * @return Profile of an evaluation of this tree as it is
+     */
+    Profile profileTree(final Map<String, BigDecimal> variables, final Budget budget) {
+        final Scope scope = new Scope(this.bind(variables), this.getContext(), this.getShared());
+        final Profiler profiler = new Profiler();
+        final long start = System.nanoTime();
+        BigDecimal value = null;
+        RuntimeException error = null;
+
+        try {
+            // An unlimited budget doesn't need to be metered.
+            final Meter meter = budget == Budget.UNLIMITED ? null : budget.start();
+            if(meter != null) {
+                budget.check(this.getCost());
+            }
+
+            value = StackEvaluator.evaluate(this.getRoot(), scope, meter, profiler);
+        } catch(final RuntimeException ex) {
+            error = ex;
+        }
+
+        return profiler.build(this.getInput(), this.getRoot(), value, error, System.nanoTime() - start);
+    }
+
+    /**
+     * double evaluateDouble(double...)
+     *
+     * Evaluates the expression entirely on primitive doubles, this doesn't allocate but the result is only
+     * as precise as a double and division never throws.
+     *
+     * @param values Variable values, in the order the variables were declared
+     * @return Approximate expression result
+     */
+    public double evaluateDouble(@NonNull final double... values) {
+        // Make sure every variable has a value.
+        if(values.length != this.getSlots().size()) {
+            throw new IllegalArgumentException("Expected " + this.getSlots().size() + " variable values but got " + values.length + ".");
+        }
+
+        final Scope scope = new Scope(values, this.getShared());
+        return this.isDeep() ? StackEvaluator.evaluateDouble(this.getRoot(), scope) : this.getRoot().evaluateDouble(scope);
+    }
+
+    /**
+     * void evaluateDoubleDouble(double[], double...)
+     *
+     * Evaluates the expression on double-double pairs, about 32 significant digits instead of the 16 of a double,
+     * without allocating. Like {@link #evaluateDouble(double...)} division never throws and the result can be
+     * infinite or NaN. Only arithmetic, powers and square roots are supported.
+     *
+     * @param target Array the result is written to, the high part at index 0 and the low part at index 1
+     * @param values Variable values, in the order the variables were declared
+     * @throws UnsupportedOperationException if the expression uses anything else
+     */
+    public void evaluateDoubleDouble(@NonNull final double[] target, @NonNull final double... values) {
+        // Make sure every variable has a value.
+        if(values.length != this.getSlots().size()) {
+            throw new IllegalArgumentException("Expected " + this.getSlots().size() + " variable values but got " + values.length + ".");
+        }
+
+        if(target.length < 2) {
+            throw new IllegalArgumentException("Expected a target of at least 2 doubles but got " + target.length + ".");
+        }
+
+        DoubleDoubleEvaluator extended = this.getExtended();
+
+        // Expressions compiled without DOUBLE_DOUBLE only get a program once they are evaluated on pairs.
+        if(extended == null && !this.isDeep()) {
+            extended = DoubleDoubleEvaluator.compile(this.getRoot(), this.getShared());
+            this.extended = extended;
+        }
+
+        if(extended == null) {
+            throw new UnsupportedOperationException("Expression \"" + this.getInput() + "\" can't be evaluated on double-double pairs.");
+        }
+
+        extended.run(values, 1, false, target);
+    }
+
+    /**
+     * BigDecimal evaluateExtended(BigDecimal[])
+     *
+     * @param values Variable values, in slot order
+     * @return Result of the double-double program rounded to {@link #DOUBLE_DOUBLE}, or null if the expression
+     *         wasn't compiled with it or a value left the range of a pair
+     */
+    private BigDecimal evaluateExtended(final BigDecimal[] values) {
+        final DoubleDoubleEvaluator extended = this.getExtended();
+
+        if(extended == null || this.getContext() != DOUBLE_DOUBLE) {
+            return null;
+        }
+
+        final BigDecimal result = extended.evaluate(values);
+
+        if(result == null) {
+            return null;
+        }
+
+        // The exact sum of the pair has dozens of binary digits, only the significant ones are kept, Ex: "0.1".
+        final BigDecimal rounded = result.round(DOUBLE_DOUBLE).stripTrailingZeros();
+        return rounded.scale() < 0 ? rounded.setScale(0) : rounded;
+    }
+
+    /**
+     * double[] evaluateColumns(double[]...)
+     *
+     * Evaluates the expression for every row of the variable columns, row i of the result is the same as
+     * calling {@link #evaluateDouble(double...)} with row i of every column.
+     *
+     * @param columns Variable columns, in the order the variables were declared, all of the same length
+     * @return Result column
+     */
+    public double[] evaluateColumns(@NonNull final double[]... columns) {
+        return this.evaluateColumns(new ColumnScope(columns, null, this.getShared()), this.rows(columns));
+    }
+
+    /**
+     * double[] evaluateColumns(long[]...)
+     *
+     * Evaluates the expression for every row of the variable columns, the values are converted to doubles
+     * as they are read so every row gives the same result as {@link #evaluateDouble(double...)}.
+     *
+     * @param columns Variable columns, in the order the variables were declared, all of the same length
+     * @return Result column
+     */
+    public double[] evaluateColumns(@NonNull final long[]... columns) {
+        return this.evaluateColumns(new ColumnScope(null, columns, this.getShared()), this.rows(columns));
+    }
+
+    /**
+     * long evaluateCsv(Reader, DoubleConsumer)
+     *
+     * Evaluates the expression for every row of a CSV file, streaming the file in blocks so it never has to fit
+     * in memory. The header names the columns, every variable has to be one of them and other columns are ignored.
+     *
+     * @param reader CSV input
+     * @param output Receives the result of every row, in order
+     * @return Number of rows evaluated
+     * @throws IOException if the input can't be read
+     */
+    public long evaluateCsv(@NonNull final Reader reader, @NonNull final DoubleConsumer output) throws IOException {
+        final CsvColumns csv = new CsvColumns(reader, this.getSlots());
+        final ColumnScope scope = new ColumnScope(csv.getColumns(), null, this.getShared());
+        final double[] block = new double[ColumnScope.BLOCK];
+        long rows = 0;
+
+        for(int length = csv.next(); length > 0; length = csv.next()) {
+            scope.block(0, length);
+            this.evaluateBlock(scope, block);
+
+            for(int i = 0; i < length; i++) {
+                output.accept(block[i]);
+            }
+
+            rows += length;
+        }
+
+        return rows;
+    }
+
+    /**
+     * double[] evaluateColumns(ColumnScope, int)
+     *
+     * @param scope Column scope over the variable columns
+     * @param rows Number of rows
+     * @return Result column
+     */
+    private double[] evaluateColumns(final ColumnScope scope, final int rows) {
+        final double[] result = new double[rows];
+        final double[] block = new double[Math.min(rows, ColumnScope.BLOCK)];
+
+        for(int offset = 0; offset < rows; offset += ColumnScope.BLOCK) {
+            final int length = Math.min(ColumnScope.BLOCK, rows - offset);
+
+            scope.block(offset, length);
+            this.evaluateBlock(scope, block);
+            System.arraycopy(block, 0, result, offset, length);
+        }
+
+        return result;
+    }
+
+    /**
+     * void evaluateBlock(ColumnScope, double[])
+     *
+     * Evaluates the current block of a column scope, deep trees are evaluated one row at a time with an explicit stack.
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    private void evaluateBlock(final ColumnScope scope, final double[] target) {
+        if(!this.isDeep()) {
+            this.getRoot().evaluateColumn(scope, target);
+            return;
+        }
+
+        // Copy the block of every variable column, then evaluate it row by row.
+        final double[][] columns = new double[this.getSlots().size()][ColumnScope.BLOCK];
+        for(int slot = 0; slot < columns.length; slot++) {
+            scope.column(slot, columns[slot]);
+        }
+
+        final double[] row = new double[columns.length];
+        for(int i = 0; i < scope.getLength(); i++) {
+            for(int slot = 0; slot < columns.length; slot++) {
+                row[slot] = columns[slot][i];
+            }
+
+            target[i] = StackEvaluator.evaluateDouble(this.getRoot(), new Scope(row, this.getShared()));
+        }
+    }
+
+    /**
+     * int rows(double[][])
+     *
+     * Makes sure there is one column per variable and that every column has the same length.
+     *
+     * @param columns Columns to check
+     * @return Number of rows
+     */
+    private int rows(final double[][] columns) {
+        final int rows = this.columns(columns.length) == 0 ? 0 : columns[0].length;
+
+        for(final double[] column : columns) {
+            if(column.length != rows) {
+                throw new IllegalArgumentException("Every column must have " + rows + " rows.");
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * int rows(long[][])
+     *
+     * Makes sure there is one column per variable and that every column has the same length.
+     *
+     * @param columns Columns to check
+     * @return Number of rows
+     */
+    private int rows(final long[][] columns) {
+        final int rows = this.columns(columns.length) == 0 ? 0 : columns[0].length;
+
+        for(final long[] column : columns) {
+            if(column.length != rows) {
+                throw new IllegalArgumentException("Every column must have " + rows + " rows.");
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * int columns(int)
+     *
+     * @param count Number of columns passed by the caller
+     * @return Number of columns, if there is one per variable
+     */
+    private int columns(final int count) {
+        if(count != this.getSlots().size()) {
+            throw new IllegalArgumentException("Expected " + this.getSlots().size() + " columns but got " + count + ".");
+        }
+
+        return count;
+    }
+
+    /**
+     * boolean isGenerated()
+     *
+     * @return True if evaluations are running generated bytecode, otherwise false.
+     */
+    public boolean isGenerated() {
+        return this.getGenerated() != null;
+    }
+
+    /**
+     * BigDecimal[] bind(Map)
+     *
+     * Converts a variable map into the slot array used by generated evaluators.
+     *
+     * @param variables Variable values
+     * @return Variable values ordered by slot
+     */
+    private BigDecimal[] bind(final Map<String, BigDecimal> variables) {
+        final BigDecimal[] values = new BigDecimal[this.getSlots().size()];
+
+        for(int i = 0; i < values.length; i++) {
+            values[i] = variables.get(this.getSlots().get(i));
+
+            // Check if the caller forgot to bind this variable.
+            if(values[i] == null) {
+                throw new RuntimeException("Missing value for variable \"" + this.getSlots().get(i) + "\".");
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Map variables(Object...)
+     *
+     * Builds a variable map from alternating names and values, Ex: "variables("a", 1, "b", 2.5)".
+     *
+     * @param pairs Alternating variable names and values
+     * @return Variable map
+     */
+    public static Map<String, BigDecimal> variables(@NonNull final Object... pairs) {
+        // Make sure every name has a value.
+        if(pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Variables must be passed as name and value pairs.");
+        }
+
+        final Map<String, BigDecimal> variables = new HashMap<>();
+        for(int i = 0; i < pairs.length; i += 2) {
+            variables.put((String) pairs[i], new BigDecimal(pairs[i + 1].toString()));
+        }
+
+        return variables;
+    }
+
+    @Override
+    public String toString() {
+        // Printing the tree is recursive, deep trees are printed as their input.
+        return this.isDeep() ? this.getInput() : this.getRoot().toString();
+    }
+}
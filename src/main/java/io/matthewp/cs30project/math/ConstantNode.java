@@ -0,0 +1,104 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * ConstantNode
+ *
+ * Expression tree node that holds a numeric literal.
+ */
+final class ConstantNode extends Node {
+    @Getter private final BigDecimal value;
+    @Getter private final double doubleValue;
+    @Getter private final long longValue;
+
+    /**
+     * ConstantNode(BigDecimal)
+     *
+     * Creates a new {@link ConstantNode} object.
+     *
+     * @param value Literal value
+     */
+    ConstantNode(@NonNull final BigDecimal value) {
+        super(ConstantNode.precision(value), Math.abs(value.doubleValue()));
+
+        this.value = value;
+        this.doubleValue = value.doubleValue();
+        this.longValue = value.longValue();
+    }
+
+    /**
+     * Precision precision(BigDecimal)
+     *
+     * Integer literals small enough to be represented by a double are exact, the rest of the integers that fit in a
+     * long are integral and everything else is faithful.
+     *
+     * @param value Literal value
+     * @return Literal precision
+     */
+    private static Precision precision(final BigDecimal value) {
+        // Check the unscaled bits instead of doubleValue(), which would round values just above the limit down.
+        if(value.scale() == 0 && value.unscaledValue().bitLength() <= 53) {
+            return Precision.EXACT;
+        }
+
+        if(value.scale() == 0 && value.unscaledValue().bitLength() <= 63) {
+            return Precision.INTEGER;
+        }
+
+        return Precision.FAITHFUL;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Literal value
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        return this.getValue();
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Literal value
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return this.getDoubleValue();
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        Arrays.fill(target, 0, scope.getLength(), this.getDoubleValue());
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Literal value
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        return this.getLongValue();
+    }
+
+    @Override
+    public String toString() {
+        return this.getValue().toString();
+    }
+}
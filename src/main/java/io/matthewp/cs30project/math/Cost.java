@@ -0,0 +1,32 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+
+/**
+ * Cost
+ *
+ * Estimated cost of evaluating a {@link CompiledExpression} once, computed by the {@link CostModel} when the
+ * expression is compiled.
+ */
+public final class Cost {
+    @Getter private final long operations;
+    @Getter private final long digits;
+
+    /**
+     * Cost(long, long)
+     *
+     * Creates a new {@link Cost} object.
+     *
+     * @param operations Number of nodes in the expression tree
+     * @param digits Largest number of digits any node is predicted to produce, 0 if nothing could be predicted
+     */
+    Cost(final long operations, final long digits) {
+        this.operations = operations;
+        this.digits = digits;
+    }
+
+    @Override
+    public String toString() {
+        return "Cost(operations=" + this.getOperations() + ", digits=" + this.getDigits() + ")";
+    }
+}
@@ -0,0 +1,552 @@
+package io.matthewp.cs30project.math;
+
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * CostModel
+ *
+ * Predicts how many digits every node of an expression tree produces, which is what makes an exact evaluation
+ * expensive: "fib(100000000)" or "9^999999999" with an unlimited precision are only a handful of operations but
+ * their results have millions of digits.
+ *
+ * Predictions are upper bounds for exact arithmetic and the precision for rounded arithmetic, results computed on
+ * doubles always have at most 17 digits. Nodes whose result can't be predicted (variables, user defined functions)
+ * are NaN, which never exceeds a limit.
+ *
+ * The same walk can also estimate the work of every subtree, roughly the number of digit operations it takes,
+ * which is what the {@link Optimizer} uses to decide if a subtree is worth evaluating on another thread.
+ */
+final class CostModel {
+    // DOUBLE_DIGITS is the most digits a BigDecimal converted from a double can have.
+    private static final double DOUBLE_DIGITS = 17;
+    // LONG_DIGITS is the most digits a BigDecimal converted from a long can have.
+    private static final double LONG_DIGITS = 19;
+    // LOG_PHI and LOG_SQRT5 give the number of digits of F(n), n * log10(phi) - log10(sqrt(5)) + 1.
+    private static final double LOG_PHI = 0.20898764024997873;
+    private static final double LOG_SQRT5 = 0.3494850021680094;
+    // KARATSUBA is about the number of digits where BigInteger stops multiplying digit by digit.
+    private static final double KARATSUBA = 800;
+
+    // MAX_EXACT_DIGITS is the most digits an exact power or fibonacci number may have, with or without a budget.
+    // A result that large already takes about a second and a single operation can't be stopped while it runs.
+    static final long MAX_EXACT_DIGITS = 1_000_000;
+
+    /**
+     * CostModel()
+     *
+     * Utility class, should not be instantiated.
+     */
+    private CostModel() {
+    }
+
+    /**
+     * Cost estimate(Node, MathContext)
+     *
+     * Walks the tree with an explicit stack and predicts the digits of every node from the predictions of its children,
+     * shared subexpressions are only counted once.
+     *
+     * @param root Root of the optimized tree
+     * @param context Precision the tree will be evaluated with, or null
+     * @return Estimated cost of one evaluation
+     */
+    static Cost estimate(@NonNull final Node root, final MathContext context) {
+        return CostModel.estimate(root, context, -1, Double.NaN, null);
+    }
+
+    /**
+     * Map work(Node, MathContext)
+     *
+     * Estimates the work of every subtree of an optimized tree, in digit operations. A shared subexpression is only
+     * counted for its first copy.
+     *
+     * @param root Root of the optimized tree
+     * @param context Precision the tree will be evaluated with, or null
+     * @return Estimated work by node
+     */
+    static Map<Node, Double> work(@NonNull final Node root, final MathContext context) {
+        final Map<Node, Double> works = new IdentityHashMap<>();
+        CostModel.estimate(root, context, -1, Double.NaN, works);
+        return works;
+    }
+
+    /**
+     * Cost aggregate(AggregateNode, BigDecimal, BigDecimal, MathContext)
+     *
+     * Estimates an aggregate from its bounds, the body is estimated once with the digits of the largest index
+     * and counted once for every index.
+     *
+     * @param node Aggregate
+     * @param from First index, or null if it isn't known
+     * @param to Last index, or null if it isn't known
+     * @param context Precision the tree will be evaluated with, or null
+     * @return Estimated cost of the aggregate, digits are 0 if they can't be predicted
+     */
+    static Cost aggregate(@NonNull final AggregateNode node, final BigDecimal from, final BigDecimal to, final MathContext context) {
+        final boolean known = from != null && to != null;
+        final double indexDigits = known ? Math.max(from.precision() - from.scale(), to.precision() - to.scale()) : Double.NaN;
+        final Cost body = CostModel.estimate(node.getBody(), context, node.getSlot(), Math.max(1, indexDigits), null);
+        final double digits = body.getDigits() == 0 ? Double.NaN : body.getDigits();
+        final int precision = context == null ? 0 : context.getPrecision();
+
+        // Without both bounds the body is only counted once.
+        final double count = known ? Math.max(0, to.subtract(from).doubleValue() + 1) : 1;
+
+        final double result;
+        switch(node.getAggregate()) {
+            case SUM:
+                // A sum of n terms has at most log10(n) more digits than its largest term.
+                result = CostModel.limit(digits + Math.log10(Math.max(1, count)), precision);
+                break;
+            case PROD:
+                result = CostModel.limit(digits * count, precision);
+                break;
+            default:
+                result = digits;
+                break;
+        }
+
+        final double operations = 1 + count * body.getOperations();
+        return new Cost((long) Math.min(operations, Long.MAX_VALUE), (long) Math.min(Math.ceil(Math.max(result, body.getDigits())), Long.MAX_VALUE));
+    }
+
+    /**
+     * Cost estimate(Node, MathContext, int, double, Map)
+     *
+     * @param root Root of the tree
+     * @param context Precision the tree will be evaluated with, or null
+     * @param index Slot of the index of the aggregate the tree is the body of, or -1
+     * @param indexDigits Digits of the largest index, or NaN
+     * @param works Map the work of every subtree is stored in, or null
+     * @return Estimated cost of one evaluation
+     */
+    private static Cost estimate(final Node root, final MathContext context, final int index, final double indexDigits, final Map<Node, Double> works) {
+        final Map<Integer, Double> shared = new HashMap<>();
+        Node[] nodes = new Node[64];
+        int[] states = new int[64];
+        int size = 0;
+        double[] digits = new double[64];
+        BigDecimal[] values = new BigDecimal[64];
+        double[] work = new double[64];
+        int count = 0;
+        long operations = 0;
+        double max = 0;
+
+        nodes[size++] = CostModel.unwrap(root);
+        while(size > 0) {
+            final Node node = nodes[size - 1];
+            final int state = states[size - 1]++;
+            Node child = null;
+
+            // Make sure there is room for another node and another operand.
+            if(size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+            }
+            if(count == digits.length) {
+                digits = Arrays.copyOf(digits, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+                work = Arrays.copyOf(work, count * 2);
+            }
+
+            if(node instanceof ConstantNode) {
+                values[count] = ((ConstantNode) node).getValue();
+                digits[count] = values[count].precision();
+                work[count] = 1;
+                count++;
+            } else if(node instanceof VariableNode) {
+                values[count] = null;
+                digits[count] = ((VariableNode) node).getSlot() == index ? indexDigits : Double.NaN;
+                work[count] = 1;
+                count++;
+            } else if(node instanceof SharedNode) {
+                final SharedNode sharedNode = (SharedNode) node;
+                final Double known = shared.get(sharedNode.getIndex());
+
+                if(state == 0 && known == null) {
+                    child = sharedNode.getNode();
+                } else if(state == 0) {
+                    // Every copy after the first one is free.
+                    values[count] = null;
+                    digits[count] = known;
+                    work[count] = 1;
+                    count++;
+                } else {
+                    shared.put(sharedNode.getIndex(), digits[count - 1]);
+                }
+            } else if(node instanceof NegateNode || node instanceof SquareNode || node instanceof FunctionNode) {
+                if(state == 0) {
+                    child = node instanceof NegateNode ? ((NegateNode) node).getOperand()
+                            : node instanceof SquareNode ? ((SquareNode) node).getOperand() : ((FunctionNode) node).getArgument();
+                } else {
+                    final double operand = digits[count - 1];
+                    digits[count - 1] = CostModel.digits(node, values[count - 1], null, operand, Double.NaN, context);
+                    work[count - 1] += CostModel.work(node, values[count - 1], null, operand, Double.NaN, digits[count - 1], context);
+                    values[count - 1] = null;
+                }
+            } else if(node instanceof CallNode) {
+                final Node[] arguments = ((CallNode) node).getArguments();
+
+                if(state < arguments.length) {
+                    child = arguments[state];
+                } else {
+                    // User defined functions can return anything.
+                    double total = 1;
+                    for(int i = count - arguments.length; i < count; i++) {
+                        total += work[i];
+                    }
+
+                    Arrays.fill(values, count - arguments.length, count, null);
+                    count -= arguments.length;
+                    values[count] = null;
+                    digits[count] = Double.NaN;
+                    work[count] = total;
+                    count++;
+                }
+            } else if(node instanceof AggregateNode) {
+                final AggregateNode aggregate = (AggregateNode) node;
+
+                if(state < 2) {
+                    child = state == 0 ? aggregate.getFrom() : aggregate.getTo();
+                } else {
+                    final Cost cost = CostModel.aggregate(aggregate, values[count - 2], values[count - 1], context);
+
+                    // The bounds are already counted.
+                    operations += cost.getOperations() - 1;
+                    count--;
+                    values[count - 1] = null;
+                    values[count] = null;
+                    digits[count - 1] = cost.getDigits() == 0 ? Double.NaN : cost.getDigits();
+                    // Every operation of the body is counted as an operation on doubles.
+                    work[count - 1] += work[count] + cost.getOperations() * DOUBLE_DIGITS;
+                }
+            } else if(node instanceof BinaryNode) {
+                if(state < 2) {
+                    child = state == 0 ? ((BinaryNode) node).getLeft() : ((BinaryNode) node).getRight();
+                } else {
+                    count--;
+                    final double left = digits[count - 1];
+                    digits[count - 1] = CostModel.digits(node, values[count - 1], values[count], left, digits[count], context);
+                    work[count - 1] += work[count] + CostModel.work(node, values[count - 1], values[count], left, digits[count], digits[count - 1], context);
+                    values[count - 1] = null;
+                    values[count] = null;
+                }
+            } else {
+                throw new IllegalStateException("Unknown node " + node.getClass().getSimpleName() + ".");
+            }
+
+            if(child != null) {
+                nodes[size] = CostModel.unwrap(child);
+                states[size++] = 0;
+                continue;
+            }
+
+            // The node is done, a shared node is only a reference to a subexpression that was already counted.
+            nodes[--size] = null;
+            if(!(node instanceof SharedNode)) {
+                operations++;
+            }
+            if(digits[count - 1] > max) {
+                max = digits[count - 1];
+            }
+            if(works != null) {
+                works.put(node, work[count - 1]);
+            }
+        }
+
+        return new Cost(operations, (long) Math.min(Math.ceil(max), Long.MAX_VALUE));
+    }
+
+    /**
+     * double digits(Node, MathContext)
+     *
+     * Predicts the digits of a node whose children are all constants, used to decide if it is worth folding.
+     *
+     * @param node Node with constant children
+     * @param context Precision the tree will be evaluated with, or null
+     * @return Predicted number of digits, or NaN if it can't be predicted
+     */
+    static double digits(@NonNull final Node node, final MathContext context) {
+        if(node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+            return CostModel.digits(node, CostModel.value(binary.getLeft()), CostModel.value(binary.getRight()), context);
+        }
+
+        if(node instanceof NegateNode) {
+            return CostModel.digits(node, CostModel.value(((NegateNode) node).getOperand()), null, context);
+        }
+
+        if(node instanceof SquareNode) {
+            return CostModel.digits(node, CostModel.value(((SquareNode) node).getOperand()), null, context);
+        }
+
+        if(node instanceof FunctionNode) {
+            return CostModel.digits(node, CostModel.value(((FunctionNode) node).getArgument()), null, context);
+        }
+
+        return node instanceof ConstantNode ? ((ConstantNode) node).getValue().precision() : Double.NaN;
+    }
+
+    /**
+     * double digits(Node, BigDecimal, BigDecimal, MathContext)
+     *
+     * Predicts the digits of a node from the values of its operands.
+     *
+     * @param node Node that is about to be computed
+     * @param x First operand, or null if it isn't known
+     * @param y Second operand, or null if the node only has one or it isn't known
+     * @param context Precision of the evaluation, or null
+     * @return Predicted number of digits, or NaN if it can't be predicted
+     */
+    static double digits(@NonNull final Node node, final BigDecimal x, final BigDecimal y, final MathContext context) {
+        return CostModel.digits(node, x, y, x == null ? Double.NaN : x.precision(), y == null ? Double.NaN : y.precision(), context);
+    }
+
+    /**
+     * double digits(Node, BigDecimal, BigDecimal, double, double, MathContext)
+     *
+     * @param node Node that is about to be computed
+     * @param x First operand, or null if it isn't known
+     * @param y Second operand, or null if it isn't known
+     * @param dx Predicted digits of the first operand, or NaN
+     * @param dy Predicted digits of the second operand, or NaN
+     * @param context Precision of the evaluation, or null
+     * @return Predicted number of digits, or NaN if it can't be predicted
+     */
+    private static double digits(final Node node, final BigDecimal x, final BigDecimal y, final double dx, final double dy, final MathContext context) {
+        final int precision = context == null ? 0 : context.getPrecision();
+
+        if(node instanceof NegateNode) {
+            return CostModel.limit(dx, precision);
+        }
+
+        if(node instanceof SquareNode) {
+            // Without a precision squares are exact.
+            return precision > 0 ? precision : 2 * dx;
+        }
+
+        if(node instanceof FunctionNode) {
+            final Builtin builtin = ((FunctionNode) node).getFunction().getBuiltin();
+
+            // User defined functions can return anything.
+            if(builtin == null) {
+                return Double.NaN;
+            }
+
+            if(builtin == Builtin.FIB) {
+                return x == null ? Double.NaN : CostModel.fib(x.doubleValue());
+            }
+
+            if(context == null) {
+                return builtin == Builtin.ROUND ? LONG_DIGITS : DOUBLE_DIGITS;
+            }
+
+            // Rounding to an integer keeps every digit in front of the decimal point.
+            if(builtin == Builtin.ROUND || builtin == Builtin.CEIL || builtin == Builtin.FLOOR) {
+                return x == null ? dx : Math.max(1, x.precision() - x.scale()) + 1;
+            }
+
+            return precision;
+        }
+
+        if(node instanceof BinaryNode) {
+            switch(((BinaryNode) node).getOperator()) {
+                case ADD:
+                case SUBTRACT:
+                    // The result spans from the highest digit of either operand to the lowest digit of either operand.
+                    if(x != null && y != null) {
+                        final double high = Math.max(x.precision() - (double) x.scale(), y.precision() - (double) y.scale());
+                        final double low = Math.min(-(double) x.scale(), -(double) y.scale());
+                        return CostModel.limit(high - low + 1, precision);
+                    }
+                    // Otherwise treat the digits as magnitudes, a long chain of sums only grows by the log of its length.
+                    return CostModel.limit(Math.max(dx, dy) + Math.log10(1 + Math.pow(10, Math.min(dx, dy) - Math.max(dx, dy))), precision);
+                case MULTIPLY:
+                    return CostModel.limit(dx + dy, precision);
+                case DIVIDE:
+                    // An exact quotient needs a digit for every factor of 2 or 5 in the divisor.
+                    return precision > 0 ? precision : dx + 3 * dy;
+                case POWER:
+                    if(precision > 0) {
+                        return precision;
+                    }
+                    // Without a precision fractional exponents are computed on doubles.
+                    if(context == null && y != null && !Operator.isInteger(y)) {
+                        return DOUBLE_DIGITS;
+                    }
+                    // Otherwise only integer exponents work, they multiply the digits of the base.
+                    if(y == null || !Operator.isInteger(y)) {
+                        return Double.NaN;
+                    }
+                    return x == null ? dx * y.abs().doubleValue() : CostModel.power(x, y.abs().doubleValue());
+            }
+        }
+
+        return Double.NaN;
+    }
+
+    /**
+     * double work(Node, BigDecimal, BigDecimal, double, double, double, MathContext)
+     *
+     * Estimates the work of a single operation from the digits of its operands and its result.
+     *
+     * @param node Node that is about to be computed
+     * @param x First operand, or null if it isn't known
+     * @param y Second operand, or null if it isn't known
+     * @param dx Predicted digits of the first operand, or NaN
+     * @param dy Predicted digits of the second operand, or NaN
+     * @param digits Predicted digits of the result, or NaN
+     * @param context Precision of the evaluation, or null
+     * @return Estimated work in digit operations
+     */
+    private static double work(final Node node, final BigDecimal x, final BigDecimal y, final double dx, final double dy, final double digits, final MathContext context) {
+        // Anything that can't be predicted is treated like a double.
+        final double a = Double.isNaN(dx) ? DOUBLE_DIGITS : dx;
+        final double b = Double.isNaN(dy) ? DOUBLE_DIGITS : dy;
+        final double d = Double.isNaN(digits) ? DOUBLE_DIGITS : digits;
+
+        if(node instanceof SquareNode) {
+            return CostModel.multiply(a, a);
+        }
+
+        if(node instanceof FunctionNode) {
+            final Builtin builtin = ((FunctionNode) node).getFunction().getBuiltin();
+
+            // fib doubles its index, the last few multiplications are as large as the result.
+            if(builtin == Builtin.FIB) {
+                return 3 * CostModel.multiply(d, d);
+            }
+
+            // Series run a multiplication for every few digits of the precision.
+            return builtin == null || context == null ? 1 : CostModel.multiply(d, d) * Math.max(1, d / 8);
+        }
+
+        if(node instanceof BinaryNode) {
+            switch(((BinaryNode) node).getOperator()) {
+                case MULTIPLY:
+                    return CostModel.multiply(a, b);
+                case DIVIDE:
+                    return CostModel.multiply(d, b);
+                case POWER:
+                    // Fractional exponents without a precision are a single Math.pow.
+                    if(context == null && y != null && !Operator.isInteger(y)) {
+                        return 1;
+                    }
+                    // Integer exponents are computed by repeated squaring, without a precision the squares double in
+                    // size so together they cost about as much as the last one.
+                    return CostModel.multiply(d, d) * (context == null ? 1 : y == null ? 64 : Math.log(y.abs().doubleValue() + 2) / Math.log(2));
+                default:
+                    return Math.max(a, b);
+            }
+        }
+
+        return d;
+    }
+
+    /**
+     * double log10(BigInteger)
+     *
+     * @param value Non-negative value
+     * @return Base 10 logarithm of the value, 0 for 0
+     */
+    private static double log10(final BigInteger value) {
+        // Values past the double range are measured by their bits.
+        if(value.bitLength() > 1000) {
+            return value.bitLength() * Math.log10(2);
+        }
+
+        return value.signum() == 0 ? 0 : Math.log10(value.doubleValue());
+    }
+
+    /**
+     * double multiply(double, double)
+     *
+     * @param a Digits of the first factor
+     * @param b Digits of the second factor
+     * @return Estimated work of the multiplication
+     */
+    private static double multiply(final double a, final double b) {
+        final double low = Math.min(a, b);
+        final double high = Math.max(a, b);
+
+        // Large factors are split recursively, the work only grows with low^1.585.
+        return low <= KARATSUBA ? low * high : high * Math.pow(low, 0.585) * Math.pow(KARATSUBA, 0.415);
+    }
+
+    /**
+     * Node unwrap(Node)
+     *
+     * @param node Node of the tree
+     * @return Operation a {@link ForkNode} wraps, or the node itself
+     */
+    private static Node unwrap(final Node node) {
+        return node instanceof ForkNode ? ((ForkNode) node).getNode() : node;
+    }
+
+    /**
+     * double limit(double, int)
+     *
+     * @param digits Predicted digits of an exact result
+     * @param precision Precision of the evaluation, 0 if it is unlimited
+     * @return Predicted digits after rounding
+     */
+    private static double limit(final double digits, final int precision) {
+        return precision > 0 ? Math.min(digits, precision) : digits;
+    }
+
+    /**
+     * double fib(double)
+     *
+     * @param index Index in the fibonacci sequence
+     * @return Number of digits of F(index)
+     */
+    static double fib(final double index) {
+        return index < 3 ? 1 : Math.floor(index * LOG_PHI - LOG_SQRT5) + 1;
+    }
+
+    /**
+     * double power(BigDecimal, double)
+     *
+     * @param x Base
+     * @param exponent Magnitude of an integer exponent
+     * @return Number of digits of the exact power
+     */
+    static double power(final BigDecimal x, final double exponent) {
+        return CostModel.log10(x.unscaledValue().abs()) * exponent + 1;
+    }
+
+    /**
+     * void checkExact(double, String)
+     *
+     * Rejects an exact operation before it runs if its result would have more than {@link #MAX_EXACT_DIGITS}
+     * digits. Budgets predict the same digits and usually stop much earlier, this is what stops evaluations
+     * that don't have a budget.
+     *
+     * @param digits Predicted digits of the result
+     * @param operation Name of the operation, Ex: "Power"
+     * @throws BudgetExceededException if the result would be too large
+     */
+    static void checkExact(final double digits, final String operation) {
+        if(digits > MAX_EXACT_DIGITS) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS,
+                    operation + " would produce about " + (long) Math.min(Math.ceil(digits), Long.MAX_VALUE) + " digits, the limit is " + MAX_EXACT_DIGITS + ".");
+        }
+    }
+
+    /**
+     * BigDecimal value(Node)
+     *
+     * @param node Operand node
+     * @return Value of the node if it is a constant, otherwise null
+     */
+    private static BigDecimal value(final Node node) {
+        return node instanceof ConstantNode ? ((ConstantNode) node).getValue() : null;
+    }
+}
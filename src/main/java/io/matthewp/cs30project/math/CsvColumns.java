@@ -0,0 +1,303 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CsvColumns
+ *
+ * Streams the numeric columns of a CSV file in blocks of {@link ColumnScope#BLOCK} rows.
+ *
+ * The first line is a header, every variable of the expression has to be one of its names and every other column
+ * is skipped. Fields are separated by commas, spaces around a field are ignored and quoting isn't supported.
+ * Numbers are parsed straight out of the read buffer, only numbers with more digits than a double can hold exactly
+ * fall back to {@link Double#parseDouble(String)}.
+ */
+final class CsvColumns {
+    // POWERS stores every power of ten that a double represents exactly.
+    private static final double[] POWERS = new double[23];
+    // EXACT_DIGITS is the number of significant digits that always fit in a double's mantissa.
+    private static final int EXACT_DIGITS = 15;
+
+    // Fill the table of exact powers of ten.
+    static {
+        POWERS[0] = 1;
+        for(int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    @Getter(AccessLevel.PRIVATE) private final Reader reader;
+    @Getter(AccessLevel.PRIVATE) private final char[] buffer;
+    @Getter(AccessLevel.PRIVATE) private final int[] slots;
+    @Getter(AccessLevel.PACKAGE) private final double[][] columns;
+    @Getter(AccessLevel.PRIVATE) private final StringBuilder text;
+    @Getter(AccessLevel.PRIVATE) private int position;
+    @Getter(AccessLevel.PRIVATE) private int limit;
+    @Getter(AccessLevel.PRIVATE) private long line;
+
+    /**
+     * CsvColumns(Reader, List)
+     *
+     * Creates a new {@link CsvColumns} object and reads the header.
+     *
+     * @param reader CSV input
+     * @param variables Variable names, the index of a name is its slot
+     * @throws IOException if the input can't be read
+     */
+    CsvColumns(@NonNull final Reader reader, @NonNull final List<String> variables) throws IOException {
+        this.reader = reader;
+        this.buffer = new char[1 << 16];
+        this.columns = new double[variables.size()][ColumnScope.BLOCK];
+        this.text = new StringBuilder();
+        this.position = 0;
+        this.limit = 0;
+        this.line = 0;
+
+        // Map every field of the header to a variable slot, -1 skips the field.
+        final StringBuilder header = new StringBuilder();
+        int character;
+        while((character = this.read()) != -1 && character != '\n') {
+            header.append((char) character);
+        }
+        this.line++;
+
+        final String[] names = header.toString().split(",", -1);
+        this.slots = new int[names.length];
+        for(int i = 0; i < names.length; i++) {
+            this.slots[i] = variables.indexOf(names[i].trim());
+        }
+
+        // Make sure every variable has a column.
+        for(final String variable : variables) {
+            if(Arrays.stream(names).map(String::trim).noneMatch(variable::equals)) {
+                throw new IllegalArgumentException("CSV header has no column named \"" + variable + "\".");
+            }
+        }
+    }
+
+    /**
+     * int next()
+     *
+     * Reads the next block of rows into {@link #getColumns()}.
+     *
+     * @return Number of rows read, 0 once the input has been read
+     * @throws IOException if the input can't be read
+     */
+    int next() throws IOException {
+        int rows = 0;
+
+        while(rows < ColumnScope.BLOCK) {
+            final int character = this.peek();
+
+            // Check if we reached the end of the input.
+            if(character == -1) {
+                break;
+            }
+
+            this.line++;
+
+            // Skip empty lines.
+            if(character == '\n' || character == '\r') {
+                this.skipLine();
+                continue;
+            }
+
+            this.row(rows++);
+        }
+
+        return rows;
+    }
+
+    /**
+     * void row(int)
+     *
+     * Reads a single row.
+     *
+     * @param row Index of the row in the block
+     * @throws IOException if the input can't be read
+     */
+    private void row(final int row) throws IOException {
+        for(int field = 0; field < this.getSlots().length; field++) {
+            final int slot = this.getSlots()[field];
+
+            if(slot >= 0) {
+                this.getColumns()[slot][row] = this.number();
+            } else {
+                this.skipField();
+            }
+
+            final int character = this.read();
+
+            // The last field ends the line, every other field ends with a comma.
+            final boolean last = field == this.getSlots().length - 1;
+            if(last ? character != '\n' && character != '\r' && character != -1 : character != ',') {
+                throw new IllegalArgumentException("Line " + this.getLine() + " of the CSV input doesn't have " + this.getSlots().length + " fields.");
+            }
+
+            if(character == '\r' && this.peek() == '\n') {
+                this.read();
+            }
+        }
+    }
+
+    /**
+     * double number()
+     *
+     * Reads a number field, the reader is left on the character after it.
+     *
+     * @return Field value
+     * @throws IOException if the input can't be read
+     */
+    private double number() throws IOException {
+        this.skipSpaces();
+
+        boolean negative = false;
+        if(this.peek() == '-' || this.peek() == '+') {
+            negative = this.read() == '-';
+        }
+
+        long digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        boolean simple = true;
+        final StringBuilder text = this.getText();
+        text.setLength(0);
+
+        // Read "0-9 and ." characters, keeping the text in case the fast path can't handle the number.
+        for(int character = this.peek(); Lexer.isDigit(character) || (character == '.' && !point); character = this.peek()) {
+            this.read();
+            text.append((char) character);
+
+            if(character == '.') {
+                point = true;
+                continue;
+            }
+
+            any = true;
+
+            // Leading zeros don't count towards the significant digits.
+            if(digits == 0 && character == '0') {
+                scale += point ? 1 : 0;
+                continue;
+            }
+
+            if(++significant > EXACT_DIGITS) {
+                simple = false;
+            }
+
+            digits = digits * 10 + (character - '0');
+            scale += point ? 1 : 0;
+        }
+
+        // Exponents are rare, hand them to the JDK.
+        if(this.peek() == 'e' || this.peek() == 'E') {
+            simple = false;
+            text.append((char) this.read());
+
+            for(int character = this.peek(); Lexer.isDigit(character) || character == '-' || character == '+'; character = this.peek()) {
+                text.append((char) this.read());
+            }
+        }
+
+        this.skipSpaces();
+
+        if(!any) {
+            throw new IllegalArgumentException("Line " + this.getLine() + " of the CSV input has a field that isn't a number.");
+        }
+
+        // Both the digits and the power of ten are exact, so a single division is correctly rounded.
+        final double value = simple && scale < POWERS.length
+                ? digits / POWERS[scale]
+                : Double.parseDouble(text.toString());
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * void skipField()
+     *
+     * Skips a field that isn't used by the expression.
+     *
+     * @throws IOException if the input can't be read
+     */
+    private void skipField() throws IOException {
+        for(int character = this.peek(); character != ',' && character != '\n' && character != '\r' && character != -1; character = this.peek()) {
+            this.read();
+        }
+    }
+
+    /**
+     * void skipSpaces()
+     *
+     * @throws IOException if the input can't be read
+     */
+    private void skipSpaces() throws IOException {
+        while(this.peek() == ' ' || this.peek() == '\t') {
+            this.read();
+        }
+    }
+
+    /**
+     * void skipLine()
+     *
+     * @throws IOException if the input can't be read
+     */
+    private void skipLine() throws IOException {
+        for(int character = this.read(); character != '\n' && character != -1; character = this.read()) {
+            // Skip every character up to the end of the line.
+        }
+    }
+
+    /**
+     * int peek()
+     *
+     * @return Next character without reading it, or -1 at the end of the input
+     * @throws IOException if the input can't be read
+     */
+    private int peek() throws IOException {
+        if(this.getPosition() == this.getLimit() && !this.fill()) {
+            return -1;
+        }
+
+        return this.getBuffer()[this.getPosition()];
+    }
+
+    /**
+     * int read()
+     *
+     * @return Next character, or -1 at the end of the input
+     * @throws IOException if the input can't be read
+     */
+    private int read() throws IOException {
+        if(this.getPosition() == this.getLimit() && !this.fill()) {
+            return -1;
+        }
+
+        return this.getBuffer()[this.position++];
+    }
+
+    /**
+     * boolean fill()
+     *
+     * Reads the next part of the input into the buffer.
+     *
+     * @return True if anything was read, otherwise false.
+     * @throws IOException if the input can't be read
+     */
+    private boolean fill() throws IOException {
+        final int read = this.getReader().read(this.getBuffer(), 0, this.getBuffer().length);
+
+        this.position = 0;
+        this.limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
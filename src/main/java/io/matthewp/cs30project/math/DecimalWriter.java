@@ -0,0 +1,301 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * DecimalWriter
+ *
+ * Writes huge numbers as decimal text in chunks, without building the whole text as a single {@link String}.
+ *
+ * The digits are produced by divide and conquer: a number is split by a power of ten with about half its bits into
+ * a high and a low half, each half is converted the same way and only numbers of a few hundred digits are converted
+ * by {@link BigInteger#toString()}. The powers 10^18, 10^36, 10^72, ... are computed once and shared by every
+ * conversion. Since the high half is always written before the low half, digits come out in order and are handed
+ * to the output every {@link #CHUNK} characters.
+ */
+public final class DecimalWriter {
+    // CHUNK is the number of characters collected before they are written to the output.
+    private static final int CHUNK = 8192;
+    // SMALL is the precision up to which BigDecimal#toString() is cheaper than splitting the number.
+    private static final int SMALL = 1000;
+    // LEAF_BITS is the size up to which a part of a number is converted by BigInteger#toString().
+    private static final int LEAF_BITS = 1024;
+    // BASE_DIGITS is the number of zeros of the smallest cached power of ten.
+    private static final int BASE_DIGITS = 18;
+
+    // POWERS caches 10^(BASE_DIGITS * 2^k) at index k, it only grows.
+    private static volatile BigInteger[] powers = { BigInteger.TEN.pow(BASE_DIGITS) };
+
+    @Getter(AccessLevel.PRIVATE) private final Appendable output;
+    @Getter(AccessLevel.PRIVATE) private final char[] buffer;
+    @Getter(AccessLevel.PRIVATE) private int count;
+    @Getter(AccessLevel.PRIVATE) private long digits;
+    @Getter(AccessLevel.PRIVATE) private long point;
+
+    /**
+     * DecimalWriter(Appendable, long)
+     *
+     * @param output Output the chunks are written to
+     * @param point Number of digits before the decimal point, or -1 if there isn't one
+     */
+    private DecimalWriter(final Appendable output, final long point) {
+        this.output = output;
+        this.buffer = new char[CHUNK];
+        this.count = 0;
+        this.digits = 0;
+        this.point = point;
+    }
+
+    /**
+     * void write(BigDecimal, Appendable)
+     *
+     * Writes the same text as {@link BigDecimal#toString()}, including its scientific notation.
+     *
+     * @param value Number to write
+     * @param output Output the text is written to
+     * @throws IOException if the output can't be written
+     */
+    public static void write(@NonNull final BigDecimal value, @NonNull final Appendable output) throws IOException {
+        // Small numbers are converted faster than they can be split.
+        if(value.precision() <= SMALL) {
+            output.append(value.toString());
+            return;
+        }
+
+        final long precision = value.precision();
+        final long scale = value.scale();
+        final long adjusted = precision - 1 - scale;
+
+        // Plain notation, Ex: "123.45" or "0.00012345".
+        if(scale >= 0 && adjusted >= -6) {
+            final DecimalWriter writer = new DecimalWriter(output, scale > 0 && precision > scale ? precision - scale : -1);
+
+            if(value.signum() < 0) {
+                writer.append('-');
+            }
+
+            if(scale >= precision) {
+                writer.append('0').append('.').zeros(scale - precision);
+            }
+
+            writer.digits(value.unscaledValue().abs(), 0);
+            writer.flush();
+            return;
+        }
+
+        // Scientific notation, a single digit before the point, Ex: "1.2345E+1002".
+        final DecimalWriter writer = new DecimalWriter(output, 1);
+
+        if(value.signum() < 0) {
+            writer.append('-');
+        }
+
+        writer.digits(value.unscaledValue().abs(), 0);
+        writer.append('E');
+        if(adjusted > 0) {
+            writer.append('+');
+        }
+        writer.text(Long.toString(adjusted), 0);
+        writer.flush();
+    }
+
+    /**
+     * void write(BigInteger, Appendable)
+     *
+     * Writes the same text as {@link BigInteger#toString()}.
+     *
+     * @param value Number to write
+     * @param output Output the text is written to
+     * @throws IOException if the output can't be written
+     */
+    public static void write(@NonNull final BigInteger value, @NonNull final Appendable output) throws IOException {
+        if(value.bitLength() <= LEAF_BITS) {
+            output.append(value.toString());
+            return;
+        }
+
+        final DecimalWriter writer = new DecimalWriter(output, -1);
+
+        if(value.signum() < 0) {
+            writer.append('-');
+        }
+
+        writer.digits(value.abs(), 0);
+        writer.flush();
+    }
+
+    /**
+     * String toString(BigDecimal)
+     *
+     * Converts a number to the same text as {@link BigDecimal#toString()}, for callers that need a single string.
+     *
+     * @param value Number to convert
+     * @return Decimal text
+     */
+    public static String toString(@NonNull final BigDecimal value) {
+        if(value.precision() <= SMALL) {
+            return value.toString();
+        }
+
+        final StringBuilder builder = new StringBuilder(value.precision() + 16);
+
+        try {
+            DecimalWriter.write(value, builder);
+        } catch(final IOException ex) {
+            // A StringBuilder never throws.
+            throw new IllegalStateException(ex);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * void digits(BigInteger, long)
+     *
+     * Writes the digits of a non-negative number.
+     *
+     * @param value Number to write
+     * @param width Number of digits to write, padded with leading zeros, or 0 to write the digits without padding
+     * @throws IOException if the output can't be written
+     */
+    private void digits(final BigInteger value, final long width) throws IOException {
+        if(value.bitLength() <= LEAF_BITS) {
+            this.text(value.toString(), width);
+            return;
+        }
+
+        // Split by the largest cached power with at most half the bits, so the high half is never zero.
+        int k = 0;
+        while(DecimalWriter.power(k + 1).bitLength() * 2L <= value.bitLength()) {
+            k++;
+        }
+
+        final long low = (long) BASE_DIGITS << k;
+        final BigInteger[] halves = value.divideAndRemainder(DecimalWriter.power(k));
+
+        this.digits(halves[0], width == 0 ? 0 : width - low);
+        this.digits(halves[1], low);
+    }
+
+    /**
+     * BigInteger power(int)
+     *
+     * @param k Index of the power
+     * @return 10^(BASE_DIGITS * 2^k)
+     */
+    private static BigInteger power(final int k) {
+        BigInteger[] powers = DecimalWriter.powers;
+
+        if(k >= powers.length) {
+            synchronized(DecimalWriter.class) {
+                powers = DecimalWriter.powers;
+
+                if(k >= powers.length) {
+                    // Square the largest power until the one we need exists.
+                    final int length = powers.length;
+                    powers = Arrays.copyOf(powers, k + 1);
+                    for(int i = length; i <= k; i++) {
+                        powers[i] = powers[i - 1].multiply(powers[i - 1]);
+                    }
+
+                    DecimalWriter.powers = powers;
+                }
+            }
+        }
+
+        return powers[k];
+    }
+
+    /**
+     * void text(String, long)
+     *
+     * Writes a run of digits.
+     *
+     * @param text Digits to write
+     * @param width Number of digits to write, padded with leading zeros, or 0 to write the text without padding
+     * @throws IOException if the output can't be written
+     */
+    private void text(final String text, final long width) throws IOException {
+        this.zeros(width - text.length());
+
+        for(int i = 0; i < text.length(); i++) {
+            this.digit(text.charAt(i));
+        }
+    }
+
+    /**
+     * DecimalWriter zeros(long)
+     *
+     * @param count Number of zeros to write, nothing is written if it isn't positive
+     * @return This writer
+     * @throws IOException if the output can't be written
+     */
+    private DecimalWriter zeros(final long count) throws IOException {
+        for(long i = 0; i < count; i++) {
+            this.digit('0');
+        }
+
+        return this;
+    }
+
+    /**
+     * void digit(char)
+     *
+     * Writes a digit, followed by the decimal point if it is the last digit before it.
+     *
+     * @param character Digit to write
+     * @throws IOException if the output can't be written
+     */
+    private void digit(final char character) throws IOException {
+        this.append(character);
+
+        if(++this.digits == this.getPoint()) {
+            this.append('.');
+        }
+    }
+
+    /**
+     * DecimalWriter append(char)
+     *
+     * @param character Character to write
+     * @return This writer
+     * @throws IOException if the output can't be written
+     */
+    private DecimalWriter append(final char character) throws IOException {
+        if(this.getCount() == this.getBuffer().length) {
+            this.flush();
+        }
+
+        this.getBuffer()[this.count++] = character;
+        return this;
+    }
+
+    /**
+     * void flush()
+     *
+     * Hands every collected character to the output.
+     *
+     * @throws IOException if the output can't be written
+     */
+    private void flush() throws IOException {
+        // Writers and builders take the characters as they are, anything else gets a view of the buffer.
+        if(this.getOutput() instanceof Writer) {
+            ((Writer) this.getOutput()).write(this.getBuffer(), 0, this.getCount());
+        } else if(this.getOutput() instanceof StringBuilder) {
+            ((StringBuilder) this.getOutput()).append(this.getBuffer(), 0, this.getCount());
+        } else {
+            this.getOutput().append(CharBuffer.wrap(this.getBuffer(), 0, this.getCount()));
+        }
+
+        this.count = 0;
+    }
+}
@@ -0,0 +1,386 @@
+package io.matthewp.cs30project.math;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * DoubleDouble
+ *
+ * A number held as the unevaluated sum of two doubles, hi + lo, where lo is smaller than half an ulp of hi. The pair
+ * has a 106 bit significand, about 32 significant digits, but the exponent range of a double.
+ *
+ * Every operation works in place on primitive fields and takes its operand as two primitives, so a computation only
+ * needs a fixed set of pairs that are reused between evaluations and never allocates. Operations that need
+ * intermediate pairs take them as scratch from the caller. The algorithms are the error-free transformations of
+ * Dekker and Knuth, products are split by hand since {@link Math#fma} isn't available on every runtime we target.
+ */
+final class DoubleDouble {
+    // SPLITTER is 2^27 + 1, multiplying by it splits a double into two halves of 26 bits.
+    private static final double SPLITTER = 134217729.0;
+    // SPLIT_LIMIT is the magnitude above which the splitter would overflow, those numbers are scaled first.
+    private static final double SPLIT_LIMIT = 6.69692879491417e+299;
+
+    // LN2_HI and LN2_LO are ln(2) as a pair.
+    private static final double LN2_HI = 6.931471805599452862e-01;
+    private static final double LN2_LO = 2.319046813846299558e-17;
+    // REDUCTION is the number of times exp() halves its argument before the series, the result is squared as often.
+    private static final int REDUCTION = 9;
+    // EPSILON is the size of a term that no longer changes a pair.
+    private static final double EPSILON = 4.93038065763132e-32;
+    // TERMS is the most terms the exp() series ever needs.
+    private static final int TERMS = 20;
+    // INVERSE_FACTORIALS holds 1 / n! as a pair at index 2n, so the series multiplies instead of dividing.
+    private static final double[] INVERSE_FACTORIALS = DoubleDouble.inverseFactorials();
+
+    // SCRATCH is the number of scratch pairs the widest operation, pow(), needs.
+    static final int SCRATCH = 6;
+
+    double hi;
+    double lo;
+
+    /**
+     * DoubleDouble set(double, double)
+     *
+     * @param hi High part
+     * @param lo Low part, already smaller than half an ulp of hi
+     * @return This pair
+     */
+    DoubleDouble set(final double hi, final double lo) {
+        this.hi = hi;
+        this.lo = lo;
+        return this;
+    }
+
+    /**
+     * DoubleDouble set(BigDecimal)
+     *
+     * Rounds a number to the nearest pair, the low part is whatever the high part couldn't hold.
+     *
+     * @param value Number to hold
+     * @return This pair
+     */
+    DoubleDouble set(final BigDecimal value) {
+        this.hi = value.doubleValue();
+        this.lo = Double.isInfinite(this.hi) ? 0 : value.subtract(new BigDecimal(this.hi)).doubleValue();
+        return this;
+    }
+
+    /**
+     * BigDecimal toBigDecimal()
+     *
+     * @return Exact value of the pair
+     * @throws NumberFormatException if the pair is infinite or NaN
+     */
+    BigDecimal toBigDecimal() {
+        return new BigDecimal(this.hi).add(new BigDecimal(this.lo));
+    }
+
+    /**
+     * DoubleDouble negate()
+     *
+     * @return This pair
+     */
+    DoubleDouble negate() {
+        this.hi = -this.hi;
+        this.lo = -this.lo;
+        return this;
+    }
+
+    /**
+     * DoubleDouble add(double, double)
+     *
+     * Adds a pair, both the high and the low parts are summed without error before they are renormalized.
+     *
+     * @param hi High part of the operand
+     * @param lo Low part of the operand
+     * @return This pair
+     */
+    DoubleDouble add(final double hi, final double lo) {
+        // s + e = this.hi + hi exactly (two-sum).
+        final double s = this.hi + hi;
+        double v = s - this.hi;
+        double e = (this.hi - (s - v)) + (hi - v);
+
+        // t + f = this.lo + lo exactly.
+        final double t = this.lo + lo;
+        v = t - this.lo;
+        final double f = (this.lo - (t - v)) + (lo - v);
+
+        e += t;
+        final double h = s + e;
+        e = e - (h - s);
+        e += f;
+
+        this.hi = h + e;
+        this.lo = e - (this.hi - h);
+
+        // An infinite sum leaves NaN in the low part.
+        if(Double.isInfinite(this.hi)) {
+            this.lo = 0;
+        }
+
+        return this;
+    }
+
+    /**
+     * DoubleDouble multiply(double, double)
+     *
+     * Multiplies by a pair, the product of the high parts is exact and the cross terms are added to its error.
+     *
+     * @param hi High part of the operand
+     * @param lo Low part of the operand
+     * @return This pair
+     */
+    DoubleDouble multiply(final double hi, final double lo) {
+        final double p = this.hi * hi;
+
+        if(Double.isInfinite(p) || p == 0 || Double.isNaN(p)) {
+            return this.set(p, 0);
+        }
+
+        // Numbers close to the top of the range are split at a smaller scale, splitting them directly would overflow.
+        final double a = Math.abs(this.hi) > SPLIT_LIMIT ? this.hi * 0x1p-28 : this.hi;
+        final double b = Math.abs(hi) > SPLIT_LIMIT ? hi * 0x1p-28 : hi;
+        final double scale = (a == this.hi ? 1 : 0x1p28) * (b == hi ? 1 : 0x1p28);
+        final double q = a * b;
+
+        // e = a * b - q exactly (Dekker's product).
+        double t = SPLITTER * a;
+        final double ah = t - (t - a);
+        final double al = a - ah;
+        t = SPLITTER * b;
+        final double bh = t - (t - b);
+        final double bl = b - bh;
+        double e = (((ah * bh - q) + ah * bl) + al * bh) + al * bl;
+
+        e = e * scale + (this.hi * lo + this.lo * hi);
+
+        this.hi = p + e;
+        this.lo = e - (this.hi - p);
+
+        if(Double.isInfinite(this.hi)) {
+            this.lo = 0;
+        }
+
+        return this;
+    }
+
+    /**
+     * DoubleDouble divide(double, double, DoubleDouble)
+     *
+     * Divides by a pair with long division, three quotient digits of a double each.
+     *
+     * @param hi High part of the divisor
+     * @param lo Low part of the divisor
+     * @param scratch Scratch pair
+     * @return This pair
+     */
+    DoubleDouble divide(final double hi, final double lo, final DoubleDouble scratch) {
+        final double q1 = this.hi / hi;
+
+        if(Double.isInfinite(q1) || Double.isNaN(q1) || q1 == 0) {
+            return this.set(q1, 0);
+        }
+
+        // This pair becomes the remainder, r = this - q1 * divisor.
+        scratch.set(hi, lo).multiply(q1, 0);
+        this.add(-scratch.hi, -scratch.lo);
+        final double q2 = this.hi / hi;
+
+        scratch.set(hi, lo).multiply(q2, 0);
+        this.add(-scratch.hi, -scratch.lo);
+        final double q3 = this.hi / hi;
+
+        // q1 + q2 + q3, q2 is already smaller than half an ulp of q1.
+        final double s = q1 + q2;
+        return this.set(s, q2 - (s - q1)).add(q3, 0);
+    }
+
+    /**
+     * DoubleDouble sqrt(DoubleDouble)
+     *
+     * Takes the square root with a single Newton step from the double root (Karp's method).
+     *
+     * @param scratch Scratch pair
+     * @return This pair, NaN if it was negative
+     */
+    DoubleDouble sqrt(final DoubleDouble scratch) {
+        if(this.hi <= 0 || Double.isInfinite(this.hi) || Double.isNaN(this.hi)) {
+            return this.set(this.hi == 0 ? 0 : Math.sqrt(this.hi), 0);
+        }
+
+        // root = a * x + (this - (a * x)^2) * x / 2, with x = 1 / sqrt(this).
+        final double x = 1.0 / Math.sqrt(this.hi);
+        final double ax = this.hi * x;
+        scratch.set(ax, 0).multiply(ax, 0);
+        final double difference = this.add(-scratch.hi, -scratch.lo).hi;
+
+        return this.set(ax, 0).add(difference * (x * 0.5), 0);
+    }
+
+    /**
+     * DoubleDouble pow(long, DoubleDouble[])
+     *
+     * Raises the pair to an integer power by binary exponentiation, a negative power takes the reciprocal once at
+     * the end so the error doesn't grow with every step.
+     *
+     * @param exponent Exponent
+     * @param scratch At least {@link #SCRATCH} scratch pairs
+     * @return This pair
+     */
+    DoubleDouble pow(final long exponent, final DoubleDouble[] scratch) {
+        final DoubleDouble base = scratch[4].set(this.hi, this.lo);
+        long n = Math.abs(exponent);
+
+        this.set(1, 0);
+        while(n > 0) {
+            if((n & 1) != 0) {
+                this.multiply(base.hi, base.lo);
+            }
+
+            n >>>= 1;
+            if(n > 0) {
+                base.multiply(base.hi, base.lo);
+            }
+        }
+
+        if(exponent < 0) {
+            final DoubleDouble power = scratch[5].set(this.hi, this.lo);
+            this.set(1, 0).divide(power.hi, power.lo, scratch[0]);
+        }
+
+        return this;
+    }
+
+    /**
+     * DoubleDouble pow(double, double, DoubleDouble[])
+     *
+     * Raises the pair to the power of another pair, integers use {@link #pow(long, DoubleDouble[])} and anything
+     * else is computed as exp(y * ln(this)).
+     *
+     * @param hi High part of the exponent
+     * @param lo Low part of the exponent
+     * @param scratch At least {@link #SCRATCH} scratch pairs
+     * @return This pair, NaN for a fractional power of a negative number
+     */
+    DoubleDouble pow(final double hi, final double lo, final DoubleDouble[] scratch) {
+        // Integer exponents are exact for as long as the powers fit in a pair.
+        if(lo == 0 && hi == Math.rint(hi) && Math.abs(hi) <= Integer.MAX_VALUE) {
+            return this.pow((long) hi, scratch);
+        }
+
+        if(this.hi == 0) {
+            return this.set(hi > 0 ? 0 : Double.POSITIVE_INFINITY, 0);
+        }
+
+        return this.log(scratch).multiply(hi, lo).exp(scratch);
+    }
+
+    /**
+     * DoubleDouble exp(DoubleDouble[])
+     *
+     * Takes e to the power of the pair. The argument is reduced to r = (this - k * ln(2)) / 2^9, e^r - 1 is summed
+     * as a Taylor series and squared back up, then the result is scaled by 2^k.
+     *
+     * @param scratch At least four scratch pairs
+     * @return This pair
+     */
+    DoubleDouble exp(final DoubleDouble[] scratch) {
+        if(this.hi > 709.8) {
+            return this.set(Double.POSITIVE_INFINITY, 0);
+        }
+
+        if(this.hi < -745.2) {
+            return this.set(0, 0);
+        }
+
+        if(Double.isNaN(this.hi)) {
+            return this;
+        }
+
+        final int k = (int) Math.rint(this.hi / LN2_HI);
+        final DoubleDouble r = scratch[1].set(LN2_HI, LN2_LO).multiply(-k, 0).add(this.hi, this.lo);
+        r.set(Math.scalb(r.hi, -REDUCTION), Math.scalb(r.lo, -REDUCTION));
+
+        // sum = r + r^2 / 2! + r^3 / 3! + ..., |r| < 0.0007 so about ten terms are enough.
+        final DoubleDouble power = scratch[0].set(r.hi, r.lo);
+        final DoubleDouble term = scratch[2].set(r.hi, r.lo);
+        final DoubleDouble sum = scratch[3].set(r.hi, r.lo);
+        for(int n = 2; Math.abs(term.hi) > EPSILON * Math.abs(sum.hi) && n < TERMS; n++) {
+            power.multiply(r.hi, r.lo);
+            term.set(power.hi, power.lo).multiply(INVERSE_FACTORIALS[n * 2], INVERSE_FACTORIALS[n * 2 + 1]);
+            sum.add(term.hi, term.lo);
+        }
+
+        // e^2r - 1 = (e^r - 1) * (e^r - 1 + 2), this keeps the small result precise while squaring.
+        for(int i = 0; i < REDUCTION; i++) {
+            final double h = sum.hi;
+            final double l = sum.lo;
+            sum.add(2, 0).multiply(h, l);
+        }
+
+        sum.add(1, 0);
+        return this.set(Math.scalb(sum.hi, k), Math.scalb(sum.lo, k));
+    }
+
+    /**
+     * DoubleDouble log(DoubleDouble[])
+     *
+     * Takes the natural logarithm of the pair with a single Newton step from the double logarithm,
+     * x = x + this * e^-x - 1.
+     *
+     * @param scratch At least five scratch pairs
+     * @return This pair, NaN if it was negative
+     */
+    DoubleDouble log(final DoubleDouble[] scratch) {
+        if(this.hi <= 0 || Double.isInfinite(this.hi) || Double.isNaN(this.hi)) {
+            return this.set(Math.log(this.hi), 0);
+        }
+
+        final double x = Math.log(this.hi);
+        final DoubleDouble correction = scratch[4].set(-x, 0).exp(scratch).multiply(this.hi, this.lo).add(-1, 0);
+
+        return this.set(x, 0).add(correction.hi, correction.lo);
+    }
+
+    /**
+     * double[] inverseFactorials()
+     *
+     * @return 1 / n! for every term of the exp() series, as pairs
+     */
+    private static double[] inverseFactorials() {
+        final double[] inverses = new double[TERMS * 2];
+        final DoubleDouble pair = new DoubleDouble();
+        final MathContext context = new MathContext(40);
+        BigDecimal factorial = BigDecimal.ONE;
+
+        for(int n = 1; n < TERMS; n++) {
+            factorial = factorial.multiply(BigDecimal.valueOf(n));
+            pair.set(BigDecimal.ONE.divide(factorial, context));
+            inverses[n * 2] = pair.hi;
+            inverses[n * 2 + 1] = pair.lo;
+        }
+
+        return inverses;
+    }
+
+    /**
+     * DoubleDouble[] pairs(int)
+     *
+     * @param count Number of pairs
+     * @return New pairs, all zero
+     */
+    static DoubleDouble[] pairs(final int count) {
+        final DoubleDouble[] pairs = new DoubleDouble[count];
+        for(int i = 0; i < count; i++) {
+            pairs[i] = new DoubleDouble();
+        }
+
+        return pairs;
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleDouble(" + this.hi + ", " + this.lo + ")";
+    }
+}
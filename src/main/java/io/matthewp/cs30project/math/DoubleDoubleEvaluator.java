@@ -0,0 +1,413 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * DoubleDoubleEvaluator
+ *
+ * Evaluates an expression tree on {@link DoubleDouble} pairs, about 32 significant digits without a single
+ * BigDecimal operation.
+ *
+ * The tree is compiled once into a postfix program of two ints per instruction, an opcode and its operand, that runs
+ * on a stack of pairs. The pairs belong to the thread and are reused by every evaluation, so a run doesn't allocate.
+ * Only arithmetic, powers and square roots are supported, trees that use anything else don't get a program.
+ */
+final class DoubleDoubleEvaluator {
+    // CONSTANT pushes the constant with the operand's index.
+    private static final int CONSTANT = 0;
+    // VARIABLE pushes the variable in the operand's slot.
+    private static final int VARIABLE = 1;
+    // LOAD pushes the shared subexpression with the operand's index.
+    private static final int LOAD = 2;
+    // STORE keeps the top of the stack as the shared subexpression with the operand's index.
+    private static final int STORE = 3;
+    // NEGATE, SQUARE and SQRT replace the top of the stack.
+    private static final int NEGATE = 4;
+    private static final int SQUARE = 5;
+    private static final int SQRT = 6;
+    // POWER_INTEGER raises the top of the stack to the operand, a constant integer exponent.
+    private static final int POWER_INTEGER = 7;
+    // ADD, SUBTRACT, MULTIPLY, DIVIDE and POWER replace the two values on top of the stack.
+    private static final int ADD = 8;
+    private static final int SUBTRACT = 9;
+    private static final int MULTIPLY = 10;
+    private static final int DIVIDE = 11;
+    private static final int POWER = 12;
+
+    // MIN and MAX bound the magnitudes a pair holds at full precision, values outside of them lose digits or overflow.
+    private static final double MIN = 1e-290;
+    private static final double MAX = 1e300;
+
+    // REGISTERS are the pairs of every thread: the scratch pairs first, then shared subexpressions, then the stack.
+    private static final ThreadLocal<DoubleDouble[]> REGISTERS = ThreadLocal.withInitial(() -> DoubleDouble.pairs(64));
+
+    @Getter(AccessLevel.PRIVATE) private final int[] code;
+    @Getter(AccessLevel.PRIVATE) private final double[] constants;
+    @Getter(AccessLevel.PRIVATE) private final int base;
+    @Getter(AccessLevel.PRIVATE) private final int registers;
+
+    /**
+     * DoubleDoubleEvaluator(int[], double[], int, int)
+     *
+     * Creates a new {@link DoubleDoubleEvaluator} object.
+     *
+     * @param code Instructions, an opcode and an operand each
+     * @param constants High and low part of every constant
+     * @param shared Number of shared subexpression slots
+     * @param depth Maximum depth of the stack
+     */
+    private DoubleDoubleEvaluator(final int[] code, final double[] constants, final int shared, final int depth) {
+        this.code = code;
+        this.constants = constants;
+        this.base = DoubleDouble.SCRATCH + shared;
+        this.registers = this.base + depth;
+    }
+
+    /**
+     * DoubleDoubleEvaluator compile(Node, int)
+     *
+     * @param root Root of the tree, it must not be deep
+     * @param shared Number of shared subexpression slots the tree uses
+     * @return Compiled program, or null if the tree uses something pairs don't support
+     */
+    static DoubleDoubleEvaluator compile(final Node root, final int shared) {
+        final Builder builder = new Builder();
+
+        if(!builder.emit(root)) {
+            return null;
+        }
+
+        final int[] code = new int[builder.getCode().size()];
+        for(int i = 0; i < code.length; i++) {
+            code[i] = builder.getCode().get(i);
+        }
+
+        final double[] constants = new double[builder.getConstants().size()];
+        for(int i = 0; i < constants.length; i++) {
+            constants[i] = builder.getConstants().get(i);
+        }
+
+        return new DoubleDoubleEvaluator(code, constants, shared, builder.depth);
+    }
+
+    /**
+     * BigDecimal evaluate(BigDecimal[])
+     *
+     * Evaluates the program like the BigDecimal tree would, operations that have no result throw the same exceptions.
+     *
+     * @param values Variable values, in slot order
+     * @return Exact value of the resulting pair, or null if a value left the range a pair holds precisely
+     */
+    BigDecimal evaluate(final BigDecimal[] values) {
+        final double[] pairs = new double[values.length * 2];
+        final DoubleDouble pair = new DoubleDouble();
+
+        for(int i = 0; i < values.length; i++) {
+            pair.set(values[i]);
+
+            // Numbers that don't fit in a pair are left to BigDecimal.
+            if(!DoubleDoubleEvaluator.inRange(pair.hi) || (pair.hi == 0 && values[i].signum() != 0)) {
+                return null;
+            }
+
+            pairs[i * 2] = pair.hi;
+            pairs[i * 2 + 1] = pair.lo;
+        }
+
+        final double[] result = new double[2];
+        return this.run(pairs, 2, true, result) ? pair.set(result[0], result[1]).toBigDecimal() : null;
+    }
+
+    /**
+     * boolean run(double[], int, boolean, double[])
+     *
+     * Runs the program once.
+     *
+     * @param values Variable values, a single double per variable if the stride is 1 or a high and a low part if it is 2
+     * @param stride Number of doubles per variable
+     * @param strict True to throw like BigDecimal and to give up as soon as a value leaves the precise range, false to
+     *               compute infinity and NaN like doubles do
+     * @param target Array the high and low part of the result are written to
+     * @return True if the result was written, false if a strict run gave up
+     */
+    boolean run(final double[] values, final int stride, final boolean strict, final double[] target) {
+        final int[] code = this.getCode();
+        final double[] constants = this.getConstants();
+        final DoubleDouble[] registers = this.registers();
+        int top = this.getBase() - 1;
+
+        for(int i = 0; i < code.length; i += 2) {
+            final int opcode = code[i];
+            final int operand = code[i + 1];
+            final DoubleDouble x;
+
+            // Only a sum can be zero without a zero operand, any other zero result became too small for a pair.
+            final boolean nonzero = strict && opcode >= NEGATE && opcode != ADD && opcode != SUBTRACT
+                    && registers[opcode >= ADD ? top - 1 : top].hi != 0 && (opcode != MULTIPLY || registers[top].hi != 0);
+
+            switch(opcode) {
+                case CONSTANT:
+                    registers[++top].set(constants[operand * 2], constants[operand * 2 + 1]);
+                    break;
+                case VARIABLE:
+                    registers[++top].set(values[operand * stride], stride == 2 ? values[operand * 2 + 1] : 0);
+                    break;
+                case LOAD:
+                    x = registers[DoubleDouble.SCRATCH + operand];
+                    registers[++top].set(x.hi, x.lo);
+                    break;
+                case STORE:
+                    x = registers[top];
+                    registers[DoubleDouble.SCRATCH + operand].set(x.hi, x.lo);
+                    continue;
+                case NEGATE:
+                    registers[top].negate();
+                    break;
+                case SQUARE:
+                    x = registers[top];
+                    x.multiply(x.hi, x.lo);
+                    break;
+                case SQRT:
+                    x = registers[top];
+                    if(strict && x.hi < 0) {
+                        throw new ArithmeticException("Square root of a negative number.");
+                    }
+                    x.sqrt(registers[0]);
+                    break;
+                case POWER_INTEGER:
+                    x = registers[top];
+                    if(strict && x.hi == 0 && operand < 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    x.pow(operand, registers);
+                    break;
+                default:
+                    final DoubleDouble y = registers[top--];
+                    x = registers[top];
+
+                    switch(opcode) {
+                        case ADD:
+                            x.add(y.hi, y.lo);
+                            break;
+                        case SUBTRACT:
+                            x.add(-y.hi, -y.lo);
+                            break;
+                        case MULTIPLY:
+                            x.multiply(y.hi, y.lo);
+                            break;
+                        case DIVIDE:
+                            if(strict && y.hi == 0) {
+                                throw new ArithmeticException(x.hi == 0 ? "Division undefined" : "Division by zero");
+                            }
+                            x.divide(y.hi, y.lo, registers[0]);
+                            break;
+                        case POWER:
+                            DoubleDoubleEvaluator.checkPower(strict, x, y);
+                            x.pow(y.hi, y.lo, registers);
+                            break;
+                        default:
+                            throw new IllegalStateException("Unknown opcode " + opcode + ".");
+                    }
+                    break;
+            }
+
+            if(strict && (!DoubleDoubleEvaluator.inRange(registers[top].hi) || (nonzero && registers[top].hi == 0))) {
+                return false;
+            }
+        }
+
+        target[0] = registers[top].hi;
+        target[1] = registers[top].lo;
+        return true;
+    }
+
+    /**
+     * void checkPower(boolean, DoubleDouble, DoubleDouble)
+     *
+     * @param strict True if the run throws like BigDecimal
+     * @param x Base
+     * @param y Exponent
+     * @throws ArithmeticException if a strict run raises zero to a negative power or a negative number to a fractional power
+     */
+    private static void checkPower(final boolean strict, final DoubleDouble x, final DoubleDouble y) {
+        if(!strict) {
+            return;
+        }
+
+        if(x.hi == 0 && y.hi < 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        if(x.hi < 0 && (y.lo != 0 || y.hi != Math.rint(y.hi))) {
+            throw new ArithmeticException("Fractional power of a negative number.");
+        }
+    }
+
+    /**
+     * DoubleDouble[] registers()
+     *
+     * @return Pairs of the current thread, grown to fit the program if needed
+     */
+    private DoubleDouble[] registers() {
+        DoubleDouble[] registers = REGISTERS.get();
+
+        if(registers.length < this.getRegisters()) {
+            registers = DoubleDouble.pairs(Math.max(this.getRegisters(), registers.length * 2));
+            REGISTERS.set(registers);
+        }
+
+        return registers;
+    }
+
+    /**
+     * boolean inRange(double)
+     *
+     * @param value High part of a pair
+     * @return True if a pair of this size keeps its full precision, otherwise false.
+     */
+    private static boolean inRange(final double value) {
+        final double magnitude = Math.abs(value);
+        return value == 0 || (magnitude >= MIN && magnitude <= MAX);
+    }
+
+    /**
+     * Builder
+     *
+     * Collects the program while the tree is walked, operands first.
+     */
+    private static final class Builder {
+        @Getter(AccessLevel.PRIVATE) private final List<Integer> code = new ArrayList<>();
+        @Getter(AccessLevel.PRIVATE) private final List<Double> constants = new ArrayList<>();
+        @Getter(AccessLevel.PRIVATE) private final BitSet stored = new BitSet();
+        private int size;
+        private int depth;
+
+        /**
+         * boolean emit(Node)
+         *
+         * @param node Node to emit
+         * @return True if the node and all of its children are supported, otherwise false.
+         */
+        private boolean emit(final Node node) {
+            if(node instanceof ConstantNode) {
+                final BigDecimal value = ((ConstantNode) node).getValue();
+                final DoubleDouble pair = new DoubleDouble().set(value);
+
+                // Constants a pair can't hold precisely stay in BigDecimal.
+                if(!DoubleDoubleEvaluator.inRange(pair.hi) || (pair.hi == 0 && value.signum() != 0)) {
+                    return false;
+                }
+
+                this.getConstants().add(pair.hi);
+                this.getConstants().add(pair.lo);
+                this.instruction(CONSTANT, this.getConstants().size() / 2 - 1, 1);
+                return true;
+            }
+
+            if(node instanceof VariableNode) {
+                this.instruction(VARIABLE, ((VariableNode) node).getSlot(), 1);
+                return true;
+            }
+
+            if(node instanceof SharedNode) {
+                final SharedNode shared = (SharedNode) node;
+
+                // The first copy computes the value, every later copy runs after it and only reads it.
+                if(this.getStored().get(shared.getIndex())) {
+                    this.instruction(LOAD, shared.getIndex(), 1);
+                    return true;
+                }
+
+                if(!this.emit(shared.getNode())) {
+                    return false;
+                }
+
+                this.getStored().set(shared.getIndex());
+                this.instruction(STORE, shared.getIndex(), 0);
+                return true;
+            }
+
+            // Pairs are cheap enough that forking would only add overhead.
+            if(node instanceof ForkNode) {
+                return this.emit(((ForkNode) node).getNode());
+            }
+
+            if(node instanceof NegateNode) {
+                return this.emit(((NegateNode) node).getOperand()) && this.instruction(NEGATE, 0, 0);
+            }
+
+            if(node instanceof SquareNode) {
+                return this.emit(((SquareNode) node).getOperand()) && this.instruction(SQUARE, 0, 0);
+            }
+
+            if(node instanceof FunctionNode) {
+                final FunctionNode function = (FunctionNode) node;
+                return function.getFunction().getBuiltin() == Builtin.SQRT && this.emit(function.getArgument()) && this.instruction(SQRT, 0, 0);
+            }
+
+            if(node instanceof BinaryNode) {
+                final BinaryNode binary = (BinaryNode) node;
+
+                // Constant integer exponents are known when compiling, Ex: "x^3".
+                if(binary.getOperator() == Operator.POWER && binary.getRight() instanceof ConstantNode) {
+                    final BigDecimal exponent = ((ConstantNode) binary.getRight()).getValue();
+
+                    if(Operator.isInteger(exponent) && exponent.abs().compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) <= 0) {
+                        return this.emit(binary.getLeft()) && this.instruction(POWER_INTEGER, exponent.intValueExact(), 0);
+                    }
+                }
+
+                return this.emit(binary.getLeft()) && this.emit(binary.getRight()) && this.instruction(Builder.opcode(binary.getOperator()), 0, -1);
+            }
+
+            // Calls, aggregates and every other function only exist in BigDecimal.
+            return false;
+        }
+
+        /**
+         * boolean instruction(int, int, int)
+         *
+         * @param opcode Instruction opcode
+         * @param operand Instruction operand
+         * @param change Number of values the instruction adds to the stack
+         * @return Always true, so instructions can be chained with the children they follow
+         */
+        private boolean instruction(final int opcode, final int operand, final int change) {
+            this.getCode().add(opcode);
+            this.getCode().add(operand);
+
+            this.size += change;
+            this.depth = Math.max(this.depth, this.size);
+            return true;
+        }
+
+        /**
+         * int opcode(Operator)
+         *
+         * @param operator Binary operator
+         * @return Opcode of the operator
+         */
+        private static int opcode(final Operator operator) {
+            switch(operator) {
+                case ADD:
+                    return ADD;
+                case SUBTRACT:
+                    return SUBTRACT;
+                case MULTIPLY:
+                    return MULTIPLY;
+                case DIVIDE:
+                    return DIVIDE;
+                case POWER:
+                    return POWER;
+                default:
+                    throw new RuntimeException("Unknown operator '" + operator.getSymbol() + "'.");
+            }
+        }
+    }
+}
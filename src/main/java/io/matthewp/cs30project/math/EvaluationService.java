@@ -0,0 +1,309 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * EvaluationService
+ *
+ * Evaluates inputs asynchronously so the thread that reads them never waits on a slow expression. Submissions are
+ * collected into micro-batches, a batch is closed once it holds {@link #getMaxBatch()} inputs or the first input
+ * has waited {@link #getWindow()}, whichever comes first.
+ *
+ * Every batch groups identical inputs so they are looked up in the {@link ExpressionCache} once, pure inputs are
+ * evaluated once and every submission of the input gets the same result. Each group runs as a task of its own on
+ * the executor. The timeout of a submission's {@link Budget} counts from the moment it was submitted, so an input
+ * that waited too long fails without being evaluated.
+ */
+public final class EvaluationService implements AutoCloseable {
+    // SHARED is the service used by the input providers.
+    public static final EvaluationService SHARED = new EvaluationService(ExpressionCache.SHARED, ForkJoinPool.commonPool(), 64, Duration.ofMillis(1));
+
+    // CLOSE is queued by close() to tell the dispatcher there won't be any more submissions.
+    private static final Submission CLOSE = new Submission(null, null);
+
+    @Getter(AccessLevel.PRIVATE) private final ExpressionCache cache;
+    @Getter(AccessLevel.PRIVATE) private final Executor executor;
+    @Getter private final int maxBatch;
+    @Getter private final Duration window;
+    @Getter(AccessLevel.PRIVATE) private final BlockingQueue<Submission> queue;
+    @Getter(AccessLevel.PRIVATE) private final Thread dispatcher;
+    @Getter(AccessLevel.PRIVATE) private boolean closed;
+
+    /**
+     * EvaluationService(ExpressionCache, Executor, int, Duration)
+     *
+     * Creates a new {@link EvaluationService} object and starts its dispatcher thread.
+     *
+     * @param cache Cache the inputs are compiled and evaluated through
+     * @param executor Executor the batches are evaluated on
+     * @param maxBatch Most inputs in a single batch
+     * @param window Longest time a batch waits for more inputs after its first one
+     */
+    public EvaluationService(@NonNull final ExpressionCache cache, @NonNull final Executor executor, final int maxBatch, @NonNull final Duration window) {
+        if(maxBatch < 1 || window.isNegative()) {
+            throw new IllegalArgumentException("A batch must hold at least one input and wait a non-negative time.");
+        }
+
+        this.cache = cache;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        this.window = window;
+        this.queue = new LinkedBlockingQueue<>();
+        this.closed = false;
+
+        // The dispatcher only moves batches to the executor, it must not keep the application running.
+        this.dispatcher = new Thread(this::dispatch, "EvaluationService-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * CompletableFuture submit(String)
+     *
+     * Submits an input that is evaluated within the default budget.
+     *
+     * @param input Expression input
+     * @return Future result of the input
+     */
+    public CompletableFuture<BigDecimal> submit(@NonNull final String input) {
+        return this.submit(input, Budget.DEFAULT);
+    }
+
+    /**
+     * CompletableFuture submit(String, Budget)
+     *
+     * Submits an input, the future fails with the error the input causes or a {@link BudgetExceededException}
+     * if it doesn't fit in the budget. The budget's timeout is the deadline of the whole request, including the
+     * time it waits for a batch.
+     *
+     * @param input Expression or {@link Script} input
+     * @param budget Limits of the request
+     * @return Future result of the input
+     */
+    public CompletableFuture<BigDecimal> submit(@NonNull final String input, @NonNull final Budget budget) {
+        final Submission submission = new Submission(input, budget);
+
+        // Check and queue under the lock so nothing ends up behind the close marker.
+        synchronized(this) {
+            if(this.isClosed()) {
+                submission.getFuture().completeExceptionally(new RejectedExecutionException("Evaluation service is closed."));
+                return submission.getFuture();
+            }
+
+            this.getQueue().add(submission);
+        }
+
+        return submission.getFuture();
+    }
+
+    /**
+     * CompletableFuture profile(String, Budget)
+     *
+     * Profiles an expression on the executor the batches are evaluated on, so the thread that reads the input
+     * never waits for it. Like a submission, the budget's timeout counts from the moment it was requested.
+     *
+     * @param input Expression input
+     * @param budget Limits of the profiled evaluation
+     * @return Future profile of the input
+     */
+    public CompletableFuture<Profile> profile(@NonNull final String input, @NonNull final Budget budget) {
+        final long requested = System.nanoTime();
+
+        try {
+            synchronized(this) {
+                if(this.isClosed()) {
+                    throw new RejectedExecutionException("Evaluation service is closed.");
+                }
+            }
+
+            return CompletableFuture.supplyAsync(() -> new Expression(input).profile(budget.remaining(requested)), this.getExecutor());
+        } catch(final RejectedExecutionException ex) {
+            final CompletableFuture<Profile> future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+    }
+
+    /**
+     * void close()
+     *
+     * Stops accepting submissions, everything that was already submitted is still evaluated.
+     */
+    @Override
+    public void close() {
+        synchronized(this) {
+            if(this.isClosed()) {
+                return;
+            }
+
+            this.closed = true;
+            this.getQueue().add(CLOSE);
+        }
+    }
+
+    /**
+     * void dispatch()
+     *
+     * Body of the dispatcher thread, collects batches until the service is closed.
+     */
+    private void dispatch() {
+        final List<Submission> batch = new ArrayList<>();
+        boolean running = true;
+
+        while(running) {
+            try {
+                // Wait for the first input of the batch, then for more until the batch is full or the window closes.
+                Submission next = this.getQueue().take();
+                final long end = System.nanoTime() + this.getWindow().toNanos();
+
+                while(next != CLOSE) {
+                    batch.add(next);
+
+                    final long wait = end - System.nanoTime();
+                    if(batch.size() >= this.getMaxBatch() || (next = this.getQueue().poll(Math.max(0, wait), TimeUnit.NANOSECONDS)) == null) {
+                        break;
+                    }
+                }
+
+                running = next != CLOSE;
+            } catch(final InterruptedException ex) {
+                // Nobody else interrupts the dispatcher, treat it like a close.
+                this.close();
+            }
+
+            if(!batch.isEmpty()) {
+                this.run(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * void run(List)
+     *
+     * Groups a batch by input and hands every group to the executor.
+     *
+     * @param batch Submissions of the batch, in the order they were submitted
+     */
+    private void run(final List<Submission> batch) {
+        final Map<String, List<Submission>> groups = new LinkedHashMap<>();
+
+        for(final Submission submission : batch) {
+            groups.computeIfAbsent(submission.getInput(), ignored -> new ArrayList<>()).add(submission);
+        }
+
+        for(final Map.Entry<String, List<Submission>> group : groups.entrySet()) {
+            try {
+                this.getExecutor().execute(() -> this.evaluate(group.getKey(), group.getValue()));
+            } catch(final RejectedExecutionException ex) {
+                // A shut down executor fails the group instead of the dispatcher.
+                group.getValue().forEach(submission -> submission.getFuture().completeExceptionally(ex));
+            }
+        }
+    }
+
+    /**
+     * void evaluate(String, List)
+     *
+     * Evaluates every submission of a single input, the input is compiled once and a pure input is only
+     * evaluated until one of its submissions gets a result.
+     *
+     * @param input Expression or {@link Script} input
+     * @param submissions Submissions of the input
+     */
+    private void evaluate(final String input, final List<Submission> submissions) {
+        final boolean pure;
+        final Function<Budget, BigDecimal> evaluation;
+
+        try {
+            // Scripts are compiled once for the whole group, expressions go through the cache.
+            if(Script.isScript(input)) {
+                final Script script = Script.compile(input);
+                pure = script.isPure();
+                evaluation = script::evaluate;
+            } else {
+                final CompiledExpression compiled = this.getCache().compile(input);
+                pure = compiled.isPure();
+                evaluation = pure ? budget -> this.getCache().result(input, budget) : compiled::evaluate;
+            }
+        } catch(final RuntimeException | StackOverflowError ex) {
+            final RuntimeException error = ex instanceof RuntimeException ? (RuntimeException) ex : new RuntimeException("Expression is nested too deeply.", ex);
+            submissions.forEach(submission -> submission.getFuture().completeExceptionally(error));
+            return;
+        }
+
+        BigDecimal shared = null;
+        RuntimeException failure = null;
+
+        for(final Submission submission : submissions) {
+            // Skip submissions that were cancelled while they waited.
+            if(submission.getFuture().isDone()) {
+                continue;
+            }
+
+            // Pure inputs give every submission the same outcome, budget errors only belong to their own submission.
+            if(shared != null || failure != null) {
+                if(shared != null) {
+                    submission.getFuture().complete(shared);
+                } else {
+                    submission.getFuture().completeExceptionally(failure);
+                }
+                continue;
+            }
+
+            try {
+                final BigDecimal result = evaluation.apply(submission.getBudget().remaining(submission.getSubmitted()));
+
+                shared = pure ? result : null;
+                submission.getFuture().complete(result);
+            } catch(final BudgetExceededException ex) {
+                submission.getFuture().completeExceptionally(ex);
+            } catch(final RuntimeException ex) {
+                failure = pure ? ex : null;
+                submission.getFuture().completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Submission
+     *
+     * A single submitted input waiting for its result.
+     */
+    private static final class Submission {
+        @Getter private final String input;
+        @Getter private final Budget budget;
+        @Getter private final long submitted;
+        @Getter private final CompletableFuture<BigDecimal> future;
+
+        /**
+         * Submission(String, Budget)
+         *
+         * @param input Expression input
+         * @param budget Limits of the request
+         */
+        private Submission(final String input, final Budget budget) {
+            this.input = input;
+            this.budget = budget;
+            this.submitted = System.nanoTime();
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
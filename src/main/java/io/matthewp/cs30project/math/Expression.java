@@ -5,11 +5,9 @@ import lombok.Getter;
 import lombok.NonNull;
 
 import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.math.MathContext;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Expression
@@ -17,25 +15,13 @@ import java.util.Map;
  * Takes a string input and attempts to process it as a mathematical expression.
  */
 public final class Expression {
-    // FUNCTIONS stores a list of valid functions.
-    public static final List<String> FUNCTIONS = new ArrayList<>();
-
-    // Add the default functions to our FUNCTIONS list.
-    static {
-        FUNCTIONS.add("sqrt");
-        FUNCTIONS.add("cbrt");
-        FUNCTIONS.add("round");
-        FUNCTIONS.add("ceil");
-        FUNCTIONS.add("floor");
-        FUNCTIONS.add("sin");
-        FUNCTIONS.add("cos");
-        FUNCTIONS.add("tan");
-        FUNCTIONS.add("fib");
-    }
+    // NAME_WINDOW is the number of characters isExpression reads a function name from.
+    private static final int NAME_WINDOW = 5;
 
     @Getter private final String input;
-    @Getter(AccessLevel.PRIVATE) private int position;
-    @Getter(AccessLevel.PRIVATE) private int character;
+    @Getter(AccessLevel.PRIVATE) private final List<String> variables;
+    @Getter private final MathContext context;
+    @Getter(AccessLevel.PRIVATE) private CompiledExpression compiled;
     @Getter(AccessLevel.PRIVATE) private BigDecimal result;
     @Getter private boolean parsed;
 
@@ -45,376 +31,242 @@ public final class Expression {
      * Creates a new {@link Expression} instance
      */
     public Expression(final String input) {
-        this.input = input.replaceAll("x", "*");
-        this.position = -1;
-        this.character = -1;
-        this.result = null;
-        this.parsed = false;
+        this(input, Collections.emptyList(), null);
     }
 
     /**
-     * BigDecimal result()
+     * Expression(String, MathContext)
      *
-     * @return Cached result or result from parse()
+     * Creates a new {@link Expression} instance that computes every operation and function natively
+     * in BigDecimal, rounded to the specified precision.
+     *
+     * @param input Expression input
+     * @param context Precision of the result
      */
-    public BigDecimal result() {
-        // Check if we have parsed the input already.
-        if(this.isParsed()) {
-            return this.getResult();
-        }
-
-        // Run the parser and return the result.
-        return this.parse();
+    public Expression(final String input, @NonNull final MathContext context) {
+        this(input, Collections.emptyList(), context);
     }
 
     /**
-     * BigDecimal parse()
+     * Expression(String, List, MathContext)
      *
-     * Parses the mathematical equation and returns the result.
+     * Creates a new {@link Expression} instance that treats the specified names as variables.
      *
-     * @return Expression result
+     * @param input Expression input
+     * @param variables Variable names, the index of a name is its slot
+     * @param context Precision of the result, or null to compute functions on doubles and divide exactly
      */
-    private BigDecimal parse() {
-        // Check if we have already parsed the input.
-        if(this.isParsed()) {
-            return this.getResult();
-        }
-
-        // Go to the first character.
-        this.next();
-
-        // Start parsing the input.
-        this.result = this.parseExpression();
-
-        // Check if we finished parsing without going through the entire input.
-        if(this.getPosition() < this.getInput().length()) {
-            throw new RuntimeException("Unexpected '" + (char) this.getCharacter() + "' at position " + this.getPosition() + ".");
-        }
-
-        // Update the parsed variable so we can pull the result again later.
-        this.parsed = true;
-
-        // Return the result.
-        return this.getResult();
+    Expression(final String input, @NonNull final List<String> variables, final MathContext context) {
+        this.input = Expression.normalize(input);
+        this.variables = variables;
+        this.context = context;
+        this.compiled = null;
+        this.result = null;
+        this.parsed = false;
     }
 
     /**
-     * BigDecimal parseFactor()
+     * String normalize(String)
      *
-     * Primary logic for our expression parsing algorithm, handles brackets, numbers, functions, and exponents.
+     * Replaces every 'x' that is used as a multiplication with '*'.
      *
-     * @return BigDecimal
+     * @param input Expression input
+     * @return Normalized input
      */
-    private BigDecimal parseFactor() {
-        // Skip over addition.
-        if(this.isNext('+')) {
-            return this.parseFactor();
-        }
-
-        // Skip over subtraction.
-        if(this.isNext('-')) {
-            return this.parseFactor().negate();
+    static String normalize(@NonNull final String input) {
+        // Most inputs don't use 'x' at all.
+        if(input.indexOf('x') < 0) {
+            return input;
         }
 
-        final int startPosition = this.position;
-        BigDecimal x;
-
-        // Check if we need to parse a set of parentheses.
-        if(this.isNext('(')) {
-            // Handle the content within the brackets as a new expression.
-            x = this.parseExpression();
-
-            // Find the ending bracket.
-            this.isNext(')');
-        // Check if the character is numeric or a decimal point.
-        } else if((this.character >= '0' && this.character <= '9') || this.character == '.') {
-            // Loop until we finish finding all consecutive "0-9 and ." characters.
-            while((this.character >= '0' && this.character <= '9') || this.character == '.') {
-                this.next();
+        final StringBuilder builder = new StringBuilder(input);
+        for(int i = 0; i < builder.length(); i++) {
+            if(builder.charAt(i) == 'x' && Lexer.isMultiply(builder, i, input, i)) {
+                builder.setCharAt(i, '*');
             }
-
-            // Keep parsing the input as a BigDecimal
-            x = new BigDecimal(this.input.substring(startPosition, this.position));
-        } else if(this.character >= 'a' && this.character <= 'z') {
-            // Loop until we finish finding all consecutive "A-Z" characters.
-            while(this.character >= 'a' && this.character <= 'z') {
-                this.next();
-            }
-
-            // Get the function name.
-            final String functionName = this.getInput().substring(startPosition, this.getPosition());
-
-            // Check if the function name is not an actual function.
-            if(!Expression.isFunction(functionName)) {
-                throw new RuntimeException("Invalid function \"" + functionName + "\" at position " + startPosition + ".");
-            }
-
-            // Parse the inside of the function.
-            x = this.parseFactor();
-
-            switch(functionName) {
-                // Square Root function, Ex: "sqrt(16)" will return "4".
-                case "sqrt":
-                    x = BigDecimal.valueOf(Math.sqrt(x.doubleValue()));
-                    break;
-                // Cube Root function, Ex: "cbrt(27)" will return "3".
-                case "cbrt":
-                    x = BigDecimal.valueOf(Math.cbrt(x.doubleValue()));
-                    break;
-                // Round function, Ex: "round(1.4)" will return "1", Ex: "round(1.6)" will return "2".
-                case "round":
-                    x = BigDecimal.valueOf(Math.round(x.doubleValue()));
-                    break;
-                // Ceil function (Round Up), Ex: "ceil(1.2)" will return "2".
-                case "ceil":
-                    x = BigDecimal.valueOf(Math.ceil(x.doubleValue()));
-                    break;
-                // Floor function (Round Up), Ex: "floor(1.8)" will return "1".
-                case "floor":
-                    x = BigDecimal.valueOf(Math.floor(x.doubleValue()));
-                    break;
-                // Sine function (Trigonometry)
-                case "sin":
-                    x = BigDecimal.valueOf(Math.sin(x.doubleValue()));
-                    break;
-                // Cosine function (Trigonometry)
-                case "cos":
-                    x = BigDecimal.valueOf(Math.cos(x.doubleValue()));
-                    break;
-                // Tangent function (Trigonometry)
-                case "tan":
-                    x = BigDecimal.valueOf(Math.tan(x.doubleValue()));
-                    break;
-                // Fibonacci Index
-                case "fib":
-                    // Pretty self explanatory, skip large numbers that will probably cause a StackOverflow.
-                    if(x.intValue() > 6144) {
-                        System.out.println("fib(): value will potentially cause a StackOverflow exception, skipping to prevent potential crashing.");
-                        break;
-                    }
-
-                    x = new BigDecimal(fib(x.intValue()));
-                    break;
-                // An unimplemented function was used, throw an error.
-                default:
-                    throw new RuntimeException("Invalid function \"" + functionName + "\" at position " + startPosition + ".");
-            }
-        // We don't know how to handle this character, throw an error.
-        } else {
-            throw new RuntimeException("Unexpected '" + (char) this.getCharacter() + "' at position " + this.getPosition() + ".");
-        }
-
-        // Check if the next valid character is a '^' (exponent symbol)
-        if(this.isNext('^')) {
-            x = BigDecimal.valueOf(Math.pow(x.doubleValue(), this.parseFactor().doubleValue()));
         }
 
-        // Return the value of x so we can move to the next steps.
-        return x;
+        return builder.toString();
     }
 
     /**
-     * BigDecimal parseExpression()
-     *
-     * Parses a mathematical expression and handles addition and subtraction.
+     * BigDecimal result()
      *
-     * @return BigDecimal
+     * @return Cached result or result from parse()
      */
-    private BigDecimal parseExpression() {
-        BigDecimal x = this.parseTerm();
-
-        // Loop until we are done handling addition and subtraction.
-        while(true) {
-            // Find the next addition symbol.
-            if(this.isNext('+')) {
-                x = x.add(this.parseTerm());
-            // Find the next subtraction symbol.
-            } else if(this.isNext('-')) {
-                x = x.subtract(this.parseTerm());
-            // Return the result.
-            } else {
-                return x;
-            }
+    public BigDecimal result() {
+        // Check if we have parsed the input already.
+        if(this.isParsed()) {
+            return this.getResult();
         }
+
+        // Run the parser and return the result.
+        return this.parse();
     }
 
     /**
-     * BigDecimal parseTerm()
+     * CompiledExpression compile()
      *
-     * Parses a mathematical term and handles multiplication and division.
+     * Parses the input into a {@link CompiledExpression} that can be evaluated repeatedly without parsing again.
      *
-     * @return BigDecimal
+     * @return Compiled expression
      */
-    private BigDecimal parseTerm() {
-        BigDecimal x = this.parseFactor();
-
-        // Loop until we are done handling multiplication and division.
-        while(true) {
-            // Find the next multiplication symbol.
-            if(this.isNext('*')) {
-                x = x.multiply(this.parseFactor());
-            // Find the next division symbol.
-            } else if(this.isNext('/')) {
-                x = x.divide(this.parseFactor());
-            // Return the result.
-            } else {
-                return x;
-            }
+    public CompiledExpression compile() {
+        // Check if we have already compiled the input.
+        if(this.getCompiled() != null) {
+            return this.getCompiled();
         }
-    }
 
-    /**
-     * void next()
-     *
-     * Updates the {@link Expression#character} variable with the next valid character from the {@link Expression#input} string.
-     */
-    private void next() {
-        // Check if the next position is less than the input's length.
-        if(++this.position < this.getInput().length()) {
-            // Update our character variable to the next character in the input.
-            this.character = this.getInput().charAt(this.getPosition());
-        } else {
-            // We are at the end of our input, set character to -1.
-            this.character = -1;
-        }
+        // Store the compiled tree so we can pull it again later.
+        this.compiled = this.compile(true);
+
+        return this.getCompiled();
     }
 
     /**
-     * boolean isNext(int)
+     * CompiledExpression compile(boolean)
      *
-     * Checks if the next non-space character matches the function's argument.
+     * Parses the input without looking at or storing an earlier compilation.
      *
-     * @return True if character was the next valid character, otherwise false.
+     * @param optimize False to keep the tree exactly as it was parsed, Ex: for a profile of what the user typed
+     * @return Compiled expression
      */
-    private boolean isNext(final int character) {
-        // Loop until we find a character that isn't a space.
-        while(this.getCharacter() == ' ') {
-            this.next();
+    CompiledExpression compile(final boolean optimize) {
+        // Parse the input with this thread's parser.
+        final Parser parser = Parser.acquire();
+        final Node root;
+        final boolean pure;
+        final boolean deep;
+        try {
+            root = parser.parse(this.getInput(), this.getVariables());
+            pure = parser.isPure();
+            deep = parser.getDepth() > StackEvaluator.MAX_RECURSION;
+        } finally {
+            parser.release();
         }
 
-        // Check if the current character matches what we are searching for.
-        if(this.getCharacter() == character) {
-            this.next();
-            return true;
+        // Deep trees are evaluated as they are, the optimizer walks the tree recursively.
+        if(deep || !optimize) {
+            return new CompiledExpression(this.getInput(), this.getVariables(), this.getContext(), root, 0, pure, deep);
         }
 
-        // The next character is not the one we wanted.
-        return false;
+        // Optimize the tree before anything evaluates it.
+        final Optimizer optimizer = new Optimizer(this.getContext());
+        final Node optimized = optimizer.optimize(root);
+
+        return new CompiledExpression(this.getInput(), this.getVariables(), this.getContext(), optimized, optimizer.getShared(), pure, false);
     }
 
-    // CACHE stores indexes of already computed fibonacci sequence numbers.
-    private static final Map<Integer, BigInteger> CACHE = new HashMap<>();
+    /**
+     * Profile profile(Budget)
+     *
+     * Evaluates the input once with profiling, see {@link CompiledExpression#profile(Map, Budget)}. The profile
+     * shows the tree as it was typed, nothing is folded away by the optimizer.
+     *
+     * @param budget Limits of the evaluation
+     * @return Profile of the evaluation
+     */
+    public Profile profile(@NonNull final Budget budget) {
+        return this.compile(false).profileTree(Collections.emptyMap(), budget);
+    }
 
     /**
-     * BigInteger fib(int)
+     * BigDecimal parse()
      *
-     * Computes an a number in the fibonacci sequence for the specified index.
+     * Parses the mathematical equation and returns the result.
      *
-     * @param number Index in the fibonacci sequence
-     * @return Fibonacci Number
+     * @return Expression result
      */
-    private BigInteger fib(final int number) {
-        if(number < 3) {
-            return BigInteger.valueOf(1);
+    private BigDecimal parse() {
+        // Check if we have already parsed the input.
+        if(this.isParsed()) {
+            return this.getResult();
         }
 
-        int indexOne = number - 1;
-        BigInteger numberOne;
-        if(CACHE.containsKey(indexOne)) {
-            numberOne = CACHE.get(indexOne);
-        } else {
-            numberOne = this.fib(indexOne);
-            CACHE.put(indexOne, numberOne);
-        }
+        // Compile the input and evaluate the tree.
+        this.result = this.compile().evaluate();
 
-        int indexTwo = number - 2;
-        BigInteger numberTwo;
-        if(CACHE.containsKey(indexTwo)) {
-            numberTwo = CACHE.get(indexTwo);
-        } else {
-            numberTwo = this.fib(indexTwo);
-            CACHE.put(indexTwo, numberTwo);
-        }
+        // Update the parsed variable so we can pull the result again later.
+        this.parsed = true;
 
-        return numberOne.add(numberTwo);
+        // Return the result.
+        return this.getResult();
     }
 
     /**
      * isFunction(String)
      *
-     * Checks if the parameter is a valid function name.
+     * Checks if the parameter is a valid function or aggregate name.
      *
      * @param functionName Function Name to check.
      * @return True if the function name exists, otherwise false.
      */
     public static boolean isFunction(@NonNull final String functionName) {
-        // Loop through the list of functions.
-        for(int i = 0; i < Expression.FUNCTIONS.size(); i++) {
-            // Check if the function name in the array doesn't match the one in the function parameters.
-            if(!Expression.FUNCTIONS.get(i).equals(functionName)) {
-                // Go to the next function name.
-                continue;
-            }
-
-            // Function name is in the array, return true.
-            return true;
-        }
-
-        return false;
+        return FunctionRegistry.lookup(functionName) != null || Aggregate.lookup(functionName, 0, functionName.length()) != null;
     }
 
     /**
-     * boolean isMathExpression(String)
+     * boolean isExpression(CharSequence)
+     *
+     * Checks if a string is a mathematical equation, without copying any part of it.
      *
-     * Checks if a string is a mathematical equation.
+     * An input is an expression if it starts with a bracket or a digit, or if its first characters are the name
+     * of a function. The name is read from the first five characters (up to a bracket), names longer than that
+     * can only belong to user defined functions and are read in full.
      *
      * @param input String to check.
-     * @return True if string is a command, otherwise false.
+     * @return True if string is an expression, otherwise false.
      */
-    public static boolean isExpression(final String input) {
-        char character = input.charAt(0);
+    public static boolean isExpression(@NonNull final CharSequence input) {
+        final int length = input.length();
 
-        if(character == '(' || (character >= '0' && character <= '9')) {
-            return true;
+        // An empty input is never an expression.
+        if(length == 0) {
+            return false;
         }
 
-        // Get the input length.
-        int inputLength = input.length();
+        final char first = input.charAt(0);
 
-        // Check if the input length is greater than 2.
-        if(inputLength > 2) {
-            int endIndex = 0;
+        if(first == '(' || Lexer.isDigit(first)) {
+            return true;
+        }
 
-            for(int i = 0; i < 5; i++) {
-                // Check if the loop index has exceeded the input's length.
-                if(i > inputLength - 1) {
-                    break;
-                }
+        // Names are only checked when the input is longer than 2 characters.
+        if(length <= 2) {
+            return false;
+        }
 
-                // Get the character in the input at the loop's index.
-                character = input.charAt(i);
+        int end = 0;
 
-                // Check if the character is a bracket
-                if(character == '(') {
-                    break;
-                }
+        // Read the name, it ends at a bracket or after NAME_WINDOW characters, anything else means it isn't a call.
+        while(end < length && end < NAME_WINDOW) {
+            final char character = input.charAt(end);
 
-                // Check if the character is not "A-Z"
-                if(!(character >= 'a' && character <= 'z')) {
-                    return false;
-                }
+            // Check if the character is a bracket
+            if(character == '(') {
+                break;
+            }
 
-                // Increment the endIndex variable.
-                endIndex++;
+            // Check if the character is not "A-Z"
+            if(!Lexer.isLetter(character)) {
+                return false;
             }
 
-            // Get the name of the function.
-            final String functionName = input.substring(0, endIndex);
+            end++;
+        }
+
+        // Check if the name is an actual function or an aggregate.
+        if(FunctionRegistry.lookup(input, 0, end) != null || Aggregate.lookup(input, 0, end) != null) {
+            return true;
+        }
 
-            // Check if the function name is an actual function.
-            if(Expression.isFunction(functionName)) {
-                return true;
+        // The window is full of letters, keep reading in case it is a longer user defined function.
+        if(end == NAME_WINDOW) {
+            while(end < length && Lexer.isLetter(input.charAt(end))) {
+                end++;
             }
+
+            return end > NAME_WINDOW && FunctionRegistry.lookup(input, 0, end) != null;
         }
 
         return false;
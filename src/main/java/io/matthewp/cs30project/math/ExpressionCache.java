@@ -0,0 +1,764 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * ExpressionCache
+ *
+ * Bounded cache of {@link CompiledExpression}s and their results, keyed on a canonical form of the input
+ * so "2 + 2", "2+2" and "002+2" all share one entry.
+ *
+ * The cache is split into segments that each keep their own least recently used order and their own share
+ * of the maximum weight, so threads working on different keys rarely wait on each other. A result heavier than
+ * a whole segment is returned without being cached.
+ *
+ * A cache can be saved to a file and loaded back by the next process, see {@link #save(Path)}. The file keeps
+ * every key with its hit count and result, compiled forms are rebuilt from the keys while loading since they
+ * only make sense in the process that compiled them.
+ */
+public final class ExpressionCache {
+    // SHARED is the cache used by the input providers.
+    public static final ExpressionCache SHARED = new ExpressionCache(1 << 20);
+
+    // SEGMENTS is the number of independently locked segments, must be a power of two.
+    private static final int SEGMENTS = 16;
+    // MAGIC starts every cache file, "CS30".
+    private static final int MAGIC = 0x43533330;
+    // VERSION is the format of the cache file, files with another version are ignored.
+    private static final int VERSION = 1;
+    // HEADER is the size of the magic, version, entry count and checksum at the start of a cache file.
+    private static final int HEADER = 4 + 4 + 4 + 8;
+
+    @Getter(AccessLevel.PRIVATE) private final Segment[] segments;
+    @Getter(AccessLevel.PRIVATE) private final LongAdder hits;
+    @Getter(AccessLevel.PRIVATE) private final LongAdder misses;
+    @Getter(AccessLevel.PRIVATE) private final LongAdder evictions;
+    @Getter private final long maxWeight;
+
+    /**
+     * ExpressionCache(long)
+     *
+     * Creates a new {@link ExpressionCache} object.
+     *
+     * @param maxWeight Maximum total weight of all entries, an entry weighs roughly one unit per character and digit
+     */
+    public ExpressionCache(final long maxWeight) {
+        if(maxWeight < SEGMENTS) {
+            throw new IllegalArgumentException("Maximum weight must be at least " + SEGMENTS + ".");
+        }
+
+        this.maxWeight = maxWeight;
+        this.segments = new Segment[SEGMENTS];
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+
+        for(int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(maxWeight / SEGMENTS);
+        }
+    }
+
+    /**
+     * CompiledExpression compile(String)
+     *
+     * Gets the compiled form of the input, parsing it only if it isn't cached yet.
+     *
+     * @param input Expression input
+     * @return Compiled expression
+     */
+    public CompiledExpression compile(@NonNull final String input) {
+        return this.entry(input).getCompiled();
+    }
+
+    /**
+     * BigDecimal result(String)
+     *
+     * Gets the result of the input, parsing and evaluating it only if it isn't cached yet.
+     * Results of expressions that call impure functions are never cached.
+     *
+     * @param input Expression input
+     * @return Expression result
+     */
+    public BigDecimal result(@NonNull final String input) {
+        return this.result(input, Budget.UNLIMITED);
+    }
+
+    /**
+     * BigDecimal result(String, Budget)
+     *
+     * Gets the result of the input, a cached result is returned right away and only evaluating a new result
+     * is limited by the budget. Evaluations that run out of budget are not cached.
+     *
+     * @param input Expression input
+     * @param budget Limits of the evaluation
+     * @return Expression result
+     * @throws BudgetExceededException if the evaluation doesn't fit in the budget
+     */
+    public BigDecimal result(@NonNull final String input, @NonNull final Budget budget) {
+        final CacheEntry entry = this.entry(input);
+
+        // Impure expressions are evaluated again every time.
+        if(!entry.getCompiled().isPure()) {
+            return entry.getCompiled().evaluate(budget);
+        }
+
+        BigDecimal result = entry.getResult();
+
+        // Check if the entry was only compiled so far.
+        if(result == null) {
+            result = entry.getCompiled().evaluate(budget);
+
+            // Store the result and account for its weight, a result that would flush the whole segment isn't kept.
+            final Segment segment = this.segment(entry.getKey());
+            synchronized(segment) {
+                if(entry.getResult() == null && segment.fits(entry.getWeight() + result.precision())) {
+                    entry.result = result;
+                    segment.resize(entry, entry.getWeight() + result.precision());
+                    this.getEvictions().add(segment.evict());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * CacheEntry entry(String)
+     *
+     * Gets or creates the cache entry for the input.
+     *
+     * @param input Expression input
+     * @return Cache entry
+     */
+    private CacheEntry entry(final String input) {
+        final String key = ExpressionCache.canonicalize(input);
+        final Segment segment = this.segment(key);
+
+        // Check if the entry is already cached.
+        synchronized(segment) {
+            final CacheEntry entry = segment.get(key);
+
+            if(entry != null) {
+                this.getHits().increment();
+                entry.hits++;
+                return entry;
+            }
+        }
+
+        this.getMisses().increment();
+
+        // Parse outside of the lock so a slow parse doesn't block the segment.
+        final CompiledExpression compiled;
+        try {
+            compiled = new Expression(key).compile();
+        } catch(final RuntimeException ex) {
+            // Parse the original input again so the error points at the position the caller sees.
+            new Expression(input).compile();
+            throw ex;
+        }
+
+        synchronized(segment) {
+            // Another thread may have cached the same key while we were parsing.
+            final CacheEntry existing = segment.get(key);
+            if(existing != null) {
+                return existing;
+            }
+
+            final CacheEntry entry = new CacheEntry(key, compiled);
+            segment.add(entry);
+            this.getEvictions().add(segment.evict());
+            return entry;
+        }
+    }
+
+    /**
+     * int save(Path)
+     *
+     * Writes every entry to a file, so the next process can start with a warm cache. Entries are written in order
+     * of their hit counts, results are only kept if they don't depend on functions registered at runtime since
+     * those might behave differently in the next process.
+     *
+     * The file is written next to the target and then moved over it, a process that is stopped while saving leaves
+     * the previous file intact. Nothing is memory mapped, a mapping stays open until it is garbage collected and
+     * keeps some platforms from replacing the file.
+     *
+     * @param file File to write
+     * @return Number of saved entries
+     * @throws IOException if the file can't be written
+     */
+    public int save(@NonNull final Path file) throws IOException {
+        final List<Snapshot> entries = new ArrayList<>();
+
+        // Copy the hit counts under the lock, other threads keep counting hits while the entries are sorted.
+        for(final Segment segment : this.getSegments()) {
+            synchronized(segment) {
+                for(final CacheEntry entry : segment.values()) {
+                    entries.add(new Snapshot(entry.getKey(), entry.getHits(), entry.getResult()));
+                }
+            }
+        }
+
+        // Hottest entries first, a smaller cache that loads the file keeps the ones that matter.
+        entries.sort(Comparator.comparingLong(Snapshot::getHits).reversed());
+
+        final byte[][] keys = new byte[entries.size()][];
+        final byte[][] results = new byte[entries.size()][];
+        long size = HEADER;
+
+        for(int i = 0; i < entries.size(); i++) {
+            final BigDecimal result = entries.get(i).getResult();
+
+            keys[i] = entries.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+            results[i] = result == null || !ExpressionCache.isPortable(entries.get(i).getKey()) ? null : result.unscaledValue().toByteArray();
+            size += 4 + keys[i].length + 8 + 4 + 4 + (results[i] == null ? 0 : results[i].length);
+        }
+
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("Cache is too large to be saved in a single file.");
+        }
+
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+        buffer.position(HEADER);
+        for(int i = 0; i < entries.size(); i++) {
+            buffer.putInt(keys[i].length).put(keys[i]).putLong(entries.get(i).getHits());
+
+            if(results[i] == null) {
+                buffer.putInt(0).putInt(-1);
+            } else {
+                buffer.putInt(entries.get(i).getResult().scale()).putInt(results[i].length).put(results[i]);
+            }
+        }
+
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, entries.size()).putLong(12, ExpressionCache.checksum(buffer));
+        buffer.position(0);
+
+        try(final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entries.size();
+    }
+
+    /**
+     * int load(Path)
+     *
+     * Warms the cache with the entries of a file written by {@link #save(Path)}. The whole file is validated
+     * before anything is added, a file that is missing, from another version or damaged is ignored. Every key is
+     * compiled again and keeps its hit count and result, keys that don't compile anymore (Ex: a function that
+     * isn't registered yet) are skipped. Keys that are already cached are left alone.
+     *
+     * @param file File to read
+     * @return Number of loaded entries
+     * @throws IOException if the file exists but can't be read
+     */
+    public int load(@NonNull final Path file) throws IOException {
+        if(!Files.isRegularFile(file)) {
+            return 0;
+        }
+
+        final List<String> keys = new ArrayList<>();
+        final List<Long> hits = new ArrayList<>();
+        final List<BigDecimal> results = new ArrayList<>();
+
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+                return 0;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer) < 0) {
+                    return 0;
+                }
+            }
+
+            buffer.position(0);
+
+            if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(12) != ExpressionCache.checksum(buffer)) {
+                return 0;
+            }
+
+            final int count = buffer.getInt(8);
+            buffer.position(HEADER);
+
+            for(int i = 0; i < count; i++) {
+                // Every length is checked against what's left, the checksum doesn't protect against a bad writer.
+                final int keyLength = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+                if(keyLength < 0 || buffer.remaining() < keyLength + 8 + 4 + 4) {
+                    return 0;
+                }
+
+                final byte[] key = new byte[keyLength];
+                buffer.get(key);
+                keys.add(new String(key, StandardCharsets.UTF_8));
+                hits.add(buffer.getLong());
+
+                final int scale = buffer.getInt();
+                final int resultLength = buffer.getInt();
+                if(resultLength > buffer.remaining() || resultLength == 0 || resultLength < -1) {
+                    return 0;
+                }
+
+                if(resultLength < 0) {
+                    results.add(null);
+                } else {
+                    final byte[] unscaled = new byte[resultLength];
+                    buffer.get(unscaled);
+                    results.add(new BigDecimal(new BigInteger(unscaled), scale));
+                }
+            }
+
+            if(buffer.hasRemaining()) {
+                return 0;
+            }
+        }
+
+        // Add the coldest entries first, so the hottest ones end up most recently used.
+        int loaded = 0;
+        for(int i = keys.size() - 1; i >= 0; i--) {
+            loaded += this.restore(keys.get(i), hits.get(i), results.get(i)) ? 1 : 0;
+        }
+
+        return loaded;
+    }
+
+    /**
+     * boolean restore(String, long, BigDecimal)
+     *
+     * Adds a loaded entry to the cache.
+     *
+     * @param key Canonical key
+     * @param hits Hit count of the entry
+     * @param result Result of the entry, or null
+     * @return True if the entry was added, otherwise false.
+     */
+    private boolean restore(final String key, final long hits, final BigDecimal result) {
+        final CompiledExpression compiled;
+
+        // The key was valid when it was saved, but the functions it calls might not be registered yet.
+        try {
+            compiled = new Expression(key).compile();
+        } catch(final RuntimeException | StackOverflowError ex) {
+            return false;
+        }
+
+        final Segment segment = this.segment(key);
+        synchronized(segment) {
+            if(segment.get(key) != null) {
+                return false;
+            }
+
+            final CacheEntry entry = new CacheEntry(key, compiled);
+            entry.hits = hits;
+            segment.add(entry);
+
+            // Impure expressions are evaluated every time, even if they were pure in the last process.
+            if(result != null && compiled.isPure() && segment.fits(entry.getWeight() + result.precision())) {
+                entry.result = result;
+                segment.resize(entry, entry.getWeight() + result.precision());
+            }
+
+            this.getEvictions().add(segment.evict());
+            return true;
+        }
+    }
+
+    /**
+     * boolean isPortable(String)
+     *
+     * @param key Canonical key
+     * @return True if every function the key calls is registered by every process, otherwise false.
+     */
+    private static boolean isPortable(final String key) {
+        for(int start = 0; start < key.length(); start++) {
+            if(!Lexer.isLetter(key.charAt(start))) {
+                continue;
+            }
+
+            int end = start;
+            while(end < key.length() && Lexer.isLetter(key.charAt(end))) {
+                end++;
+            }
+
+            // Built in functions and powmod are registered before any expression is compiled.
+            final FunctionHandle function = FunctionRegistry.lookup(key, start, end);
+            if(function != null && !function.isBuiltin() && !function.getName().equals(ModularPower.NAME)) {
+                return false;
+            }
+
+            start = end;
+        }
+
+        return true;
+    }
+
+    /**
+     * long checksum(ByteBuffer)
+     *
+     * @param buffer Contents of a cache file
+     * @return CRC32 of everything after the header
+     */
+    private static long checksum(final ByteBuffer buffer) {
+        final ByteBuffer body = buffer.duplicate();
+        body.position(HEADER);
+
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        return crc.getValue();
+    }
+
+    /**
+     * Segment segment(String)
+     *
+     * @param key Canonical key
+     * @return Segment responsible for the key
+     */
+    private Segment segment(final String key) {
+        final int hash = key.hashCode();
+        return this.getSegments()[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * long getHitCount()
+     *
+     * @return Number of lookups that found a cached entry
+     */
+    public long getHitCount() {
+        return this.getHits().sum();
+    }
+
+    /**
+     * long getMissCount()
+     *
+     * @return Number of lookups that had to parse the input
+     */
+    public long getMissCount() {
+        return this.getMisses().sum();
+    }
+
+    /**
+     * long getEvictionCount()
+     *
+     * @return Number of entries removed to stay under the maximum weight
+     */
+    public long getEvictionCount() {
+        return this.getEvictions().sum();
+    }
+
+    /**
+     * int size()
+     *
+     * @return Number of cached entries
+     */
+    public int size() {
+        int size = 0;
+
+        for(final Segment segment : this.getSegments()) {
+            synchronized(segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * long weight()
+     *
+     * @return Total weight of all cached entries
+     */
+    public long weight() {
+        long weight = 0;
+
+        for(final Segment segment : this.getSegments()) {
+            synchronized(segment) {
+                weight += segment.getWeight();
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * void clear()
+     *
+     * Removes every entry from the cache, the counters are kept.
+     */
+    public void clear() {
+        for(final Segment segment : this.getSegments()) {
+            synchronized(segment) {
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * String canonicalize(String)
+     *
+     * Builds the canonical form of an input.
+     *
+     * Spaces next to an operator are removed (the parser skips them anyway), 'x' becomes '*' unless it is part
+     * of an aggregate name and leading zeros
+     * are removed from numbers. Trailing zeros are kept because they change the scale of the result.
+     *
+     * @param input Expression input
+     * @return Canonical form
+     */
+    static String canonicalize(@NonNull final String input) {
+        // Most inputs are already canonical, use them as the key without copying.
+        if(ExpressionCache.isCanonical(input)) {
+            return input;
+        }
+
+        final StringBuilder builder = new StringBuilder(input.length());
+        final int length = input.length();
+
+        for(int i = 0; i < length; i++) {
+            char character = input.charAt(i);
+
+            // Normalize the multiplication symbol the same way Expression does.
+            if(character == 'x' && Lexer.isMultiply(builder, builder.length(), input, i)) {
+                character = '*';
+            }
+
+            if(character == ' ') {
+                // Keep spaces that separate two parts of a number or name, they make the input invalid.
+                final int previous = builder.length() > 0 ? builder.charAt(builder.length() - 1) : -1;
+                int next = i + 1;
+                while(next < length && input.charAt(next) == ' ') {
+                    next++;
+                }
+
+                if(next < length && ExpressionCache.isWord(previous) && ExpressionCache.isWord(input.charAt(next))) {
+                    builder.append(' ');
+                }
+
+                i = next - 1;
+                continue;
+            }
+
+            // Drop leading zeros from a number, "007" becomes "7" and "00.5" becomes "0.5".
+            if(character == '0' && !ExpressionCache.isWord(builder.length() > 0 ? builder.charAt(builder.length() - 1) : -1)) {
+                int next = i + 1;
+                while(next < length && input.charAt(next) == '0') {
+                    next++;
+                }
+
+                // Keep a single zero if the number is only zeros or continues with a decimal point.
+                if(next < length && input.charAt(next) >= '1' && input.charAt(next) <= '9') {
+                    i = next - 1;
+                    continue;
+                }
+
+                builder.append('0');
+                i = next - 1;
+                continue;
+            }
+
+            builder.append(character);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * boolean isCanonical(String)
+     *
+     * @param input Expression input
+     * @return True if canonicalize would return the same characters, otherwise false.
+     */
+    private static boolean isCanonical(final String input) {
+        final int length = input.length();
+
+        for(int i = 0; i < length; i++) {
+            final char character = input.charAt(i);
+
+            if(character == 'x' || character == ' ') {
+                return false;
+            }
+
+            // A zero at the start of a number is only kept when a digit doesn't follow it.
+            if(character == '0' && (i == 0 || !ExpressionCache.isWord(input.charAt(i - 1)))
+                    && i + 1 < length && Lexer.isDigit(input.charAt(i + 1))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * boolean isWord(int)
+     *
+     * @param character Character to check
+     * @return True if the character is part of a number or name, otherwise false.
+     */
+    private static boolean isWord(final int character) {
+        return (character >= '0' && character <= '9') || (character >= 'a' && character <= 'z') || character == '.';
+    }
+
+    /**
+     * CacheEntry
+     *
+     * A cached compiled expression and, once it has been evaluated, its result.
+     */
+    private static final class CacheEntry {
+        @Getter private final String key;
+        @Getter private final CompiledExpression compiled;
+        @Getter private volatile BigDecimal result;
+        @Getter private long weight;
+        @Getter private long hits;
+
+        /**
+         * CacheEntry(String, CompiledExpression)
+         *
+         * @param key Canonical key
+         * @param compiled Compiled expression
+         */
+        private CacheEntry(final String key, final CompiledExpression compiled) {
+            this.key = key;
+            this.compiled = compiled;
+            this.result = null;
+            this.weight = key.length();
+            this.hits = 0;
+        }
+    }
+
+    /**
+     * Snapshot
+     *
+     * The parts of a {@link CacheEntry} that are saved, copied while its segment is locked.
+     */
+    private static final class Snapshot {
+        @Getter private final String key;
+        @Getter private final long hits;
+        @Getter private final BigDecimal result;
+
+        /**
+         * Snapshot(String, long, BigDecimal)
+         *
+         * @param key Canonical key
+         * @param hits Hit count when the snapshot was taken
+         * @param result Cached result, or null
+         */
+        private Snapshot(final String key, final long hits, final BigDecimal result) {
+            this.key = key;
+            this.hits = hits;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Segment
+     *
+     * Access ordered map of entries that evicts the least recently used entries once it is too heavy,
+     * all access must be synchronized on the segment.
+     */
+    private static final class Segment extends LinkedHashMap<String, CacheEntry> {
+        // serialVersionUID is required because LinkedHashMap is serializable, segments are saved by save() instead.
+        private static final long serialVersionUID = 1L;
+
+        @Getter private final long maxWeight;
+        @Getter private long weight;
+
+        /**
+         * Segment(long)
+         *
+         * @param maxWeight Maximum weight of this segment
+         */
+        private Segment(final long maxWeight) {
+            super(16, 0.75f, true);
+
+            this.maxWeight = maxWeight;
+            this.weight = 0;
+        }
+
+        /**
+         * void add(CacheEntry)
+         *
+         * @param entry Entry to add
+         */
+        private void add(final CacheEntry entry) {
+            this.put(entry.getKey(), entry);
+            this.weight += entry.getWeight();
+        }
+
+        /**
+         * void resize(CacheEntry, long)
+         *
+         * @param entry Entry that changed
+         * @param weight New weight of the entry
+         */
+        private void resize(final CacheEntry entry, final long weight) {
+            // The entry may have been evicted while its result was computed.
+            if(this.get(entry.getKey()) == entry) {
+                this.weight += weight - entry.getWeight();
+            }
+
+            entry.weight = weight;
+        }
+
+        /**
+         * boolean fits(long)
+         *
+         * @param weight Weight of an entry
+         * @return True if the entry can be kept without going over the maximum weight on its own, otherwise false.
+         */
+        private boolean fits(final long weight) {
+            return weight <= this.getMaxWeight();
+        }
+
+        /**
+         * int evict()
+         *
+         * Removes least recently used entries until the segment is under its maximum weight. Only an entry whose
+         * key alone is heavier than the segment evicts itself, results that heavy are never stored.
+         *
+         * @return Number of evicted entries
+         */
+        private int evict() {
+            int evicted = 0;
+            final Iterator<Map.Entry<String, CacheEntry>> iterator = this.entrySet().iterator();
+
+            while(this.getWeight() > this.getMaxWeight() && iterator.hasNext()) {
+                final CacheEntry entry = iterator.next().getValue();
+                iterator.remove();
+                this.weight -= entry.getWeight();
+                evicted++;
+            }
+
+            return evicted;
+        }
+    }
+}
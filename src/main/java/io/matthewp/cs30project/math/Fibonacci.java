@@ -0,0 +1,166 @@
+package io.matthewp.cs30project.math;
+
+import lombok.NonNull;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fibonacci
+ *
+ * Computes numbers in the fibonacci sequence with the fast doubling method, which only needs
+ * O(log n) big multiplications and O(log n) stack frames:
+ *
+ *   F(2k)     = F(k) * (2 * F(k + 1) - F(k))
+ *   F(2k + 1) = F(k + 1)^2 + F(k)^2
+ *
+ * Large intermediate pairs are kept in a bounded memo that is safe to share between threads,
+ * and once the numbers are big enough the three multiplications of a step run in parallel.
+ */
+final class Fibonacci {
+    // SMALL stores every fibonacci number that fits in a long, F(0) through F(92).
+    private static final long[] SMALL = new long[93];
+    // MEMO_MIN_INDEX is the smallest index worth memoizing, anything smaller is cheap to recompute.
+    private static final int MEMO_MIN_INDEX = 4096;
+    // MEMO_MAX_BITS is the maximum number of bits the memo can hold before it is cleared.
+    private static final long MEMO_MAX_BITS = 64L * 1024 * 1024;
+    // PARALLEL_BITS is the operand size where a step's multiplications are split across cores.
+    private static final int PARALLEL_BITS = 1 << 17;
+
+    // MEMO stores {F(k), F(k + 1)} checkpoints by k.
+    private static final Map<Integer, BigInteger[]> MEMO = new ConcurrentHashMap<>();
+    // MEMO_BITS tracks the number of bits stored in the memo.
+    private static final AtomicLong MEMO_BITS = new AtomicLong();
+
+    // Fill the table of small fibonacci numbers.
+    static {
+        SMALL[1] = 1;
+        for(int i = 2; i < SMALL.length; i++) {
+            SMALL[i] = SMALL[i - 1] + SMALL[i - 2];
+        }
+    }
+
+    /**
+     * Fibonacci()
+     *
+     * Utility class, should not be instantiated.
+     */
+    private Fibonacci() {
+    }
+
+    /**
+     * BigInteger fib(int)
+     *
+     * Computes a number in the fibonacci sequence for the specified index,
+     * like the original parser every index below 3 returns 1.
+     *
+     * @param number Index in the fibonacci sequence
+     * @return Fibonacci Number
+     */
+    static BigInteger fib(final int number) {
+        if(number < 3) {
+            return BigInteger.ONE;
+        }
+
+        if(number < SMALL.length) {
+            return BigInteger.valueOf(SMALL[number]);
+        }
+
+        return Fibonacci.pair(number)[0];
+    }
+
+    /**
+     * BigInteger[] pair(int)
+     *
+     * @param k Index in the fibonacci sequence
+     * @return {F(k), F(k + 1)}
+     */
+    private static BigInteger[] pair(final int k) {
+        // Both numbers fit in a long.
+        if(k < SMALL.length - 1) {
+            return new BigInteger[] { BigInteger.valueOf(SMALL[k]), BigInteger.valueOf(SMALL[k + 1]) };
+        }
+
+        // Check if another request already computed this checkpoint.
+        if(k >= MEMO_MIN_INDEX) {
+            final BigInteger[] memoized = MEMO.get(k);
+
+            if(memoized != null) {
+                return memoized;
+            }
+        }
+
+        final BigInteger[] half = Fibonacci.pair(k >>> 1);
+        final BigInteger a = half[0];
+        final BigInteger b = half[1];
+
+        final BigInteger[] products = Fibonacci.multiply(a, b.shiftLeft(1).subtract(a), b);
+        final BigInteger even = products[0];
+        final BigInteger odd = products[1].add(products[2]);
+
+        final BigInteger[] pair = (k & 1) == 0
+                ? new BigInteger[] { even, odd }
+                : new BigInteger[] { odd, even.add(odd) };
+
+        if(k >= MEMO_MIN_INDEX) {
+            Fibonacci.remember(k, pair);
+        }
+
+        return pair;
+    }
+
+    /**
+     * BigInteger[] multiply(BigInteger, BigInteger, BigInteger)
+     *
+     * Computes the three products of a doubling step, in parallel once the operands are large.
+     *
+     * @param a F(k)
+     * @param c 2 * F(k + 1) - F(k)
+     * @param b F(k + 1)
+     * @return {a * c, a^2, b^2}
+     */
+    private static BigInteger[] multiply(final BigInteger a, final BigInteger c, final BigInteger b) {
+        // Small operands aren't worth the cost of handing work to another thread.
+        if(b.bitLength() < PARALLEL_BITS) {
+            return new BigInteger[] { a.multiply(c), a.multiply(a), b.multiply(b) };
+        }
+
+        final ForkJoinTask<BigInteger> first = ForkJoinPool.commonPool().submit(() -> a.multiply(c));
+        final ForkJoinTask<BigInteger> second = ForkJoinPool.commonPool().submit(() -> a.multiply(a));
+        final BigInteger third = b.multiply(b);
+
+        return new BigInteger[] { first.join(), second.join(), third };
+    }
+
+    /**
+     * void remember(int, BigInteger[])
+     *
+     * Stores a checkpoint in the memo, clearing the memo first if it would grow past its limit.
+     *
+     * @param k Index of the checkpoint
+     * @param pair {F(k), F(k + 1)}
+     */
+    private static void remember(final int k, @NonNull final BigInteger[] pair) {
+        final long bits = (long) pair[0].bitLength() + pair[1].bitLength();
+
+        // Never store a single checkpoint that is larger than the whole memo.
+        if(bits > MEMO_MAX_BITS) {
+            return;
+        }
+
+        // Start over once the memo is full, recent requests will fill it with the checkpoints they need.
+        if(MEMO_BITS.addAndGet(bits) > MEMO_MAX_BITS) {
+            MEMO.clear();
+            MEMO_BITS.set(bits);
+        }
+
+        // Another thread may have stored the same checkpoint, keep the weight accurate.
+        if(MEMO.putIfAbsent(k, pair) != null) {
+            MEMO_BITS.addAndGet(-bits);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * ForkNode
+ *
+ * Wraps a binary operation whose operands are both expensive, Ex: "fib(200000) * fib(300000)". The left operand is
+ * forked to the fork-join pool while the calling thread evaluates the right operand, the {@link Optimizer} only
+ * inserts these when the {@link CostModel} predicts both operands are worth the overhead of a task.
+ *
+ * The forked operand gets a {@link Scope} of its own, the optimizer never forks operands that share a subexpression.
+ * If both operands fail the error of the left operand is thrown, the same one a sequential evaluation throws.
+ */
+final class ForkNode extends Node {
+    @Getter private final BinaryNode node;
+
+    /**
+     * ForkNode(BinaryNode)
+     *
+     * Creates a new {@link ForkNode} object.
+     *
+     * @param node Operation whose operands are evaluated in parallel
+     */
+    ForkNode(@NonNull final BinaryNode node) {
+        super(node.getPrecision(), node.getBound());
+
+        this.node = node;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Operation result
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        final Node leftNode = this.getNode().getLeft();
+        final Scope forked = scope.fork();
+        final ForkJoinTask<BigDecimal> task = ForkJoinTask.adapt(() -> leftNode.evaluate(forked)).fork();
+        final BigDecimal right;
+
+        try {
+            right = this.getNode().getRight().evaluate(scope);
+        } catch(final RuntimeException | Error ex) {
+            // Wait for the left operand, its error comes first.
+            this.join(task);
+            throw ex;
+        }
+
+        return this.getNode().getOperator().apply(this.join(task), right, scope.getContext());
+    }
+
+    /**
+     * BigDecimal join(ForkJoinTask)
+     *
+     * @param task Task evaluating the left operand
+     * @return Left operand
+     */
+    private BigDecimal join(final ForkJoinTask<BigDecimal> task) {
+        try {
+            return task.join();
+        } catch(final RuntimeException ex) {
+            throw Node.original(ex);
+        }
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * Doubles are cheap, they are evaluated on the calling thread.
+     *
+     * @param scope Evaluation scope
+     * @return Operation result
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return this.getNode().evaluateDouble(scope);
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        this.getNode().evaluateColumn(scope, target);
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Operation result
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        return this.getNode().evaluateLong(scope);
+    }
+
+    @Override
+    public String toString() {
+        return this.getNode().toString();
+    }
+}
@@ -0,0 +1,175 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FunctionHandle
+ *
+ * A function resolved from the {@link FunctionRegistry}, the parser looks a name up once and the compiled tree
+ * holds on to the handle so evaluation never searches by name again.
+ *
+ * Results of pure user defined functions are memoized, calling one again with the same arguments and precision
+ * returns the stored result without running the function body.
+ */
+public final class FunctionHandle {
+    // MEMO_SIZE is the number of results memoized per function before the memo is cleared.
+    private static final int MEMO_SIZE = 1024;
+
+    @Getter private final String name;
+    @Getter private final int arity;
+    @Getter private final boolean pure;
+    @Getter(AccessLevel.PACKAGE) private final Builtin builtin;
+    @Getter(AccessLevel.PRIVATE) private final MathFunction implementation;
+    @Getter(AccessLevel.PRIVATE) private final Map<Arguments, BigDecimal> memo;
+
+    /**
+     * FunctionHandle(Builtin)
+     *
+     * Creates a handle for one of the built in functions, these are pure and take a single argument.
+     *
+     * @param builtin Built in function
+     */
+    FunctionHandle(@NonNull final Builtin builtin) {
+        this.name = builtin.getName();
+        this.arity = 1;
+        this.pure = true;
+        this.builtin = builtin;
+        this.implementation = null;
+        this.memo = null;
+    }
+
+    /**
+     * FunctionHandle(String, int, boolean, MathFunction)
+     *
+     * Creates a handle for a user defined function.
+     *
+     * @param name Function name
+     * @param arity Number of arguments
+     * @param pure True if the result only depends on the arguments and precision
+     * @param implementation Function body
+     */
+    FunctionHandle(@NonNull final String name, final int arity, final boolean pure, @NonNull final MathFunction implementation) {
+        this.name = name;
+        this.arity = arity;
+        this.pure = pure;
+        this.builtin = null;
+        this.implementation = implementation;
+        this.memo = pure ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * boolean isBuiltin()
+     *
+     * @return True if the function is built into the parser, otherwise false.
+     */
+    public boolean isBuiltin() {
+        return this.getBuiltin() != null;
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal[], MathContext)
+     *
+     * Calls a user defined function, using the memoized result if the function is pure and has seen the
+     * same arguments before.
+     *
+     * @param arguments Function arguments
+     * @param context Precision of the expression, or null
+     * @return Function result
+     */
+    BigDecimal apply(final BigDecimal[] arguments, final MathContext context) {
+        // Impure functions run every time.
+        if(this.getMemo() == null) {
+            return this.call(arguments, context);
+        }
+
+        final Arguments key = new Arguments(arguments, context);
+        final BigDecimal memoized = this.getMemo().get(key);
+
+        // Check if we already know the result.
+        if(memoized != null) {
+            return memoized;
+        }
+
+        final BigDecimal result = this.call(arguments, context);
+
+        // Start over once the memo is full, the most used arguments are memoized again quickly.
+        if(this.getMemo().size() >= MEMO_SIZE) {
+            this.getMemo().clear();
+        }
+
+        this.getMemo().put(key, result);
+        return result;
+    }
+
+    /**
+     * BigDecimal call(BigDecimal[], MathContext)
+     *
+     * @param arguments Function arguments
+     * @param context Precision of the expression, or null
+     * @return Result of the function body
+     */
+    private BigDecimal call(final BigDecimal[] arguments, final MathContext context) {
+        final BigDecimal result = this.getImplementation().apply(arguments.clone(), context);
+
+        // A function without a result can't be used in an expression.
+        if(result == null) {
+            throw new RuntimeException("Function \"" + this.getName() + "\" did not return a value.");
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.getName() + "/" + this.getArity();
+    }
+
+    /**
+     * Arguments
+     *
+     * Memo key, the arguments of a call and the precision it was evaluated with.
+     */
+    private static final class Arguments {
+        @Getter(AccessLevel.PRIVATE) private final BigDecimal[] values;
+        @Getter(AccessLevel.PRIVATE) private final MathContext context;
+        @Getter(AccessLevel.PRIVATE) private final int hash;
+
+        /**
+         * Arguments(BigDecimal[], MathContext)
+         *
+         * @param values Function arguments, the scale is part of the key because it can change the result
+         * @param context Precision of the expression, or null
+         */
+        private Arguments(final BigDecimal[] values, final MathContext context) {
+            this.values = values;
+            this.context = context;
+            this.hash = 31 * Arrays.hashCode(values) + Objects.hashCode(context);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if(!(other instanceof Arguments)) {
+                return false;
+            }
+
+            final Arguments arguments = (Arguments) other;
+            return this.getHash() == arguments.getHash()
+                    && Arrays.equals(this.getValues(), arguments.getValues())
+                    && Objects.equals(this.getContext(), arguments.getContext());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.getHash();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * FunctionNode
+ *
+ * Expression tree node for a call to a function from the {@link FunctionRegistry}.
+ */
+final class FunctionNode extends Node {
+    @Getter private final FunctionHandle function;
+    @Getter private final Node argument;
+    @Getter private final int position;
+
+    /**
+     * FunctionNode(FunctionHandle, Node, int)
+     *
+     * Creates a new {@link FunctionNode} object.
+     *
+     * @param function Function handle
+     * @param argument Function argument
+     * @param position Position of the function name in the input
+     */
+    FunctionNode(@NonNull final FunctionHandle function, @NonNull final Node argument, final int position) {
+        super(FunctionNode.precision(function.getBuiltin(), argument), argument.getBound() + 1);
+
+        this.function = function;
+        this.argument = argument;
+        this.position = position;
+    }
+
+    /**
+     * String getName()
+     *
+     * @return Function name
+     */
+    String getName() {
+        return this.getFunction().getName();
+    }
+
+    /**
+     * Precision precision(Builtin, Node)
+     *
+     * Plans the precision of a function call, every built in function except fib works on doubles.
+     *
+     * @param builtin Built in function, or null for a user defined function
+     * @param argument Function argument
+     * @return Function precision
+     */
+    private static Precision precision(final Builtin builtin, final Node argument) {
+        // User defined functions are always called with BigDecimal.
+        if(builtin == null) {
+            return Precision.DECIMAL;
+        }
+
+        switch(builtin) {
+            // Rounding an exact integer gives back the same integer, anything else rounds to a long.
+            case ROUND:
+                return argument.getPrecision() == Precision.EXACT ? Precision.EXACT : Precision.INTEGER;
+            case SQRT:
+            case CBRT:
+            case CEIL:
+            case FLOOR:
+            case SIN:
+            case COS:
+            case TAN:
+                return Precision.FAITHFUL;
+            default:
+                return Precision.DECIMAL;
+        }
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        final Builtin builtin = this.getFunction().getBuiltin();
+
+        // Built in functions without a precision only need a double argument, except for fib.
+        if(builtin != null && builtin != Builtin.FIB && scope.getContext() == null) {
+            return builtin == Builtin.ROUND
+                    ? BigDecimal.valueOf(Math.round(this.getArgument().doubleValue(scope)))
+                    : BigDecimal.valueOf(this.evaluateDouble(scope));
+        }
+
+        return this.apply(this.getArgument().evaluate(scope), scope);
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal, Scope)
+     *
+     * Computes the function on an argument that has already been evaluated.
+     *
+     * @param argument Function argument
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    BigDecimal apply(final BigDecimal argument, final Scope scope) {
+        final Builtin builtin = this.getFunction().getBuiltin();
+
+        // User defined functions get the exact argument.
+        if(builtin == null) {
+            return this.getFunction().apply(new BigDecimal[] { argument }, scope.getContext());
+        }
+
+        // With a precision every function except fib is computed natively in BigDecimal.
+        if(scope.getContext() != null && builtin != Builtin.FIB) {
+            return BigDecimalMath.function(this.getName(), argument, scope.getContext());
+        }
+
+        switch(builtin) {
+            // Round function, Ex: "round(1.4)" will return "1", Ex: "round(1.6)" will return "2".
+            case ROUND:
+                return BigDecimal.valueOf(Math.round(argument.doubleValue()));
+            // Fibonacci Index
+            case FIB:
+                final int index = this.index(argument);
+                CostModel.checkExact(CostModel.fib(index), "Fibonacci number");
+                return new BigDecimal(Fibonacci.fib(index));
+            // Every other function is computed on doubles.
+            default:
+                return BigDecimal.valueOf(Node.finite(scope, this.applyDouble(argument.doubleValue())));
+        }
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return Node.finite(scope, this.applyDouble(this.getArgument().doubleValue(scope)));
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        this.getArgument().evaluateColumn(scope, target);
+
+        final int length = scope.getLength();
+
+        // Square roots are the most common function in formulas, give them a loop of their own so it can be vectorized.
+        if(this.getFunction().getBuiltin() == Builtin.SQRT) {
+            for(int i = 0; i < length; i++) {
+                target[i] = Math.sqrt(target[i]);
+            }
+
+            return;
+        }
+
+        for(int i = 0; i < length; i++) {
+            target[i] = this.applyDouble(target[i]);
+        }
+    }
+
+    /**
+     * double applyDouble(double)
+     *
+     * Computes the function on a double argument.
+     *
+     * @param x Function argument
+     * @return Function result, which may be NaN or infinite
+     */
+    double applyDouble(final double x) {
+        final Builtin builtin = this.getFunction().getBuiltin();
+
+        // User defined functions only work on BigDecimal, NaN and infinity can't be passed to them.
+        if(builtin == null) {
+            if(Double.isNaN(x) || Double.isInfinite(x)) {
+                return Double.NaN;
+            }
+
+            return this.getFunction().apply(new BigDecimal[] { BigDecimal.valueOf(x) }, null).doubleValue();
+        }
+
+        switch(builtin) {
+            // Square Root function, Ex: "sqrt(16)" will return "4".
+            case SQRT:
+                return Math.sqrt(x);
+            // Cube Root function, Ex: "cbrt(27)" will return "3".
+            case CBRT:
+                return Math.cbrt(x);
+            // Round function, Ex: "round(1.4)" will return "1", Ex: "round(1.6)" will return "2".
+            case ROUND:
+                return Math.round(x);
+            // Ceil function (Round Up), Ex: "ceil(1.2)" will return "2".
+            case CEIL:
+                return Math.ceil(x);
+            // Floor function (Round Up), Ex: "floor(1.8)" will return "1".
+            case FLOOR:
+                return Math.floor(x);
+            // Sine function (Trigonometry)
+            case SIN:
+                return Math.sin(x);
+            // Cosine function (Trigonometry)
+            case COS:
+                return Math.cos(x);
+            // Tangent function (Trigonometry)
+            case TAN:
+                return Math.tan(x);
+            // Fibonacci Index
+            case FIB:
+                return FunctionNode.fib((int) x);
+            // An unimplemented function was used, throw an error.
+            default:
+                throw new RuntimeException("Invalid function \"" + this.getName() + "\" at position " + this.getPosition() + ".");
+        }
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Function result
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        // Only round is ever planned as an integer, and only rounds on doubles without a precision.
+        if(this.getFunction().getBuiltin() != Builtin.ROUND || scope.getContext() != null) {
+            throw Promotion.INSTANCE;
+        }
+
+        return Math.round(this.getArgument().doubleValue(scope));
+    }
+
+    /**
+     * int index(BigDecimal)
+     *
+     * @param argument Argument of fib
+     * @return Argument as an index
+     * @throws ArithmeticException if the argument isn't an integer that fits in an int
+     */
+    private int index(final BigDecimal argument) {
+        try {
+            return argument.intValueExact();
+        } catch(final ArithmeticException ex) {
+            throw new ArithmeticException("Index of \"fib\" at position " + this.getPosition() + " must be an integer that fits in an int.");
+        }
+    }
+
+    /**
+     * double fib(int)
+     *
+     * Approximates a number in the fibonacci sequence without allocating.
+     *
+     * @param number Index in the fibonacci sequence
+     * @return Fibonacci Number
+     */
+    private static double fib(final int number) {
+        // Every index past 1476 overflows a double.
+        if(number > 1476) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double previous = 1;
+        double current = 1;
+
+        for(int i = 3; i <= number; i++) {
+            final double next = previous + current;
+            previous = current;
+            current = next;
+        }
+
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        return this.getName() + "(" + this.getArgument() + ")";
+    }
+}
@@ -0,0 +1,168 @@
+package io.matthewp.cs30project.math;
+
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FunctionRegistry
+ *
+ * Every function that can be used in an expression, indexed by name.
+ *
+ * The built in functions are always registered, more functions can be registered at runtime and are available
+ * to every expression compiled afterwards. Functions can't be replaced once registered, compiled expressions
+ * (including the ones held by the {@link ExpressionCache}) keep the handle they were compiled with.
+ */
+public final class FunctionRegistry {
+    // FUNCTIONS maps every function name to its handle.
+    private static final Map<String, FunctionHandle> FUNCTIONS = new ConcurrentHashMap<>();
+
+    // TABLE is an open addressing copy of FUNCTIONS that can be searched with part of a CharSequence,
+    // it is rebuilt every time a function is registered.
+    private static volatile FunctionHandle[] table;
+
+    // Register the built in functions.
+    static {
+        for(final Builtin builtin : Builtin.values()) {
+            FUNCTIONS.put(builtin.getName(), new FunctionHandle(builtin));
+        }
+
+        // Functions with more than one argument go through the same path as user defined functions.
+        FUNCTIONS.put(ModularPower.NAME, new FunctionHandle(ModularPower.NAME, 3, true, ModularPower::apply));
+
+        FunctionRegistry.rebuild();
+    }
+
+    /**
+     * FunctionRegistry()
+     *
+     * Utility class, should not be instantiated.
+     */
+    private FunctionRegistry() {
+    }
+
+    /**
+     * FunctionHandle register(String, int, boolean, MathFunction)
+     *
+     * Registers a user defined function.
+     *
+     * A pure function always returns the same result for the same arguments and precision, pure functions are
+     * folded into constants by the optimizer and their results are memoized. Expressions that call an impure
+     * function are evaluated again every time, even by the {@link ExpressionCache}.
+     *
+     * @param name Function name, lowercase letters except 'x' since the parser reads 'x' as multiplication
+     * @param arity Number of arguments, a function with exactly one is called like "f(a)" or "f a", any other
+     *              number of arguments is passed as a list, Ex: "f()" or "f(a, b)"
+     * @param pure True if the function only depends on its arguments
+     * @param implementation Function body
+     * @return Handle of the registered function
+     */
+    public static synchronized FunctionHandle register(@NonNull final String name, final int arity, final boolean pure, @NonNull final MathFunction implementation) {
+        // Make sure the parser can read the name.
+        if(name.isEmpty() || !name.chars().allMatch(character -> character >= 'a' && character <= 'z' && character != 'x')) {
+            throw new IllegalArgumentException("Invalid function name \"" + name + "\", only lowercase letters except 'x' are allowed.");
+        }
+
+        if(arity < 0) {
+            throw new IllegalArgumentException("Function \"" + name + "\" can't take a negative number of arguments.");
+        }
+
+        // Aggregates are parsed differently, their names can't be used by functions.
+        if(Aggregate.lookup(name, 0, name.length()) != null) {
+            throw new IllegalArgumentException("Function \"" + name + "\" is an aggregate.");
+        }
+
+        final FunctionHandle handle = new FunctionHandle(name, arity, pure, implementation);
+
+        // Check if the name is already taken.
+        if(FUNCTIONS.putIfAbsent(name, handle) != null) {
+            throw new IllegalArgumentException("Function \"" + name + "\" is already registered.");
+        }
+
+        FunctionRegistry.rebuild();
+        return handle;
+    }
+
+    /**
+     * FunctionHandle lookup(String)
+     *
+     * @param name Function name
+     * @return Handle of the function, or null if there is no function with that name
+     */
+    public static FunctionHandle lookup(@NonNull final String name) {
+        return FUNCTIONS.get(name);
+    }
+
+    /**
+     * FunctionHandle lookup(CharSequence, int, int)
+     *
+     * Looks a function up by part of an input, without copying the name out of it.
+     *
+     * @param input Characters that contain the name
+     * @param start Position of the first character of the name
+     * @param end Position after the last character of the name
+     * @return Handle of the function, or null if there is no function with that name
+     */
+    static FunctionHandle lookup(final CharSequence input, final int start, final int end) {
+        final FunctionHandle[] table = FunctionRegistry.table;
+
+        // Same hash as String.hashCode() so names hash the same way when the table is built.
+        int hash = 0;
+        for(int i = start; i < end; i++) {
+            hash = 31 * hash + input.charAt(i);
+        }
+
+        // Probe until we find the name or an empty slot.
+        for(int index = FunctionRegistry.index(hash, table.length); table[index] != null; index = (index + 1) & (table.length - 1)) {
+            if(Lexer.matches(input, start, end, table[index].getName())) {
+                return table[index];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * void rebuild()
+     *
+     * Rebuilds {@link #table} from {@link #FUNCTIONS}, the table is kept at most a quarter full so probes stay short.
+     */
+    private static void rebuild() {
+        final FunctionHandle[] table = new FunctionHandle[Integer.highestOneBit(FUNCTIONS.size() * 4 - 1) << 1];
+
+        for(final FunctionHandle handle : FUNCTIONS.values()) {
+            int index = FunctionRegistry.index(handle.getName().hashCode(), table.length);
+
+            while(table[index] != null) {
+                index = (index + 1) & (table.length - 1);
+            }
+
+            table[index] = handle;
+        }
+
+        FunctionRegistry.table = table;
+    }
+
+    /**
+     * int index(int, int)
+     *
+     * @param hash Hash of a name
+     * @param length Table length, a power of two
+     * @return First slot to probe
+     */
+    private static int index(final int hash, final int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+
+    /**
+     * Set getNames()
+     *
+     * @return Names of every registered function
+     */
+    public static Set<String> getNames() {
+        return Collections.unmodifiableSet(FUNCTIONS.keySet());
+    }
+}
@@ -0,0 +1,40 @@
+package io.matthewp.cs30project.math;
+
+import java.math.BigDecimal;
+
+/**
+ * GeneratedEvaluator
+ *
+ * Implemented by the classes that {@link BytecodeCompiler} generates at runtime for hot expressions.
+ *
+ * This interface has to be public because generated classes are defined by their own class loader,
+ * it is not meant to be implemented outside of the math package.
+ */
+public interface GeneratedEvaluator {
+
+    /**
+     * BigDecimal evaluate(BigDecimal[], BigDecimal[])
+     *
+     * Evaluates the generated expression.
+     *
+     * @param constants Literal values used by the expression, in the order they were compiled
+     * @param variables Variable values, in the order the variables were declared
+     * @return Expression result
+     */
+    BigDecimal evaluate(final BigDecimal[] constants, final BigDecimal[] variables);
+
+    /**
+     * BigDecimal pow(BigDecimal, int)
+     *
+     * Exact power called by generated code for "x^n" and "x^2", generated classes can't reach the package-private
+     * checks of {@link Operator#power(BigDecimal, BigDecimal)} themselves.
+     *
+     * @param x Base
+     * @param exponent Non-negative exponent
+     * @return x^exponent
+     * @throws BudgetExceededException if the power would have more than {@link CostModel#MAX_EXACT_DIGITS} digits
+     */
+    static BigDecimal pow(final BigDecimal x, final int exponent) {
+        return Operator.power(x, BigDecimal.valueOf(exponent));
+    }
+}
@@ -0,0 +1,289 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * Lexer
+ *
+ * Single pass scanner over the characters of an expression, it reads numbers and names in place
+ * instead of cutting substrings out of the input.
+ *
+ * A lexer keeps its {@link NumberScanner} between inputs, so a {@link Parser} that is reused for every expression
+ * on a thread only allocates the values it produces.
+ */
+final class Lexer {
+    @Getter(AccessLevel.PRIVATE) private CharSequence input;
+    @Getter(AccessLevel.PRIVATE) private int length;
+    @Getter private int position;
+    @Getter private int character;
+    @Getter(AccessLevel.PRIVATE) private final NumberScanner scanner;
+
+    /**
+     * Lexer()
+     *
+     * Creates a new {@link Lexer} object without an input.
+     */
+    Lexer() {
+        this.input = "";
+        this.length = 0;
+        this.position = -1;
+        this.character = -1;
+        this.scanner = new NumberScanner();
+    }
+
+    /**
+     * void reset(CharSequence)
+     *
+     * Starts scanning a new input from its first character.
+     *
+     * @param input Expression input
+     */
+    void reset(@NonNull final CharSequence input) {
+        this.input = input;
+        this.length = input.length();
+        this.position = -1;
+        this.next();
+    }
+
+    /**
+     * void clear()
+     *
+     * Drops the reference to the last input so a pooled lexer doesn't keep it alive.
+     */
+    void clear() {
+        this.input = "";
+        this.length = 0;
+        this.getScanner().clear();
+    }
+
+    /**
+     * boolean isEnd()
+     *
+     * @return True if every character of the input has been read, otherwise false.
+     */
+    boolean isEnd() {
+        return this.getPosition() >= this.getLength();
+    }
+
+    /**
+     * void next()
+     *
+     * Moves to the next character of the input, the character is -1 once the input has been read.
+     */
+    void next() {
+        // Check if the next position is less than the input's length.
+        if(++this.position < this.getLength()) {
+            this.character = this.getInput().charAt(this.getPosition());
+        } else {
+            // We are at the end of our input, set character to -1.
+            this.character = -1;
+        }
+    }
+
+    /**
+     * boolean isNext(int)
+     *
+     * Checks if the next non-space character matches the function's argument, and moves past it if it does.
+     *
+     * @param character Character to look for
+     * @return True if character was the next valid character, otherwise false.
+     */
+    boolean isNext(final int character) {
+        this.skip();
+
+        // Check if the current character matches what we are searching for.
+        if(this.getCharacter() == character) {
+            this.next();
+            return true;
+        }
+
+        // The next character is not the one we wanted.
+        return false;
+    }
+
+    /**
+     * boolean isNumber()
+     *
+     * @return True if the current character starts a number, otherwise false.
+     */
+    boolean isNumber() {
+        return Lexer.isDigit(this.getCharacter()) || this.getCharacter() == '.';
+    }
+
+    /**
+     * void skip()
+     *
+     * Moves past every space at the current position.
+     */
+    void skip() {
+        // Loop until we find a character that isn't a space.
+        while(this.getCharacter() == ' ') {
+            this.next();
+        }
+    }
+
+    /**
+     * boolean isName()
+     *
+     * @return True if the current character starts a name, otherwise false.
+     */
+    boolean isName() {
+        return Lexer.isLetter(this.getCharacter());
+    }
+
+    /**
+     * BigDecimal number()
+     *
+     * Reads every consecutive "0-9 and ." character as a number.
+     *
+     * @return Number value
+     * @throws NumberFormatException if the characters aren't a valid number, Ex: "1.2.3"
+     */
+    BigDecimal number() {
+        // The scanner reads the literal straight out of the input, continue after its last character.
+        this.position = this.getScanner().literal(this.getInput(), this.getPosition(), this.getLength()) - 1;
+        this.next();
+
+        return this.getScanner().toBigDecimal();
+    }
+
+    /**
+     * int name()
+     *
+     * Reads every consecutive "a-z" character as a name.
+     *
+     * @return Position after the last character of the name
+     */
+    int name() {
+        while(this.isName()) {
+            this.next();
+        }
+
+        return this.getPosition();
+    }
+
+    /**
+     * boolean matches(int, int, String)
+     *
+     * @param start Position of the first character
+     * @param end Position after the last character
+     * @param name Name to compare against
+     * @return True if the characters between start and end spell out the name, otherwise false.
+     */
+    boolean matches(final int start, final int end, final String name) {
+        return Lexer.matches(this.getInput(), start, end, name);
+    }
+
+    /**
+     * FunctionHandle function(int, int)
+     *
+     * @param start Position of the first character
+     * @param end Position after the last character
+     * @return Function with the name between start and end, or null if there is none
+     */
+    FunctionHandle function(final int start, final int end) {
+        return FunctionRegistry.lookup(this.getInput(), start, end);
+    }
+
+    /**
+     * Aggregate aggregate(int, int)
+     *
+     * @param start Position of the first character
+     * @param end Position after the last character
+     * @return Aggregate with the name between start and end, or null if there is none
+     */
+    Aggregate aggregate(final int start, final int end) {
+        return Aggregate.lookup(this.getInput(), start, end);
+    }
+
+    /**
+     * String text(int, int)
+     *
+     * Copies part of the input, only used for error messages.
+     *
+     * @param start Position of the first character
+     * @param end Position after the last character
+     * @return Characters between start and end
+     */
+    String text(final int start, final int end) {
+        return this.getInput().subSequence(start, end).toString();
+    }
+
+    /**
+     * boolean isMultiply(CharSequence, int, CharSequence, int)
+     *
+     * 'x' is read as a multiplication everywhere except inside the name of an aggregate, Ex: "max".
+     *
+     * @param output Normalized characters that come before the 'x'
+     * @param length Number of normalized characters
+     * @param input Original input
+     * @param index Position of the 'x' in the input
+     * @return True if the 'x' is a multiplication, otherwise false.
+     */
+    static boolean isMultiply(final CharSequence output, final int length, final CharSequence input, final int index) {
+        int start = length;
+        while(start > 0 && Lexer.isLetter(output.charAt(start - 1))) {
+            start--;
+        }
+
+        int end = index + 1;
+        while(end < input.length() && Lexer.isLetter(input.charAt(end)) && input.charAt(end) != 'x') {
+            end++;
+        }
+
+        // An 'x' between two numbers or brackets can't be part of a name.
+        if(start == length && end == index + 1) {
+            return true;
+        }
+
+        final String name = output.subSequence(start, length) + "x" + input.subSequence(index + 1, end);
+        return Aggregate.lookup(name, 0, name.length()) == null;
+    }
+
+    /**
+     * boolean matches(CharSequence, int, int, String)
+     *
+     * @param input Characters to check
+     * @param start Position of the first character
+     * @param end Position after the last character
+     * @param name Name to compare against
+     * @return True if the characters between start and end spell out the name, otherwise false.
+     */
+    static boolean matches(final CharSequence input, final int start, final int end, final String name) {
+        if(end - start != name.length()) {
+            return false;
+        }
+
+        for(int i = start; i < end; i++) {
+            if(input.charAt(i) != name.charAt(i - start)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * boolean isDigit(int)
+     *
+     * @param character Character to check
+     * @return True if the character is "0-9", otherwise false.
+     */
+    static boolean isDigit(final int character) {
+        return character >= '0' && character <= '9';
+    }
+
+    /**
+     * boolean isLetter(int)
+     *
+     * @param character Character to check
+     * @return True if the character is "a-z", otherwise false.
+     */
+    static boolean isLetter(final int character) {
+        return character >= 'a' && character <= 'z';
+    }
+}
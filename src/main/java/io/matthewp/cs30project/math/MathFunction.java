@@ -0,0 +1,23 @@
+package io.matthewp.cs30project.math;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * MathFunction
+ *
+ * Body of a user defined function registered with {@link FunctionRegistry#register(String, int, boolean, MathFunction)}.
+ */
+@FunctionalInterface
+public interface MathFunction {
+    /**
+     * BigDecimal apply(BigDecimal[], MathContext)
+     *
+     * Computes the function, implementations must not modify the arguments array.
+     *
+     * @param arguments Function arguments, the array always has exactly as many values as the function's arity
+     * @param context Precision the expression is evaluated with, or null if it has none
+     * @return Function result
+     */
+    BigDecimal apply(BigDecimal[] arguments, MathContext context);
+}
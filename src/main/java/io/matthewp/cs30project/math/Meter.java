@@ -0,0 +1,148 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Meter
+ *
+ * Tracks a single budgeted evaluation, the {@link StackEvaluator} asks it before and after every operation.
+ */
+final class Meter {
+    @Getter(AccessLevel.PRIVATE) private final Budget budget;
+    @Getter(AccessLevel.PRIVATE) private final long deadline;
+    @Getter(AccessLevel.PRIVATE) private long operations;
+
+    /**
+     * Meter(Budget)
+     *
+     * Creates a new {@link Meter} object, the deadline starts counting now.
+     *
+     * @param budget Budget of the evaluation
+     */
+    Meter(@NonNull final Budget budget) {
+        this(budget, budget.getTimeout() == null ? 0 : System.nanoTime() + budget.getTimeout().toNanos());
+    }
+
+    /**
+     * Meter(Budget, long)
+     *
+     * @param budget Budget of the evaluation
+     * @param deadline {@link System#nanoTime()} the evaluation has to finish by
+     */
+    private Meter(final Budget budget, final long deadline) {
+        this.budget = budget;
+        this.deadline = deadline;
+        this.operations = 0;
+    }
+
+    /**
+     * Meter fork()
+     *
+     * Creates a meter for a single task of an aggregate. It shares the limits and the deadline of this meter but
+     * counts its own operations, since the aggregate already reserved them, so tasks on different threads never
+     * write to the same meter.
+     *
+     * @return New meter
+     */
+    Meter fork() {
+        return new Meter(this.getBudget(), this.getDeadline());
+    }
+
+    /**
+     * void before(Node, BigDecimal, BigDecimal, MathContext)
+     *
+     * Stops the evaluation if the node is about to produce more digits than the budget allows.
+     *
+     * @param node Node that is about to be computed
+     * @param x First operand
+     * @param y Second operand, or null
+     * @param context Precision of the evaluation, or null
+     */
+    void before(final Node node, final BigDecimal x, final BigDecimal y, final MathContext context) {
+        final double digits = CostModel.digits(node, x, y, context);
+
+        // Unknown predictions are NaN and never exceed the limit.
+        if(digits > this.getBudget().getMaxDigits()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS,
+                    "Operation would produce about " + (long) Math.min(Math.ceil(digits), Long.MAX_VALUE) + " digits, the limit is " + this.getBudget().getMaxDigits() + ".");
+        }
+    }
+
+    /**
+     * void after(BigDecimal)
+     *
+     * Counts an operation and stops the evaluation if it is over budget.
+     *
+     * @param result Result of the operation
+     */
+    void after(final BigDecimal result) {
+        if(++this.operations > this.getBudget().getMaxOperations()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.OPERATIONS,
+                    "Evaluation took more than " + this.getBudget().getMaxOperations() + " operations.");
+        }
+
+        // User defined functions can return anything, so the prediction isn't enough.
+        if(result.precision() > this.getBudget().getMaxDigits()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS,
+                    "Evaluation produced " + result.precision() + " digits, the limit is " + this.getBudget().getMaxDigits() + ".");
+        }
+
+        this.deadline();
+    }
+
+    /**
+     * void reserve(long)
+     *
+     * Counts a number of operations ahead of time, used before an aggregate evaluates its body for every index.
+     *
+     * @param operations Number of operations about to be done
+     */
+    void reserve(final long operations) {
+        // Adding has to saturate, ranges can be close to Long.MAX_VALUE long.
+        this.operations = operations > Long.MAX_VALUE - this.getOperations() ? Long.MAX_VALUE : this.getOperations() + operations;
+
+        if(this.getOperations() > this.getBudget().getMaxOperations()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.OPERATIONS,
+                    "Evaluation would take more than " + this.getBudget().getMaxOperations() + " operations.");
+        }
+    }
+
+    /**
+     * void aggregate(AggregateNode, BigDecimal, BigDecimal, MathContext)
+     *
+     * Counts every operation of an aggregate ahead of time and stops the evaluation if its result would have
+     * more digits than the budget allows.
+     *
+     * @param node Aggregate that is about to be evaluated
+     * @param from First index
+     * @param to Last index
+     * @param context Precision of the evaluation, or null
+     */
+    void aggregate(final AggregateNode node, final BigDecimal from, final BigDecimal to, final MathContext context) {
+        final Cost cost = CostModel.aggregate(node, from, to, context);
+
+        if(cost.getDigits() > this.getBudget().getMaxDigits()) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS,
+                    "Aggregate would produce about " + cost.getDigits() + " digits, the limit is " + this.getBudget().getMaxDigits() + ".");
+        }
+
+        this.reserve(cost.getOperations());
+    }
+
+    /**
+     * void deadline()
+     *
+     * Stops the evaluation if the deadline has passed, this only reads the meter so any thread can call it.
+     */
+    void deadline() {
+        if(this.getBudget().getTimeout() != null && System.nanoTime() - this.getDeadline() > 0) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DEADLINE,
+                    "Evaluation took longer than " + this.getBudget().getTimeout().toMillis() + "ms.");
+        }
+    }
+}
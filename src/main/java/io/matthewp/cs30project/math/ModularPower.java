@@ -0,0 +1,119 @@
+package io.matthewp.cs30project.math;
+
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * ModularPower
+ *
+ * Implements the built in "powmod(a, b, m)" function, a^b mod m computed without ever building a^b.
+ *
+ * Moduli that fit in 31 bits run on longs with a fixed window, every multiplication consumes {@link #WINDOW} bits of
+ * the exponent from a table of small powers. Larger moduli use {@link BigInteger#modPow(BigInteger, BigInteger)},
+ * which already runs a sliding window over Montgomery products.
+ */
+final class ModularPower {
+    // NAME is the name of the function in expressions.
+    static final String NAME = "powmod";
+    // WINDOW is the number of exponent bits consumed per multiplication.
+    private static final int WINDOW = 4;
+    // SMALL_BITS is the largest modulus where the product of two residues still fits in a long.
+    private static final int SMALL_BITS = 31;
+
+    /**
+     * ModularPower()
+     *
+     * Utility class, should not be instantiated.
+     */
+    private ModularPower() {
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal[], MathContext)
+     *
+     * Body of the "powmod" function, the result is exact so it ignores the precision.
+     *
+     * @param arguments Base, exponent and modulus
+     * @param context Precision of the evaluation, unused
+     * @return a^b mod m, between 0 and m - 1
+     */
+    static BigDecimal apply(final BigDecimal[] arguments, final MathContext context) {
+        for(final BigDecimal argument : arguments) {
+            if(!Operator.isInteger(argument)) {
+                throw new ArithmeticException("Arguments of \"" + NAME + "\" must be integers.");
+            }
+        }
+
+        return new BigDecimal(ModularPower.pow(arguments[0].toBigInteger(), arguments[1].toBigInteger(), arguments[2].toBigInteger()));
+    }
+
+    /**
+     * BigInteger pow(BigInteger, BigInteger, BigInteger)
+     *
+     * @param base Base
+     * @param exponent Exponent, a negative exponent raises the modular inverse of the base
+     * @param modulus Positive modulus
+     * @return base^exponent mod modulus
+     */
+    static BigInteger pow(@NonNull final BigInteger base, @NonNull final BigInteger exponent, @NonNull final BigInteger modulus) {
+        if(modulus.signum() <= 0) {
+            throw new ArithmeticException("Modulus of \"" + NAME + "\" must be positive.");
+        }
+
+        if(exponent.signum() < 0) {
+            if(!base.gcd(modulus).equals(BigInteger.ONE)) {
+                throw new ArithmeticException("Base of \"" + NAME + "\" has no inverse for a negative exponent.");
+            }
+
+            return ModularPower.pow(base.modInverse(modulus), exponent.negate(), modulus);
+        }
+
+        if(modulus.bitLength() <= SMALL_BITS) {
+            return BigInteger.valueOf(ModularPower.pow(base.mod(modulus).longValue(), exponent, modulus.longValue()));
+        }
+
+        return base.modPow(exponent, modulus);
+    }
+
+    /**
+     * long pow(long, BigInteger, long)
+     *
+     * Fixed window exponentiation, the exponent is read from its highest window down, squaring once per bit
+     * and multiplying once per window.
+     *
+     * @param base Base, already reduced
+     * @param exponent Non-negative exponent
+     * @param modulus Modulus that fits in 31 bits
+     * @return base^exponent mod modulus
+     */
+    private static long pow(final long base, final BigInteger exponent, final long modulus) {
+        // Everything is 0 modulo 1.
+        if(modulus == 1) {
+            return 0;
+        }
+
+        // powers[i] is base^i for every window value i.
+        final long[] powers = new long[1 << WINDOW];
+        powers[0] = 1;
+        for(int i = 1; i < powers.length; i++) {
+            powers[i] = powers[i - 1] * base % modulus;
+        }
+
+        long result = 1;
+        for(int position = (exponent.bitLength() + WINDOW - 1) / WINDOW * WINDOW - WINDOW; position >= 0; position -= WINDOW) {
+            int window = 0;
+
+            for(int bit = WINDOW - 1; bit >= 0; bit--) {
+                result = result * result % modulus;
+                window = (window << 1) | (exponent.testBit(position + bit) ? 1 : 0);
+            }
+
+            result = result * powers[window] % modulus;
+        }
+
+        return result;
+    }
+}
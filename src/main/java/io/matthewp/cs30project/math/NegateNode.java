@@ -0,0 +1,114 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * NegateNode
+ *
+ * Expression tree node for a unary minus.
+ */
+final class NegateNode extends Node {
+    @Getter private final Node operand;
+
+    /**
+     * NegateNode(Node)
+     *
+     * Creates a new {@link NegateNode} object.
+     *
+     * @param operand Node to negate
+     */
+    NegateNode(@NonNull final Node operand) {
+        // Negation is exact on both doubles and BigDecimals, keep the operand's precision.
+        super(operand.getPrecision(), operand.getBound());
+
+        this.operand = operand;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Negated operand
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        if(this.getPrecision() == Precision.EXACT && scope.isIntegral()) {
+            return this.evaluateExact(scope);
+        }
+
+        // Try the long evaluator first, it returns null if the value has to be promoted.
+        if(this.getPrecision() == Precision.INTEGER && scope.isIntegral()) {
+            final BigDecimal result = this.evaluateInteger(scope);
+
+            if(result != null) {
+                return result;
+            }
+        }
+
+        return NegateNode.apply(this.getOperand().evaluate(scope), scope);
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal, Scope)
+     *
+     * @param operand Operand that has already been evaluated
+     * @param scope Evaluation scope
+     * @return Negated operand
+     */
+    static BigDecimal apply(final BigDecimal operand, final Scope scope) {
+        return scope.getContext() != null ? operand.negate(scope.getContext()) : operand.negate();
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Negated operand
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return -this.getOperand().evaluateDouble(scope);
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        this.getOperand().evaluateColumn(scope, target);
+
+        final int length = scope.getLength();
+        for(int i = 0; i < length; i++) {
+            target[i] = -target[i];
+        }
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Negated operand
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        final long x = this.getOperand().evaluateLong(scope);
+
+        // Long.MIN_VALUE can't be negated.
+        if(x == Long.MIN_VALUE) {
+            throw Promotion.INSTANCE;
+        }
+
+        return -x;
+    }
+
+    @Override
+    public String toString() {
+        return "-(" + this.getOperand() + ")";
+    }
+}
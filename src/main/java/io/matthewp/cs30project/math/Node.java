@@ -0,0 +1,170 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * Node
+ *
+ * Base for every node in a compiled expression tree.
+ *
+ * Nodes are immutable once they have been created by the {@link Expression} parser,
+ * which allows a single tree to be evaluated by multiple threads at the same time.
+ */
+abstract class Node {
+    @Getter private final Precision precision;
+    @Getter private final double bound;
+
+    /**
+     * Node(Precision, double)
+     *
+     * @param precision Precision picked by the planner for this subtree
+     * @param bound Largest magnitude the subtree can produce, only meaningful for {@link Precision#EXACT} nodes
+     */
+    Node(@NonNull final Precision precision, final double bound) {
+        this.precision = precision;
+        this.bound = bound;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * Evaluates this node and all of its children.
+     *
+     * @param scope Evaluation scope
+     * @return Node result
+     */
+    abstract BigDecimal evaluate(final Scope scope);
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * Evaluates this node and all of its children using primitive doubles.
+     *
+     * In an exact scope this is only called on nodes the planner marked as faithful,
+     * in an approximate scope it is called for every node.
+     *
+     * @param scope Evaluation scope
+     * @return Node result
+     */
+    abstract double evaluateDouble(final Scope scope);
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * Evaluates this node for every row of the scope's current block, each row gives the same result as
+     * {@link #evaluateDouble(Scope)} in an approximate scope.
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to, only the first {@link ColumnScope#getLength()} rows are used
+     */
+    abstract void evaluateColumn(final ColumnScope scope, final double[] target);
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * Evaluates an integral subtree using primitive longs.
+     *
+     * @param scope Evaluation scope
+     * @return Node result
+     * @throws Promotion if the result doesn't fit in a long or isn't an integer
+     */
+    long evaluateLong(final Scope scope) {
+        throw Promotion.INSTANCE;
+    }
+
+    /**
+     * double doubleValue(Scope)
+     *
+     * Evaluates the node for a consumer that only needs a double, skipping BigDecimal when the planner allows it.
+     *
+     * @param scope Evaluation scope
+     * @return Node result as a double
+     */
+    final double doubleValue(final Scope scope) {
+        if(scope.isApproximate()) {
+            return this.evaluateDouble(scope);
+        }
+
+        // Exact integers stay exact as long as the precision can hold them, functions only run on doubles without one.
+        if((this.getPrecision() == Precision.EXACT && scope.isIntegral())
+                || (this.getPrecision() == Precision.FAITHFUL && scope.getContext() == null)) {
+            return this.evaluateDouble(scope);
+        }
+
+        // Converting a long to a double rounds the same way doubleValue() does.
+        if(this.getPrecision() == Precision.INTEGER && scope.isIntegral()) {
+            try {
+                return (double) this.evaluateLong(scope);
+            } catch(final Promotion ignored) { }
+        }
+
+        return this.evaluate(scope).doubleValue();
+    }
+
+    /**
+     * BigDecimal evaluateExact(Scope)
+     *
+     * Evaluates an {@link Precision#EXACT} subtree on doubles and converts the integer result once.
+     *
+     * @param scope Evaluation scope
+     * @return Node result
+     */
+    final BigDecimal evaluateExact(final Scope scope) {
+        return BigDecimal.valueOf((long) this.evaluateDouble(scope));
+    }
+
+    /**
+     * BigDecimal evaluateInteger(Scope)
+     *
+     * Evaluates an {@link Precision#INTEGER} subtree on longs, or returns null if it has to be promoted
+     * so the caller can evaluate it with BigDecimal.
+     *
+     * @param scope Evaluation scope
+     * @return Node result, or null if the subtree needs BigDecimal
+     */
+    final BigDecimal evaluateInteger(final Scope scope) {
+        try {
+            return BigDecimal.valueOf(this.evaluateLong(scope));
+        } catch(final Promotion ex) {
+            return null;
+        }
+    }
+
+    /**
+     * RuntimeException original(RuntimeException)
+     *
+     * Errors from another fork-join worker are rethrown as a copy without a message that wraps the original.
+     *
+     * @param ex Error thrown by a task
+     * @return Original error
+     */
+    static RuntimeException original(final RuntimeException ex) {
+        RuntimeException original = ex;
+        while(original.getCause() != null && original.getCause().getClass() == original.getClass()) {
+            original = (RuntimeException) original.getCause();
+        }
+
+        return original;
+    }
+
+    /**
+     * double finite(Scope, double)
+     *
+     * Faithful nodes skip the BigDecimal.valueOf(double) call that rejects NaN and infinity,
+     * run it anyway when a result isn't finite so exact scopes still throw where they used to.
+     *
+     * @param scope Evaluation scope
+     * @param value Double result
+     * @return Double result
+     */
+    static double finite(final Scope scope, final double value) {
+        if(!scope.isApproximate() && (Double.isNaN(value) || Double.isInfinite(value))) {
+            BigDecimal.valueOf(value);
+        }
+
+        return value;
+    }
+}
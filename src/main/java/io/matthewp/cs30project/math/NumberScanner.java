@@ -0,0 +1,417 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * NumberScanner
+ *
+ * Classifies and converts numeric literals in a single pass over their characters, without cutting substrings out
+ * of the input or relying on exceptions to find out what a literal is.
+ *
+ * While scanning, the significant digits are collected into a long together with the position of the decimal
+ * point and the exponent. Integers are then converted straight from that long, doubles with at most
+ * {@link #EXACT_DIGITS} significant digits and a small power of ten take a single correctly rounded multiplication
+ * or division, and decimals with at most {@link #LONG_DIGITS} significant digits become a {@link BigDecimal}
+ * without going through its parser. Only longer literals fall back to the JDK parsers.
+ *
+ * A scanner keeps the result of the last literal and a character buffer for the slow path, it can be reused for
+ * every literal of an input but isn't thread safe.
+ */
+public final class NumberScanner {
+    // LONG_DIGITS is the number of significant digits that always fit in a long.
+    private static final int LONG_DIGITS = 18;
+    // EXACT_DIGITS is the number of significant digits that always fit in a double's mantissa.
+    private static final int EXACT_DIGITS = 15;
+    // POWERS stores every power of ten that a double represents exactly.
+    private static final double[] POWERS = new double[23];
+
+    // Fill the table of exact powers of ten.
+    static {
+        POWERS[0] = 1;
+        for(int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    @Getter(AccessLevel.PRIVATE) private CharSequence input;
+    @Getter(AccessLevel.PRIVATE) private int start;
+    @Getter(AccessLevel.PRIVATE) private int end;
+    @Getter private boolean valid;
+    @Getter(AccessLevel.PRIVATE) private boolean negative;
+    @Getter(AccessLevel.PRIVATE) private boolean whole;
+    @Getter(AccessLevel.PRIVATE) private boolean exact;
+    @Getter(AccessLevel.PRIVATE) private boolean named;
+    @Getter(AccessLevel.PRIVATE) private long digits;
+    @Getter(AccessLevel.PRIVATE) private int significant;
+    @Getter(AccessLevel.PRIVATE) private int scale;
+    @Getter(AccessLevel.PRIVATE) private long exponent;
+    @Getter(AccessLevel.PRIVATE) private double special;
+    @Getter(AccessLevel.PRIVATE) private char[] buffer;
+
+    /**
+     * NumberScanner()
+     *
+     * Creates a new {@link NumberScanner} object without a literal.
+     */
+    public NumberScanner() {
+        this.input = "";
+        this.buffer = new char[32];
+        this.reset(0);
+    }
+
+    /**
+     * int literal(CharSequence, int, int)
+     *
+     * Scans the number literal of an expression, every consecutive "0-9 and ." character from the start. Signs and
+     * exponents belong to the expression around the literal, so they end it.
+     *
+     * @param input Characters to scan
+     * @param start Position of the first character of the literal
+     * @param end Position after the last character that may be read
+     * @return Position after the last character of the literal
+     */
+    public int literal(@NonNull final CharSequence input, final int start, final int end) {
+        this.input = input;
+        this.reset(start);
+
+        int position = start;
+        boolean point = false;
+        boolean any = false;
+        boolean valid = true;
+
+        while(position < end) {
+            final char character = input.charAt(position);
+
+            if(character == '.') {
+                // A second point makes the literal invalid, but it's still read so the error covers all of it.
+                valid &= !point;
+                point = true;
+            } else if(Lexer.isDigit(character)) {
+                this.digit(character, point);
+                any = true;
+            } else {
+                break;
+            }
+
+            position++;
+        }
+
+        this.end = position;
+        this.whole = !point;
+        this.valid = valid && any;
+        return position;
+    }
+
+    /**
+     * boolean parse(CharSequence)
+     *
+     * Scans a whole string as a Java number literal, the format accepted by {@link Double#parseDouble(String)}:
+     * surrounding white space, a sign, "NaN", "Infinity", digits with an optional point and exponent and a
+     * trailing type letter. Hexadecimal literals are handed to the JDK.
+     *
+     * @param input Characters to scan
+     * @return True if every character belongs to the literal, otherwise false.
+     */
+    public boolean parse(@NonNull final CharSequence input) {
+        int start = 0;
+        int end = input.length();
+
+        // Trim the white space like String#trim() does, it only matters for doubles.
+        while(start < end && input.charAt(start) <= ' ') {
+            start++;
+        }
+        while(end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        this.input = input;
+        this.reset(start);
+        this.end = end;
+        this.exact = start == 0 && end == input.length();
+
+        int position = start;
+        if(position < end && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+            this.negative = input.charAt(position++) == '-';
+        }
+
+        // Named values.
+        if(this.matches(position, end, "NaN") || this.matches(position, end, "Infinity")) {
+            this.named = true;
+            this.exact = false;
+            this.special = input.charAt(position) == 'N' ? Double.NaN : this.isNegative() ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            return this.valid = true;
+        }
+
+        // Hexadecimal literals are rare enough to go through the JDK.
+        if(end - position > 1 && input.charAt(position) == '0' && (input.charAt(position + 1) == 'x' || input.charAt(position + 1) == 'X')) {
+            return this.hexadecimal();
+        }
+
+        boolean point = false;
+        boolean any = false;
+
+        // Read the digits and the point.
+        for(; position < end; position++) {
+            final char character = input.charAt(position);
+
+            if(character == '.' && !point) {
+                point = true;
+            } else if(Lexer.isDigit(character)) {
+                this.digit(character, point);
+                any = true;
+            } else {
+                break;
+            }
+        }
+
+        this.whole = !point && any;
+
+        // Read the exponent, its digits are required.
+        if(any && position < end && (input.charAt(position) == 'e' || input.charAt(position) == 'E')) {
+            position++;
+            this.whole = false;
+
+            boolean minus = false;
+            if(position < end && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+                minus = input.charAt(position++) == '-';
+            }
+
+            any = false;
+            long exponent = 0;
+            for(; position < end && Lexer.isDigit(input.charAt(position)); position++) {
+                // Anything this large is zero or infinite anyway, stop counting before the long overflows.
+                exponent = Math.min(exponent * 10 + (input.charAt(position) - '0'), Long.MAX_VALUE / 100);
+                any = true;
+            }
+
+            this.exponent = minus ? -exponent : exponent;
+        }
+
+        // A type letter can end any decimal literal, BigDecimal doesn't know about them.
+        if(any && position < end && "fFdD".indexOf(input.charAt(position)) >= 0) {
+            position++;
+            this.whole = false;
+            this.exact = false;
+        }
+
+        this.valid = any && position == end;
+        return this.isValid();
+    }
+
+    /**
+     * boolean isInteger()
+     *
+     * @return True if the literal is a plain integer, only digits after an optional sign, otherwise false.
+     */
+    public boolean isInteger() {
+        return this.isValid() && this.isWhole() && this.isExact();
+    }
+
+    /**
+     * boolean isInt()
+     *
+     * @return True if the literal is a plain integer that fits in an int, like {@link Integer#parseInt(String)} accepts, otherwise false.
+     */
+    public boolean isInt() {
+        return this.isLong() && this.toLong() == (int) this.toLong();
+    }
+
+    /**
+     * boolean isLong()
+     *
+     * @return True if the literal is a plain integer short enough to always fit in a long, otherwise false.
+     */
+    public boolean isLong() {
+        return this.isInteger() && this.getSignificant() <= LONG_DIGITS;
+    }
+
+    /**
+     * int toInt()
+     *
+     * @return Value of the literal
+     * @throws NumberFormatException if the literal isn't an int
+     */
+    public int toInt() {
+        if(!this.isInt()) {
+            throw new NumberFormatException("For input string: \"" + this.text() + "\"");
+        }
+
+        return (int) this.toLong();
+    }
+
+    /**
+     * long toLong()
+     *
+     * @return Value of the literal
+     * @throws NumberFormatException if the literal isn't a long
+     */
+    public long toLong() {
+        if(!this.isLong()) {
+            throw new NumberFormatException("For input string: \"" + this.text() + "\"");
+        }
+
+        return this.isNegative() ? -this.getDigits() : this.getDigits();
+    }
+
+    /**
+     * double toDouble()
+     *
+     * @return Closest double to the literal
+     * @throws NumberFormatException if the literal isn't valid
+     */
+    public double toDouble() {
+        if(!this.isValid()) {
+            throw new NumberFormatException("For input string: \"" + this.text() + "\"");
+        }
+
+        if(this.isNamed()) {
+            return this.getSpecial();
+        }
+
+        // Zero keeps its sign, whatever the exponent.
+        if(this.getSignificant() == 0) {
+            return this.isNegative() ? -0.0 : 0.0;
+        }
+
+        // Both the digits and the power of ten are exact, so a single multiplication or division is correctly rounded.
+        final long power = this.getExponent() - this.getScale();
+        if(this.getSignificant() <= EXACT_DIGITS && Math.abs(power) < POWERS.length) {
+            final double value = power < 0 ? this.getDigits() / POWERS[(int) -power] : this.getDigits() * POWERS[(int) power];
+            return this.isNegative() ? -value : value;
+        }
+
+        return Double.parseDouble(this.text());
+    }
+
+    /**
+     * BigDecimal toBigDecimal()
+     *
+     * @return Exact value of the literal, with as many decimal places as it was written with
+     * @throws NumberFormatException if the literal isn't valid or has no exact decimal value, Ex: "1.2.3" or "NaN"
+     */
+    public BigDecimal toBigDecimal() {
+        final long scale = this.getScale() - this.getExponent();
+
+        if(this.isValid() && this.isExact() && this.getSignificant() <= LONG_DIGITS && Math.abs(scale) <= Integer.MAX_VALUE) {
+            return BigDecimal.valueOf(this.isNegative() ? -this.getDigits() : this.getDigits(), (int) scale);
+        }
+
+        // White space and type letters are fine for a double, but BigDecimal doesn't accept them.
+        if(!this.isExact()) {
+            throw new NumberFormatException("For input string: \"" + this.getInput() + "\"");
+        }
+
+        // Let the BigDecimal parser handle long literals and report invalid ones.
+        final int length = this.getEnd() - this.getStart();
+        if(length > this.getBuffer().length) {
+            this.buffer = Arrays.copyOf(this.getBuffer(), Math.max(length, this.getBuffer().length * 2));
+        }
+
+        for(int i = 0; i < length; i++) {
+            this.getBuffer()[i] = this.getInput().charAt(this.getStart() + i);
+        }
+
+        return new BigDecimal(this.getBuffer(), 0, length);
+    }
+
+    /**
+     * void clear()
+     *
+     * Drops the reference to the last input so a pooled scanner doesn't keep it alive.
+     */
+    public void clear() {
+        this.input = "";
+        this.reset(0);
+    }
+
+    /**
+     * void reset(int)
+     *
+     * Forgets the last literal.
+     *
+     * @param start Position of the first character of the next literal
+     */
+    private void reset(final int start) {
+        this.start = start;
+        this.end = start;
+        this.valid = false;
+        this.negative = false;
+        this.whole = false;
+        this.exact = true;
+        this.named = false;
+        this.digits = 0;
+        this.significant = 0;
+        this.scale = 0;
+        this.exponent = 0;
+        this.special = 0;
+    }
+
+    /**
+     * void digit(char, boolean)
+     *
+     * Adds a digit to the significant digits, digits that don't fit in a long are only counted.
+     *
+     * @param character Digit character
+     * @param point True if the digit comes after the decimal point
+     */
+    private void digit(final char character, final boolean point) {
+        // Leading zeros don't count towards the significant digits.
+        if(this.getSignificant() == 0 && character == '0') {
+            this.scale += point ? 1 : 0;
+            return;
+        }
+
+        // Longer literals go through the slow path, which reads them from the input again.
+        if(++this.significant <= LONG_DIGITS) {
+            this.digits = this.getDigits() * 10 + (character - '0');
+            this.scale += point ? 1 : 0;
+        }
+    }
+
+    /**
+     * boolean matches(int, int, String)
+     *
+     * @param start Position of the first character
+     * @param end Position after the last character
+     * @param name Name to compare against
+     * @return True if the characters between start and end spell out the name, otherwise false.
+     */
+    private boolean matches(final int start, final int end, final String name) {
+        return Lexer.matches(this.getInput(), start, end, name);
+    }
+
+    /**
+     * boolean hexadecimal()
+     *
+     * Converts a hexadecimal literal with the JDK, it's the only literal that is allowed to throw while scanning.
+     *
+     * @return True if the literal is valid, otherwise false.
+     */
+    private boolean hexadecimal() {
+        this.named = true;
+        this.exact = false;
+
+        try {
+            this.special = Double.parseDouble(this.text());
+            this.valid = true;
+        } catch(final NumberFormatException ignored) {
+            this.valid = false;
+        }
+
+        return this.isValid();
+    }
+
+    /**
+     * String text()
+     *
+     * @return Characters of the literal, without the surrounding white space
+     */
+    private String text() {
+        return this.getInput().subSequence(this.getStart(), this.getEnd()).toString();
+    }
+}
@@ -0,0 +1,346 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Operator
+ *
+ * Binary operators supported by the {@link Expression} parser.
+ */
+enum Operator {
+    ADD('+'),
+    SUBTRACT('-'),
+    MULTIPLY('*'),
+    DIVIDE('/'),
+    POWER('^');
+
+    // MAX_EXPONENT is the largest exponent BigDecimal.pow accepts.
+    static final int MAX_EXPONENT = 999999999;
+    // FIVE is the only factor besides 2 that a terminating decimal fraction's denominator can have.
+    private static final BigInteger FIVE = BigInteger.valueOf(5);
+
+    @Getter private final char symbol;
+
+    /**
+     * Operator(char)
+     *
+     * @param symbol Operator symbol
+     */
+    Operator(final char symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal, BigDecimal, MathContext)
+     *
+     * Applies the operator to both operands.
+     *
+     * @param x Left operand
+     * @param y Right operand
+     * @param context Precision of the result, or null for exact arithmetic and double fractional exponents
+     * @return Result
+     */
+    BigDecimal apply(final BigDecimal x, final BigDecimal y, final MathContext context) {
+        if(context != null) {
+            switch(this) {
+                case ADD:
+                    return x.add(y, context);
+                case SUBTRACT:
+                    return x.subtract(y, context);
+                case MULTIPLY:
+                    return x.multiply(y, context);
+                case DIVIDE:
+                    return x.divide(y, context);
+                case POWER:
+                    return BigDecimalMath.pow(x, y, context);
+            }
+        }
+
+        switch(this) {
+            case ADD:
+                return x.add(y);
+            case SUBTRACT:
+                return x.subtract(y);
+            case MULTIPLY:
+                return x.multiply(y);
+            case DIVIDE:
+                return x.divide(y);
+            case POWER:
+                return Operator.power(x, y);
+            default:
+                throw new RuntimeException("Unknown operator '" + this.getSymbol() + "'.");
+        }
+    }
+
+    /**
+     * BigDecimal power(BigDecimal, BigDecimal)
+     *
+     * Raises x to the power of y without a precision. Integer exponents are exact and use the binary exponentiation
+     * of {@link BigDecimal#pow(int)}, a negative exponent is exact as long as the reciprocal terminates. Everything
+     * else, fractional exponents and reciprocals like "3^-1", has no exact result and runs on doubles.
+     *
+     * @param x Base
+     * @param y Exponent
+     * @return x^y
+     * @throws BudgetExceededException if an exact power would have more than {@link CostModel#MAX_EXACT_DIGITS} digits
+     */
+    static BigDecimal power(final BigDecimal x, final BigDecimal y) {
+        if(Operator.isInteger(y) && y.abs().compareTo(BigDecimal.valueOf(MAX_EXPONENT)) <= 0) {
+            final int exponent = y.intValueExact();
+
+            if(exponent >= 0) {
+                CostModel.checkExact(CostModel.power(x, exponent), "Power");
+                return x.pow(exponent);
+            }
+
+            if(x.signum() == 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+
+            if(Operator.terminates(x)) {
+                CostModel.checkExact(CostModel.power(x, -(long) exponent), "Power");
+                return BigDecimal.ONE.divide(x.pow(-exponent));
+            }
+        }
+
+        return BigDecimal.valueOf(Math.pow(x.doubleValue(), y.doubleValue()));
+    }
+
+    /**
+     * boolean isInteger(BigDecimal)
+     *
+     * @param value Value to check
+     * @return True if the value has no fractional part, otherwise false.
+     */
+    static boolean isInteger(final BigDecimal value) {
+        return value.signum() == 0 || value.scale() <= 0 || value.stripTrailingZeros().scale() <= 0;
+    }
+
+    /**
+     * boolean terminates(BigDecimal)
+     *
+     * @param value Non-zero value
+     * @return True if 1 / value has a finite decimal expansion, otherwise false.
+     */
+    private static boolean terminates(final BigDecimal value) {
+        // Only factors of 2 and 5 divide a power of ten.
+        BigInteger rest = value.unscaledValue().abs();
+        rest = rest.shiftRight(rest.getLowestSetBit());
+
+        while(!rest.equals(BigInteger.ONE)) {
+            final BigInteger[] division = rest.divideAndRemainder(FIVE);
+
+            if(division[1].signum() != 0) {
+                return false;
+            }
+
+            rest = division[0];
+        }
+
+        return true;
+    }
+
+    /**
+     * double applyDouble(double, double)
+     *
+     * Applies the operator to both operands using primitive doubles.
+     *
+     * @param x Left operand
+     * @param y Right operand
+     * @return Result
+     */
+    double applyDouble(final double x, final double y) {
+        switch(this) {
+            case ADD:
+                return x + y;
+            case SUBTRACT:
+                return x - y;
+            case MULTIPLY:
+                return x * y;
+            case DIVIDE:
+                return x / y;
+            case POWER:
+                return Math.pow(x, y);
+            default:
+                throw new RuntimeException("Unknown operator '" + this.getSymbol() + "'.");
+        }
+    }
+
+    /**
+     * void applyColumn(double[], double[], int)
+     *
+     * Applies the operator to every row of two columns, with one loop per operator so each loop can be vectorized.
+     *
+     * @param x Left operand column, the results are written back to it
+     * @param y Right operand column
+     * @param length Number of rows
+     */
+    void applyColumn(final double[] x, final double[] y, final int length) {
+        switch(this) {
+            case ADD:
+                for(int i = 0; i < length; i++) {
+                    x[i] = x[i] + y[i];
+                }
+                break;
+            case SUBTRACT:
+                for(int i = 0; i < length; i++) {
+                    x[i] = x[i] - y[i];
+                }
+                break;
+            case MULTIPLY:
+                for(int i = 0; i < length; i++) {
+                    x[i] = x[i] * y[i];
+                }
+                break;
+            case DIVIDE:
+                for(int i = 0; i < length; i++) {
+                    x[i] = x[i] / y[i];
+                }
+                break;
+            case POWER:
+                for(int i = 0; i < length; i++) {
+                    x[i] = Math.pow(x[i], y[i]);
+                }
+                break;
+            default:
+                throw new RuntimeException("Unknown operator '" + this.getSymbol() + "'.");
+        }
+    }
+
+    /**
+     * long applyLong(long, long)
+     *
+     * Applies the operator to both operands using primitive longs, with the same overflow checks as
+     * {@link Math#addExact(long, long)} and friends.
+     *
+     * @param x Left operand
+     * @param y Right operand
+     * @return Result
+     * @throws Promotion if the result overflows or isn't an integer
+     */
+    long applyLong(final long x, final long y) {
+        final long result;
+
+        switch(this) {
+            case ADD:
+                result = x + y;
+
+                // Overflow if both operands have the opposite sign of the result.
+                if(((x ^ result) & (y ^ result)) < 0) {
+                    throw Promotion.INSTANCE;
+                }
+
+                return result;
+            case SUBTRACT:
+                result = x - y;
+
+                // Overflow if the operands have different signs and the result's sign is different from x.
+                if(((x ^ y) & (x ^ result)) < 0) {
+                    throw Promotion.INSTANCE;
+                }
+
+                return result;
+            case MULTIPLY:
+                return Operator.multiply(x, y);
+            case DIVIDE:
+                // Division by zero and fractions are left to BigDecimal.
+                if(y == 0 || (x == Long.MIN_VALUE && y == -1) || x % y != 0) {
+                    throw Promotion.INSTANCE;
+                }
+
+                return x / y;
+            case POWER:
+                // Negative exponents give fractions unless the base is 1 or -1, those are left to BigDecimal.
+                if(y < 0) {
+                    throw Promotion.INSTANCE;
+                }
+
+                return Operator.power(x, y);
+            default:
+                throw Promotion.INSTANCE;
+        }
+    }
+
+    /**
+     * long multiply(long, long)
+     *
+     * @param x First factor
+     * @param y Second factor
+     * @return Product
+     * @throws Promotion if the product overflows
+     */
+    private static long multiply(final long x, final long y) {
+        final long result = x * y;
+
+        // Only check for overflow if either operand uses more than 31 bits.
+        if(((Math.abs(x) | Math.abs(y)) >>> 31) != 0) {
+            if((y != 0 && (result / y != x)) || (x == Long.MIN_VALUE && y == -1)) {
+                throw Promotion.INSTANCE;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * long power(long, long)
+     *
+     * Binary exponentiation on longs, squaring the base for every bit of the exponent.
+     *
+     * @param x Base
+     * @param y Non-negative exponent
+     * @return x^y
+     * @throws Promotion if the result overflows
+     */
+    private static long power(final long x, final long y) {
+        // These bases never overflow, no matter how large the exponent is.
+        if(x == 0 || x == 1) {
+            return y == 0 ? 1 : x;
+        }
+
+        if(x == -1) {
+            return (y & 1) == 0 ? 1 : -1;
+        }
+
+        long result = 1;
+        long base = x;
+
+        for(long exponent = y; exponent != 0; exponent >>>= 1) {
+            if((exponent & 1) != 0) {
+                result = Operator.multiply(result, base);
+            }
+
+            // Only square the base if another bit needs it.
+            if(exponent > 1) {
+                base = Operator.multiply(base, base);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * double bound(double, double)
+     *
+     * Works out the largest magnitude the operator can produce from operands with the specified magnitudes.
+     *
+     * @param x Left operand bound
+     * @param y Right operand bound
+     * @return Result bound, or infinity if the operator has no useful bound
+     */
+    double bound(final double x, final double y) {
+        switch(this) {
+            case ADD:
+            case SUBTRACT:
+                return x + y;
+            case MULTIPLY:
+                return x * y;
+            default:
+                return Double.POSITIVE_INFINITY;
+        }
+    }
+}
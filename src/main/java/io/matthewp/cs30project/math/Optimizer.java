@@ -0,0 +1,476 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Optimizer
+ *
+ * Rewrites a parsed expression tree before it is evaluated, the rewritten tree always produces exactly the same
+ * result as the original.
+ *
+ * - Subtrees without variables or impure functions are folded into a single constant, unless the {@link CostModel}
+ *   predicts a huge result like "fib(100000000)" which is left for a budgeted evaluation.
+ * - "x*1", "1*x", "x/1" and "--x" are reduced to "x", so are "x+0", "0+x" and "x-0" when x is an integer.
+ *   Identities are kept when the tree has a {@link MathContext}, because every operation rounds.
+ * - "x^2" is reduced to a single multiplication.
+ * - Subexpressions that appear more than once are wrapped in a {@link SharedNode} so they are only evaluated once,
+ *   unless they call an impure function. Inside the body of an aggregate they are evaluated once per index.
+ * - Aggregates are never folded, their body depends on the index.
+ * - Binary operations whose operands are both expensive are wrapped in a {@link ForkNode} so the operands are
+ *   evaluated in parallel, unless they share a subexpression or the machine only has a single core.
+ */
+final class Optimizer {
+    // ONE and ZERO are the identity literals, only a scale of 0 is an identity because the scale is part of the result.
+    private static final BigDecimal ONE = BigDecimal.ONE;
+    private static final BigDecimal ZERO = BigDecimal.ZERO;
+    // TWO is the exponent that gets strength reduced.
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    // FOLD_DIGITS is the most digits a folded constant may have, bigger results are left for the evaluation and its budget.
+    private static final double FOLD_DIGITS = 4096;
+    // FORK_WORK is the least work both operands need before they are evaluated in parallel, about a tenth of a millisecond.
+    private static final double FORK_WORK = 10_000_000;
+    // PARALLEL is true if forked operands can actually run at the same time.
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+    @Getter(AccessLevel.PRIVATE) private final MathContext context;
+    @Getter(AccessLevel.PRIVATE) private final Map<Node, String> keys;
+    @Getter(AccessLevel.PRIVATE) private final Map<String, Integer> counts;
+    @Getter(AccessLevel.PRIVATE) private final Map<String, Integer> slots;
+
+    /**
+     * Optimizer(MathContext)
+     *
+     * Creates a new {@link Optimizer} object, an optimizer can only be used for a single tree.
+     *
+     * @param context Precision the tree will be evaluated with, or null
+     */
+    Optimizer(final MathContext context) {
+        this.context = context;
+        this.keys = new IdentityHashMap<>();
+        this.counts = new HashMap<>();
+        this.slots = new HashMap<>();
+    }
+
+    /**
+     * Node optimize(Node)
+     *
+     * Runs every optimization on the tree.
+     *
+     * @param root Root of the parsed tree
+     * @return Root of the optimized tree
+     */
+    Node optimize(@NonNull final Node root) {
+        final Node simplified = this.simplify(root);
+
+        // Count every subexpression, then share the ones that show up more than once.
+        this.count(simplified);
+        final Node shared = this.share(simplified);
+
+        // Only trees that are expensive enough to split are worth looking at.
+        if(!PARALLEL) {
+            return shared;
+        }
+
+        final Map<Node, Double> works = CostModel.work(shared, this.getContext());
+        return works.get(shared) < 2 * FORK_WORK ? shared : this.fork(shared, works);
+    }
+
+    /**
+     * int getShared()
+     *
+     * @return Number of shared slots the optimized tree needs in its {@link Scope}
+     */
+    int getShared() {
+        return this.getSlots().size();
+    }
+
+    /**
+     * Node simplify(Node)
+     *
+     * Folds constants, removes identities and strength reduces exponents, bottom up.
+     *
+     * @param node Node to simplify
+     * @return Simplified node
+     */
+    private Node simplify(final Node node) {
+        if(node instanceof NegateNode) {
+            final Node operand = this.simplify(((NegateNode) node).getOperand());
+
+            // --x is x, with a precision every negation rounds so it has to stay.
+            if(operand instanceof NegateNode && this.getContext() == null) {
+                return ((NegateNode) operand).getOperand();
+            }
+
+            return this.fold(new NegateNode(operand));
+        }
+
+        if(node instanceof FunctionNode) {
+            final FunctionNode function = (FunctionNode) node;
+            return this.fold(new FunctionNode(function.getFunction(), this.simplify(function.getArgument()), function.getPosition()));
+        }
+
+        if(node instanceof CallNode) {
+            final CallNode call = (CallNode) node;
+            return this.fold(new CallNode(call.getFunction(), this.simplify(call.getArguments()), call.getPosition()));
+        }
+
+        // The body of an aggregate depends on its index, so only its parts are simplified.
+        if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            return aggregate.with(this.simplify(aggregate.getFrom()), this.simplify(aggregate.getTo()), this.simplify(aggregate.getBody()));
+        }
+
+        if(node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+            final Operator operator = binary.getOperator();
+            final Node left = this.simplify(binary.getLeft());
+            final Node right = this.simplify(binary.getRight());
+
+            // With a precision every operation rounds its result, so identities can't be removed.
+            final Node reduced = this.getContext() == null ? Optimizer.identity(operator, left, right) : null;
+            if(reduced != null) {
+                return reduced;
+            }
+
+            // "x^2" is a single multiplication.
+            if(operator == Operator.POWER && Optimizer.is(right, TWO) && !(left instanceof ConstantNode)) {
+                return new SquareNode(left);
+            }
+
+            return this.fold(new BinaryNode(operator, left, right));
+        }
+
+        return node;
+    }
+
+    /**
+     * Node[] simplify(Node[])
+     *
+     * @param nodes Nodes to simplify
+     * @return Simplified nodes
+     */
+    private Node[] simplify(final Node[] nodes) {
+        final Node[] simplified = new Node[nodes.length];
+
+        for(int i = 0; i < nodes.length; i++) {
+            simplified[i] = this.simplify(nodes[i]);
+        }
+
+        return simplified;
+    }
+
+    /**
+     * Node identity(Operator, Node, Node)
+     *
+     * @param operator Operator
+     * @param left Simplified left operand
+     * @param right Simplified right operand
+     * @return The operand that is left over if the operation is an identity, otherwise null.
+     */
+    private static Node identity(final Operator operator, final Node left, final Node right) {
+        switch(operator) {
+            // Adding 0 raises a negative scale to 0 ("1E+3" becomes "1000"), so it can only be dropped from integers.
+            case ADD:
+                if(Optimizer.is(left, ZERO) && right.getPrecision().isIntegral()) {
+                    return right;
+                }
+                return Optimizer.is(right, ZERO) && left.getPrecision().isIntegral() ? left : null;
+            case SUBTRACT:
+                if(Optimizer.is(right, ZERO) && left.getPrecision().isIntegral()) {
+                    return left;
+                }
+                return null;
+            case MULTIPLY:
+                if(Optimizer.is(left, ONE)) {
+                    return right;
+                }
+                return Optimizer.is(right, ONE) ? left : null;
+            case DIVIDE:
+                if(Optimizer.is(right, ONE)) {
+                    return left;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Node fold(Node)
+     *
+     * Replaces a node with a constant if none of its children depend on variables.
+     *
+     * @param node Node with simplified children
+     * @return Constant node, or the node itself if it can't be folded
+     */
+    private Node fold(final Node node) {
+        // Check if computing the constant would make compiling expensive.
+        if(!Optimizer.isConstant(node) || CostModel.digits(node, this.getContext()) > FOLD_DIGITS) {
+            return node;
+        }
+
+        try {
+            return new ConstantNode(node.evaluate(new Scope(new BigDecimal[0], this.getContext(), 0)));
+        } catch(final RuntimeException ex) {
+            // Leave the node alone so it throws at evaluation time like it always has.
+            return node;
+        }
+    }
+
+    /**
+     * boolean isConstant(Node)
+     *
+     * @param node Node to check
+     * @return True if every direct child of the node is a constant and calling it again gives the same result, otherwise false.
+     */
+    private static boolean isConstant(final Node node) {
+        if(node instanceof NegateNode) {
+            return ((NegateNode) node).getOperand() instanceof ConstantNode;
+        }
+
+        if(node instanceof FunctionNode) {
+            return ((FunctionNode) node).getFunction().isPure() && ((FunctionNode) node).getArgument() instanceof ConstantNode;
+        }
+
+        if(node instanceof CallNode) {
+            return ((CallNode) node).getFunction().isPure() && Arrays.stream(((CallNode) node).getArguments()).allMatch(ConstantNode.class::isInstance);
+        }
+
+        if(node instanceof BinaryNode) {
+            return ((BinaryNode) node).getLeft() instanceof ConstantNode && ((BinaryNode) node).getRight() instanceof ConstantNode;
+        }
+
+        return node instanceof ConstantNode;
+    }
+
+    /**
+     * boolean is(Node, BigDecimal)
+     *
+     * @param node Node to check
+     * @param value Literal to compare against, including its scale
+     * @return True if the node is a constant with exactly the same value and scale, otherwise false.
+     */
+    private static boolean is(final Node node, final BigDecimal value) {
+        return node instanceof ConstantNode && ((ConstantNode) node).getValue().equals(value);
+    }
+
+    /**
+     * String count(Node)
+     *
+     * Counts how many times every subexpression appears in the tree.
+     *
+     * @param node Node to count
+     * @return Structural key of the node
+     */
+    private String count(final Node node) {
+        final String key;
+
+        if(node instanceof NegateNode) {
+            key = "-(" + this.count(((NegateNode) node).getOperand()) + ")";
+        } else if(node instanceof SquareNode) {
+            key = "(" + this.count(((SquareNode) node).getOperand()) + " ^ 2)";
+        } else if(node instanceof FunctionNode) {
+            final FunctionNode function = (FunctionNode) node;
+            key = function.getName() + "(" + this.count(function.getArgument()) + ")"
+                    // Every call to an impure function gets a unique key so it is never shared.
+                    + (function.getFunction().isPure() ? "" : "#" + this.getKeys().size());
+        } else if(node instanceof CallNode) {
+            final CallNode call = (CallNode) node;
+            final StringBuilder builder = new StringBuilder(call.getName()).append('(');
+            for(int i = 0; i < call.getArguments().length; i++) {
+                builder.append(i > 0 ? ", " : "").append(this.count(call.getArguments()[i]));
+            }
+
+            // Every call to an impure function gets a unique key so it is never shared.
+            key = builder.append(')').append(call.getFunction().isPure() ? "" : "#" + this.getKeys().size()).toString();
+        } else if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            key = aggregate.getAggregate().getName() + "(" + aggregate.getIndex() + ", " + this.count(aggregate.getFrom()) + ", "
+                    + this.count(aggregate.getTo()) + ", " + this.count(aggregate.getBody()) + ")";
+        } else if(node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+            key = "(" + this.count(binary.getLeft()) + " " + binary.getOperator().getSymbol() + " " + this.count(binary.getRight()) + ")";
+        } else {
+            // Constants and variables are as cheap as a shared slot, don't count them.
+            return node.toString();
+        }
+
+        this.getKeys().put(node, key);
+        this.getCounts().merge(key, 1, Integer::sum);
+        return key;
+    }
+
+    /**
+     * Node fork(Node, Map)
+     *
+     * Wraps every binary operation whose operands are both expensive in a {@link ForkNode}, top down. Operations the
+     * planner runs on doubles are never expensive enough.
+     * The body of an aggregate is left alone, the aggregate already splits its range.
+     *
+     * @param node Node to rewrite
+     * @param works Estimated work of every subtree
+     * @return Rewritten node
+     */
+    private Node fork(final Node node, final Map<Node, Double> works) {
+        // Subtrees that are too cheap to split don't have anything worth forking.
+        if(works.getOrDefault(node, 0.0) < 2 * FORK_WORK) {
+            return node;
+        }
+
+        if(node instanceof NegateNode) {
+            return new NegateNode(this.fork(((NegateNode) node).getOperand(), works));
+        }
+
+        if(node instanceof SquareNode) {
+            return new SquareNode(this.fork(((SquareNode) node).getOperand(), works));
+        }
+
+        if(node instanceof FunctionNode) {
+            final FunctionNode function = (FunctionNode) node;
+            return new FunctionNode(function.getFunction(), this.fork(function.getArgument(), works), function.getPosition());
+        }
+
+        if(node instanceof CallNode) {
+            final CallNode call = (CallNode) node;
+            final Node[] arguments = new Node[call.getArguments().length];
+            for(int i = 0; i < arguments.length; i++) {
+                arguments[i] = this.fork(call.getArguments()[i], works);
+            }
+
+            return new CallNode(call.getFunction(), arguments, call.getPosition());
+        }
+
+        if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            return aggregate.with(this.fork(aggregate.getFrom(), works), this.fork(aggregate.getTo(), works), aggregate.getBody());
+        }
+
+        if(node instanceof SharedNode) {
+            final SharedNode shared = (SharedNode) node;
+            return new SharedNode(this.fork(shared.getNode(), works), shared.getIndex());
+        }
+
+        if(node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+            final BinaryNode rewritten = new BinaryNode(binary.getOperator(), this.fork(binary.getLeft(), works), this.fork(binary.getRight(), works));
+
+            // Both operands have to be worth a task, and a forked operand can't reuse the other operand's shared subexpressions.
+            if(rewritten.getPrecision().isFaithful()
+                    || works.getOrDefault(binary.getLeft(), 0.0) < FORK_WORK || works.getOrDefault(binary.getRight(), 0.0) < FORK_WORK
+                    || Optimizer.shared(binary.getLeft(), new BitSet()).intersects(Optimizer.shared(binary.getRight(), new BitSet()))) {
+                return rewritten;
+            }
+
+            return new ForkNode(rewritten);
+        }
+
+        return node;
+    }
+
+    /**
+     * BitSet shared(Node, BitSet)
+     *
+     * @param node Node to search
+     * @param slots Set the slots are added to
+     * @return Slots of every shared subexpression in the subtree
+     */
+    private static BitSet shared(final Node node, final BitSet slots) {
+        if(node instanceof SharedNode) {
+            slots.set(((SharedNode) node).getIndex());
+            return Optimizer.shared(((SharedNode) node).getNode(), slots);
+        }
+
+        if(node instanceof NegateNode) {
+            return Optimizer.shared(((NegateNode) node).getOperand(), slots);
+        }
+
+        if(node instanceof SquareNode) {
+            return Optimizer.shared(((SquareNode) node).getOperand(), slots);
+        }
+
+        if(node instanceof FunctionNode) {
+            return Optimizer.shared(((FunctionNode) node).getArgument(), slots);
+        }
+
+        if(node instanceof CallNode) {
+            for(final Node argument : ((CallNode) node).getArguments()) {
+                Optimizer.shared(argument, slots);
+            }
+        }
+
+        if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            Optimizer.shared(aggregate.getFrom(), slots);
+            Optimizer.shared(aggregate.getTo(), slots);
+            Optimizer.shared(aggregate.getBody(), slots);
+        }
+
+        if(node instanceof BinaryNode) {
+            Optimizer.shared(((BinaryNode) node).getLeft(), slots);
+            Optimizer.shared(((BinaryNode) node).getRight(), slots);
+        }
+
+        if(node instanceof ForkNode) {
+            Optimizer.shared(((ForkNode) node).getNode(), slots);
+        }
+
+        return slots;
+    }
+
+    /**
+     * Node share(Node)
+     *
+     * Wraps every subexpression that appears more than once in a {@link SharedNode}, top down.
+     *
+     * @param node Node to rewrite
+     * @return Rewritten node
+     */
+    private Node share(final Node node) {
+        final Node rewritten;
+
+        if(node instanceof NegateNode) {
+            rewritten = new NegateNode(this.share(((NegateNode) node).getOperand()));
+        } else if(node instanceof SquareNode) {
+            rewritten = new SquareNode(this.share(((SquareNode) node).getOperand()));
+        } else if(node instanceof FunctionNode) {
+            final FunctionNode function = (FunctionNode) node;
+            rewritten = new FunctionNode(function.getFunction(), this.share(function.getArgument()), function.getPosition());
+        } else if(node instanceof CallNode) {
+            final CallNode call = (CallNode) node;
+            final Node[] arguments = new Node[call.getArguments().length];
+            for(int i = 0; i < arguments.length; i++) {
+                arguments[i] = this.share(call.getArguments()[i]);
+            }
+
+            rewritten = new CallNode(call.getFunction(), arguments, call.getPosition());
+        } else if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            rewritten = aggregate.with(this.share(aggregate.getFrom()), this.share(aggregate.getTo()), this.share(aggregate.getBody()));
+        } else if(node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+            rewritten = new BinaryNode(binary.getOperator(), this.share(binary.getLeft()), this.share(binary.getRight()));
+        } else {
+            return node;
+        }
+
+        final String key = this.getKeys().get(node);
+
+        // Check if the subexpression is used more than once.
+        if(this.getCounts().get(key) < 2) {
+            return rewritten;
+        }
+
+        final Integer slot = this.getSlots().computeIfAbsent(key, ignored -> this.getSlots().size());
+        return new SharedNode(rewritten, slot);
+    }
+}
@@ -0,0 +1,563 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser
+ *
+ * Operator precedence parser that turns the tokens read by a {@link Lexer} into an expression tree, using an
+ * explicit stack instead of recursion so deeply nested inputs can't overflow the thread's stack.
+ *
+ * Every thread keeps one parser (and its lexer) in {@link #CONTEXT} and reuses it for every expression it parses.
+ * A parser that is already in use, for example by a user defined function that parses an expression of its own,
+ * is never handed out twice, a temporary parser is created instead.
+ */
+final class Parser {
+    // CONTEXT stores the reusable parser of every thread.
+    private static final ThreadLocal<Parser> CONTEXT = ThreadLocal.withInitial(Parser::new);
+
+    // Parser states, the frame kinds use the same values as the states that push them.
+    private static final int EXPRESSION = 0;
+    private static final int TERM = 1;
+    private static final int FACTOR = 2;
+    private static final int EXPONENT = 3;
+    private static final int DELIVER = 4;
+    private static final int NEGATE = 5;
+    private static final int POWER = 6;
+    private static final int FUNCTION = 7;
+    private static final int BRACKET = 8;
+    private static final int CALL = 9;
+
+    @Getter(AccessLevel.PRIVATE) private final Lexer lexer;
+    @Getter(AccessLevel.PRIVATE) private List<String> variables;
+    @Getter(AccessLevel.PRIVATE) private final List<Call> indexes;
+    @Getter(AccessLevel.PRIVATE) private int aggregates;
+    @Getter private boolean pure;
+    @Getter private int depth;
+    @Getter(AccessLevel.PRIVATE) private boolean busy;
+    @Getter(AccessLevel.PRIVATE) private int[] kinds;
+    @Getter(AccessLevel.PRIVATE) private Object[] values;
+    @Getter(AccessLevel.PRIVATE) private int[] positions;
+    @Getter(AccessLevel.PRIVATE) private int[] depths;
+    @Getter(AccessLevel.PRIVATE) private int frames;
+
+    /**
+     * Parser()
+     *
+     * Creates a new {@link Parser} object.
+     */
+    private Parser() {
+        this.lexer = new Lexer();
+        this.variables = null;
+        this.indexes = new ArrayList<>();
+        this.aggregates = 0;
+        this.pure = true;
+        this.depth = 0;
+        this.busy = false;
+        this.kinds = new int[32];
+        this.values = new Object[32];
+        this.positions = new int[32];
+        this.depths = new int[32];
+        this.frames = 0;
+    }
+
+    /**
+     * Parser acquire()
+     *
+     * Gets the parser of the current thread, it has to be given back with {@link #release()}.
+     *
+     * @return Parser that is not used by anything else
+     */
+    static Parser acquire() {
+        final Parser parser = CONTEXT.get();
+
+        // Check if the thread's parser is already parsing something.
+        if(parser.isBusy()) {
+            return new Parser();
+        }
+
+        parser.busy = true;
+        return parser;
+    }
+
+    /**
+     * void release()
+     *
+     * Gives the parser back so the thread can use it for the next expression.
+     */
+    void release() {
+        // Drop the nodes an input that failed to parse left on the stack.
+        Arrays.fill(this.getValues(), 0, this.getFrames(), null);
+        this.frames = 0;
+
+        this.getLexer().clear();
+        this.getIndexes().clear();
+        this.variables = null;
+        this.busy = false;
+    }
+
+    /**
+     * Node parse(CharSequence, List)
+     *
+     * Parses a whole input.
+     *
+     * @param input Expression input, with every 'x' that is a multiplication already replaced by '*'
+     * @param variables Variable names, the index of a name is its slot
+     * @return Root of the parsed tree
+     */
+    Node parse(@NonNull final CharSequence input, @NonNull final List<String> variables) {
+        this.variables = variables;
+        this.getIndexes().clear();
+        this.aggregates = 0;
+        this.pure = true;
+        this.depth = 0;
+        this.frames = 0;
+
+        // Go to the first character.
+        this.getLexer().reset(input);
+
+        // Start parsing the input.
+        final Node root = this.parseExpression();
+
+        // Check if we finished parsing without going through the entire input.
+        if(!this.getLexer().isEnd()) {
+            throw new RuntimeException("Unexpected '" + (char) this.getLexer().getCharacter() + "' at position " + this.getLexer().getPosition() + ".");
+        }
+
+        return root;
+    }
+
+    /**
+     * Node parseExpression()
+     *
+     * Parses the grammar below without recursion, every rule that is waiting for a part of the input to be parsed
+     * is kept on an explicit stack of frames, so the only limit on nesting is the heap.
+     *
+     *   expression = term (('+' | '-') term)*
+     *   term       = factor (('*' | '/') factor)*
+     *   factor     = '+' factor | '-' factor | primary ('^' factor)?
+     *   primary    = '(' expression ')' | number | variable | function factor
+     *              | function '(' (expression (',' expression)*)? ')'
+     *              | aggregate '(' name ',' expression ',' expression ',' expression ')'
+     *
+     * Functions that take a single argument are followed by a factor, every other function and every aggregate is
+     * followed by an argument list. The name of an aggregate's index is only a variable inside its last argument.
+     *
+     * @return Root of the parsed tree
+     */
+    private Node parseExpression() {
+        final Lexer lexer = this.getLexer();
+        int state = EXPRESSION;
+        Node node = null;
+        int depth = 0;
+
+        while(true) {
+            switch(state) {
+                // Start an expression, its first term is delivered to the frame.
+                case EXPRESSION:
+                    this.push(EXPRESSION, null, 0, 0);
+                    state = TERM;
+                    break;
+                // Start a term, its first factor is delivered to the frame.
+                case TERM:
+                    this.push(TERM, null, 0, 0);
+                    state = FACTOR;
+                    break;
+                // Start a factor.
+                case FACTOR: {
+                    // Skip over addition, collect subtractions so they wrap the factor.
+                    while(true) {
+                        if(lexer.isNext('+')) {
+                            continue;
+                        }
+
+                        if(lexer.isNext('-')) {
+                            this.push(NEGATE, null, 0, 0);
+                            continue;
+                        }
+
+                        break;
+                    }
+
+                    final int startPosition = lexer.getPosition();
+
+                    // Check if we need to parse a set of parentheses.
+                    if(lexer.isNext('(')) {
+                        // Handle the content within the brackets as a new expression.
+                        this.push(BRACKET, null, 0, 0);
+                        state = EXPRESSION;
+                        break;
+                    }
+
+                    // Check if the character is numeric or a decimal point.
+                    if(lexer.isNumber()) {
+                        node = new ConstantNode(lexer.number());
+                        depth = 1;
+                        state = EXPONENT;
+                        break;
+                    }
+
+                    // We don't know how to handle this character, throw an error.
+                    if(!lexer.isName()) {
+                        throw new RuntimeException("Unexpected '" + (char) lexer.getCharacter() + "' at position " + lexer.getPosition() + ".");
+                    }
+
+                    final int endPosition = lexer.name();
+                    final int slot = this.slot(startPosition, endPosition);
+
+                    // Check if the name is one of our variables or an index.
+                    if(slot >= 0) {
+                        node = new VariableNode(this.name(slot), slot);
+                        depth = 1;
+                        state = EXPONENT;
+                        break;
+                    }
+
+                    final Aggregate aggregate = lexer.aggregate(startPosition, endPosition);
+
+                    // Check if the name is an aggregate, read its index and parse its first bound.
+                    if(aggregate != null) {
+                        this.expect('(');
+                        this.push(CALL, new Call(aggregate, null, this.index(), startPosition), startPosition, 0);
+                        this.expect(',');
+                        state = EXPRESSION;
+                        break;
+                    }
+
+                    final FunctionHandle function = lexer.function(startPosition, endPosition);
+
+                    // Check if the function name is not an actual function.
+                    if(function == null) {
+                        throw new RuntimeException("Invalid function \"" + lexer.text(startPosition, endPosition) + "\" at position " + startPosition + ".");
+                    }
+
+                    // Remember if the result can change between evaluations.
+                    this.pure &= function.isPure();
+
+                    // Functions that don't take exactly one argument need an argument list.
+                    if(function.getArity() != 1) {
+                        this.expect('(');
+
+                        // Check if the argument list is empty.
+                        if(function.getArity() == 0) {
+                            this.expect(')');
+                            node = new CallNode(function, new Node[0], startPosition);
+                            depth = 1;
+                            state = EXPONENT;
+                            break;
+                        }
+
+                        this.push(CALL, new Call(null, function, null, startPosition), startPosition, 0);
+                        state = EXPRESSION;
+                        break;
+                    }
+
+                    // Parse the inside of the function.
+                    this.push(FUNCTION, function, startPosition, 0);
+                    state = FACTOR;
+                    break;
+                }
+                // A primary has been parsed, check if the next valid character is a '^' (exponent symbol).
+                case EXPONENT:
+                    if(lexer.isNext('^')) {
+                        this.push(POWER, node, 0, depth);
+                        state = FACTOR;
+                        break;
+                    }
+
+                    state = DELIVER;
+                    break;
+                // Hand the finished node to the frame that was waiting for it.
+                case DELIVER: {
+                    this.depth = Math.max(this.depth, depth);
+
+                    // Check if the whole input has been parsed.
+                    if(this.getFrames() == 0) {
+                        return node;
+                    }
+
+                    final int frame = --this.frames;
+                    final int kind = this.getKinds()[frame];
+                    final Object value = this.getValues()[frame];
+                    final int position = this.getPositions()[frame];
+                    final int saved = this.getDepths()[frame];
+                    this.getValues()[frame] = null;
+
+                    switch(kind) {
+                        case NEGATE:
+                            node = new NegateNode(node);
+                            depth++;
+                            break;
+                        case POWER:
+                            node = new BinaryNode(Operator.POWER, (Node) value, node);
+                            depth = Math.max(saved, depth) + 1;
+                            break;
+                        case FUNCTION:
+                            node = new FunctionNode((FunctionHandle) value, node, position);
+                            depth++;
+                            state = EXPONENT;
+                            continue;
+                        case BRACKET:
+                            // Find the ending bracket.
+                            lexer.isNext(')');
+                            state = EXPONENT;
+                            continue;
+                        case CALL: {
+                            final Call call = (Call) value;
+                            call.add(node, depth);
+
+                            // Check if another argument follows.
+                            if(lexer.isNext(',')) {
+                                if(call.getArguments().size() == call.getArity()) {
+                                    throw new RuntimeException("Too many arguments for \"" + call.getName() + "\" at position " + position + ".");
+                                }
+
+                                // The index of an aggregate only exists inside its body, the last argument.
+                                if(call.getAggregate() != null && call.getArguments().size() == call.getArity() - 1) {
+                                    this.getIndexes().add(call);
+                                }
+
+                                this.push(CALL, call, position, 0);
+                                state = EXPRESSION;
+                                continue;
+                            }
+
+                            this.expect(')');
+
+                            // Make sure every argument was passed.
+                            if(call.getArguments().size() != call.getArity()) {
+                                throw new RuntimeException("\"" + call.getName() + "\" at position " + position + " takes " + call.getArity() + " arguments but got " + call.getArguments().size() + ".");
+                            }
+
+                            node = call.build(this.getIndexes());
+                            depth = call.getDepth() + 1;
+                            state = EXPONENT;
+                            continue;
+                        }
+                        case EXPRESSION:
+                        case TERM: {
+                            // Combine the operand with the left side if this isn't the first operand.
+                            if(value != null) {
+                                node = new BinaryNode(Operator.values()[position], (Node) value, node);
+                                depth = Math.max(saved, depth) + 1;
+                            }
+
+                            // Find the next operator, and parse the operand that follows it.
+                            final Operator next = kind == EXPRESSION
+                                    ? (lexer.isNext('+') ? Operator.ADD : lexer.isNext('-') ? Operator.SUBTRACT : null)
+                                    : (lexer.isNext('*') ? Operator.MULTIPLY : lexer.isNext('/') ? Operator.DIVIDE : null);
+
+                            if(next != null) {
+                                this.push(kind, node, next.ordinal(), depth);
+                                state = kind == EXPRESSION ? TERM : FACTOR;
+                                continue;
+                            }
+                            break;
+                        }
+                    }
+
+                    // The frame is done with the node, keep delivering.
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * void push(int, Object, int, int)
+     *
+     * Pushes a frame that is waiting for a node.
+     *
+     * @param kind Frame kind
+     * @param value Left operand, exponent base or function handle, or null
+     * @param position Operator ordinal or function position
+     * @param depth Depth of the node in value
+     */
+    private void push(final int kind, final Object value, final int position, final int depth) {
+        // Grow the stack if it is full.
+        if(this.getFrames() == this.getKinds().length) {
+            final int length = this.getKinds().length * 2;
+            this.kinds = Arrays.copyOf(this.getKinds(), length);
+            this.values = Arrays.copyOf(this.getValues(), length);
+            this.positions = Arrays.copyOf(this.getPositions(), length);
+            this.depths = Arrays.copyOf(this.getDepths(), length);
+        }
+
+        this.getKinds()[this.getFrames()] = kind;
+        this.getValues()[this.getFrames()] = value;
+        this.getPositions()[this.getFrames()] = position;
+        this.getDepths()[this.getFrames()] = depth;
+        this.frames++;
+    }
+
+    /**
+     * void expect(int)
+     *
+     * Moves past the next character, which has to be the specified one.
+     *
+     * @param character Character that has to come next
+     */
+    private void expect(final int character) {
+        if(!this.getLexer().isNext(character)) {
+            throw new RuntimeException("Expected '" + (char) character + "' at position " + this.getLexer().getPosition() + ".");
+        }
+    }
+
+    /**
+     * String index()
+     *
+     * Reads the name of an aggregate's index, it can't hide a variable, a function or another index.
+     *
+     * @return Index name
+     */
+    private String index() {
+        final Lexer lexer = this.getLexer();
+        lexer.skip();
+
+        final int start = lexer.getPosition();
+        if(!lexer.isName()) {
+            throw new RuntimeException("Expected the name of an index at position " + start + ".");
+        }
+
+        final int end = lexer.name();
+        if(this.slot(start, end) >= 0 || lexer.function(start, end) != null || lexer.aggregate(start, end) != null) {
+            throw new RuntimeException("Index \"" + lexer.text(start, end) + "\" at position " + start + " is already a name.");
+        }
+
+        return lexer.text(start, end);
+    }
+
+    /**
+     * String name(int)
+     *
+     * @param slot Slot of a variable or index
+     * @return Name of the variable or index
+     */
+    private String name(final int slot) {
+        if(slot < this.getVariables().size()) {
+            return this.getVariables().get(slot);
+        }
+
+        for(final Call call : this.getIndexes()) {
+            if(call.getSlot() == slot) {
+                return call.getIndex();
+            }
+        }
+
+        throw new IllegalStateException("Unknown slot " + slot + ".");
+    }
+
+    /**
+     * int slot(int, int)
+     *
+     * @param start Position of the first character of the name
+     * @param end Position after the last character of the name
+     * @return Slot of the variable or index with that name, or -1 if the name isn't either
+     */
+    private int slot(final int start, final int end) {
+        // Indexes come after the declared variables.
+        for(int i = this.getIndexes().size() - 1; i >= 0; i--) {
+            if(this.getLexer().matches(start, end, this.getIndexes().get(i).getIndex())) {
+                return this.getIndexes().get(i).getSlot();
+            }
+        }
+
+        for(int i = 0; i < this.getVariables().size(); i++) {
+            if(this.getLexer().matches(start, end, this.getVariables().get(i))) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Call
+     *
+     * Arguments of a function or aggregate call that is being parsed.
+     */
+    private final class Call {
+        @Getter(AccessLevel.PRIVATE) private final Aggregate aggregate;
+        @Getter(AccessLevel.PRIVATE) private final FunctionHandle function;
+        @Getter(AccessLevel.PRIVATE) private final String index;
+        @Getter(AccessLevel.PRIVATE) private final int slot;
+        @Getter(AccessLevel.PRIVATE) private final int position;
+        @Getter(AccessLevel.PRIVATE) private final List<Node> arguments;
+        @Getter(AccessLevel.PRIVATE) private int depth;
+        @Getter(AccessLevel.PRIVATE) private int last;
+
+        /**
+         * Call(Aggregate, FunctionHandle, String, int)
+         *
+         * @param aggregate Aggregate, or null for a function
+         * @param function Function, or null for an aggregate
+         * @param index Name of the aggregate's index, or null for a function
+         * @param position Position of the name in the input
+         */
+        private Call(final Aggregate aggregate, final FunctionHandle function, final String index, final int position) {
+            this.aggregate = aggregate;
+            this.function = function;
+            this.index = index;
+            // Every aggregate gets its own slot after the declared variables.
+            this.slot = aggregate == null ? -1 : Parser.this.getVariables().size() + Parser.this.aggregates++;
+            this.position = position;
+            this.arguments = new ArrayList<>();
+            this.depth = 0;
+            this.last = 0;
+        }
+
+        /**
+         * String getName()
+         *
+         * @return Name of the function or aggregate
+         */
+        private String getName() {
+            return this.getAggregate() != null ? this.getAggregate().getName() : this.getFunction().getName();
+        }
+
+        /**
+         * int getArity()
+         *
+         * @return Number of arguments, the index of an aggregate isn't counted
+         */
+        private int getArity() {
+            return this.getAggregate() != null ? 3 : this.getFunction().getArity();
+        }
+
+        /**
+         * void add(Node, int)
+         *
+         * @param argument Parsed argument
+         * @param depth Depth of the argument
+         */
+        private void add(final Node argument, final int depth) {
+            this.getArguments().add(argument);
+            this.depth = Math.max(this.getDepth(), depth);
+            this.last = depth;
+        }
+
+        /**
+         * Node build(List)
+         *
+         * @param indexes Indexes in scope, the index of an aggregate goes out of scope
+         * @return Node for the call
+         */
+        private Node build(final List<Call> indexes) {
+            final Node[] arguments = this.getArguments().toArray(new Node[0]);
+
+            if(this.getAggregate() == null) {
+                return new CallNode(this.getFunction(), arguments, this.getPosition());
+            }
+
+            indexes.remove(indexes.size() - 1);
+            return new AggregateNode(this.getAggregate(), this.getIndex(), this.getSlot(), arguments[0], arguments[1], arguments[2],
+                    this.getLast() > StackEvaluator.MAX_RECURSION, this.getPosition());
+        }
+    }
+}
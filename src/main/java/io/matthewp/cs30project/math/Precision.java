@@ -0,0 +1,45 @@
+package io.matthewp.cs30project.math;
+
+/**
+ * Precision
+ *
+ * Result of the mixed-precision planner, every {@link Node} works out its own precision from its children
+ * when it is created.
+ *
+ * The planner only ever picks doubles when it can prove the answer is identical to the BigDecimal
+ * evaluator, so exact results stay exact and the output is unchanged.
+ */
+enum Precision {
+    // EXACT nodes are integers with a scale of 0 and a magnitude below MAX_EXACT,
+    // double arithmetic on them is exact so the whole subtree can run on doubles.
+    EXACT,
+    // INTEGER nodes are integers with a scale of 0 that may not fit in a double, they run on longs and
+    // fall back to BigDecimal with a {@link Promotion} if a value overflows or a division isn't exact.
+    INTEGER,
+    // FAITHFUL nodes evaluated on doubles give the same value as calling doubleValue() on their BigDecimal result,
+    // consumers that only need a double (functions and exponents) can skip BigDecimal entirely.
+    FAITHFUL,
+    // DECIMAL nodes have to be evaluated with BigDecimal.
+    DECIMAL;
+
+    // MAX_EXACT is the largest magnitude where every integer can be represented by a double (2^53).
+    static final double MAX_EXACT = 9007199254740992d;
+
+    /**
+     * boolean isFaithful()
+     *
+     * @return True if a double evaluation matches doubleValue() of the exact result, otherwise false.
+     */
+    boolean isFaithful() {
+        return this == EXACT || this == FAITHFUL;
+    }
+
+    /**
+     * boolean isIntegral()
+     *
+     * @return True if the node can be evaluated with evaluateLong(), otherwise false.
+     */
+    boolean isIntegral() {
+        return this == EXACT || this == INTEGER;
+    }
+}
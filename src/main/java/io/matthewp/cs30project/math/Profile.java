@@ -0,0 +1,208 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Profile
+ *
+ * Result of a profiled evaluation of a {@link CompiledExpression}, the expression tree annotated with how long every
+ * node took, how often it ran, how large its results were and roughly how much memory they took.
+ *
+ * Times are wall-clock times and include the time of the children, the self time of a node is its time without
+ * the time of its children. The body of an aggregate may run on several threads, so its time can be larger than
+ * the time of the aggregate.
+ */
+public final class Profile {
+    // MAX_INDENT is the deepest level that is indented further, deeper levels are printed at the same indent.
+    private static final int MAX_INDENT = 32;
+    // MAX_RESULT is the longest result that is printed in full.
+    private static final int MAX_RESULT = 64;
+
+    @Getter private final String input;
+    @Getter private final BigDecimal value;
+    @Getter private final RuntimeException error;
+    @Getter private final long nanos;
+    @Getter private final Step root;
+
+    /**
+     * Profile(String, BigDecimal, RuntimeException, long, Step)
+     *
+     * Creates a new {@link Profile} object, exactly one of value and error is set.
+     *
+     * @param input Normalized input
+     * @param value Result of the evaluation, or null if it failed
+     * @param error Error of the evaluation, or null if it succeeded
+     * @param nanos Time the whole evaluation took
+     * @param root Root of the annotated tree
+     */
+    Profile(final String input, final BigDecimal value, final RuntimeException error, final long nanos, final Step root) {
+        this.input = input;
+        this.value = value;
+        this.error = error;
+        this.nanos = nanos;
+        this.root = root;
+    }
+
+    /**
+     * boolean isSuccess()
+     *
+     * @return True if the evaluation produced a value, otherwise false.
+     */
+    public boolean isSuccess() {
+        return this.getError() == null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Profile of \"").append(this.getInput()).append("\"\n");
+        final ArrayDeque<Step> steps = new ArrayDeque<>();
+        final ArrayDeque<Integer> depths = new ArrayDeque<>();
+
+        steps.push(this.getRoot());
+        depths.push(0);
+
+        // Print the tree with an explicit stack, it can be as deep as the expression.
+        while(!steps.isEmpty()) {
+            final Step step = steps.pop();
+            final int depth = depths.pop();
+
+            for(int i = 0; i < Math.min(depth, MAX_INDENT); i++) {
+                builder.append("  ");
+            }
+            builder.append("-> ").append(step).append('\n');
+
+            for(int i = step.getChildren().size() - 1; i >= 0; i--) {
+                steps.push(step.getChildren().get(i));
+                depths.push(depth + 1);
+            }
+        }
+
+        if(this.isSuccess()) {
+            final String result = this.getValue().toString();
+            builder.append("Result: ").append(result.length() > MAX_RESULT ? result.substring(0, MAX_RESULT) + "... (" + result.length() + " characters)" : result);
+        } else {
+            builder.append("Error: ").append(this.getError().getMessage());
+        }
+
+        return builder.append("\nTotal time: ").append(Profile.millis(this.getNanos())).append(" ms").toString();
+    }
+
+    /**
+     * String millis(long)
+     *
+     * @param nanos Time in nanoseconds
+     * @return Time in milliseconds with three decimals
+     */
+    private static String millis(final long nanos) {
+        return String.format("%.3f", nanos / 1_000_000d);
+    }
+
+    /**
+     * String bytes(long)
+     *
+     * @param bytes Number of bytes
+     * @return Human readable number of bytes
+     */
+    private static String bytes(final long bytes) {
+        if(bytes < 1024) {
+            return bytes + " B";
+        }
+
+        return bytes < 1024 * 1024 ? String.format("%.1f KiB", bytes / 1024d) : String.format("%.1f MiB", bytes / (1024d * 1024d));
+    }
+
+    /**
+     * Step
+     *
+     * A single node of a profiled tree.
+     */
+    public static final class Step {
+        @Getter private final String operation;
+        @Getter private final boolean shared;
+        @Getter private final boolean reused;
+        @Getter private final long calls;
+        @Getter private final long nanos;
+        @Getter private final int digits;
+        @Getter private final int scale;
+        @Getter private final long bytes;
+        private final List<Step> children;
+
+        /**
+         * Step(String, boolean, boolean, long, long, int, int, long)
+         *
+         * @param operation Description of the node, Ex: "Multiply" or "Function fib"
+         * @param shared True if the node is a subexpression that is shared with other parts of the tree
+         * @param reused True if the node is a copy of a shared subexpression that reuses the result of the first copy
+         * @param calls Number of times the node was computed
+         * @param nanos Total time the node took, including its children
+         * @param digits Most digits of any result of the node
+         * @param scale Largest scale of any result of the node
+         * @param bytes Estimated number of bytes allocated for the results of the node
+         */
+        Step(final String operation, final boolean shared, final boolean reused, final long calls, final long nanos, final int digits, final int scale, final long bytes) {
+            this.operation = operation;
+            this.shared = shared;
+            this.reused = reused;
+            this.calls = calls;
+            this.nanos = nanos;
+            this.digits = digits;
+            this.scale = scale;
+            this.bytes = bytes;
+            this.children = new ArrayList<>();
+        }
+
+        /**
+         * void add(Step)
+         *
+         * @param child Child of the node, added in evaluation order
+         */
+        void add(final Step child) {
+            this.children.add(child);
+        }
+
+        /**
+         * List getChildren()
+         *
+         * @return Children of the node, in evaluation order
+         */
+        public List<Step> getChildren() {
+            return Collections.unmodifiableList(this.children);
+        }
+
+        /**
+         * long getSelfNanos()
+         *
+         * @return Time the node took without its children
+         */
+        public long getSelfNanos() {
+            long nanos = this.getNanos();
+
+            for(final Step child : this.children) {
+                nanos -= child.getNanos();
+            }
+
+            // Children that ran in parallel can add up to more than the node itself.
+            return Math.max(0, nanos);
+        }
+
+        @Override
+        public String toString() {
+            final String name = this.getOperation() + (this.isReused() ? " (shared, reused)" : this.isShared() ? " (shared)" : "");
+
+            // Nodes that never ran, Ex: after an error, only have a name.
+            if(this.getCalls() == 0) {
+                return name + "  (never executed)";
+            }
+
+            return name
+                    + "  (time=" + Profile.millis(this.getNanos()) + " ms self=" + Profile.millis(this.getSelfNanos()) + " ms calls=" + this.getCalls()
+                    + " digits=" + this.getDigits() + " scale=" + this.getScale() + " alloc=" + Profile.bytes(this.getBytes()) + ")";
+        }
+    }
+}
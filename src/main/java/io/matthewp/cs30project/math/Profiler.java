@@ -0,0 +1,238 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Profiler
+ *
+ * Collects the statistics of a single profiled evaluation, the {@link StackEvaluator} reports every node it computes.
+ * Aggregates report every evaluation of their body, possibly from several threads at once.
+ */
+final class Profiler {
+    // OBJECT_BYTES is the size of a BigDecimal, or of a BigInteger without its magnitude, on a 64 bit JVM.
+    private static final long OBJECT_BYTES = 40;
+    // ARRAY_BYTES is the header of the int[] that holds a BigInteger's magnitude.
+    private static final long ARRAY_BYTES = 16;
+
+    @Getter(AccessLevel.PRIVATE) private final Map<Node, Stats> stats;
+
+    /**
+     * Profiler()
+     *
+     * Creates a new {@link Profiler} object.
+     */
+    Profiler() {
+        this.stats = new IdentityHashMap<>();
+    }
+
+    /**
+     * void record(Node, long, BigDecimal)
+     *
+     * @param node Node that was computed
+     * @param nanos Time it took to compute the node and its children
+     * @param result Result of the node
+     */
+    synchronized void record(final Node node, final long nanos, final BigDecimal result) {
+        final Stats stats = this.getStats().computeIfAbsent(node, ignored -> new Stats());
+
+        stats.calls++;
+        stats.nanos += nanos;
+        stats.digits = Math.max(stats.digits, result.precision());
+        stats.scale = Math.max(stats.scale, result.scale());
+        // Constants and variables hand out values that already exist.
+        stats.bytes += node instanceof ConstantNode || node instanceof VariableNode ? 0 : Profiler.bytes(result);
+    }
+
+    /**
+     * Profile build(String, Node, BigDecimal, RuntimeException, long)
+     *
+     * Annotates the tree with the statistics that were collected, walking it with an explicit stack.
+     *
+     * @param input Normalized input
+     * @param root Root of the evaluated tree
+     * @param value Result of the evaluation, or null if it failed
+     * @param error Error of the evaluation, or null if it succeeded
+     * @param nanos Time the whole evaluation took
+     * @return Profile of the evaluation
+     */
+    synchronized Profile build(final String input, final Node root, final BigDecimal value, final RuntimeException error, final long nanos) {
+        final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        final ArrayDeque<Profile.Step> parents = new ArrayDeque<>();
+        final Map<Integer, Stats> shared = new HashMap<>();
+        Profile.Step top = null;
+
+        nodes.push(root);
+        while(!nodes.isEmpty()) {
+            final Node node = nodes.pop();
+            final Profile.Step parent = parents.isEmpty() ? null : parents.pop();
+
+            // Shared subexpressions are reported as the subexpression, every copy but the first one reuses its result.
+            final Node actual = Profiler.unwrap(node);
+            final Stats stats = this.getStats().getOrDefault(actual, Stats.NONE);
+            final boolean repeated = node instanceof SharedNode && shared.containsKey(((SharedNode) node).getIndex());
+            final Stats reported = repeated ? shared.get(((SharedNode) node).getIndex()) : stats;
+
+            if(node instanceof SharedNode && !repeated) {
+                shared.put(((SharedNode) node).getIndex(), stats);
+            }
+
+            // Reusing a shared result takes no time, so the time of the first copy isn't counted twice.
+            final Profile.Step step = new Profile.Step(Profiler.operation(actual), node instanceof SharedNode, repeated,
+                    reported.calls, repeated ? 0 : reported.nanos, reported.digits, reported.scale, repeated ? 0 : reported.bytes);
+
+            if(parent == null) {
+                top = step;
+            } else {
+                parent.add(step);
+            }
+
+            // The children of a shared subexpression are only listed under its first copy.
+            if(repeated) {
+                continue;
+            }
+
+            // Push the children backwards so they come off the stack in order.
+            final Node[] children = Profiler.children(actual);
+            for(int i = children.length - 1; i >= 0; i--) {
+                nodes.push(children[i]);
+                parents.push(step);
+            }
+        }
+
+        return new Profile(input, value, error, nanos, top);
+    }
+
+    /**
+     * long bytes(BigDecimal)
+     *
+     * @param value Result of a node
+     * @return Estimated number of bytes allocated for the result
+     */
+    private static long bytes(final BigDecimal value) {
+        // Unscaled values that fit in a long are stored inline.
+        if(value.precision() <= 18) {
+            return OBJECT_BYTES;
+        }
+
+        return 2 * OBJECT_BYTES + ARRAY_BYTES + 4L * ((value.unscaledValue().bitLength() + 31) / 32);
+    }
+
+    /**
+     * Node unwrap(Node)
+     *
+     * @param node Node of the tree
+     * @return Node that is actually computed for the node
+     */
+    private static Node unwrap(final Node node) {
+        if(node instanceof SharedNode) {
+            return Profiler.unwrap(((SharedNode) node).getNode());
+        }
+
+        return node instanceof ForkNode ? ((ForkNode) node).getNode() : node;
+    }
+
+    /**
+     * Node[] children(Node)
+     *
+     * @param node Node of the tree
+     * @return Children of the node, in evaluation order
+     */
+    private static Node[] children(final Node node) {
+        if(node instanceof NegateNode) {
+            return new Node[] {((NegateNode) node).getOperand()};
+        }
+
+        if(node instanceof SquareNode) {
+            return new Node[] {((SquareNode) node).getOperand()};
+        }
+
+        if(node instanceof FunctionNode) {
+            return new Node[] {((FunctionNode) node).getArgument()};
+        }
+
+        if(node instanceof CallNode) {
+            return ((CallNode) node).getArguments();
+        }
+
+        if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            return new Node[] {aggregate.getFrom(), aggregate.getTo(), aggregate.getBody()};
+        }
+
+        if(node instanceof BinaryNode) {
+            return new Node[] {((BinaryNode) node).getLeft(), ((BinaryNode) node).getRight()};
+        }
+
+        return new Node[0];
+    }
+
+    /**
+     * String operation(Node)
+     *
+     * Describes what a node does without its children, printing a whole subtree is recursive.
+     *
+     * @param node Node of the tree
+     * @return Description of the node
+     */
+    private static String operation(final Node node) {
+        if(node instanceof ConstantNode) {
+            final String value = node.toString();
+            return "Constant " + (value.length() > 24 ? value.substring(0, 21) + "..." : value);
+        }
+
+        if(node instanceof VariableNode) {
+            return "Variable " + node;
+        }
+
+        if(node instanceof NegateNode) {
+            return "Negate";
+        }
+
+        if(node instanceof SquareNode) {
+            return "Square";
+        }
+
+        if(node instanceof FunctionNode) {
+            return "Function " + ((FunctionNode) node).getName();
+        }
+
+        if(node instanceof CallNode) {
+            return "Call " + ((CallNode) node).getName();
+        }
+
+        if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            return "Aggregate " + aggregate.getAggregate().getName() + "(" + aggregate.getIndex() + ")";
+        }
+
+        if(node instanceof BinaryNode) {
+            final String name = ((BinaryNode) node).getOperator().name();
+            return name.charAt(0) + name.substring(1).toLowerCase();
+        }
+
+        return node.getClass().getSimpleName();
+    }
+
+    /**
+     * Stats
+     *
+     * Statistics of a single node, only changed while holding the profiler's lock.
+     */
+    private static final class Stats {
+        // NONE are the statistics of a node that was never computed.
+        private static final Stats NONE = new Stats();
+
+        private long calls;
+        private long nanos;
+        private int digits;
+        private int scale;
+        private long bytes;
+    }
+}
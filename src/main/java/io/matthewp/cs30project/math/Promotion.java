@@ -0,0 +1,36 @@
+package io.matthewp.cs30project.math;
+
+/**
+ * Promotion
+ *
+ * Thrown by the long evaluator when a value overflows or a division isn't exact, the nearest
+ * {@link Precision#INTEGER} node catches it and evaluates its subtree with BigDecimal instead.
+ *
+ * There is only ever one instance and it doesn't capture a stack trace, so promoting is cheap.
+ */
+final class Promotion extends ArithmeticException {
+    // serialVersionUID is required of every Throwable, a Promotion never leaves the evaluation that threw it.
+    private static final long serialVersionUID = 1L;
+
+    // INSTANCE is the only Promotion, it is thrown every time.
+    static final Promotion INSTANCE = new Promotion();
+
+    /**
+     * Promotion()
+     *
+     * Creates the {@link Promotion} instance.
+     */
+    private Promotion() {
+        super("Value does not fit in a long.");
+    }
+
+    /**
+     * Throwable fillInStackTrace()
+     *
+     * @return This exception, without a stack trace.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
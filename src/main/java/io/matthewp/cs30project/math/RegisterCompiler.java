@@ -0,0 +1,305 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RegisterCompiler
+ *
+ * Turns the compiled statements of a {@link Script} into a single {@link RegisterMachine} program.
+ *
+ * Registers are handed out in order: first one per local variable, then constants and temporary results as they
+ * are needed. A temporary is given back as soon as the instruction that reads it is emitted, so a statement only
+ * needs about as many registers as its tree is deep. Shared subexpressions keep their register until the end of the
+ * statement, every later copy simply reads it.
+ */
+final class RegisterCompiler {
+    @Getter(AccessLevel.PRIVATE) private final MathContext context;
+    @Getter(AccessLevel.PRIVATE) private final List<Integer> code;
+    @Getter(AccessLevel.PRIVATE) private final List<Node> nodes;
+    @Getter(AccessLevel.PRIVATE) private final List<Integer> arguments;
+    @Getter(AccessLevel.PRIVATE) private final List<BigDecimal> template;
+    @Getter(AccessLevel.PRIVATE) private final Map<BigDecimal, Integer> constants;
+    @Getter(AccessLevel.PRIVATE) private final BitSet temporaries;
+    @Getter(AccessLevel.PRIVATE) private final ArrayDeque<Integer> free;
+    @Getter(AccessLevel.PRIVATE) private final Map<Integer, Integer> shared;
+
+    /**
+     * RegisterCompiler(int, MathContext)
+     *
+     * Creates a new {@link RegisterCompiler} object.
+     *
+     * @param locals Number of local variables, they take the first registers
+     * @param context Precision of every operation, or null
+     */
+    RegisterCompiler(final int locals, final MathContext context) {
+        this.context = context;
+        this.code = new ArrayList<>();
+        this.nodes = new ArrayList<>();
+        this.arguments = new ArrayList<>();
+        this.template = new ArrayList<>();
+        this.constants = new HashMap<>();
+        this.temporaries = new BitSet();
+        this.free = new ArrayDeque<>();
+        this.shared = new HashMap<>();
+
+        for(int i = 0; i < locals; i++) {
+            this.template.add(null);
+        }
+    }
+
+    /**
+     * int statement(CompiledExpression, int)
+     *
+     * Emits a single statement.
+     *
+     * @param statement Compiled statement, its variable slots are the registers of the locals
+     * @param target Register of the local the statement assigns, or -1 if it doesn't assign one
+     * @return Register that holds the value of the statement
+     */
+    int statement(final CompiledExpression statement, final int target) {
+        final int value;
+
+        // Deep trees can't be walked recursively, they run on the stack evaluator as a single instruction.
+        if(statement.isDeep()) {
+            value = this.allocate();
+            this.emit(RegisterMachine.EVALUATE, value, 0, 0, statement.getShared(), statement.getRoot());
+        } else {
+            value = this.emit(statement.getRoot(), statement.getShared());
+        }
+
+        // Shared subexpressions only live as long as their statement.
+        final List<Integer> shared = new ArrayList<>(this.getShared().values());
+        this.getShared().clear();
+        for(final int register : shared) {
+            this.release(register);
+        }
+
+        // A value nobody assigns is only read right after the statement, if at all.
+        if(target < 0) {
+            this.release(value);
+            return value;
+        }
+
+        // Write the last result straight into the local instead of copying it.
+        final int last = this.getCode().size() - RegisterMachine.WIDTH;
+        if(this.getTemporaries().get(value) && last >= 0 && this.getCode().get(last + 1) == value) {
+            this.getCode().set(last + 1, target);
+        } else {
+            this.emit(RegisterMachine.MOVE, target, value, 0, 0, null);
+        }
+
+        this.release(value);
+        return target;
+    }
+
+    /**
+     * RegisterMachine build(int)
+     *
+     * @param result Register that holds the result of the script
+     * @return Finished program
+     */
+    RegisterMachine build(final int result) {
+        final int[] code = new int[this.getCode().size()];
+        for(int i = 0; i < code.length; i++) {
+            code[i] = this.getCode().get(i);
+        }
+
+        final int[] arguments = new int[this.getArguments().size()];
+        for(int i = 0; i < arguments.length; i++) {
+            arguments[i] = this.getArguments().get(i);
+        }
+
+        return new RegisterMachine(code, this.getNodes().toArray(new Node[0]), arguments, this.getTemplate().toArray(new BigDecimal[0]), result, this.getContext());
+    }
+
+    /**
+     * int emit(Node, int)
+     *
+     * Emits the instructions of a subtree, operands first.
+     *
+     * @param node Node to emit
+     * @param slots Number of shared slots the statement uses
+     * @return Register that holds the value of the node
+     */
+    private int emit(final Node node, final int slots) {
+        if(node instanceof ConstantNode) {
+            return this.constant(((ConstantNode) node).getValue());
+        }
+
+        // Locals are the first registers, so a variable's slot is its register.
+        if(node instanceof VariableNode) {
+            return ((VariableNode) node).getSlot();
+        }
+
+        if(node instanceof SharedNode) {
+            final SharedNode shared = (SharedNode) node;
+            final Integer existing = this.getShared().get(shared.getIndex());
+
+            if(existing != null) {
+                return existing;
+            }
+
+            // Keep the register until the statement is done, later copies read it.
+            final int register = this.emit(shared.getNode(), slots);
+            this.getShared().put(shared.getIndex(), register);
+            return register;
+        }
+
+        // Statements run on a single thread.
+        if(node instanceof ForkNode) {
+            return this.emit(((ForkNode) node).getNode(), slots);
+        }
+
+        if(node instanceof NegateNode) {
+            return this.unary(RegisterMachine.NEGATE, node, ((NegateNode) node).getOperand(), slots);
+        }
+
+        if(node instanceof SquareNode) {
+            return this.unary(RegisterMachine.SQUARE, node, ((SquareNode) node).getOperand(), slots);
+        }
+
+        if(node instanceof FunctionNode) {
+            return this.unary(RegisterMachine.FUNCTION, node, ((FunctionNode) node).getArgument(), slots);
+        }
+
+        if(node instanceof CallNode) {
+            final Node[] children = ((CallNode) node).getArguments();
+            final int[] registers = new int[children.length];
+
+            for(int i = 0; i < children.length; i++) {
+                registers[i] = this.emit(children[i], slots);
+            }
+
+            // The registers are only read by the call, so they can be given back before its target is picked.
+            final int offset = this.getArguments().size();
+            for(final int register : registers) {
+                this.getArguments().add(register);
+                this.release(register);
+            }
+
+            final int target = this.allocate();
+            this.emit(RegisterMachine.CALL, target, offset, children.length, 0, node);
+            return target;
+        }
+
+        if(node instanceof AggregateNode) {
+            final AggregateNode aggregate = (AggregateNode) node;
+            final int from = this.emit(aggregate.getFrom(), slots);
+            final int to = this.emit(aggregate.getTo(), slots);
+
+            this.release(from);
+            this.release(to);
+
+            final int target = this.allocate();
+            this.emit(RegisterMachine.AGGREGATE, target, from, to, slots, node);
+            return target;
+        }
+
+        if(node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+            final int left = this.emit(binary.getLeft(), slots);
+            final int right = this.emit(binary.getRight(), slots);
+
+            this.release(left);
+            this.release(right);
+
+            final int target = this.allocate();
+            this.emit(RegisterMachine.BINARY + binary.getOperator().ordinal(), target, left, right, 0, node);
+            return target;
+        }
+
+        throw new IllegalStateException("Unknown node " + node.getClass().getSimpleName() + ".");
+    }
+
+    /**
+     * int unary(int, Node, Node, int)
+     *
+     * @param opcode Opcode of the node
+     * @param node Node to emit
+     * @param operand Only child of the node
+     * @param slots Number of shared slots the statement uses
+     * @return Register that holds the value of the node
+     */
+    private int unary(final int opcode, final Node node, final Node operand, final int slots) {
+        final int register = this.emit(operand, slots);
+
+        // The operand is read before the target is written, so they can be the same register.
+        this.release(register);
+
+        final int target = this.allocate();
+        this.emit(opcode, target, register, 0, 0, node);
+        return target;
+    }
+
+    /**
+     * void emit(int, int, int, int, int, Node)
+     *
+     * Appends a single instruction.
+     *
+     * @param opcode Instruction opcode
+     * @param target Register the instruction writes
+     * @param a First operand
+     * @param b Second operand
+     * @param c Third operand
+     * @param node Node the instruction was compiled from, or null
+     */
+    private void emit(final int opcode, final int target, final int a, final int b, final int c, final Node node) {
+        this.getCode().add(opcode);
+        this.getCode().add(target);
+        this.getCode().add(a);
+        this.getCode().add(b);
+        this.getCode().add(c);
+        this.getNodes().add(node);
+    }
+
+    /**
+     * int constant(BigDecimal)
+     *
+     * @param value Constant value
+     * @return Register that holds the constant, equal constants share a register
+     */
+    private int constant(final BigDecimal value) {
+        return this.getConstants().computeIfAbsent(value, ignored -> {
+            this.getTemplate().add(value);
+            return this.getTemplate().size() - 1;
+        });
+    }
+
+    /**
+     * int allocate()
+     *
+     * @return Temporary register that isn't in use
+     */
+    private int allocate() {
+        if(!this.getFree().isEmpty()) {
+            return this.getFree().pop();
+        }
+
+        this.getTemplate().add(null);
+        this.getTemporaries().set(this.getTemplate().size() - 1);
+        return this.getTemplate().size() - 1;
+    }
+
+    /**
+     * void release(int)
+     *
+     * Gives a register back once its value has been read, locals, constants and shared subexpressions are kept.
+     *
+     * @param register Register that was read
+     */
+    private void release(final int register) {
+        if(this.getTemporaries().get(register) && !this.getShared().containsValue(register) && !this.getFree().contains(register)) {
+            this.getFree().push(register);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * RegisterMachine
+ *
+ * Straight-line program of a {@link Script}, built by the {@link RegisterCompiler}. Every instruction is
+ * {@link #WIDTH} ints in a single array: an opcode, the register it writes and up to three operands. The first
+ * registers hold the script's local variables, the rest hold constants and temporary results.
+ *
+ * A run copies the register template, which already holds every constant, and executes the instructions in order
+ * with a single switch. The node an instruction was compiled from is kept next to it for the operations that need
+ * it (functions, aggregates) and for metering.
+ */
+final class RegisterMachine {
+    // WIDTH is the number of ints every instruction takes.
+    static final int WIDTH = 5;
+
+    // MOVE copies register a to the target.
+    static final int MOVE = 0;
+    // NEGATE negates register a.
+    static final int NEGATE = 1;
+    // SQUARE squares register a.
+    static final int SQUARE = 2;
+    // FUNCTION calls a single argument function with register a.
+    static final int FUNCTION = 3;
+    // CALL calls a function with the b registers listed from index a of the argument table.
+    static final int CALL = 4;
+    // AGGREGATE runs an aggregate from register a to register b, its body uses c shared slots.
+    static final int AGGREGATE = 5;
+    // EVALUATE runs a whole subtree on the stack evaluator, it uses c shared slots.
+    static final int EVALUATE = 6;
+    // BINARY is the opcode of the first operator, every operator has its own opcode in declaration order.
+    static final int BINARY = 7;
+
+    // OPERATORS maps binary opcodes back to their operator.
+    private static final Operator[] OPERATORS = Operator.values();
+
+    @Getter(AccessLevel.PRIVATE) private final int[] code;
+    @Getter(AccessLevel.PRIVATE) private final Node[] nodes;
+    @Getter(AccessLevel.PRIVATE) private final int[] arguments;
+    @Getter(AccessLevel.PRIVATE) private final BigDecimal[] template;
+    @Getter(AccessLevel.PRIVATE) private final int result;
+    @Getter(AccessLevel.PRIVATE) private final MathContext context;
+
+    /**
+     * RegisterMachine(int[], Node[], int[], BigDecimal[], int, MathContext)
+     *
+     * Creates a new {@link RegisterMachine} object.
+     *
+     * @param code Instructions, {@link #WIDTH} ints each
+     * @param nodes Node every instruction was compiled from
+     * @param arguments Argument registers of every call
+     * @param template Initial registers, only the constants are set
+     * @param result Register that holds the result once the program finished
+     * @param context Precision of every operation, or null
+     */
+    RegisterMachine(@NonNull final int[] code, @NonNull final Node[] nodes, @NonNull final int[] arguments, @NonNull final BigDecimal[] template, final int result, final MathContext context) {
+        this.code = code;
+        this.nodes = nodes;
+        this.arguments = arguments;
+        this.template = template;
+        this.result = result;
+        this.context = context;
+    }
+
+    /**
+     * BigDecimal run(Meter)
+     *
+     * Runs the program once.
+     *
+     * @param meter Meter of a budgeted run, or null
+     * @return Value of the result register
+     */
+    BigDecimal run(final Meter meter) {
+        final int[] code = this.getCode();
+        final Node[] nodes = this.getNodes();
+        final BigDecimal[] registers = this.getTemplate().clone();
+        final MathContext context = this.getContext();
+
+        // Functions only read the precision from the scope, its variable values are the registers.
+        final Scope scope = new Scope(registers, context, 0);
+
+        for(int pc = 0, i = 0; i < code.length; pc++, i += WIDTH) {
+            final int opcode = code[i];
+            final BigDecimal x = registers[code[i + 2]];
+            final BigDecimal result;
+
+            switch(opcode) {
+                case MOVE:
+                    registers[code[i + 1]] = x;
+                    continue;
+                case NEGATE:
+                    RegisterMachine.before(meter, nodes[pc], x, null, context);
+                    result = NegateNode.apply(x, scope);
+                    break;
+                case SQUARE:
+                    RegisterMachine.before(meter, nodes[pc], x, null, context);
+                    result = SquareNode.apply(x, scope);
+                    break;
+                case FUNCTION:
+                    RegisterMachine.before(meter, nodes[pc], x, null, context);
+                    result = ((FunctionNode) nodes[pc]).apply(x, scope);
+                    break;
+                case CALL:
+                    final BigDecimal[] values = new BigDecimal[code[i + 3]];
+                    for(int j = 0; j < values.length; j++) {
+                        values[j] = registers[this.getArguments()[code[i + 2] + j]];
+                    }
+                    result = ((CallNode) nodes[pc]).apply(values, scope);
+                    break;
+                case AGGREGATE:
+                    final AggregateNode aggregate = (AggregateNode) nodes[pc];
+                    if(meter != null) {
+                        meter.aggregate(aggregate, x, registers[code[i + 3]], context);
+                    }
+                    result = aggregate.apply(x, registers[code[i + 3]], new Scope(registers, context, code[i + 4]), meter, null);
+                    break;
+                case EVALUATE:
+                    // The stack evaluator meters every node of the subtree itself.
+                    registers[code[i + 1]] = StackEvaluator.evaluate(nodes[pc], new Scope(registers, context, code[i + 4]), meter, null);
+                    continue;
+                default:
+                    final BigDecimal y = registers[code[i + 3]];
+                    RegisterMachine.before(meter, nodes[pc], x, y, context);
+                    result = OPERATORS[opcode - BINARY].apply(x, y, context);
+                    break;
+            }
+
+            if(meter != null) {
+                meter.after(result);
+            }
+
+            registers[code[i + 1]] = result;
+        }
+
+        return registers[this.getResult()];
+    }
+
+    /**
+     * void before(Meter, Node, BigDecimal, BigDecimal, MathContext)
+     *
+     * @param meter Meter of a budgeted run, or null
+     * @param node Node that is about to be computed
+     * @param x First operand
+     * @param y Second operand, or null
+     * @param context Precision of the run, or null
+     */
+    private static void before(final Meter meter, final Node node, final BigDecimal x, final BigDecimal y, final MathContext context) {
+        if(meter != null) {
+            meter.before(node, x, y, context);
+        }
+    }
+
+    /**
+     * int getLength()
+     *
+     * @return Number of instructions
+     */
+    int getLength() {
+        return this.getCode().length / WIDTH;
+    }
+
+    /**
+     * int getRegisters()
+     *
+     * @return Number of registers a run uses
+     */
+    int getRegisters() {
+        return this.getTemplate().length;
+    }
+}
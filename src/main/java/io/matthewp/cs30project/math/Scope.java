@@ -0,0 +1,164 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Scope
+ *
+ * Holds the state of a single evaluation of a {@link CompiledExpression}, a new scope is created for every
+ * evaluation so nodes never share mutable state between threads.
+ */
+final class Scope {
+    @Getter(AccessLevel.PACKAGE) private final BigDecimal[] values;
+    @Getter(AccessLevel.PACKAGE) private final double[] doubles;
+    @Getter(AccessLevel.PACKAGE) private final boolean approximate;
+    @Getter(AccessLevel.PACKAGE) private final MathContext context;
+    @Getter(AccessLevel.PACKAGE) private final BigDecimal[] sharedValues;
+    @Getter(AccessLevel.PACKAGE) private final double[] sharedDoubles;
+    @Getter(AccessLevel.PACKAGE) private final boolean[] sharedDoublesSet;
+
+    /**
+     * Scope(BigDecimal[], MathContext, int)
+     *
+     * Creates a new exact {@link Scope}, subtrees only run on doubles when the {@link Precision} planner
+     * has proven the result is the same.
+     *
+     * @param values Variable values ordered by slot
+     * @param context Precision of every operation, or null to compute functions on doubles and divide exactly
+     * @param shared Number of {@link SharedNode} slots used by the expression
+     */
+    Scope(final BigDecimal[] values, final MathContext context, final int shared) {
+        this(values, null, false, context, shared);
+    }
+
+    /**
+     * Scope(double[], int)
+     *
+     * Creates a new approximate {@link Scope}, every node runs on primitive doubles.
+     *
+     * @param doubles Variable values ordered by slot
+     * @param shared Number of {@link SharedNode} slots used by the expression
+     */
+    Scope(final double[] doubles, final int shared) {
+        this(null, doubles, true, null, shared);
+    }
+
+    /**
+     * Scope(BigDecimal[], double[], boolean, MathContext, int)
+     *
+     * @param values Variable values ordered by slot, or null
+     * @param doubles Variable values ordered by slot, or null
+     * @param approximate True if every node should run on doubles
+     * @param context Precision of every operation, or null
+     * @param shared Number of {@link SharedNode} slots used by the expression
+     */
+    private Scope(final BigDecimal[] values, final double[] doubles, final boolean approximate, final MathContext context, final int shared) {
+        this.values = values;
+        this.doubles = doubles;
+        this.approximate = approximate;
+        this.context = context;
+
+        // Only allocate the shared slots if the optimizer found common subexpressions.
+        this.sharedValues = shared > 0 ? new BigDecimal[shared] : null;
+        this.sharedDoubles = shared > 0 ? new double[shared] : null;
+        this.sharedDoublesSet = shared > 0 ? new boolean[shared] : null;
+    }
+
+    /**
+     * boolean isIntegral()
+     *
+     * Integer subtrees skip BigDecimal by computing exact values, that is only the same as rounding every operation
+     * when the precision can hold any long.
+     *
+     * @return True if {@link Precision#EXACT} and {@link Precision#INTEGER} subtrees can use their fast paths.
+     */
+    boolean isIntegral() {
+        return this.getContext() == null || this.getContext().getPrecision() == 0 || this.getContext().getPrecision() >= 19;
+    }
+
+    /**
+     * Scope extend(int)
+     *
+     * Creates a scope for the body of an aggregate, with its own copy of the variable values, room for the
+     * aggregate's index and its own shared slots.
+     *
+     * @param slot Slot of the aggregate's index
+     * @return New scope with the same variable values and precision
+     */
+    Scope extend(final int slot) {
+        final BigDecimal[] values = this.getValues() == null ? null : Arrays.copyOf(this.getValues(), Math.max(this.getValues().length, slot + 1));
+        final double[] doubles = this.getDoubles() == null ? null : Arrays.copyOf(this.getDoubles(), Math.max(this.getDoubles().length, slot + 1));
+
+        return new Scope(values, doubles, this.isApproximate(), this.getContext(), this.getSharedValues() == null ? 0 : this.getSharedValues().length);
+    }
+
+    /**
+     * Scope fork()
+     *
+     * Creates a scope for a subtree that is evaluated on another thread, it reads the same variable values but
+     * has its own shared slots.
+     *
+     * @return New scope with the same variable values and precision
+     */
+    Scope fork() {
+        return new Scope(this.getValues(), this.getDoubles(), this.isApproximate(), this.getContext(), this.getSharedValues() == null ? 0 : this.getSharedValues().length);
+    }
+
+    /**
+     * void bind(int, long)
+     *
+     * Sets the value of an aggregate's index and forgets every shared subexpression, they may depend on the index.
+     *
+     * @param slot Slot of the index
+     * @param value Index value
+     */
+    void bind(final int slot, final long value) {
+        if(this.getValues() != null) {
+            this.getValues()[slot] = BigDecimal.valueOf(value);
+        }
+
+        if(this.getDoubles() != null) {
+            this.getDoubles()[slot] = value;
+        }
+
+        if(this.getSharedValues() != null) {
+            Arrays.fill(this.getSharedValues(), null);
+            Arrays.fill(this.getSharedDoublesSet(), false);
+        }
+    }
+
+    /**
+     * BigDecimal value(int)
+     *
+     * @param slot Variable slot
+     * @return Variable value
+     */
+    BigDecimal value(final int slot) {
+        // Approximate scopes only have doubles, convert on demand.
+        if(this.getValues() == null) {
+            return BigDecimal.valueOf(this.getDoubles()[slot]);
+        }
+
+        return this.getValues()[slot];
+    }
+
+    /**
+     * double doubleValue(int)
+     *
+     * @param slot Variable slot
+     * @return Variable value as a double
+     */
+    double doubleValue(final int slot) {
+        // Exact scopes only have BigDecimals, convert on demand.
+        if(this.getDoubles() == null) {
+            return this.getValues()[slot].doubleValue();
+        }
+
+        return this.getDoubles()[slot];
+    }
+}
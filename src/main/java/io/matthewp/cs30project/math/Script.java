@@ -0,0 +1,233 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Script
+ *
+ * A sequence of statements separated by ';' that is compiled once and evaluated as a single request, Ex:
+ * "a = fib(100); b = a * 2; a + b". A statement is either an expression or an assignment to a local variable,
+ * every statement can use the locals assigned before it and the value of the script is the value of its last
+ * statement.
+ *
+ * Every statement is parsed and optimized like an {@link Expression}, then the whole script is compiled into a
+ * single {@link RegisterMachine} program, so evaluating it again never parses anything and locals are passed
+ * between statements in registers.
+ */
+public final class Script {
+    @Getter private final String input;
+    @Getter private final List<String> variables;
+    @Getter private final MathContext context;
+    @Getter private final boolean pure;
+    @Getter private final Cost cost;
+    @Getter(AccessLevel.PRIVATE) private final RegisterMachine machine;
+
+    /**
+     * Script(String, List, MathContext, boolean, Cost, RegisterMachine)
+     *
+     * Creates a new {@link Script} object.
+     *
+     * @param input Script input
+     * @param variables Local variable names, the index of a name is its register
+     * @param context Precision of every operation, or null
+     * @param pure True if every statement only calls pure functions
+     * @param cost Estimated cost of all statements together
+     * @param machine Compiled program
+     */
+    private Script(final String input, final List<String> variables, final MathContext context, final boolean pure, final Cost cost, final RegisterMachine machine) {
+        this.input = input;
+        this.variables = Collections.unmodifiableList(variables);
+        this.context = context;
+        this.pure = pure;
+        this.cost = cost;
+        this.machine = machine;
+    }
+
+    /**
+     * boolean isScript(CharSequence)
+     *
+     * @param input String to check
+     * @return True if the input has more than one statement or assigns a variable, otherwise false.
+     */
+    public static boolean isScript(@NonNull final CharSequence input) {
+        for(int i = 0; i < input.length(); i++) {
+            if(input.charAt(i) == ';' || input.charAt(i) == '=') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Script compile(String)
+     *
+     * Compiles a script that computes functions on doubles and divides exactly, like an {@link Expression}.
+     *
+     * @param input Script input
+     * @return Compiled script
+     */
+    public static Script compile(@NonNull final String input) {
+        return Script.compile(input, null);
+    }
+
+    /**
+     * Script compile(String, MathContext)
+     *
+     * Compiles a script, every statement is checked and compiled before anything runs.
+     *
+     * @param input Script input
+     * @param context Precision of every operation, or null
+     * @return Compiled script
+     * @throws RuntimeException if a statement is invalid, the message names the statement
+     */
+    public static Script compile(@NonNull final String input, final MathContext context) {
+        final List<String> expressions = new ArrayList<>();
+        final List<String> targets = new ArrayList<>();
+        final List<String> variables = new ArrayList<>();
+
+        // Split the statements and find every local first, they get the first registers.
+        for(final String statement : input.split(";")) {
+            if(statement.trim().isEmpty()) {
+                continue;
+            }
+
+            final int equals = statement.indexOf('=');
+            final String target = equals < 0 ? null : statement.substring(0, equals).trim();
+
+            if(target != null) {
+                Script.checkName(target, expressions.size() + 1);
+
+                if(statement.indexOf('=', equals + 1) >= 0) {
+                    throw new RuntimeException("Statement " + (expressions.size() + 1) + " assigns more than once.");
+                }
+
+                if(!variables.contains(target)) {
+                    variables.add(target);
+                }
+            }
+
+            expressions.add(equals < 0 ? statement : statement.substring(equals + 1));
+            targets.add(target);
+        }
+
+        if(expressions.isEmpty()) {
+            throw new RuntimeException("Script has no statements.");
+        }
+
+        final RegisterCompiler compiler = new RegisterCompiler(variables.size(), context);
+        final List<String> defined = new ArrayList<>();
+        boolean pure = true;
+        long operations = 0;
+        long digits = 0;
+        int result = 0;
+
+        for(int i = 0; i < expressions.size(); i++) {
+            final CompiledExpression statement;
+
+            // A statement can only use the locals assigned before it, in register order.
+            try {
+                statement = new Expression(expressions.get(i), Script.slots(variables, defined), context).compile();
+            } catch(final RuntimeException ex) {
+                throw new RuntimeException("Statement " + (i + 1) + ": " + ex.getMessage(), ex);
+            }
+
+            pure &= statement.isPure();
+            operations += statement.getCost().getOperations();
+            digits = Math.max(digits, statement.getCost().getDigits());
+            result = compiler.statement(statement, targets.get(i) == null ? -1 : variables.indexOf(targets.get(i)));
+
+            if(targets.get(i) != null && !defined.contains(targets.get(i))) {
+                defined.add(targets.get(i));
+            }
+        }
+
+        return new Script(input, variables, context, pure, new Cost(operations, digits), compiler.build(result));
+    }
+
+    /**
+     * List slots(List, List)
+     *
+     * @param variables Every local of the script, in register order
+     * @param defined Locals that have been assigned so far
+     * @return Variable names of a statement, a local that isn't assigned yet gets an empty name that never matches so every slot stays its register
+     */
+    private static List<String> slots(final List<String> variables, final List<String> defined) {
+        final List<String> slots = new ArrayList<>(variables.size());
+
+        for(final String variable : variables) {
+            slots.add(defined.contains(variable) ? variable : "");
+        }
+
+        // Trailing locals that aren't assigned yet don't need a slot.
+        while(!slots.isEmpty() && slots.get(slots.size() - 1).isEmpty()) {
+            slots.remove(slots.size() - 1);
+        }
+
+        return slots;
+    }
+
+    /**
+     * void checkName(String, int)
+     *
+     * Local names follow the rules of variable names, lowercase letters except 'x' that aren't a function name.
+     *
+     * @param name Local name
+     * @param statement Number of the statement that assigns the local
+     * @throws RuntimeException if the name can't be used for a local
+     */
+    private static void checkName(final String name, final int statement) {
+        boolean valid = !name.isEmpty() && !Expression.isFunction(name);
+
+        for(int i = 0; i < name.length() && valid; i++) {
+            valid = Lexer.isLetter(name.charAt(i)) && name.charAt(i) != 'x';
+        }
+
+        if(!valid) {
+            throw new RuntimeException("Statement " + statement + " assigns an invalid variable name \"" + name + "\".");
+        }
+    }
+
+    /**
+     * BigDecimal evaluate()
+     *
+     * Runs every statement in order.
+     *
+     * @return Value of the last statement
+     */
+    public BigDecimal evaluate() {
+        return this.getMachine().run(null);
+    }
+
+    /**
+     * BigDecimal evaluate(Budget)
+     *
+     * Runs every statement in order within a budget, the budget covers the whole script.
+     *
+     * @param budget Limits of the evaluation
+     * @return Value of the last statement
+     * @throws BudgetExceededException if the script doesn't fit in the budget
+     */
+    public BigDecimal evaluate(@NonNull final Budget budget) {
+        // An unlimited budget doesn't need to be metered.
+        if(budget == Budget.UNLIMITED) {
+            return this.evaluate();
+        }
+
+        budget.check(this.getCost());
+        return this.getMachine().run(budget.start());
+    }
+
+    @Override
+    public String toString() {
+        return "Script(" + this.getInput() + ", " + this.getMachine().getLength() + " instructions, " + this.getMachine().getRegisters() + " registers)";
+    }
+}
@@ -0,0 +1,109 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * SharedNode
+ *
+ * Wraps a subexpression that appears more than once in a tree, the {@link Optimizer} gives every copy the same
+ * slot so the subexpression is only evaluated once per {@link Scope}.
+ */
+final class SharedNode extends Node {
+    @Getter private final Node node;
+    @Getter private final int index;
+
+    /**
+     * SharedNode(Node, int)
+     *
+     * Creates a new {@link SharedNode} object.
+     *
+     * @param node Shared subexpression
+     * @param index Slot in the scope's shared arrays
+     */
+    SharedNode(@NonNull final Node node, final int index) {
+        super(node.getPrecision(), node.getBound());
+
+        this.node = node;
+        this.index = index;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Shared subexpression result
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        final BigDecimal[] values = scope.getSharedValues();
+        BigDecimal value = values[this.getIndex()];
+
+        // Only evaluate the subexpression the first time it is used.
+        if(value == null) {
+            value = this.getNode().evaluate(scope);
+            values[this.getIndex()] = value;
+        }
+
+        return value;
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Shared subexpression result
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        final boolean[] set = scope.getSharedDoublesSet();
+        final double[] doubles = scope.getSharedDoubles();
+
+        // Only evaluate the subexpression the first time it is used.
+        if(!set[this.getIndex()]) {
+            doubles[this.getIndex()] = this.getNode().evaluateDouble(scope);
+            set[this.getIndex()] = true;
+        }
+
+        return doubles[this.getIndex()];
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        double[] column = scope.shared(this.getIndex());
+
+        // Only evaluate the subexpression the first time it is used in a block.
+        if(column == null) {
+            column = scope.share(this.getIndex());
+            this.getNode().evaluateColumn(scope, column);
+        }
+
+        System.arraycopy(column, 0, target, 0, scope.getLength());
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * Integer subtrees are cheap enough that they aren't cached.
+     *
+     * @param scope Evaluation scope
+     * @return Shared subexpression result
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        return this.getNode().evaluateLong(scope);
+    }
+
+    @Override
+    public String toString() {
+        return this.getNode().toString();
+    }
+}
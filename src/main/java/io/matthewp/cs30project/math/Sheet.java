@@ -0,0 +1,641 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sheet
+ *
+ * A set of named cells, every cell either holds a value or a formula that can use the values of other cells
+ * as variables, Ex: "total" = "price * count".
+ *
+ * The cells form a dependency graph that is kept up to date as formulas change and can't contain cycles.
+ * Changing a cell only recomputes the cells downstream of it, in dependency order, and a recomputed cell whose
+ * value didn't change stops the change from spreading any further. Independent branches of a large recompute
+ * run in parallel on a {@link ForkJoinPool}.
+ *
+ * A formula that fails stores its error instead of a value, and every cell that depends on it gets the same error.
+ * All methods are synchronized, a sheet can be shared between threads.
+ */
+public final class Sheet {
+    // PARALLEL is the number of cells a recompute needs before it is spread across the pool.
+    private static final int PARALLEL = 64;
+
+    @Getter private final MathContext context;
+    @Getter(AccessLevel.PRIVATE) private final ForkJoinPool pool;
+    @Getter(AccessLevel.PRIVATE) private final Map<String, Cell> cells;
+
+    /**
+     * Sheet()
+     *
+     * Creates a new {@link Sheet} object that evaluates formulas like {@link Expression} does.
+     */
+    public Sheet() {
+        this(null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sheet(MathContext)
+     *
+     * Creates a new {@link Sheet} object that computes every formula natively in BigDecimal.
+     *
+     * @param context Precision of every formula
+     */
+    public Sheet(@NonNull final MathContext context) {
+        this(context, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sheet(MathContext, ForkJoinPool)
+     *
+     * Creates a new {@link Sheet} object.
+     *
+     * @param context Precision of every formula, or null to compute functions on doubles and divide exactly
+     * @param pool Pool large recomputes run on
+     */
+    public Sheet(final MathContext context, @NonNull final ForkJoinPool pool) {
+        this.context = context;
+        this.pool = pool;
+        this.cells = new HashMap<>();
+    }
+
+    /**
+     * int set(String, BigDecimal)
+     *
+     * Sets a cell to a value, creating it if it doesn't exist yet.
+     *
+     * @param name Cell name
+     * @param value Cell value
+     * @return Number of formulas that were evaluated again
+     */
+    public synchronized int set(@NonNull final String name, @NonNull final BigDecimal value) {
+        Sheet.checkName(name);
+
+        final Cell cell = this.getCells().computeIfAbsent(name, Cell::new);
+        cell.define(value.toString(), null, value, Collections.emptyList());
+
+        return this.recompute(Collections.singletonList(cell));
+    }
+
+    /**
+     * int set(String, String)
+     *
+     * Sets a cell to a formula, creating it if it doesn't exist yet.
+     *
+     * @param name Cell name
+     * @param formula Cell formula, it can only use cells that already exist
+     * @return Number of formulas that were evaluated again
+     * @throws IllegalArgumentException if the formula would make the cell depend on itself
+     */
+    public synchronized int set(@NonNull final String name, @NonNull final String formula) {
+        return this.setAll(Collections.singletonMap(name, formula));
+    }
+
+    /**
+     * int setAll(Map)
+     *
+     * Sets many cells to formulas at once, the formulas can use each other regardless of their order.
+     * Nothing is changed if any of the formulas is invalid.
+     *
+     * @param formulas Cell formulas by cell name
+     * @return Number of formulas that were evaluated again
+     * @throws IllegalArgumentException if the formulas would make a cell depend on itself
+     */
+    public synchronized int setAll(@NonNull final Map<String, String> formulas) {
+        final Map<String, CompiledExpression> expressions = new HashMap<>();
+        final Map<String, List<String>> references = new HashMap<>();
+
+        // Compile every formula before anything changes.
+        for(final Map.Entry<String, String> entry : formulas.entrySet()) {
+            Sheet.checkName(entry.getKey());
+
+            final List<String> names = this.references(Objects.requireNonNull(entry.getValue(), "formula"), formulas);
+            expressions.put(entry.getKey(), new Expression(entry.getValue(), names, this.getContext()).compile());
+            references.put(entry.getKey(), names);
+        }
+
+        this.checkCycles(references);
+
+        // Link every cell to its new dependencies.
+        final List<Cell> changed = new ArrayList<>();
+        for(final String name : formulas.keySet()) {
+            changed.add(this.getCells().computeIfAbsent(name, Cell::new));
+        }
+
+        for(final Cell cell : changed) {
+            final List<Cell> dependencies = new ArrayList<>();
+            for(final String reference : references.get(cell.getName())) {
+                dependencies.add(this.getCells().get(reference));
+            }
+
+            cell.define(formulas.get(cell.getName()), expressions.get(cell.getName()), null, dependencies);
+        }
+
+        return this.recompute(changed);
+    }
+
+    /**
+     * void remove(String)
+     *
+     * Removes a cell that no other cell uses.
+     *
+     * @param name Cell name
+     * @throws IllegalArgumentException if the cell doesn't exist or another cell still uses it
+     */
+    public synchronized void remove(@NonNull final String name) {
+        final Cell cell = this.cell(name);
+
+        // Check if removing the cell would break another formula.
+        if(!cell.getDependents().isEmpty()) {
+            throw new IllegalArgumentException("Cell \"" + name + "\" is used by \"" + cell.getDependents().iterator().next().getName() + "\".");
+        }
+
+        cell.define(null, null, null, Collections.emptyList());
+        this.getCells().remove(name);
+    }
+
+    /**
+     * BigDecimal get(String)
+     *
+     * @param name Cell name
+     * @return Cell value
+     * @throws IllegalArgumentException if the cell doesn't exist
+     * @throws RuntimeException the error of the cell, if its formula failed
+     */
+    public synchronized BigDecimal get(@NonNull final String name) {
+        final Cell cell = this.cell(name);
+
+        if(cell.getError() != null) {
+            throw cell.getError();
+        }
+
+        return cell.getValue();
+    }
+
+    /**
+     * RuntimeException getError(String)
+     *
+     * @param name Cell name
+     * @return Error of the cell, or null if it has a value
+     * @throws IllegalArgumentException if the cell doesn't exist
+     */
+    public synchronized RuntimeException getError(@NonNull final String name) {
+        return this.cell(name).getError();
+    }
+
+    /**
+     * String getFormula(String)
+     *
+     * @param name Cell name
+     * @return Formula of the cell, or its value if it holds a value
+     * @throws IllegalArgumentException if the cell doesn't exist
+     */
+    public synchronized String getFormula(@NonNull final String name) {
+        return this.cell(name).getFormula();
+    }
+
+    /**
+     * boolean contains(String)
+     *
+     * @param name Cell name
+     * @return True if the sheet has a cell with that name, otherwise false.
+     */
+    public synchronized boolean contains(@NonNull final String name) {
+        return this.getCells().containsKey(name);
+    }
+
+    /**
+     * Set getNames()
+     *
+     * @return Names of every cell
+     */
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new HashSet<>(this.getCells().keySet()));
+    }
+
+    /**
+     * Cell cell(String)
+     *
+     * @param name Cell name
+     * @return Cell with that name
+     * @throws IllegalArgumentException if the cell doesn't exist
+     */
+    private Cell cell(final String name) {
+        final Cell cell = this.getCells().get(name);
+
+        if(cell == null) {
+            throw new IllegalArgumentException("Unknown cell \"" + name + "\".");
+        }
+
+        return cell;
+    }
+
+    /**
+     * List references(String, Map)
+     *
+     * Finds the cells a formula uses, every name in the formula that is a cell or is about to become one.
+     *
+     * @param formula Cell formula
+     * @param formulas Formulas that are being set together with this one
+     * @return Names of the cells the formula uses, in order of first use
+     */
+    private List<String> references(final String formula, final Map<String, String> formulas) {
+        final String input = Expression.normalize(formula);
+        final Set<String> names = new LinkedHashSet<>();
+
+        for(int i = 0; i < input.length(); i++) {
+            // Names are runs of letters, everything else is skipped.
+            if(!Lexer.isLetter(input.charAt(i))) {
+                continue;
+            }
+
+            int end = i + 1;
+            while(end < input.length() && Lexer.isLetter(input.charAt(end))) {
+                end++;
+            }
+
+            final String name = input.substring(i, end);
+            if(this.getCells().containsKey(name) || formulas.containsKey(name)) {
+                names.add(name);
+            }
+
+            i = end;
+        }
+
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * void checkCycles(Map)
+     *
+     * Makes sure that setting the formulas doesn't make any cell depend on itself, only cycles through one of
+     * the new formulas can be new.
+     *
+     * @param references Names of the cells every new formula uses
+     * @throws IllegalArgumentException if a cell would depend on itself
+     */
+    private void checkCycles(final Map<String, List<String>> references) {
+        final Set<String> done = new HashSet<>();
+        final Set<String> path = new HashSet<>();
+        final ArrayDeque<String> names = new ArrayDeque<>();
+        final ArrayDeque<Iterator<String>> iterators = new ArrayDeque<>();
+
+        for(final String start : references.keySet()) {
+            if(done.contains(start)) {
+                continue;
+            }
+
+            names.push(start);
+            iterators.push(references.get(start).iterator());
+            path.add(start);
+
+            // Depth first search with an explicit stack, dependency chains can be very long.
+            while(!names.isEmpty()) {
+                final Iterator<String> iterator = iterators.peek();
+
+                // Check if every cell this one uses has been searched.
+                if(!iterator.hasNext()) {
+                    iterators.pop();
+                    path.remove(names.peek());
+                    done.add(names.pop());
+                    continue;
+                }
+
+                final String dependency = iterator.next();
+
+                if(path.contains(dependency)) {
+                    throw new IllegalArgumentException("Cell \"" + dependency + "\" would depend on itself.");
+                }
+
+                if(!done.contains(dependency)) {
+                    names.push(dependency);
+                    iterators.push(this.dependencies(dependency, references).iterator());
+                    path.add(dependency);
+                }
+            }
+        }
+    }
+
+    /**
+     * List dependencies(String, Map)
+     *
+     * @param name Cell name
+     * @param references Names of the cells every new formula uses
+     * @return Names of the cells the cell uses once the new formulas are set
+     */
+    private List<String> dependencies(final String name, final Map<String, List<String>> references) {
+        final List<String> names = references.get(name);
+
+        // Cells that aren't being changed keep their current dependencies.
+        if(names == null) {
+            final List<String> current = new ArrayList<>();
+            for(final Cell dependency : this.getCells().get(name).getDependencies()) {
+                current.add(dependency.getName());
+            }
+
+            return current;
+        }
+
+        return names;
+    }
+
+    /**
+     * int recompute(List)
+     *
+     * Recomputes the changed cells and everything downstream of them.
+     *
+     * @param changed Cells that were set
+     * @return Number of formulas that were evaluated again
+     */
+    private int recompute(final List<Cell> changed) {
+        final List<Cell> dirty = new ArrayList<>();
+        final ArrayDeque<Cell> stack = new ArrayDeque<>();
+
+        // Mark everything downstream of the changed cells.
+        for(final Cell cell : changed) {
+            cell.stale = true;
+
+            if(!cell.dirty) {
+                cell.dirty = true;
+                stack.push(cell);
+            }
+        }
+
+        while(!stack.isEmpty()) {
+            final Cell cell = stack.pop();
+            dirty.add(cell);
+
+            for(final Cell dependent : cell.getDependents()) {
+                if(!dependent.dirty) {
+                    dependent.dirty = true;
+                    stack.push(dependent);
+                }
+            }
+        }
+
+        // A cell is ready once every dirty cell it uses has been recomputed.
+        final List<Cell> ready = new ArrayList<>();
+        for(final Cell cell : dirty) {
+            int pending = 0;
+            for(final Cell dependency : cell.getDependencies()) {
+                pending += dependency.dirty ? 1 : 0;
+            }
+
+            cell.getPending().set(pending);
+            if(pending == 0) {
+                ready.add(cell);
+            }
+        }
+
+        final AtomicInteger evaluated = new AtomicInteger();
+
+        // Small recomputes aren't worth the tasks, run them in order on this thread.
+        if(dirty.size() < PARALLEL || this.getPool().getParallelism() == 1) {
+            stack.addAll(ready);
+
+            while(!stack.isEmpty()) {
+                final Cell cell = stack.pop();
+                evaluated.addAndGet(cell.compute() ? 1 : 0);
+
+                for(final Cell dependent : cell.getDependents()) {
+                    if(cell.release(dependent)) {
+                        stack.push(dependent);
+                    }
+                }
+            }
+        } else {
+            this.getPool().invoke(new RecomputeTask(null, ready.toArray(new Cell[0]), evaluated));
+        }
+
+        for(final Cell cell : dirty) {
+            cell.dirty = false;
+            cell.stale = false;
+        }
+
+        return evaluated.get();
+    }
+
+    /**
+     * void checkName(String)
+     *
+     * Cell names follow the rules of variable names, lowercase letters except 'x' that aren't a function name.
+     *
+     * @param name Cell name
+     * @throws IllegalArgumentException if the name can't be used for a cell
+     */
+    private static void checkName(final String name) {
+        boolean valid = !name.isEmpty() && !Expression.isFunction(name);
+
+        for(int i = 0; i < name.length() && valid; i++) {
+            valid = Lexer.isLetter(name.charAt(i)) && name.charAt(i) != 'x';
+        }
+
+        if(!valid) {
+            throw new IllegalArgumentException("Invalid cell name \"" + name + "\".");
+        }
+    }
+
+    /**
+     * Cell
+     *
+     * A single cell of the sheet and its place in the dependency graph.
+     */
+    private static final class Cell {
+        @Getter(AccessLevel.PRIVATE) private final String name;
+        @Getter(AccessLevel.PRIVATE) private final Set<Cell> dependents;
+        @Getter(AccessLevel.PRIVATE) private final AtomicInteger pending;
+        @Getter(AccessLevel.PRIVATE) private String formula;
+        @Getter(AccessLevel.PRIVATE) private CompiledExpression expression;
+        @Getter(AccessLevel.PRIVATE) private BigDecimal input;
+        @Getter(AccessLevel.PRIVATE) private Cell[] dependencies;
+        @Getter(AccessLevel.PRIVATE) private BigDecimal value;
+        @Getter(AccessLevel.PRIVATE) private RuntimeException error;
+
+        // dirty marks a cell that is part of the current recompute. stale marks a cell that has to be evaluated
+        // again, once it has been evaluated it stays set only if the value changed.
+        private boolean dirty;
+        private volatile boolean stale;
+
+        /**
+         * Cell(String)
+         *
+         * @param name Cell name
+         */
+        private Cell(final String name) {
+            this.name = name;
+            this.dependents = new LinkedHashSet<>();
+            this.pending = new AtomicInteger();
+            this.dependencies = new Cell[0];
+        }
+
+        /**
+         * void define(String, CompiledExpression, BigDecimal, List)
+         *
+         * Replaces what the cell holds and moves it to its new place in the graph.
+         *
+         * @param formula Formula of the cell
+         * @param expression Compiled formula, or null if the cell holds a value
+         * @param input Value of the cell, or null if it holds a formula
+         * @param dependencies Cells the formula uses, in the order of its variables
+         */
+        private void define(final String formula, final CompiledExpression expression, final BigDecimal input, final List<Cell> dependencies) {
+            for(final Cell dependency : this.getDependencies()) {
+                dependency.getDependents().remove(this);
+            }
+
+            this.formula = formula;
+            this.expression = expression;
+            this.input = input;
+            this.dependencies = dependencies.toArray(new Cell[0]);
+
+            for(final Cell dependency : this.getDependencies()) {
+                dependency.getDependents().add(this);
+            }
+        }
+
+        /**
+         * boolean compute()
+         *
+         * Evaluates the cell again if it's stale, every cell it uses has to be up to date.
+         *
+         * @return True if the formula was evaluated, otherwise false.
+         */
+        private boolean compute() {
+            if(!this.stale) {
+                return false;
+            }
+
+            final BigDecimal previous = this.getValue();
+            final RuntimeException failure = this.getError();
+            final BigDecimal[] values = new BigDecimal[this.getDependencies().length];
+
+            this.value = null;
+            this.error = null;
+
+            // A cell that uses a failed cell fails the same way.
+            for(int i = 0; i < values.length && this.getError() == null; i++) {
+                values[i] = this.getDependencies()[i].getValue();
+                this.error = this.getDependencies()[i].getError();
+            }
+
+            if(this.getError() == null) {
+                try {
+                    this.value = this.getExpression() == null ? this.getInput() : this.getExpression().evaluate(values);
+                } catch(final RuntimeException ex) {
+                    this.error = ex;
+                } catch(final StackOverflowError ex) {
+                    // Don't let a single deeply nested formula take the whole sheet down.
+                    this.error = new RuntimeException("Expression is nested too deeply.", ex);
+                }
+            }
+
+            // Only keep the recompute going if something actually changed.
+            this.stale = !Objects.equals(previous, this.getValue()) || failure != this.getError();
+            return this.getExpression() != null;
+        }
+
+        /**
+         * boolean release(Cell)
+         *
+         * Tells a dependent that this cell is up to date.
+         *
+         * @param dependent Cell that uses this cell
+         * @return True if every dirty cell the dependent uses is now up to date, otherwise false.
+         */
+        private boolean release(final Cell dependent) {
+            // The dependent has to be evaluated again if this cell changed.
+            if(this.stale) {
+                dependent.stale = true;
+            }
+
+            return dependent.getPending().decrementAndGet() == 0;
+        }
+    }
+
+    /**
+     * RecomputeTask
+     *
+     * Recomputes a set of ready cells and every cell that becomes ready because of them. The first ready dependent
+     * is recomputed by the same task, the others are forked so idle workers can steal them.
+     */
+    private static final class RecomputeTask extends CountedCompleter<Void> {
+        // serialVersionUID is required of every ForkJoinTask, a recompute is never serialized.
+        private static final long serialVersionUID = 1L;
+
+        @Getter(AccessLevel.PRIVATE) private final Cell[] cells;
+        @Getter(AccessLevel.PRIVATE) private final AtomicInteger evaluated;
+
+        /**
+         * RecomputeTask(CountedCompleter, Cell[], AtomicInteger)
+         *
+         * @param completer Task that completes once this task does, or null for the root task
+         * @param cells Cells that are ready to be recomputed
+         * @param evaluated Number of formulas evaluated by the recompute
+         */
+        private RecomputeTask(final CountedCompleter<?> completer, final Cell[] cells, final AtomicInteger evaluated) {
+            super(completer);
+
+            this.cells = cells;
+            this.evaluated = evaluated;
+        }
+
+        @Override
+        public void compute() {
+            // Fork every ready cell but the last, this task recomputes that one itself.
+            for(int i = 0; i < this.getCells().length - 1; i++) {
+                this.fork(this.getCells()[i]);
+            }
+
+            Cell cell = this.getCells().length > 0 ? this.getCells()[this.getCells().length - 1] : null;
+
+            while(cell != null) {
+                this.getEvaluated().addAndGet(cell.compute() ? 1 : 0);
+
+                Cell next = null;
+                for(final Cell dependent : cell.getDependents()) {
+                    if(!cell.release(dependent)) {
+                        continue;
+                    }
+
+                    if(next != null) {
+                        this.fork(next);
+                    }
+
+                    next = dependent;
+                }
+
+                cell = next;
+            }
+
+            this.tryComplete();
+        }
+
+        /**
+         * void fork(Cell)
+         *
+         * @param cell Cell to recompute in a task of its own
+         */
+        private void fork(final Cell cell) {
+            this.addToPendingCount(1);
+            new RecomputeTask(this, new Cell[] {cell}, this.getEvaluated()).fork();
+        }
+    }
+}
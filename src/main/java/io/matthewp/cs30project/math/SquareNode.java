@@ -0,0 +1,114 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * SquareNode
+ *
+ * Strength reduced form of "x^2" created by the {@link Optimizer}, a single multiplication instead of a call to
+ * {@link BigDecimal#pow(int)}.
+ */
+final class SquareNode extends Node {
+    @Getter private final Node operand;
+
+    /**
+     * SquareNode(Node)
+     *
+     * Creates a new {@link SquareNode} object.
+     *
+     * @param operand Node to square
+     */
+    SquareNode(@NonNull final Node operand) {
+        // Same as the exponent it replaces, integers are squared on longs until they overflow.
+        super(operand.getPrecision().isIntegral() ? Precision.INTEGER : Precision.DECIMAL, Double.POSITIVE_INFINITY);
+
+        this.operand = operand;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Squared operand
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        // Try the long evaluator first, it returns null if the value has to be promoted.
+        if(this.getPrecision() == Precision.INTEGER && scope.isIntegral()) {
+            final BigDecimal result = this.evaluateInteger(scope);
+
+            if(result != null) {
+                return result;
+            }
+        }
+
+        return SquareNode.apply(this.getOperand().evaluate(scope), scope);
+    }
+
+    /**
+     * BigDecimal apply(BigDecimal, Scope)
+     *
+     * @param operand Operand that has already been evaluated
+     * @param scope Evaluation scope
+     * @return Squared operand
+     * @throws BudgetExceededException if an exact square would have more than {@link CostModel#MAX_EXACT_DIGITS} digits
+     */
+    static BigDecimal apply(final BigDecimal operand, final Scope scope) {
+        // With a precision use the same code path as "x^2".
+        if(scope.getContext() != null) {
+            return BigDecimalMath.pow(operand, BigDecimal.valueOf(2), scope.getContext());
+        }
+
+        // The exact square is held to the same ceiling as "x^2", chained squares double the digits every time.
+        CostModel.checkExact(CostModel.power(operand, 2), "Power");
+        return operand.multiply(operand);
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Squared operand
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        final double x = this.getOperand().doubleValue(scope);
+        return Node.finite(scope, x * x);
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        this.getOperand().evaluateColumn(scope, target);
+
+        final int length = scope.getLength();
+        for(int i = 0; i < length; i++) {
+            target[i] = target[i] * target[i];
+        }
+    }
+
+    /**
+     * long evaluateLong(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Squared operand
+     */
+    @Override
+    long evaluateLong(final Scope scope) {
+        final long x = this.getOperand().evaluateLong(scope);
+        return Operator.MULTIPLY.applyLong(x, x);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + this.getOperand() + " ^ 2)";
+    }
+}
@@ -0,0 +1,351 @@
+package io.matthewp.cs30project.math;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * StackEvaluator
+ *
+ * Evaluates an expression tree without recursion, walking it with an explicit stack of nodes and an explicit
+ * stack of operands so the depth of the tree is only limited by the heap.
+ *
+ * Every node is computed from the BigDecimal results of its children, which gives exactly the same results as the
+ * recursive evaluator (the {@link Precision} planner only takes shortcuts that give identical results).
+ * {@link CompiledExpression} only uses it for trees deeper than {@link #MAX_RECURSION}, shallower trees are faster
+ * with the recursive evaluator and its fast paths. Budgeted evaluations always use it, because every operation has
+ * to pass through a {@link Meter}.
+ */
+final class StackEvaluator {
+    // MAX_RECURSION is the deepest tree that is evaluated recursively, far below what a default thread stack can hold.
+    static final int MAX_RECURSION = 512;
+
+    @Getter(AccessLevel.PRIVATE) private final Profiler profiler;
+    @Getter(AccessLevel.PRIVATE) private Node[] nodes;
+    @Getter(AccessLevel.PRIVATE) private int[] states;
+    @Getter(AccessLevel.PRIVATE) private long[] starts;
+    @Getter(AccessLevel.PRIVATE) private int size;
+
+    /**
+     * StackEvaluator(Profiler)
+     *
+     * Creates a new {@link StackEvaluator} object with an empty stack.
+     *
+     * @param profiler Profiler every node reports to, or null
+     */
+    private StackEvaluator(final Profiler profiler) {
+        this.profiler = profiler;
+        this.nodes = new Node[64];
+        this.states = new int[64];
+        // Start times are only kept while profiling.
+        this.starts = profiler == null ? null : new long[64];
+        this.size = 0;
+    }
+
+    /**
+     * BigDecimal evaluate(Node, Scope)
+     *
+     * @param root Root of the tree
+     * @param scope Evaluation scope
+     * @return Tree result
+     */
+    static BigDecimal evaluate(@NonNull final Node root, @NonNull final Scope scope) {
+        return StackEvaluator.evaluate(root, scope, null, null);
+    }
+
+    /**
+     * BigDecimal evaluate(Node, Scope, Meter, Profiler)
+     *
+     * Evaluates the tree, asking the meter before and after every operation so a budgeted evaluation can be stopped
+     * and telling the profiler how long every node took.
+     *
+     * @param root Root of the tree
+     * @param scope Evaluation scope
+     * @param meter Meter of a budgeted evaluation, or null
+     * @param profiler Profiler of a profiled evaluation, or null
+     * @return Tree result
+     */
+    static BigDecimal evaluate(@NonNull final Node root, @NonNull final Scope scope, final Meter meter, final Profiler profiler) {
+        final StackEvaluator stack = new StackEvaluator(profiler);
+        BigDecimal[] operands = new BigDecimal[64];
+        int count = 0;
+
+        stack.push(root);
+        while(stack.getSize() > 0) {
+            final int top = stack.getSize() - 1;
+            final Node node = stack.getNodes()[top];
+            final int state = stack.getStates()[top]++;
+
+            // Make sure there is room for another operand.
+            if(count == operands.length) {
+                operands = Arrays.copyOf(operands, count * 2);
+            }
+
+            if(node instanceof ConstantNode || node instanceof VariableNode) {
+                stack.pop();
+                operands[count++] = node.evaluate(scope);
+                stack.done(node, meter, operands[count - 1]);
+            } else if(node instanceof SharedNode) {
+                final SharedNode shared = (SharedNode) node;
+                final BigDecimal[] values = scope.getSharedValues();
+
+                if(state == 0 && values[shared.getIndex()] == null) {
+                    stack.push(shared.getNode());
+                } else {
+                    // Store the subexpression the first time, reuse it every time after that.
+                    stack.pop();
+                    if(state == 0) {
+                        operands[count++] = values[shared.getIndex()];
+                    } else {
+                        values[shared.getIndex()] = operands[count - 1];
+                    }
+                }
+            } else if(node instanceof NegateNode) {
+                if(state == 0) {
+                    stack.push(((NegateNode) node).getOperand());
+                } else {
+                    stack.pop();
+                    StackEvaluator.before(meter, node, operands[count - 1], null, scope);
+                    operands[count - 1] = NegateNode.apply(operands[count - 1], scope);
+                    stack.done(node, meter, operands[count - 1]);
+                }
+            } else if(node instanceof SquareNode) {
+                if(state == 0) {
+                    stack.push(((SquareNode) node).getOperand());
+                } else {
+                    stack.pop();
+                    StackEvaluator.before(meter, node, operands[count - 1], null, scope);
+                    operands[count - 1] = SquareNode.apply(operands[count - 1], scope);
+                    stack.done(node, meter, operands[count - 1]);
+                }
+            } else if(node instanceof FunctionNode) {
+                if(state == 0) {
+                    stack.push(((FunctionNode) node).getArgument());
+                } else {
+                    stack.pop();
+                    StackEvaluator.before(meter, node, operands[count - 1], null, scope);
+                    operands[count - 1] = ((FunctionNode) node).apply(operands[count - 1], scope);
+                    stack.done(node, meter, operands[count - 1]);
+                }
+            } else if(node instanceof CallNode) {
+                final CallNode call = (CallNode) node;
+                final int arguments = call.getArguments().length;
+
+                if(state < arguments) {
+                    stack.push(call.getArguments()[state]);
+                } else {
+                    // The arguments are the top operands, in order.
+                    stack.pop();
+                    final BigDecimal[] values = Arrays.copyOfRange(operands, count - arguments, count);
+                    Arrays.fill(operands, count - arguments, count, null);
+                    count -= arguments;
+                    operands[count++] = call.apply(values, scope);
+                    stack.done(node, meter, operands[count - 1]);
+                }
+            } else if(node instanceof AggregateNode) {
+                final AggregateNode aggregate = (AggregateNode) node;
+
+                if(state < 2) {
+                    stack.push(state == 0 ? aggregate.getFrom() : aggregate.getTo());
+                } else {
+                    stack.pop();
+                    count--;
+                    if(meter != null) {
+                        meter.aggregate(aggregate, operands[count - 1], operands[count], scope.getContext());
+                    }
+                    operands[count - 1] = aggregate.apply(operands[count - 1], operands[count], scope, meter, profiler);
+                    operands[count] = null;
+                    stack.done(node, meter, operands[count - 1]);
+                }
+            } else if(node instanceof BinaryNode) {
+                final BinaryNode binary = (BinaryNode) node;
+
+                if(state < 2) {
+                    stack.push(state == 0 ? binary.getLeft() : binary.getRight());
+                } else {
+                    stack.pop();
+                    count--;
+                    StackEvaluator.before(meter, node, operands[count - 1], operands[count], scope);
+                    operands[count - 1] = binary.getOperator().apply(operands[count - 1], operands[count], scope.getContext());
+                    operands[count] = null;
+                    stack.done(node, meter, operands[count - 1]);
+                }
+            } else {
+                throw new IllegalStateException("Unknown node " + node.getClass().getSimpleName() + ".");
+            }
+        }
+
+        return operands[0];
+    }
+
+    /**
+     * double evaluateDouble(Node, Scope)
+     *
+     * @param root Root of the tree
+     * @param scope Approximate evaluation scope
+     * @return Approximate tree result
+     */
+    static double evaluateDouble(@NonNull final Node root, @NonNull final Scope scope) {
+        final StackEvaluator stack = new StackEvaluator(null);
+        double[] operands = new double[64];
+        int count = 0;
+
+        stack.push(root);
+        while(stack.getSize() > 0) {
+            final int top = stack.getSize() - 1;
+            final Node node = stack.getNodes()[top];
+            final int state = stack.getStates()[top]++;
+
+            // Make sure there is room for another operand.
+            if(count == operands.length) {
+                operands = Arrays.copyOf(operands, count * 2);
+            }
+
+            if(node instanceof ConstantNode || node instanceof VariableNode) {
+                stack.pop();
+                operands[count++] = node.evaluateDouble(scope);
+            } else if(node instanceof SharedNode) {
+                final SharedNode shared = (SharedNode) node;
+                final boolean[] set = scope.getSharedDoublesSet();
+
+                if(state == 0 && !set[shared.getIndex()]) {
+                    stack.push(shared.getNode());
+                } else {
+                    // Store the subexpression the first time, reuse it every time after that.
+                    stack.pop();
+                    if(state == 0) {
+                        operands[count++] = scope.getSharedDoubles()[shared.getIndex()];
+                    } else {
+                        scope.getSharedDoubles()[shared.getIndex()] = operands[count - 1];
+                        set[shared.getIndex()] = true;
+                    }
+                }
+            } else if(node instanceof NegateNode) {
+                if(state == 0) {
+                    stack.push(((NegateNode) node).getOperand());
+                } else {
+                    stack.pop();
+                    operands[count - 1] = -operands[count - 1];
+                }
+            } else if(node instanceof SquareNode) {
+                if(state == 0) {
+                    stack.push(((SquareNode) node).getOperand());
+                } else {
+                    stack.pop();
+                    operands[count - 1] = operands[count - 1] * operands[count - 1];
+                }
+            } else if(node instanceof FunctionNode) {
+                if(state == 0) {
+                    stack.push(((FunctionNode) node).getArgument());
+                } else {
+                    stack.pop();
+                    operands[count - 1] = ((FunctionNode) node).applyDouble(operands[count - 1]);
+                }
+            } else if(node instanceof CallNode) {
+                final CallNode call = (CallNode) node;
+                final int arguments = call.getArguments().length;
+
+                if(state < arguments) {
+                    stack.push(call.getArguments()[state]);
+                } else {
+                    stack.pop();
+                    final double[] values = Arrays.copyOfRange(operands, count - arguments, count);
+                    count -= arguments;
+                    operands[count++] = call.applyDouble(values);
+                }
+            } else if(node instanceof AggregateNode) {
+                final AggregateNode aggregate = (AggregateNode) node;
+
+                if(state < 2) {
+                    stack.push(state == 0 ? aggregate.getFrom() : aggregate.getTo());
+                } else {
+                    stack.pop();
+                    count--;
+                    operands[count - 1] = aggregate.applyDouble(operands[count - 1], operands[count], scope);
+                }
+            } else if(node instanceof BinaryNode) {
+                final BinaryNode binary = (BinaryNode) node;
+
+                if(state < 2) {
+                    stack.push(state == 0 ? binary.getLeft() : binary.getRight());
+                } else {
+                    stack.pop();
+                    count--;
+                    operands[count - 1] = binary.getOperator().applyDouble(operands[count - 1], operands[count]);
+                }
+            } else {
+                throw new IllegalStateException("Unknown node " + node.getClass().getSimpleName() + ".");
+            }
+        }
+
+        return operands[0];
+    }
+
+    /**
+     * void before(Meter, Node, BigDecimal, BigDecimal, Scope)
+     *
+     * @param meter Meter of a budgeted evaluation, or null
+     * @param node Node that is about to be computed
+     * @param x First operand
+     * @param y Second operand, or null
+     * @param scope Evaluation scope
+     */
+    private static void before(final Meter meter, final Node node, final BigDecimal x, final BigDecimal y, final Scope scope) {
+        if(meter != null) {
+            meter.before(node, x, y, scope.getContext());
+        }
+    }
+
+    /**
+     * void done(Node, Meter, BigDecimal)
+     *
+     * Reports a node that was just popped off the stack and computed.
+     *
+     * @param node Node that was computed
+     * @param meter Meter of a budgeted evaluation, or null
+     * @param result Result of the node
+     */
+    private void done(final Node node, final Meter meter, final BigDecimal result) {
+        if(meter != null) {
+            meter.after(result);
+        }
+
+        if(this.getProfiler() != null) {
+            this.getProfiler().record(node, System.nanoTime() - this.getStarts()[this.getSize()], result);
+        }
+    }
+
+    /**
+     * void push(Node)
+     *
+     * @param node Node to visit next
+     */
+    private void push(final Node node) {
+        // Grow the stack if it is full.
+        if(this.getSize() == this.getNodes().length) {
+            this.nodes = Arrays.copyOf(this.getNodes(), this.getSize() * 2);
+            this.states = Arrays.copyOf(this.getStates(), this.getSize() * 2);
+            this.starts = this.getStarts() == null ? null : Arrays.copyOf(this.getStarts(), this.getSize() * 2);
+        }
+
+        // Forked operations are evaluated on this thread, the stack has to see every operation to meter it.
+        this.getNodes()[this.getSize()] = node instanceof ForkNode ? ((ForkNode) node).getNode() : node;
+        this.getStates()[this.getSize()] = 0;
+        if(this.getStarts() != null) {
+            this.getStarts()[this.getSize()] = System.nanoTime();
+        }
+        this.size++;
+    }
+
+    /**
+     * void pop()
+     *
+     * Removes the node on top of the stack.
+     */
+    private void pop() {
+        this.getNodes()[--this.size] = null;
+    }
+}
@@ -0,0 +1,69 @@
+package io.matthewp.cs30project.math;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+
+/**
+ * VariableNode
+ *
+ * Expression tree node that looks up a named variable at evaluation time.
+ */
+final class VariableNode extends Node {
+    @Getter private final String name;
+    @Getter private final int slot;
+
+    /**
+     * VariableNode(String, int)
+     *
+     * Creates a new {@link VariableNode} object.
+     *
+     * @param name Variable name
+     * @param slot Index of the variable in the declared variables
+     */
+    VariableNode(@NonNull final String name, final int slot) {
+        super(Precision.FAITHFUL, Double.POSITIVE_INFINITY);
+
+        this.name = name;
+        this.slot = slot;
+    }
+
+    /**
+     * BigDecimal evaluate(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Value bound to the variable
+     */
+    @Override
+    BigDecimal evaluate(final Scope scope) {
+        return scope.value(this.getSlot());
+    }
+
+    /**
+     * double evaluateDouble(Scope)
+     *
+     * @param scope Evaluation scope
+     * @return Value bound to the variable
+     */
+    @Override
+    double evaluateDouble(final Scope scope) {
+        return scope.doubleValue(this.getSlot());
+    }
+
+    /**
+     * void evaluateColumn(ColumnScope, double[])
+     *
+     * @param scope Column scope
+     * @param target Column the results are written to
+     */
+    @Override
+    void evaluateColumn(final ColumnScope scope, final double[] target) {
+        scope.column(this.getSlot(), target);
+    }
+
+    @Override
+    public String toString() {
+        return this.getName();
+    }
+}
@@ -1,10 +1,12 @@
 package io.matthewp.cs30project.providers;
 
+import io.matthewp.cs30project.math.Budget;
+import io.matthewp.cs30project.math.EvaluationService;
 import io.matthewp.cs30project.math.Expression;
+import io.matthewp.cs30project.math.Script;
 import lombok.AccessLevel;
 import lombok.Getter;
 
-import java.math.BigDecimal;
 import java.util.Scanner;
 
 /**
@@ -13,6 +15,9 @@ import java.util.Scanner;
  * InputProvider for taking user input from System.in (Console).
  */
 public final class ConsoleProvider extends InputProvider {
+    // EXPLAIN is the prefix of an input that should be profiled instead of only evaluated.
+    private static final String EXPLAIN = "explain ";
+
     @Getter(AccessLevel.PRIVATE) private final Scanner keyboard;
 
     /**
@@ -37,18 +42,20 @@ public final class ConsoleProvider extends InputProvider {
         System.out.println("Created By: Matthew Penner <me@matthewp.io>");
         System.out.println();
         System.out.println("Enter a mathematical expression and we will print the result.");
-        System.out.println("Be careful, if you put too big of a number you might crash the parser.. :)");
+        System.out.println("Expressions that would take too long or produce too many digits are rejected.");
         System.out.println();
         System.out.println("Examples:");
         System.out.println("  - User inputs '2+2', parser outputs '4'");
         System.out.println("  - User inputs '5*5', parser outputs '25'");
         System.out.println("  - User inputs '8x8', parser outputs '64'");
+        System.out.println("  - User inputs 'a = 2^10; b = a - 24; a / b', parser outputs '1.024'");
         System.out.println();
+        System.out.println("Type 'explain' before an expression to see where its time goes, Ex: 'explain fib(1000)*2'.");
         System.out.println("To exit type 'quit', 'exit', or use 'Ctrl^C'.");
         System.out.println("--------------------------------------------------------------------------");
 
         String input;
-        while(true) {
+        while(this.getKeyboard().hasNextLine()) {
             input = this.getKeyboard().nextLine().trim();
 
             // Check if the input should exit the application.
@@ -57,20 +64,22 @@ public final class ConsoleProvider extends InputProvider {
                 break;
             }
 
-            // Check if the input is a mathematical expression
-            if(Expression.isExpression(input)) {
-                try {
-                    // Create a new Expression object using the input string.
-                    final Expression expression = new Expression(input);
-
-                    // Get the expression's result.
-                    final BigDecimal result = expression.result();
+            // Check if the input asks for a profile of an expression.
+            if(input.regionMatches(true, 0, EXPLAIN, 0, EXPLAIN.length())) {
+                final String expression = input.substring(EXPLAIN.length()).trim();
 
-                    // Print the result.
-                    System.out.println(result);
-                } catch(final Exception ex) {
-                    ex.printStackTrace();
+                if(Expression.isExpression(expression)) {
+                    // Print the annotated tree once it's done, the evaluation is limited by the default budget.
+                    this.print(EvaluationService.SHARED.profile(expression, Budget.DEFAULT));
                 }
+                continue;
+            }
+
+            // Check if the input is a mathematical expression or a script
+            if(Expression.isExpression(input) || Script.isScript(input)) {
+                // Evaluate the expression within the default budget without blocking the input loop,
+                // repeated inputs are served from the cache.
+                this.print(EvaluationService.SHARED.submit(input));
             }
         }
     }
@@ -83,6 +92,9 @@ public final class ConsoleProvider extends InputProvider {
      */
     @Override
     public void clean() {
+        // Print everything that was submitted before the input ended.
+        this.drain();
+
         // Close the input scanner.
         this.getKeyboard().close();
     }
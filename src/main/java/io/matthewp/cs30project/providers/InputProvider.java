@@ -1,5 +1,17 @@
 package io.matthewp.cs30project.providers;
 
+import io.matthewp.cs30project.math.BudgetExceededException;
+import io.matthewp.cs30project.math.DecimalWriter;
+import io.matthewp.cs30project.math.EvaluationService;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 /**
  * InputProvider
  *
@@ -7,6 +19,8 @@ package io.matthewp.cs30project.providers;
  * this allows us to have multiple options for getting user input.
  */
 public abstract class InputProvider {
+    // printed completes once every result handed to print(CompletableFuture) so far has been printed.
+    @Getter(AccessLevel.PRIVATE) private CompletableFuture<Void> printed = CompletableFuture.completedFuture(null);
 
     /**
      * void start()
@@ -22,4 +36,74 @@ public abstract class InputProvider {
      * before the application exits.
      */
     public abstract void clean();
+
+    /**
+     * void drain()
+     *
+     * Closes the shared {@link EvaluationService} and waits until every result that was already submitted has
+     * been printed. Providers call this before they clean up, otherwise results still being evaluated are lost
+     * when the application exits.
+     */
+    protected final void drain() {
+        EvaluationService.SHARED.close();
+
+        final CompletableFuture<Void> printed;
+        synchronized(this) {
+            printed = this.getPrinted();
+        }
+
+        // Printing never fails, errors of the evaluations themselves are printed instead.
+        printed.join();
+    }
+
+    /**
+     * void print(CompletableFuture)
+     *
+     * Prints the outcome of an evaluation or a profile once it is done, results are printed in the order they
+     * were handed to this method even if a later input finishes first.
+     *
+     * @param result Future result of an evaluation or a profile
+     */
+    protected final synchronized void print(@NonNull final CompletableFuture<?> result) {
+        // Wait for the previous result to be printed, then for this one to complete.
+        this.printed = this.getPrinted().thenCompose(ignored -> result.handle((value, error) -> {
+            InputProvider.print(value, error);
+            return null;
+        }));
+    }
+
+    /**
+     * void print(Object, Throwable)
+     *
+     * Prints the outcome of an evaluation or a profile.
+     *
+     * @param result Expression result or profile, or null if the evaluation failed
+     * @param error Error of the evaluation, or null if it succeeded
+     */
+    private static void print(final Object result, final Throwable error) {
+        // Work that ran asynchronously wraps its error.
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        if(cause == null && !(result instanceof BigDecimal)) {
+            // Profiles are small enough to be printed at once.
+            System.out.println(result);
+        } else if(cause == null) {
+            // Print the result in chunks so a huge result is never turned into a single string, other providers
+            // printing at the same time wait until it's done.
+            synchronized(System.out) {
+                try {
+                    DecimalWriter.write((BigDecimal) result, System.out);
+                } catch(final IOException ex) {
+                    ex.printStackTrace();
+                }
+
+                System.out.println();
+            }
+        } else if(cause instanceof BudgetExceededException) {
+            // Tell the user their expression is too expensive.
+            System.out.println(cause.getMessage());
+        } else {
+            cause.printStackTrace();
+        }
+    }
 }
@@ -71,7 +71,7 @@ public final class RedisProvider extends InputProvider {
         new Thread(() -> this.getPool().getResource().subscribe(this.getPubSub(), "cs30")).start();
 
         String input;
-        while(true) {
+        while(this.getKeyboard().hasNextLine()) {
             input = this.getKeyboard().nextLine().trim();
 
             // Check if the input should exit the application.
@@ -93,6 +93,9 @@ public final class RedisProvider extends InputProvider {
      */
     @Override
     public void clean() {
+        // Print everything the subscriber submitted before the input ended.
+        this.drain();
+
         // Check if the Jedis Pool is open.
         if(!this.getPool().isClosed()) {
             // Close the Jedis Pool
@@ -1,12 +1,13 @@
 package io.matthewp.cs30project.providers;
 
+import io.matthewp.cs30project.math.Budget;
+import io.matthewp.cs30project.math.EvaluationService;
 import io.matthewp.cs30project.math.Expression;
+import io.matthewp.cs30project.math.Script;
 import lombok.Getter;
 import lombok.NonNull;
 import redis.clients.jedis.JedisPubSub;
 
-import java.math.BigDecimal;
-
 /**
  * RedisProviderSubscriber
  *
@@ -36,6 +37,22 @@ public final class RedisProviderSubscriber extends JedisPubSub {
      */
     @Override
     public void onMessage(final String chan, final String message) {
+        // Messages that start with "explain:" ask for a profile of an expression.
+        if(message.startsWith("explain:")) {
+            final String input = message.substring("explain:".length());
+
+            if(Expression.isExpression(input)) {
+                // Print the annotated tree once it's done without blocking the subscriber thread, the evaluation
+                // is limited by the default budget.
+                this.getProvider().print(EvaluationService.SHARED.profile(input, Budget.DEFAULT));
+                return;
+            }
+
+            // Tell the user they put in an invalid expression.
+            System.out.println("Invalid mathematical expression");
+            return;
+        }
+
         // Only handle messages that start with "request:"
         if(!message.startsWith("request:")) {
             return;
@@ -44,16 +61,11 @@ public final class RedisProviderSubscriber extends JedisPubSub {
         // Remove the "request:" from the beginning of the message.
         final String input = message.replaceFirst("request:", "");
 
-        // Check if the input is a mathematical expression
-        if(Expression.isExpression(input)) {
-            // Create a new Expression object using the input string.
-            final Expression expression = new Expression(input);
-
-            // Get the expression's result.
-            final BigDecimal result = expression.result();
-
-            // Print the result.
-            System.out.println(result);
+        // Check if the input is a mathematical expression or a script
+        if(Expression.isExpression(input) || Script.isScript(input)) {
+            // Evaluate the expression within the default budget without blocking the subscriber thread,
+            // repeated inputs are served from the cache.
+            this.getProvider().print(EvaluationService.SHARED.submit(input));
             return;
         }
 
@@ -0,0 +1,46 @@
+package io.matthewp.cs30project.math;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * AggregateNodeTest
+ *
+ * Budgeted aggregates have to meter every operation of their body, not just check the deadline between indexes.
+ */
+public class AggregateNodeTest {
+    // INPUT has a body whose single operation would run for minutes, Ex: "fib(2000000000)".
+    private static final String INPUT = "sum(i,2,3,fib(i*1000000000))";
+
+    @Test(timeout = 10000)
+    public void bodyIsMeteredWhenEvaluated() {
+        try {
+            CompiledExpression.compile(INPUT).evaluate(Budget.DEFAULT);
+            fail("The body of the aggregate should be over budget.");
+        } catch(final BudgetExceededException ex) {
+            assertEquals(BudgetExceededException.Limit.DIGITS, ex.getLimit());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void bodyIsMeteredWhenSubmitted() throws InterruptedException, TimeoutException {
+        try {
+            EvaluationService.SHARED.submit(INPUT).get(5, TimeUnit.SECONDS);
+            fail("The body of the aggregate should be over budget.");
+        } catch(final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BudgetExceededException);
+        }
+    }
+
+    @Test
+    public void meteredBodyKeepsItsResult() {
+        assertEquals(0, CompiledExpression.compile("sum(i,1,20000,i^2)").evaluate(Budget.DEFAULT).compareTo(CompiledExpression.compile("sum(i,1,20000,i^2)").evaluate()));
+    }
+}
@@ -0,0 +1,91 @@
+package io.matthewp.cs30project.math;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * BytecodeCompilerTest
+ *
+ * Hot expressions run generated bytecode, which has to give exactly the results of the tree interpreter.
+ */
+public class BytecodeCompilerTest {
+    // INPUTS cover every node the compiler emits, Ex: exact and double powers, squares, functions and shared subtrees.
+    private static final String[] INPUTS = {
+            "n*2+3",
+            "n-n/8*4.25",
+            "-n*0.5+n/8",
+            "(n+1)^2",
+            "n^3-n^2+1",
+            "n^0.5*2+n^16",
+            "sqrt(n)+cbrt(n)",
+            "floor(n/4)+ceil(n/5)",
+            "(n*3+1)*(n*3+1)-(n*3+1)"
+    };
+
+    // VALUES are the variable values the generated code is compared on.
+    private static final String[] VALUES = {"1", "2", "3.5", "-7", "12345678901234567890", "0.001"};
+
+    @Test
+    public void generatedCodeMatchesInterpreter() {
+        for(final String input : INPUTS) {
+            final CompiledExpression hot = BytecodeCompilerTest.hot(input);
+
+            for(final String value : VALUES) {
+                // A fresh expression hasn't crossed the threshold yet, it evaluates the tree.
+                final CompiledExpression tree = CompiledExpression.compile(input, "n");
+                assertEquals(input + " at " + value, BytecodeCompilerTest.outcome(tree, value), BytecodeCompilerTest.outcome(hot, value));
+            }
+        }
+    }
+
+    @Test
+    public void generatedCodeThrowsLikeInterpreter() {
+        // The divisor is 1 for every value the expression is warmed up with.
+        final CompiledExpression hot = BytecodeCompilerTest.hot("8/ceil(n/256)");
+
+        try {
+            hot.evaluate("n", BigDecimal.ZERO);
+            fail("Dividing by zero should throw.");
+        } catch(final ArithmeticException ex) {
+            // Expected, the interpreter throws the same exception.
+        }
+    }
+
+    /**
+     * CompiledExpression hot(String)
+     *
+     * @param input Expression with the variable "n"
+     * @return Expression that has been evaluated often enough to run generated bytecode
+     */
+    private static CompiledExpression hot(final String input) {
+        final CompiledExpression expression = CompiledExpression.compile(input, "n");
+
+        // Powers of two keep every division in the inputs exact.
+        for(int i = 0; i < CompiledExpression.COMPILE_THRESHOLD; i++) {
+            expression.evaluate("n", BigDecimal.valueOf(1 << (i % 8)));
+        }
+
+        assertTrue(input + " should be generated", expression.isGenerated());
+        return expression;
+    }
+
+    /**
+     * Object outcome(CompiledExpression, String)
+     *
+     * @param expression Expression with the variable "n"
+     * @param value Value of "n"
+     * @return Result of the evaluation, or the type of the exception it threw
+     */
+    private static Object outcome(final CompiledExpression expression, final String value) {
+        try {
+            return expression.evaluate("n", new BigDecimal(value));
+        } catch(final RuntimeException ex) {
+            return ex.getClass();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.matthewp.cs30project.math;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ExpressionCacheTest
+ *
+ * The cache has to stay within its maximum weight and keep its entries across a save and load.
+ */
+public class ExpressionCacheTest {
+
+    @Test
+    public void heavyResultIsNotCached() {
+        // Every segment of this cache holds 1,000 units, "10^5000" alone weighs over 5,000.
+        final ExpressionCache cache = new ExpressionCache(16 * 1000);
+        for(int i = 0; i < 100; i++) {
+            cache.result(i + "+1");
+        }
+
+        assertEquals(BigDecimal.TEN.pow(5000), cache.result("10^5000"));
+        assertEquals(BigDecimal.TEN.pow(5000), cache.result("10^5000"));
+
+        // The result was returned without flushing anything, its compiled tree is still cached.
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(101, cache.size());
+        assertTrue(cache.weight() <= cache.getMaxWeight());
+    }
+
+    @Test
+    public void savedEntriesAreLoaded() throws IOException {
+        final Path file = Files.createTempFile("expressions", ".cache");
+
+        try {
+            final ExpressionCache saved = ExpressionCacheTest.cache("2+2", "1/8", "2.50*2", "fib(100)");
+            saved.compile("3*7");
+            assertEquals(5, saved.save(file));
+            assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+
+            final ExpressionCache loaded = new ExpressionCache(1 << 20);
+            assertEquals(5, loaded.load(file));
+            assertEquals(5, loaded.size());
+
+            // Results come back with their scale and are served without evaluating them again.
+            assertEquals(new BigDecimal("4"), loaded.result("2+2"));
+            assertEquals(new BigDecimal("0.125"), loaded.result("1/8"));
+            assertEquals(new BigDecimal("5.00"), loaded.result("2.50*2"));
+            assertEquals(new BigDecimal("354224848179261915075"), loaded.result("fib(100)"));
+            assertEquals(new BigDecimal("21"), loaded.result("3*7"));
+            assertEquals(5, loaded.getHitCount());
+            assertEquals(0, loaded.getMissCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void damagedFileIsIgnored() throws IOException {
+        final Path file = Files.createTempFile("expressions", ".cache");
+
+        try {
+            ExpressionCacheTest.cache("2+2", "1/8", "fib(100)").save(file);
+            final byte[] bytes = Files.readAllBytes(file);
+
+            // A single flipped bit in an entry fails the checksum.
+            final byte[] flipped = bytes.clone();
+            flipped[flipped.length - 3] ^= 1;
+            Files.write(file, flipped);
+            assertEquals(0, ExpressionCacheTest.load(file));
+
+            // So does a file that was cut short.
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+            assertEquals(0, ExpressionCacheTest.load(file));
+
+            // A file that isn't a cache at all is ignored as well.
+            Files.write(file, "2+2=4".getBytes(StandardCharsets.UTF_8));
+            assertEquals(0, ExpressionCacheTest.load(file));
+
+            // A missing file is a cold start.
+            Files.delete(file);
+            assertEquals(0, ExpressionCacheTest.load(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * int load(Path)
+     *
+     * @param file File to load
+     * @return Number of entries an empty cache loaded from the file, the cache has to stay empty if it's 0
+     * @throws IOException if the file can't be read
+     */
+    private static int load(final Path file) throws IOException {
+        final ExpressionCache cache = new ExpressionCache(1 << 20);
+        final int loaded = cache.load(file);
+
+        assertEquals(loaded, cache.size());
+        return loaded;
+    }
+
+    /**
+     * ExpressionCache cache(String...)
+     *
+     * @param inputs Inputs to evaluate
+     * @return Cache that holds the results of the inputs
+     */
+    private static ExpressionCache cache(final String... inputs) {
+        final ExpressionCache cache = new ExpressionCache(1 << 20);
+        for(final String input : inputs) {
+            cache.result(input);
+        }
+
+        return cache;
+    }
+}
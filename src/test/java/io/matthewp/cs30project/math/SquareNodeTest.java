@@ -0,0 +1,63 @@
+package io.matthewp.cs30project.math;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SquareNodeTest
+ *
+ * The optimizer turns "x^2" into a {@link SquareNode}, exact squares have to stop at the same digit ceiling as powers.
+ */
+public class SquareNodeTest {
+
+    @Test(timeout = 20000)
+    public void chainedSquaresAreRejected() {
+        // Every square doubles the digits, without the ceiling the last one would have about 64 million.
+        assertRejected(() -> new Expression("((((((10^999999)^2)^2)^2)^2)^2)^2").result());
+    }
+
+    @Test(timeout = 20000)
+    public void squareIsRejectedLikePower() {
+        assertRejected(() -> new Expression("(10^999999)^2").result());
+        assertRejected(() -> new Expression("((10^999999)^3)^2").result());
+    }
+
+    @Test(timeout = 20000)
+    public void generatedSquareIsRejected() {
+        final CompiledExpression expression = CompiledExpression.compile("n^2+n^3", "n");
+
+        // Run the expression until it is handed to the bytecode compiler.
+        for(int i = 0; i < 5000 && !expression.isGenerated(); i++) {
+            expression.evaluate("n", BigDecimal.valueOf(i));
+        }
+
+        assertTrue(expression.isGenerated());
+        assertEquals(new BigDecimal("21.875"), expression.evaluate("n", new BigDecimal("2.5")));
+        assertRejected(() -> expression.evaluate("n", BigDecimal.TEN.pow(600000)));
+    }
+
+    @Test
+    public void smallSquaresAreExact() {
+        assertEquals(new BigDecimal("59049"), new Expression("(3^5)^2").result());
+        assertEquals(new BigDecimal("6.25"), new Expression("(2+0.5)^2").result());
+    }
+
+    /**
+     * void assertRejected(Runnable)
+     *
+     * @param evaluation Evaluation that should be over the digit ceiling
+     */
+    private static void assertRejected(final Runnable evaluation) {
+        try {
+            evaluation.run();
+            fail("The result should have more digits than the ceiling allows.");
+        } catch(final BudgetExceededException ex) {
+            assertEquals(BudgetExceededException.Limit.DIGITS, ex.getLimit());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.matthewp.cs30project.math;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * StackEvaluatorTest
+ *
+ * Deep inputs are parsed and evaluated without recursion, so they work on a small thread stack.
+ */
+public class StackEvaluatorTest {
+    // DEPTH is far beyond what a recursive parser or evaluator survives on STACK_SIZE.
+    private static final int DEPTH = 200000;
+    // STACK_SIZE is the stack of the thread the inputs are evaluated on.
+    private static final long STACK_SIZE = 256 * 1024;
+
+    @Test(timeout = 60000)
+    public void nestedBracketsAreEvaluated() throws InterruptedException {
+        assertEquals(new BigDecimal(6), StackEvaluatorTest.result(StackEvaluatorTest.repeat("(", DEPTH) + "2" + StackEvaluatorTest.repeat(")", DEPTH) + "*3"));
+    }
+
+    @Test(timeout = 60000)
+    public void chainedSignsAreEvaluated() throws InterruptedException {
+        assertEquals(new BigDecimal(-5), StackEvaluatorTest.result(StackEvaluatorTest.repeat("-", DEPTH + 1) + "5"));
+    }
+
+    @Test(timeout = 60000)
+    public void longSumIsEvaluated() throws InterruptedException {
+        assertEquals(new BigDecimal(DEPTH + 1), StackEvaluatorTest.result(StackEvaluatorTest.repeat("1+", DEPTH) + "1"));
+    }
+
+    @Test(timeout = 60000)
+    public void nestedFunctionsAreEvaluated() throws InterruptedException {
+        // Functions run on doubles, compare the value and not its scale.
+        assertEquals(0, new BigDecimal(3).compareTo(StackEvaluatorTest.result(StackEvaluatorTest.repeat("floor(", DEPTH) + "3.5" + StackEvaluatorTest.repeat(")", DEPTH))));
+    }
+
+    @Test(timeout = 60000)
+    public void deepResultIsExact() throws InterruptedException {
+        // "2*(2*(1+1)+1)..." nested n times is 3*2^n-2, twice the recursion limit makes the tree deep.
+        final int depth = StackEvaluator.MAX_RECURSION * 2;
+        final String input = StackEvaluatorTest.repeat("2*(", depth) + "1" + StackEvaluatorTest.repeat("+1)", depth);
+
+        assertTrue(new Expression(input).compile().isDeep());
+        assertEquals(new BigDecimal(3).multiply(BigDecimal.valueOf(2).pow(depth)).subtract(new BigDecimal(2)), StackEvaluatorTest.result(input));
+    }
+
+    /**
+     * BigDecimal result(String)
+     *
+     * Evaluates an input on a thread with a small stack.
+     *
+     * @param input Expression input
+     * @return Expression result
+     * @throws InterruptedException if the test is interrupted
+     */
+    private static BigDecimal result(final String input) throws InterruptedException {
+        final AtomicReference<Object> outcome = new AtomicReference<>();
+        final Thread thread = new Thread(null, () -> {
+            try {
+                outcome.set(new Expression(input).result());
+            } catch(final RuntimeException | StackOverflowError ex) {
+                outcome.set(ex);
+            }
+        }, "StackEvaluatorTest", STACK_SIZE);
+
+        thread.start();
+        thread.join();
+
+        assertTrue("Evaluation failed with " + outcome.get(), outcome.get() instanceof BigDecimal);
+        return (BigDecimal) outcome.get();
+    }
+
+    /**
+     * String repeat(String, int)
+     *
+     * @param part Part to repeat
+     * @param count Number of repetitions
+     * @return Part repeated count times
+     */
+    private static String repeat(final String part, final int count) {
+        final StringBuilder builder = new StringBuilder(part.length() * count);
+        for(int i = 0; i < count; i++) {
+            builder.append(part);
+        }
+
+        return builder.toString();
+    }
+}